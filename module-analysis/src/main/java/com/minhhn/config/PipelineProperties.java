@@ -0,0 +1,29 @@
+package com.minhhn.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pipeline engine settings and the mapping of pipeline versions to pipeline definitions.
+ * <pre>
+ * analysis.pipeline.max-concurrent-steps: 16
+ * analysis.pipeline.versions.v2: extended
+ * </pre>
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "analysis.pipeline")
+public class PipelineProperties {
+
+    // Steps running at the same time across all analyses
+    private int maxConcurrentSteps = 16;
+    
+    // Definition used for versions that are not mapped explicitly
+    private String defaultDefinition = "standard";
+    
+    private Map<String, String> versions = new HashMap<>();
+}
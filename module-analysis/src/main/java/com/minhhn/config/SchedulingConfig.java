@@ -0,0 +1,12 @@
+package com.minhhn.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables the scheduled polling and heartbeats of the analysis job worker.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,37 @@
+package com.minhhn.config;
+
+import com.minhhn.enums.IntermediateRetention;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Local scratch workspaces of running analyses.
+ * <pre>
+ * analysis.workspace.scratch-directory: /scratch/genomics
+ * analysis.workspace.retention: KEEP_ON_FAILURE
+ * analysis.workspace.retention-period: 3d
+ * analysis.workspace.min-free-scratch: 100GB
+ * analysis.workspace.min-free-output: 50GB
+ * </pre>
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "analysis.workspace")
+public class WorkspaceProperties {
+    
+    // Fast local disk holding the intermediates and GATK temp files of running analyses
+    private String scratchDirectory = "/scratch/genomics";
+    
+    private IntermediateRetention retention = IntermediateRetention.KEEP_ON_FAILURE;
+    
+    // Kept workspaces of finished analyses are removed after this long without changes
+    private Duration retentionPeriod = Duration.ofDays(3);
+    
+    // No new analyses are accepted or claimed below these amounts of free space
+    private DataSize minFreeScratch = DataSize.ofGigabytes(100);
+    private DataSize minFreeOutput = DataSize.ofGigabytes(50);
+}
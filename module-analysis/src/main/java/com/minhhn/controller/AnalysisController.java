@@ -1,14 +1,21 @@
 package com.minhhn.controller;
 
+import com.minhhn.dto.AnalysisBatchDTO;
 import com.minhhn.dto.AnalysisDTO;
+import com.minhhn.dto.AnalysisProgressDTO;
+import com.minhhn.dto.CreateAnalysisBatchRequest;
 import com.minhhn.dto.CreateAnalysisRequest;
+import com.minhhn.dto.JobQueueStatusDTO;
 import com.minhhn.service.AnalysisService;
+import com.minhhn.service.VariantRegionService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 
@@ -22,9 +29,11 @@ import java.util.List;
 public class AnalysisController {
 
     private final AnalysisService analysisService;
+    private final VariantRegionService variantRegionService;
     
     /**
-     * Creates a new analysis.
+     * Creates a new analysis. The pipeline runs in the background, so the
+     * analysis is returned as accepted while still PENDING.
      * 
      * @param request The analysis creation request
      * @return The created analysis
@@ -33,7 +42,71 @@ public class AnalysisController {
     public ResponseEntity<AnalysisDTO> createAnalysis(@Valid @RequestBody CreateAnalysisRequest request) {
         log.info("REST request to create a new analysis for sample ID: {}", request.getSampleId());
         AnalysisDTO result = analysisService.createAnalysis(request);
-        return ResponseEntity.status(HttpStatus.CREATED).body(result);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(result);
+    }
+    
+    /**
+     * Creates the analyses of a whole sequencing run as one batch. Either all analyses
+     * are queued or, if a sample is missing or the queue is full, none are.
+     * 
+     * @param request The batch creation request
+     * @return The created batch
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<AnalysisBatchDTO> createAnalysisBatch(@Valid @RequestBody CreateAnalysisBatchRequest request) {
+        log.info("REST request to create a batch of {} analyses", request.getAnalyses().size());
+        AnalysisBatchDTO result = analysisService.createAnalysisBatch(request);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(result);
+    }
+    
+    /**
+     * Gets the live progress of an analysis.
+     * 
+     * @param id The analysis ID
+     * @return The progress of the running step
+     */
+    @GetMapping("/{id}/progress")
+    public ResponseEntity<AnalysisProgressDTO> getProgress(@PathVariable Long id) {
+        log.info("REST request to get progress of analysis with ID: {}", id);
+        return ResponseEntity.ok(analysisService.getProgress(id));
+    }
+    
+    /**
+     * Streams the called variants of a completed analysis that overlap a region, as VCF
+     * text with its header. Only the blocks of the VCF holding the region are read.
+     * 
+     * @param id The analysis ID
+     * @param region The region, e.g. {@code chr7:55019017-55211628}
+     * @return The VCF header and the overlapping records
+     */
+    @GetMapping("/{id}/variants")
+    public ResponseEntity<StreamingResponseBody> getVariants(@PathVariable Long id, @RequestParam String region) {
+        log.info("REST request to get variants of analysis with ID: {} in region {}", id, region);
+        StreamingResponseBody body = variantRegionService.queryRegion(id, region);
+        return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(body);
+    }
+    
+    /**
+     * Cancels an analysis, stopping its running GATK commands.
+     * 
+     * @param id The analysis ID
+     * @return The cancelled analysis
+     */
+    @PostMapping("/{id}/cancel")
+    public ResponseEntity<AnalysisDTO> cancelAnalysis(@PathVariable Long id) {
+        log.info("REST request to cancel analysis with ID: {}", id);
+        return ResponseEntity.ok(analysisService.cancelAnalysis(id));
+    }
+    
+    /**
+     * Gets the state of the analysis job queue.
+     * 
+     * @return Running, queued and rejected job counts
+     */
+    @GetMapping("/queue")
+    public ResponseEntity<JobQueueStatusDTO> getQueueStatus() {
+        log.info("REST request to get the analysis queue status");
+        return ResponseEntity.ok(analysisService.getQueueStatus());
     }
     
     /**
@@ -0,0 +1,21 @@
+package com.minhhn.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Data Transfer Object for a batch of analyses submitted together.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AnalysisBatchDTO {
+    private String batchId;
+    private int count;
+    private List<AnalysisDTO> analyses;
+}
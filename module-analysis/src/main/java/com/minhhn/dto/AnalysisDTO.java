@@ -1,6 +1,7 @@
 package com.minhhn.dto;
 
 import com.minhhn.enums.AnalysisStatus;
+import com.minhhn.enums.JobPriority;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -25,6 +26,9 @@ public class AnalysisDTO {
     private String bamPath;
     private String logPath;
     private String resultSummary;
+    private String batchId;
+    private JobPriority priority;
+    private String submitter;
     
     // Sample information
     private Long sampleId;
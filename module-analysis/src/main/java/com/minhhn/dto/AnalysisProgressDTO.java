@@ -0,0 +1,37 @@
+package com.minhhn.dto;
+
+import com.minhhn.enums.AnalysisStatus;
+import com.minhhn.model.CommandProgress;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Data Transfer Object for the live progress of an analysis.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AnalysisProgressDTO {
+    private Long analysisId;
+    private AnalysisStatus status;
+    
+    // Worker running the analysis, null if it is not running
+    private String workerId;
+    
+    private Double percentComplete;
+    private String currentLocus;
+    private Double recordsPerMinute;
+    private LocalDateTime updatedAt;
+    
+    // Seconds since the last progress report, to spot stalled steps
+    private Long secondsSinceUpdate;
+    
+    // Per-command details; only available on the node running the analysis
+    private List<CommandProgress> commands;
+}
@@ -0,0 +1,25 @@
+package com.minhhn.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Request DTO for creating the analyses of a whole sequencing run at once.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CreateAnalysisBatchRequest {
+    
+    @NotEmpty(message = "At least one analysis is required")
+    @Size(max = 500, message = "At most 500 analyses can be submitted at once")
+    private List<@Valid CreateAnalysisRequest> analyses;
+}
@@ -1,5 +1,6 @@
 package com.minhhn.dto;
 
+import com.minhhn.enums.JobPriority;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import lombok.AllArgsConstructor;
@@ -29,4 +30,10 @@ public class CreateAnalysisRequest {
     
     // Optional interval list for targeted analysis
     private String intervalListPath;
+    
+    // Scheduling class, ROUTINE if not given
+    private JobPriority priority;
+    
+    // Submitter or project whose fair share of the cluster the analysis counts against
+    private String submitter;
 }
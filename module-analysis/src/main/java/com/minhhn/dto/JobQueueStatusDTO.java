@@ -0,0 +1,30 @@
+package com.minhhn.dto;
+
+import com.minhhn.model.QueueWaitStats;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Data Transfer Object for the state of the analysis job executor of this node
+ * and of the job queue shared by all nodes.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobQueueStatusDTO {
+    private String workerId;
+    private int running;
+    private int queued;
+    private int capacity;
+    private long pendingJobs;
+    private long rejected;
+    
+    // Time spent waiting per priority class, in the job queue and for GATK capacity on this node
+    private List<QueueWaitStats> jobWaits;
+    private List<QueueWaitStats> commandWaits;
+}
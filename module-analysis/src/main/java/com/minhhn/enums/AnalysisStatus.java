@@ -4,5 +4,6 @@ public enum AnalysisStatus {
     PENDING,
     RUNNING,
     FAILED,
-    DONE
+    DONE,
+    CANCELLED
 }
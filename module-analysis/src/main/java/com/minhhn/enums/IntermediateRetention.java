@@ -0,0 +1,13 @@
+package com.minhhn.enums;
+
+/**
+ * What happens to the scratch workspace of an analysis once its pipeline has finished.
+ */
+public enum IntermediateRetention {
+    // Delete the workspace whatever the outcome
+    DELETE,
+    // Keep the workspace of failed analyses so they can resume from their last completed step
+    KEEP_ON_FAILURE,
+    // Keep every workspace until the sweeper removes it
+    KEEP
+}
@@ -0,0 +1,9 @@
+package com.minhhn.enums;
+
+public enum JobStatus {
+    QUEUED,
+    RUNNING,
+    DONE,
+    FAILED,
+    CANCELLED
+}
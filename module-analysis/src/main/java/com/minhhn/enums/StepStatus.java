@@ -0,0 +1,6 @@
+package com.minhhn.enums;
+
+public enum StepStatus {
+    COMPLETED,
+    FAILED
+}
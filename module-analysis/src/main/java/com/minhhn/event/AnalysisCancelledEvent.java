@@ -0,0 +1,10 @@
+package com.minhhn.event;
+
+/**
+ * Published when an analysis is cancelled, so that the node running it can stop its
+ * GATK commands without waiting for the next job heartbeat.
+ * 
+ * @param analysisId The ID of the cancelled analysis
+ */
+public record AnalysisCancelledEvent(Long analysisId) {
+}
@@ -2,6 +2,7 @@ package com.minhhn.exception;
 
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -35,6 +36,84 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorResponse);
     }
     
+    /**
+     * Handles InvalidAnalysisStateException.
+     */
+    @ExceptionHandler(InvalidAnalysisStateException.class)
+    public ResponseEntity<ErrorResponse> handleInvalidAnalysisStateException(
+            InvalidAnalysisStateException ex, HttpServletRequest request) {
+        
+        log.warn("Invalid analysis state: {}", ex.getMessage());
+        
+        ErrorResponse errorResponse = ErrorResponse.of(
+                HttpStatus.CONFLICT.value(),
+                HttpStatus.CONFLICT.getReasonPhrase(),
+                ex.getMessage(),
+                request.getRequestURI()
+        );
+        
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(errorResponse);
+    }
+    
+    /**
+     * Handles InvalidRegionException.
+     */
+    @ExceptionHandler(InvalidRegionException.class)
+    public ResponseEntity<ErrorResponse> handleInvalidRegionException(
+            InvalidRegionException ex, HttpServletRequest request) {
+        
+        log.warn("Invalid region: {}", ex.getMessage());
+        
+        ErrorResponse errorResponse = ErrorResponse.of(
+                HttpStatus.BAD_REQUEST.value(),
+                HttpStatus.BAD_REQUEST.getReasonPhrase(),
+                ex.getMessage(),
+                request.getRequestURI()
+        );
+        
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(errorResponse);
+    }
+    
+    /**
+     * Handles JobQueueFullException.
+     */
+    @ExceptionHandler(JobQueueFullException.class)
+    public ResponseEntity<ErrorResponse> handleJobQueueFullException(
+            JobQueueFullException ex, HttpServletRequest request) {
+        
+        log.warn("Rejected request: {}", ex.getMessage());
+        
+        ErrorResponse errorResponse = ErrorResponse.of(
+                HttpStatus.SERVICE_UNAVAILABLE.value(),
+                HttpStatus.SERVICE_UNAVAILABLE.getReasonPhrase(),
+                ex.getMessage(),
+                request.getRequestURI()
+        );
+        
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "60")
+                .body(errorResponse);
+    }
+    
+    /**
+     * Handles InsufficientStorageException.
+     */
+    @ExceptionHandler(InsufficientStorageException.class)
+    public ResponseEntity<ErrorResponse> handleInsufficientStorageException(
+            InsufficientStorageException ex, HttpServletRequest request) {
+        
+        log.warn("Rejected request: {}", ex.getMessage());
+        
+        ErrorResponse errorResponse = ErrorResponse.of(
+                HttpStatus.INSUFFICIENT_STORAGE.value(),
+                HttpStatus.INSUFFICIENT_STORAGE.getReasonPhrase(),
+                ex.getMessage(),
+                request.getRequestURI()
+        );
+        
+        return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(errorResponse);
+    }
+    
     /**
      * Handles validation errors.
      */
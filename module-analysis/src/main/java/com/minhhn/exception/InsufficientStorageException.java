@@ -0,0 +1,15 @@
+package com.minhhn.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception thrown when the scratch or output volume has too little free space for new analyses.
+ */
+@ResponseStatus(HttpStatus.INSUFFICIENT_STORAGE)
+public class InsufficientStorageException extends RuntimeException {
+    
+    public InsufficientStorageException(String message) {
+        super(message);
+    }
+}
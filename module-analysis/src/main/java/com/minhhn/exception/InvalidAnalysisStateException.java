@@ -0,0 +1,15 @@
+package com.minhhn.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception thrown when an operation is not allowed in the current status of an analysis.
+ */
+@ResponseStatus(HttpStatus.CONFLICT)
+public class InvalidAnalysisStateException extends RuntimeException {
+    
+    public InvalidAnalysisStateException(String message) {
+        super(message);
+    }
+}
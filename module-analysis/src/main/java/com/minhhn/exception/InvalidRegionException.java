@@ -0,0 +1,15 @@
+package com.minhhn.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception thrown when a genomic region cannot be parsed.
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidRegionException extends RuntimeException {
+    
+    public InvalidRegionException(String message) {
+        super(message);
+    }
+}
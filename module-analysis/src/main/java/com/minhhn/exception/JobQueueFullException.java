@@ -0,0 +1,15 @@
+package com.minhhn.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception thrown when the analysis job queue cannot accept more work.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class JobQueueFullException extends RuntimeException {
+    
+    public JobQueueFullException(String message) {
+        super(message);
+    }
+}
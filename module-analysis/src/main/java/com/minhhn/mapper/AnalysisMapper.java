@@ -28,6 +28,7 @@ public interface AnalysisMapper {
     @Mapping(target = "logPath", ignore = true)
     @Mapping(target = "resultSummary", ignore = true)
     @Mapping(target = "sample", ignore = true)
+    @Mapping(target = "batchId", ignore = true)
     Analysis toEntity(CreateAnalysisRequest request);
     
     /**
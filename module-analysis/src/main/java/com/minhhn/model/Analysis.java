@@ -1,6 +1,7 @@
 package com.minhhn.model;
 
 import com.minhhn.enums.AnalysisStatus;
+import com.minhhn.enums.JobPriority;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -33,6 +34,20 @@ public class Analysis {
     private String vcfPath;
     private String bamPath;
     private String logPath;
+    
+    // Kept so that an interrupted analysis can be resumed with the same inputs
+    private String referenceGenomePath;
+    private String intervalListPath;
+    
+    // Set for analyses submitted together as one sequencing run
+    private String batchId;
+    
+    @Enumerated(EnumType.STRING)
+    private JobPriority priority;
+    
+    private String submitter;
+    
+    @Column(columnDefinition = "TEXT")
     private String resultSummary;
     
     @ManyToOne(fetch = FetchType.LAZY)
@@ -0,0 +1,68 @@
+package com.minhhn.model;
+
+import com.minhhn.enums.JobPriority;
+import com.minhhn.enums.JobStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * Durable queue entry for running an analysis. Workers claim QUEUED jobs, or RUNNING
+ * jobs whose lease has expired, and keep their lease alive with heartbeats while the
+ * analysis runs.
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "analysis_jobs", indexes = @Index(name = "idx_analysis_jobs_status", columnList = "status, created_at"))
+public class AnalysisJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "analysis_id", nullable = false, unique = true)
+    @ToString.Exclude
+    private Analysis analysis;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private JobStatus status;
+    
+    // Worker holding the lease while the job is RUNNING
+    private String workerId;
+    private LocalDateTime leaseExpiresAt;
+    private LocalDateTime heartbeatAt;
+    
+    private int attempts;
+    
+    // Jobs of one batch are queued together and claimed in submission order
+    private String batchId;
+    
+    // Copied from the analysis so that claims can be ordered without a join
+    @Enumerated(EnumType.STRING)
+    private JobPriority priority;
+    
+    private String submitter;
+    
+    // Last progress reported with the heartbeat, so that any node can answer progress requests
+    private Double progressPercent;
+    private String progressLocus;
+    private Double progressRecordsPerMinute;
+    private LocalDateTime progressUpdatedAt;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+}
@@ -0,0 +1,58 @@
+package com.minhhn.model;
+
+import com.minhhn.enums.StepStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Completion record of one pipeline step of an analysis, used to resume the analysis
+ * after a crash or restart without redoing finished steps.
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "analysis_steps",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"analysis_id", "step_name"}))
+public class AnalysisStep {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "analysis_id", nullable = false)
+    @ToString.Exclude
+    private Analysis analysis;
+    
+    @Column(name = "step_name", nullable = false)
+    private String stepName;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private StepStatus status;
+    
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private long durationMs;
+    
+    @Builder.Default
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "analysis_step_outputs", joinColumns = @JoinColumn(name = "step_id"))
+    private List<StepOutput> outputs = new ArrayList<>();
+    
+    // Every command run of the step across all runs of the analysis, including retries
+    @Builder.Default
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "analysis_step_attempts", joinColumns = @JoinColumn(name = "step_id"))
+    @OrderColumn(name = "attempt_order")
+    private List<StepAttempt> attempts = new ArrayList<>();
+}
@@ -0,0 +1,33 @@
+package com.minhhn.model;
+
+/**
+ * A claim of an analysis job by a worker. Every claim of a job counts as an attempt, so a
+ * job reclaimed after a missed heartbeat, even by the same worker, gets a new lease.
+ *
+ * @param jobId The ID of the job
+ * @param analysisId The ID of the analysis the job runs
+ * @param workerId The worker holding the lease
+ * @param attempt The attempt of the job this lease was granted for
+ */
+public record JobLease(Long jobId, Long analysisId, String workerId, int attempt) {
+
+    /**
+     * Gets the lease on a job just claimed by its worker.
+     *
+     * @param job The claimed job
+     * @return The lease
+     */
+    public static JobLease of(AnalysisJob job) {
+        return new JobLease(job.getId(), job.getAnalysis().getId(), job.getWorkerId(), job.getAttempts());
+    }
+
+    /**
+     * Gets the ID under which the GATK commands of this lease run, so that losing the lease
+     * stops them and leaves the commands of a later claim of the same analysis alone.
+     *
+     * @return The job ID and attempt
+     */
+    public String runId() {
+        return jobId + "#" + attempt;
+    }
+}
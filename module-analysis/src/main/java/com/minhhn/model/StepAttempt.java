@@ -0,0 +1,39 @@
+package com.minhhn.model;
+
+import com.minhhn.enums.FailureClass;
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * One run of a GATK command of a pipeline step, kept so that retried failures can be
+ * traced after the analysis has finished.
+ */
+@Data
+@Builder
+@Embeddable
+@NoArgsConstructor
+@AllArgsConstructor
+public class StepAttempt {
+    private String toolName;
+    private int attempt;
+    private LocalDateTime startedAt;
+    private long durationMs;
+    private int exitCode;
+    private boolean success;
+    
+    @Enumerated(EnumType.STRING)
+    private FailureClass failureClass;
+    
+    @Column(length = 500)
+    private String error;
+    
+    private Long heapMb;
+}
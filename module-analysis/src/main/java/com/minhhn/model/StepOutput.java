@@ -0,0 +1,22 @@
+package com.minhhn.model;
+
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A file written by a completed pipeline step, with the checksum it had at completion.
+ */
+@Data
+@Builder
+@Embeddable
+@NoArgsConstructor
+@AllArgsConstructor
+public class StepOutput {
+    private String artifact;
+    private String path;
+    private long sizeBytes;
+    private String checksum;
+}
@@ -0,0 +1,40 @@
+package com.minhhn.pipeline;
+
+/**
+ * Persistence of step completion, used by the engine to skip steps that already
+ * completed in an earlier run of the same pipeline.
+ */
+public interface PipelineCheckpoints {
+
+    /**
+     * No checkpointing: every step always runs.
+     */
+    PipelineCheckpoints NONE = new PipelineCheckpoints() {
+        @Override
+        public boolean isCompleted(PipelineStep step, PipelineContext context) {
+            return false;
+        }
+        
+        @Override
+        public void stepFinished(PipelineStep step, StepTiming timing, PipelineContext context) {
+        }
+    };
+    
+    /**
+     * Whether the step completed earlier and its outputs are still intact.
+     * 
+     * @param step The pipeline step
+     * @param context The running pipeline
+     * @return true if the step can be skipped
+     */
+    boolean isCompleted(PipelineStep step, PipelineContext context);
+    
+    /**
+     * Records the outcome of an executed step.
+     * 
+     * @param step The pipeline step
+     * @param timing The timing and outcome of the step
+     * @param context The running pipeline
+     */
+    void stepFinished(PipelineStep step, StepTiming timing, PipelineContext context);
+}
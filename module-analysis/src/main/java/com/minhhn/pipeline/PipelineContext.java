@@ -0,0 +1,47 @@
+package com.minhhn.pipeline;
+
+import com.minhhn.model.GatkRunContext;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * State shared by the steps of one pipeline run.
+ */
+@Getter
+@Builder
+public class PipelineContext {
+    
+    // Path of every artifact of the pipeline, including ones not produced yet
+    private final Map<String, String> artifactPaths;
+    
+    private final String referenceGenome;
+    private final String intervalList;
+    private final GatkRunContext runContext;
+    
+    /**
+     * Creates a copy of this context whose commands run with another run context.
+     * 
+     * @param runContext The run context for the commands
+     * @return The copy
+     */
+    public PipelineContext withRunContext(GatkRunContext runContext) {
+        return new PipelineContext(artifactPaths, referenceGenome, intervalList, runContext);
+    }
+    
+    /**
+     * Gets the path of an artifact.
+     * 
+     * @param artifact The artifact name
+     * @return The path of the artifact
+     * @throws IllegalArgumentException If the artifact has no path
+     */
+    public String pathOf(String artifact) {
+        String path = artifactPaths.get(artifact);
+        if (path == null) {
+            throw new IllegalArgumentException("No path for pipeline artifact " + artifact);
+        }
+        return path;
+    }
+}
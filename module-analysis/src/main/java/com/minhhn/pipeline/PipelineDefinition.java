@@ -0,0 +1,78 @@
+package com.minhhn.pipeline;
+
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A pipeline as a directed acyclic graph of steps connected by the artifacts they exchange.
+ */
+@Getter
+public class PipelineDefinition {
+
+    private final String name;
+    private final Set<String> initialArtifacts;
+    private final List<PipelineStep> steps;
+    
+    /**
+     * Creates a pipeline definition and checks that it forms a valid DAG.
+     * 
+     * @param name The pipeline name
+     * @param initialArtifacts Artifacts that exist before the pipeline starts
+     * @param steps The steps of the pipeline
+     * @throws IllegalArgumentException If an artifact is produced twice, an input is never
+     *         produced or the steps contain a cycle
+     */
+    public PipelineDefinition(String name, Set<String> initialArtifacts, List<PipelineStep> steps) {
+        this.name = name;
+        this.initialArtifacts = Set.copyOf(initialArtifacts);
+        this.steps = List.copyOf(steps);
+        validate();
+    }
+    
+    /**
+     * Gets the artifacts produced by the steps of the pipeline.
+     * 
+     * @return The outputs of all steps
+     */
+    public Set<String> getProducedArtifacts() {
+        Set<String> produced = new HashSet<>();
+        steps.forEach(step -> produced.addAll(step.getOutputs()));
+        return produced;
+    }
+    
+    private void validate() {
+        Map<String, String> producers = new HashMap<>();
+        for (PipelineStep step : steps) {
+            for (String output : step.getOutputs()) {
+                if (initialArtifacts.contains(output) || producers.put(output, step.getName()) != null) {
+                    throw new IllegalArgumentException(
+                            "Artifact " + output + " is produced more than once in pipeline " + name);
+                }
+            }
+        }
+        
+        // Resolve steps in waves; anything left over depends on a missing artifact or a cycle
+        Set<String> available = new HashSet<>(initialArtifacts);
+        Set<PipelineStep> remaining = new HashSet<>(steps);
+        boolean progress = true;
+        while (!remaining.isEmpty() && progress) {
+            progress = remaining.removeIf(step -> {
+                if (available.containsAll(step.getInputs())) {
+                    available.addAll(step.getOutputs());
+                    return true;
+                }
+                return false;
+            });
+        }
+        
+        if (!remaining.isEmpty()) {
+            throw new IllegalArgumentException("Pipeline " + name + " has unsatisfiable steps: "
+                    + remaining.stream().map(PipelineStep::getName).toList());
+        }
+    }
+}
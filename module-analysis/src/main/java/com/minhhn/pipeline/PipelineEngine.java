@@ -0,0 +1,203 @@
+package com.minhhn.pipeline;
+
+import com.minhhn.config.PipelineProperties;
+import com.minhhn.model.CommandAttempt;
+import com.minhhn.model.GatkCommandResult;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs pipeline definitions. Every step whose inputs are available is started right
+ * away on a bounded executor shared by all pipelines, so independent steps run in
+ * parallel. After a failure no further steps are started.
+ */
+@Component
+@Slf4j
+public class PipelineEngine {
+
+    private final ExecutorService stepExecutor;
+    
+    public PipelineEngine(PipelineProperties pipelineProperties) {
+        this.stepExecutor = Executors.newFixedThreadPool(pipelineProperties.getMaxConcurrentSteps(),
+                Thread.ofVirtual().name("pipeline-step-", 0).factory());
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        stepExecutor.shutdownNow();
+    }
+    
+    /**
+     * Runs a pipeline to completion or to its first failed step.
+     * 
+     * @param definition The pipeline to run
+     * @param context The state shared by the steps
+     * @return The result with the timing of every executed step
+     */
+    public PipelineResult run(PipelineDefinition definition, PipelineContext context) {
+        return run(definition, context, PipelineCheckpoints.NONE);
+    }
+    
+    /**
+     * Runs a pipeline, skipping steps that completed in an earlier run. A step is only
+     * skipped when none of its inputs were produced again in this run.
+     * 
+     * @param definition The pipeline to run
+     * @param context The state shared by the steps
+     * @param checkpoints Completion records of earlier runs
+     * @return The result with the timing of every executed or skipped step
+     */
+    public PipelineResult run(PipelineDefinition definition, PipelineContext context, PipelineCheckpoints checkpoints) {
+        log.info("Running pipeline {} for analysis {}", definition.getName(), context.getRunContext().getAnalysisId());
+        
+        CompletionService<StepOutcome> completion = new ExecutorCompletionService<>(stepExecutor);
+        Set<String> available = new HashSet<>(definition.getInitialArtifacts());
+        Set<String> regenerated = new HashSet<>();
+        Set<PipelineStep> pending = new LinkedHashSet<>(definition.getSteps());
+        Map<Future<StepOutcome>, PipelineStep> running = new HashMap<>();
+        List<StepTiming> timings = new ArrayList<>();
+        StepOutcome failure = null;
+        
+        try {
+            while (true) {
+                // Start every step that became ready
+                if (failure == null) {
+                    for (PipelineStep step : List.copyOf(pending)) {
+                        if (available.containsAll(step.getInputs())) {
+                            pending.remove(step);
+                            boolean resumable = Collections.disjoint(step.getInputs(), regenerated);
+                            running.put(completion.submit(() -> runStep(step, context, checkpoints, resumable)), step);
+                        }
+                    }
+                }
+                
+                if (running.isEmpty()) {
+                    break;
+                }
+                
+                Future<StepOutcome> done = completion.take();
+                running.remove(done);
+                StepOutcome outcome = done.get();
+                timings.add(outcome.timing());
+                
+                if (outcome.timing().isSuccess()) {
+                    available.addAll(outcome.step().getOutputs());
+                    if (!outcome.timing().isResumed()) {
+                        regenerated.addAll(outcome.step().getOutputs());
+                    }
+                } else if (failure == null) {
+                    failure = outcome;
+                }
+            }
+        } catch (InterruptedException e) {
+            running.keySet().forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            return PipelineResult.builder()
+                    .success(false)
+                    .errorMessage("Pipeline interrupted")
+                    .stepTimings(timings)
+                    .build();
+        } catch (ExecutionException e) {
+            running.keySet().forEach(future -> future.cancel(true));
+            return PipelineResult.builder()
+                    .success(false)
+                    .errorMessage("Pipeline step crashed: " + e.getCause())
+                    .stepTimings(timings)
+                    .build();
+        }
+        
+        if (failure != null) {
+            return PipelineResult.builder()
+                    .success(false)
+                    .failedStep(failure.step().getName())
+                    .errorMessage(failure.errorMessage())
+                    .stepTimings(timings)
+                    .build();
+        }
+        
+        return PipelineResult.builder()
+                .success(true)
+                .stepTimings(timings)
+                .build();
+    }
+    
+    private StepOutcome runStep(PipelineStep step, PipelineContext context,
+                                PipelineCheckpoints checkpoints, boolean resumable) {
+        LocalDateTime startedAt = LocalDateTime.now();
+        long start = System.currentTimeMillis();
+        
+        if (resumable && checkpoints.isCompleted(step, context)) {
+            log.info("Pipeline step {} already completed for analysis {}, reusing its outputs",
+                    step.getName(), context.getRunContext().getAnalysisId());
+            StepTiming timing = StepTiming.builder()
+                    .stepName(step.getName())
+                    .startedAt(startedAt)
+                    .finishedAt(LocalDateTime.now())
+                    .durationMs(System.currentTimeMillis() - start)
+                    .success(true)
+                    .resumed(true)
+                    .build();
+            return new StepOutcome(step, timing, null);
+        }
+        
+        log.info("Starting pipeline step {} for analysis {}", step.getName(), context.getRunContext().getAnalysisId());
+        
+        // Collect the attempts of every command the step runs, including its shards
+        List<CommandAttempt> attempts = Collections.synchronizedList(new ArrayList<>());
+        PipelineContext stepContext = context.withRunContext(
+                context.getRunContext().toBuilder().attemptListener(attempts::add).build());
+        
+        boolean success;
+        String errorMessage = null;
+        try {
+            GatkCommandResult result = step.getAction().run(stepContext);
+            success = result.isSuccess();
+            errorMessage = result.getErrorMessage();
+            if (!success && result.getFailureClass() != null) {
+                errorMessage = result.getFailureClass() + " after " + result.getAttempts().size()
+                        + " attempts: " + errorMessage;
+            }
+        } catch (RuntimeException e) {
+            log.error("Pipeline step {} threw an exception", step.getName(), e);
+            success = false;
+            errorMessage = e.getMessage();
+        }
+        
+        StepTiming timing = StepTiming.builder()
+                .stepName(step.getName())
+                .startedAt(startedAt)
+                .finishedAt(LocalDateTime.now())
+                .durationMs(System.currentTimeMillis() - start)
+                .success(success)
+                .attempts(List.copyOf(attempts))
+                .build();
+        log.info("Pipeline step {} {} after {} ms", step.getName(), success ? "completed" : "failed", timing.getDurationMs());
+        
+        try {
+            checkpoints.stepFinished(step, timing, context);
+        } catch (RuntimeException e) {
+            log.error("Could not record completion of pipeline step {}", step.getName(), e);
+        }
+        return new StepOutcome(step, timing, errorMessage);
+    }
+    
+    private record StepOutcome(PipelineStep step, StepTiming timing, String errorMessage) {
+    }
+}
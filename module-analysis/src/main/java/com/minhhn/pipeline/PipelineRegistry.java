@@ -0,0 +1,137 @@
+package com.minhhn.pipeline;
+
+import com.minhhn.config.PipelineProperties;
+import com.minhhn.model.GatkCommandResult;
+import com.minhhn.service.VariantIngestService;
+import com.minhhn.service.VariantCallingService;
+import com.minhhn.service.VariantFilteringService;
+import com.minhhn.vcf.VariantType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pipeline definitions available to analyses, looked up by pipeline version.
+ */
+@Component
+@Slf4j
+public class PipelineRegistry {
+    
+    public static final String BAM = "bam";
+    public static final String RAW_VCF = "rawVcf";
+    public static final String FILTERED_VCF = "filteredVcf";
+    public static final String FINAL_VCF = "finalVcf";
+    public static final String GENOTYPED_VCF = "genotypedVcf";
+    public static final String SNP_VCF = "snpVcf";
+    public static final String INDEL_VCF = "indelVcf";
+    
+    private final PipelineProperties pipelineProperties;
+    private final Map<String, PipelineDefinition> definitions;
+    
+    public PipelineRegistry(PipelineProperties pipelineProperties,
+                            VariantCallingService variantCallingService,
+                            VariantFilteringService variantFilteringService,
+                            VariantIngestService variantIngestService,
+                            @Value("${analysis.funcotator.datasources:/data/funcotator_dataSources}") String funcotatorDataSources,
+                            @Value("${analysis.variants.ingest-enabled:true}") boolean ingestEnabled) {
+        this.pipelineProperties = pipelineProperties;
+        
+        PipelineStep call = PipelineStep.builder()
+                .name("call")
+                .input(BAM)
+                .output(RAW_VCF)
+                .action(context -> variantCallingService.callVariants(
+                        context.pathOf(BAM), context.pathOf(RAW_VCF), context.getIntervalList(), context.getRunContext()))
+                .build();
+        
+        PipelineStep filter = PipelineStep.builder()
+                .name("filter")
+                .input(RAW_VCF)
+                .output(FILTERED_VCF)
+                .action(context -> variantFilteringService.filterVariants(
+                        context.pathOf(RAW_VCF), context.pathOf(FILTERED_VCF), context.getIntervalList(),
+                        context.getRunContext()))
+                .build();
+        
+        PipelineStep annotate = PipelineStep.builder()
+                .name("annotate")
+                .input(FILTERED_VCF)
+                .output(FINAL_VCF)
+                .action(context -> variantFilteringService.annotateVariants(
+                        context.pathOf(FILTERED_VCF), context.pathOf(FINAL_VCF), funcotatorDataSources,
+                        context.getIntervalList(), context.getRunContext()))
+                .build();
+        
+        // The filtered VCF is a GVCF whose calls all carry <NON_REF>, which types them as MIXED
+        PipelineStep genotype = PipelineStep.builder()
+                .name("genotype")
+                .input(FILTERED_VCF)
+                .output(GENOTYPED_VCF)
+                .action(context -> variantCallingService.jointGenotyping(
+                        List.of(context.pathOf(FILTERED_VCF)), context.pathOf(GENOTYPED_VCF), context.getRunContext()))
+                .build();
+        
+        // One pass over the genotyped VCF writes both typed outputs
+        PipelineStep splitByType = PipelineStep.builder()
+                .name("split-by-type")
+                .input(GENOTYPED_VCF)
+                .output(SNP_VCF)
+                .output(INDEL_VCF)
+                .action(context -> variantFilteringService.splitVariantsByType(
+                        context.pathOf(GENOTYPED_VCF),
+                        Map.of(VariantType.SNP, context.pathOf(SNP_VCF), VariantType.INDEL, context.pathOf(INDEL_VCF)),
+                        context.getIntervalList(), context.getRunContext()))
+                .build();
+        
+        // Loads the annotated variants into the variant store; produces no file
+        PipelineStep ingest = PipelineStep.builder()
+                .name("ingest")
+                .input(FINAL_VCF)
+                .action(context -> {
+                    long start = System.currentTimeMillis();
+                    variantIngestService.ingest(context.getRunContext().getAnalysisId(), context.pathOf(FINAL_VCF));
+                    return GatkCommandResult.builder()
+                            .success(true)
+                            .outputFile(context.pathOf(FINAL_VCF))
+                            .executionTimeMs(System.currentTimeMillis() - start)
+                            .build();
+                })
+                .build();
+        
+        // call -> filter -> annotate (-> ingest)
+        List<PipelineStep> standard = new ArrayList<>(List.of(call, filter, annotate));
+        // Genotyping and the SNP/INDEL split run next to the annotation once filtering is done
+        List<PipelineStep> extended = new ArrayList<>(List.of(call, filter, annotate, genotype, splitByType));
+        if (ingestEnabled) {
+            standard.add(ingest);
+            extended.add(ingest);
+        }
+        
+        this.definitions = Map.of(
+                "standard", new PipelineDefinition("standard", Set.of(BAM), standard),
+                "extended", new PipelineDefinition("extended", Set.of(BAM), extended)
+        );
+    }
+    
+    /**
+     * Gets the pipeline definition for a pipeline version.
+     * 
+     * @param pipelineVersion The pipeline version of an analysis
+     * @return The mapped definition, or the default definition for unmapped versions
+     */
+    public PipelineDefinition forVersion(String pipelineVersion) {
+        String name = pipelineProperties.getVersions().getOrDefault(
+                pipelineVersion, pipelineProperties.getDefaultDefinition());
+        PipelineDefinition definition = definitions.get(name);
+        if (definition == null) {
+            log.warn("Unknown pipeline definition {} for version {}, using the default", name, pipelineVersion);
+            return definitions.get(pipelineProperties.getDefaultDefinition());
+        }
+        return definition;
+    }
+}
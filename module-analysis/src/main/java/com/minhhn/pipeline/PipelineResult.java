@@ -0,0 +1,36 @@
+package com.minhhn.pipeline;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Outcome of a pipeline run.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PipelineResult {
+    private boolean success;
+    private String failedStep;
+    private String errorMessage;
+    private List<StepTiming> stepTimings;
+    
+    /**
+     * Formats the step timings for a result summary.
+     * 
+     * @return The step timings, e.g. "call 1200s (1 failed attempts), filter 35s"
+     */
+    public String describeTimings() {
+        return stepTimings.stream()
+                .map(timing -> timing.getStepName() + " "
+                        + (timing.isResumed() ? "resumed" : timing.getDurationMs() / 1000 + "s")
+                        + (timing.getFailedAttempts() > 0 ? " (" + timing.getFailedAttempts() + " failed attempts)" : ""))
+                .reduce((a, b) -> a + ", " + b)
+                .orElse("no steps");
+    }
+}
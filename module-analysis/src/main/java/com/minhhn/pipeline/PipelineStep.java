@@ -0,0 +1,25 @@
+package com.minhhn.pipeline;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.Singular;
+
+import java.util.List;
+
+/**
+ * A step of a pipeline. Steps declare the artifacts they read and write; a step
+ * becomes ready as soon as all of its inputs have been produced.
+ */
+@Data
+@Builder
+public class PipelineStep {
+    private String name;
+    
+    @Singular
+    private List<String> inputs;
+    
+    @Singular
+    private List<String> outputs;
+    
+    private StepAction action;
+}
@@ -0,0 +1,18 @@
+package com.minhhn.pipeline;
+
+import com.minhhn.model.GatkCommandResult;
+
+/**
+ * Work performed by a pipeline step.
+ */
+@FunctionalInterface
+public interface StepAction {
+
+    /**
+     * Runs the step. Input and output paths are looked up in the context.
+     * 
+     * @param context The running pipeline
+     * @return The result of the step
+     */
+    GatkCommandResult run(PipelineContext context);
+}
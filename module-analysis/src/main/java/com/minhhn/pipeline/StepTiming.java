@@ -0,0 +1,42 @@
+package com.minhhn.pipeline;
+
+import com.minhhn.model.CommandAttempt;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timing of one executed pipeline step.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StepTiming {
+    private String stepName;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private long durationMs;
+    private boolean success;
+    
+    // Outputs of an earlier run were verified and reused instead of running the step
+    private boolean resumed;
+    
+    // Runs of the commands of the step, including retries after retryable failures
+    @Builder.Default
+    private List<CommandAttempt> attempts = new ArrayList<>();
+    
+    /**
+     * Counts the failed command runs of the step that were retried or gave up.
+     * 
+     * @return The number of failed attempts
+     */
+    public long getFailedAttempts() {
+        return attempts.stream().filter(attempt -> !attempt.isSuccess()).count();
+    }
+}
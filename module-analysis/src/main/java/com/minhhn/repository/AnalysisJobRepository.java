@@ -0,0 +1,122 @@
+package com.minhhn.repository;
+
+import com.minhhn.enums.JobStatus;
+import com.minhhn.model.AnalysisJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository interface for AnalysisJob entity.
+ */
+@Repository
+public interface AnalysisJobRepository extends JpaRepository<AnalysisJob, Long> {
+    
+    /**
+     * Lock jobs that can be claimed: QUEUED jobs and RUNNING jobs whose lease has expired.
+     * Rows locked by other workers are skipped, so concurrent workers never claim the
+     * same job. Must be called inside a transaction; the locks are held until it ends.
+     * <p>
+     * Jobs are ordered by priority class, promoted by one class for every aging interval
+     * they have waited. Within a class, aged jobs included, the submitters take turns, so a
+     * large batch of one submitter does not hold back the jobs of others.
+     * 
+     * @param now The current time
+     * @param agingSeconds The wait in seconds that promotes a job by one class
+     * @param limit The maximum number of jobs to lock
+     * @return The locked jobs, in claim order
+     */
+    @Query(value = "SELECT j.* FROM analysis_jobs j JOIN ("
+            + "SELECT id, effective_class, "
+            + "ROW_NUMBER() OVER (PARTITION BY submitter_key, effective_class ORDER BY created_at, id) AS turn "
+            + "FROM (SELECT id, created_at, COALESCE(submitter, '') AS submitter_key, "
+            + "GREATEST(0, CASE priority WHEN 'URGENT' THEN 0 WHEN 'CLINICAL' THEN 1 "
+            + "WHEN 'RESEARCH' THEN 3 ELSE 2 END "
+            + "- FLOOR(EXTRACT(EPOCH FROM (CAST(:now AS timestamp) - created_at)) / :agingSeconds)) AS effective_class "
+            + "FROM analysis_jobs "
+            + "WHERE status = 'QUEUED' OR (status = 'RUNNING' AND lease_expires_at < :now)) c) r ON r.id = j.id "
+            + "ORDER BY r.effective_class, r.turn, j.created_at, j.id "
+            + "LIMIT :limit "
+            + "FOR UPDATE OF j SKIP LOCKED", nativeQuery = true)
+    List<AnalysisJob> lockClaimable(@Param("now") LocalDateTime now, @Param("agingSeconds") long agingSeconds,
+                                    @Param("limit") int limit);
+    
+    /**
+     * Extend the lease of a job, if the worker still holds it, and record its progress.
+     * Progress values that are null keep their previous value.
+     * 
+     * @param id The job ID
+     * @param workerId The worker holding the lease
+     * @param attempt The attempt the lease was granted for
+     * @param now The current time
+     * @param leaseExpiresAt The new lease expiry
+     * @param percent The percentage done of the current step
+     * @param locus The last reported locus
+     * @param recordsPerMinute The current throughput
+     * @param progressUpdatedAt The time of the last progress report
+     * @return 1 if the lease was extended, 0 if the worker lost it
+     */
+    @Modifying
+    @Query("UPDATE AnalysisJob j SET j.heartbeatAt = :now, j.leaseExpiresAt = :leaseExpiresAt, "
+            + "j.progressPercent = COALESCE(:percent, j.progressPercent), "
+            + "j.progressLocus = COALESCE(:locus, j.progressLocus), "
+            + "j.progressRecordsPerMinute = COALESCE(:recordsPerMinute, j.progressRecordsPerMinute), "
+            + "j.progressUpdatedAt = COALESCE(:progressUpdatedAt, j.progressUpdatedAt) "
+            + "WHERE j.id = :id AND j.workerId = :workerId AND j.attempts = :attempt "
+            + "AND j.status = com.minhhn.enums.JobStatus.RUNNING")
+    int renewLease(@Param("id") Long id, @Param("workerId") String workerId, @Param("attempt") int attempt,
+                   @Param("now") LocalDateTime now, @Param("leaseExpiresAt") LocalDateTime leaseExpiresAt,
+                   @Param("percent") Double percent, @Param("locus") String locus,
+                   @Param("recordsPerMinute") Double recordsPerMinute,
+                   @Param("progressUpdatedAt") LocalDateTime progressUpdatedAt);
+    
+    /**
+     * Record the end of a job, if the worker still holds the lease it was run under.
+     * 
+     * @param id The job ID
+     * @param workerId The worker holding the lease
+     * @param attempt The attempt the lease was granted for
+     * @param status The final job status
+     * @param lastError The error of a failed job, null otherwise
+     * @param finishedAt The time the job finished
+     * @return 1 if the job was finished, 0 if the worker lost the lease
+     */
+    @Modifying
+    @Query("UPDATE AnalysisJob j SET j.status = :status, j.lastError = :lastError, j.finishedAt = :finishedAt, "
+            + "j.leaseExpiresAt = null "
+            + "WHERE j.id = :id AND j.workerId = :workerId AND j.attempts = :attempt "
+            + "AND j.status = com.minhhn.enums.JobStatus.RUNNING")
+    int finishLease(@Param("id") Long id, @Param("workerId") String workerId, @Param("attempt") int attempt,
+                    @Param("status") JobStatus status, @Param("lastError") String lastError,
+                    @Param("finishedAt") LocalDateTime finishedAt);
+    
+    /**
+     * Find the job of an analysis.
+     * 
+     * @param analysisId The ID of the analysis
+     * @return The job, if the analysis was queued
+     */
+    Optional<AnalysisJob> findByAnalysisId(Long analysisId);
+    
+    /**
+     * Check whether an analysis has a job.
+     * 
+     * @param analysisId The ID of the analysis
+     * @return True if a job exists for the analysis
+     */
+    boolean existsByAnalysisId(Long analysisId);
+    
+    /**
+     * Count jobs by status.
+     * 
+     * @param status The job status
+     * @return The number of jobs with the specified status
+     */
+    long countByStatus(JobStatus status);
+}
@@ -2,10 +2,17 @@ package com.minhhn.repository;
 
 import com.minhhn.enums.AnalysisStatus;
 import com.minhhn.model.Analysis;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Repository interface for Analysis entity.
@@ -13,6 +20,15 @@ import java.util.List;
 @Repository
 public interface AnalysisRepository extends JpaRepository<Analysis, Long> {
     
+    /**
+     * Find an analysis by ID together with its sample, for use outside a transaction.
+     * 
+     * @param id The analysis ID
+     * @return The analysis with its sample loaded
+     */
+    @EntityGraph(attributePaths = "sample")
+    Optional<Analysis> findWithSampleById(Long id);
+    
     /**
      * Find analyses by sample ID.
      * 
@@ -37,4 +53,60 @@ public interface AnalysisRepository extends JpaRepository<Analysis, Long> {
      * @return List of analyses for the sample with the specified status
      */
     List<Analysis> findBySampleIdAndStatus(Long sampleId, AnalysisStatus status);
+    
+    /**
+     * Mark an analysis as running, unless it has been cancelled or has finished.
+     * 
+     * @param id The analysis ID
+     * @return 1 if the analysis is now RUNNING, 0 if it was no longer PENDING or RUNNING
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE Analysis a SET a.status = com.minhhn.enums.AnalysisStatus.RUNNING WHERE a.id = :id "
+            + "AND a.status IN (com.minhhn.enums.AnalysisStatus.PENDING, com.minhhn.enums.AnalysisStatus.RUNNING)")
+    int markRunning(@Param("id") Long id);
+    
+    /**
+     * Record the final status of an analysis that is still PENDING or RUNNING, so that a
+     * concurrent update to a final status is never overwritten.
+     * 
+     * @param id The analysis ID
+     * @param status The final status
+     * @param finishedAt The time the analysis finished
+     * @param resultSummary The summary of the result or the failure
+     * @return 1 if the status was recorded, 0 if the analysis had already finished
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE Analysis a SET a.status = :status, a.finishedAt = :finishedAt, a.resultSummary = :resultSummary "
+            + "WHERE a.id = :id "
+            + "AND a.status IN (com.minhhn.enums.AnalysisStatus.PENDING, com.minhhn.enums.AnalysisStatus.RUNNING)")
+    int finishIfActive(@Param("id") Long id, @Param("status") AnalysisStatus status,
+                       @Param("finishedAt") LocalDateTime finishedAt,
+                       @Param("resultSummary") String resultSummary);
+    
+    /**
+     * Record the final status of a RUNNING analysis, if the worker still holds the lease of its job.
+     * A worker that lost the lease, to a cancellation or to another worker that reclaimed the
+     * job, leaves the status to whoever owns the analysis now.
+     * 
+     * @param id The analysis ID
+     * @param jobId The ID of the job the worker runs the analysis under
+     * @param workerId The worker holding the lease
+     * @param attempt The attempt the lease was granted for
+     * @param status The final status
+     * @param finishedAt The time the analysis finished
+     * @param resultSummary The summary of the result or the failure
+     * @return 1 if the status was recorded, 0 if the worker lost the lease or the analysis is no longer RUNNING
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("UPDATE Analysis a SET a.status = :status, a.finishedAt = :finishedAt, a.resultSummary = :resultSummary "
+            + "WHERE a.id = :id AND a.status = com.minhhn.enums.AnalysisStatus.RUNNING "
+            + "AND EXISTS (SELECT j FROM AnalysisJob j WHERE j.id = :jobId AND j.analysis.id = :id "
+            + "AND j.workerId = :workerId AND j.attempts = :attempt AND j.status = com.minhhn.enums.JobStatus.RUNNING)")
+    int finishIfLeaseHeld(@Param("id") Long id, @Param("jobId") Long jobId, @Param("workerId") String workerId,
+                          @Param("attempt") int attempt, @Param("status") AnalysisStatus status,
+                          @Param("finishedAt") LocalDateTime finishedAt,
+                          @Param("resultSummary") String resultSummary);
 }
@@ -0,0 +1,32 @@
+package com.minhhn.repository;
+
+import com.minhhn.model.AnalysisStep;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository interface for AnalysisStep entity.
+ */
+@Repository
+public interface AnalysisStepRepository extends JpaRepository<AnalysisStep, Long> {
+    
+    /**
+     * Find the step records of an analysis.
+     * 
+     * @param analysisId The ID of the analysis
+     * @return List of step records of the analysis
+     */
+    List<AnalysisStep> findByAnalysisId(Long analysisId);
+    
+    /**
+     * Find the record of one step of an analysis.
+     * 
+     * @param analysisId The ID of the analysis
+     * @param stepName The name of the pipeline step
+     * @return The step record, if the step has run
+     */
+    Optional<AnalysisStep> findByAnalysisIdAndStepName(Long analysisId, String stepName);
+}
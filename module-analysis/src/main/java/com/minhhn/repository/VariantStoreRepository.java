@@ -0,0 +1,261 @@
+package com.minhhn.repository;
+
+import com.minhhn.vcf.VcfReader;
+import com.minhhn.vcf.VcfRecord;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bulk storage of called variants in the {@code variants} table, which is partitioned by
+ * chromosome. Rows are streamed with the binary COPY protocol, which is orders of
+ * magnitude faster than inserting them one by one. {@code variant_loads} records the
+ * chromosomes each analysis stored rows in, so that replacing them only touches those
+ * partitions.
+ */
+@Repository
+@Slf4j
+@RequiredArgsConstructor
+public class VariantStoreRepository {
+    
+    private static final String COPY_VARIANTS = "COPY variants "
+            + "(analysis_id, sample_id, chrom, pos, end_pos, variant_id, ref, alt, qual, filter, info, genotype) "
+            + "FROM STDIN (FORMAT binary)";
+    
+    // Symbolic allele of GVCFs standing for any allele not listed, written by GATK and bcftools respectively
+    private static final Set<String> NON_REF_ALLELES = Set.of("<NON_REF>", "<*>");
+    
+    private static final byte[] COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+    private static final short COPY_COLUMNS = 12;
+    
+    // One partition per primary contig, under both the UCSC and the Ensembl name
+    private static final List<String> PRIMARY_CONTIGS = List.of(
+            "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16",
+            "17", "18", "19", "20", "21", "22", "X", "Y", "M");
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSource dataSource;
+    
+    private volatile boolean schemaReady;
+    
+    /**
+     * Creates the partitioned table, its partitions and indexes and the load table if they
+     * do not exist yet.
+     */
+    public synchronized void ensureSchema() {
+        if (schemaReady) {
+            return;
+        }
+        
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS variants ("
+                    + "analysis_id BIGINT NOT NULL, "
+                    + "sample_id BIGINT NOT NULL, "
+                    + "chrom VARCHAR(64) NOT NULL, "
+                    + "pos BIGINT NOT NULL, "
+                    + "end_pos BIGINT NOT NULL, "
+                    + "variant_id TEXT, "
+                    + "ref TEXT NOT NULL, "
+                    + "alt TEXT NOT NULL, "
+                    + "qual DOUBLE PRECISION, "
+                    + "filter TEXT, "
+                    + "info TEXT, "
+                    + "genotype TEXT"
+                    + ") PARTITION BY LIST (chrom)");
+            for (String contig : PRIMARY_CONTIGS) {
+                String ensemblName = contig.equals("M") ? "MT" : contig;
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS variants_chr" + contig.toLowerCase()
+                        + " PARTITION OF variants FOR VALUES IN ('chr" + contig + "', '" + ensemblName + "')");
+            }
+            // Alternate contigs, decoys and unplaced scaffolds
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS variants_other PARTITION OF variants DEFAULT");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_variants_analysis_locus "
+                    + "ON variants (analysis_id, chrom, pos)");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_variants_sample ON variants (sample_id)");
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS variant_loads ("
+                    + "analysis_id BIGINT PRIMARY KEY, "
+                    + "chroms TEXT[] NOT NULL, "
+                    + "row_count BIGINT NOT NULL, "
+                    + "loaded_at TIMESTAMP NOT NULL)");
+        } catch (DataAccessException e) {
+            // Another node may have created the same table at the same moment
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT to_regclass('variant_loads') IS NOT NULL", Boolean.class))) {
+                log.info("Variant table was created concurrently: {}", e.getMessage());
+            } else {
+                throw e;
+            }
+        }
+        schemaReady = true;
+    }
+    
+    /**
+     * Replaces the variants of an analysis with the records of a VCF in one transaction,
+     * so an ingestion that is run again never leaves duplicates or a partial load behind.
+     * Records are streamed with binary COPY and the genotype of the first sample is
+     * stored with each of them. The VCF may be a GVCF: reference blocks are skipped and
+     * the {@code <NON_REF>} allele is left out of the stored ALT. Only the partitions the previous load of the analysis
+     * wrote to are cleared, so a first load deletes nothing.
+     * 
+     * @param analysisId The analysis the variants were called by
+     * @param sampleId The sample the variants were called in
+     * @param reader The VCF, positioned before its first record
+     * @return The number of rows written
+     * @throws IOException If the VCF cannot be read
+     * @throws SQLException If the database rejects the rows
+     */
+    @Transactional
+    public long replaceVariants(Long analysisId, Long sampleId, VcfReader reader) throws IOException, SQLException {
+        // A first load has nothing to delete; a reload only visits the partitions of the previous one
+        List<String> loadedChroms = jdbcTemplate.queryForList(
+                "SELECT unnest(chroms) FROM variant_loads WHERE analysis_id = ?", String.class, analysisId);
+        for (String chrom : loadedChroms) {
+            int deleted = jdbcTemplate.update("DELETE FROM variants WHERE chrom = ? AND analysis_id = ?",
+                    chrom, analysisId);
+            log.debug("Deleted {} stored variants of analysis {} on {}", deleted, analysisId, chrom);
+        }
+        if (!loadedChroms.isEmpty()) {
+            log.info("Replacing stored variants of analysis {} on {} chromosomes", analysisId, loadedChroms.size());
+        }
+        
+        Set<String> chroms = new LinkedHashSet<>();
+        long rows = copyVariants(analysisId, sampleId, reader, chroms);
+        
+        jdbcTemplate.update("INSERT INTO variant_loads (analysis_id, chroms, row_count, loaded_at) "
+                        + "VALUES (?, ?::text[], ?, now()) ON CONFLICT (analysis_id) DO UPDATE "
+                        + "SET chroms = EXCLUDED.chroms, row_count = EXCLUDED.row_count, loaded_at = EXCLUDED.loaded_at",
+                analysisId, toArrayLiteral(chroms), rows);
+        return rows;
+    }
+    
+    private long copyVariants(Long analysisId, Long sampleId, VcfReader reader, Set<String> chroms)
+            throws IOException, SQLException {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            long rows = 0;
+            try (DataOutputStream out = new DataOutputStream(
+                    new PGCopyOutputStream(pgConnection, COPY_VARIANTS, 1024 * 1024))) {
+                out.write(COPY_SIGNATURE);
+                out.writeInt(0);
+                out.writeInt(0);
+                
+                VcfRecord record = reader.getRecord();
+                boolean hasSamples = !reader.getHeader().getSampleNames().isEmpty();
+                String lastChrom = null;
+                while (reader.next()) {
+                    String alt = calledAlt(record);
+                    if (alt == null) {
+                        continue;
+                    }
+                    if (!record.getChrom().equals(lastChrom)) {
+                        lastChrom = record.getChrom();
+                        chroms.add(lastChrom);
+                    }
+                    out.writeShort(COPY_COLUMNS);
+                    writeLong(out, analysisId);
+                    writeLong(out, sampleId);
+                    writeText(out, record.getChrom());
+                    writeLong(out, record.getPos());
+                    writeLong(out, record.getEnd());
+                    String id = record.getId();
+                    writeText(out, id.equals(".") ? null : id);
+                    writeText(out, record.getRef());
+                    writeText(out, alt);
+                    writeDouble(out, record.getQual());
+                    writeText(out, record.getFilter());
+                    writeText(out, record.getInfo());
+                    writeText(out, hasSamples ? record.getGenotype(0) : null);
+                    rows++;
+                }
+                out.writeShort(-1);
+            }
+            return rows;
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+    
+    /**
+     * Gets the alternate alleles of a record without the {@code <NON_REF>} allele of GVCFs.
+     * GATK always lists it last, so the allele indices of the genotype still hold.
+     * 
+     * @param record The record
+     * @return The alleles separated by commas, or null for a reference block or a record without alleles
+     */
+    static String calledAlt(VcfRecord record) {
+        String alt = record.getAlt();
+        if (alt.indexOf('<') < 0) {
+            return record.getAltCount() > 0 ? alt : null;
+        }
+        
+        StringBuilder called = new StringBuilder(alt.length());
+        for (int i = 0; i < record.getAltCount(); i++) {
+            String allele = record.getAltAllele(i);
+            if (!NON_REF_ALLELES.contains(allele)) {
+                if (!called.isEmpty()) {
+                    called.append(',');
+                }
+                called.append(allele);
+            }
+        }
+        return called.isEmpty() ? null : called.toString();
+    }
+    
+    /**
+     * Formats chromosome names as a Postgres text array literal.
+     * 
+     * @param values The names
+     * @return The literal, e.g. {@code {"chr1","chr2"}}
+     */
+    private String toArrayLiteral(Set<String> values) {
+        StringBuilder literal = new StringBuilder("{");
+        for (String value : values) {
+            if (literal.length() > 1) {
+                literal.append(',');
+            }
+            literal.append('"').append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return literal.append('}').toString();
+    }
+    
+    private void writeLong(DataOutputStream out, long value) throws IOException {
+        out.writeInt(Long.BYTES);
+        out.writeLong(value);
+    }
+    
+    private void writeDouble(DataOutputStream out, double value) throws IOException {
+        if (Double.isNaN(value)) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(Double.BYTES);
+        out.writeDouble(value);
+    }
+    
+    private void writeText(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,159 @@
+package com.minhhn.service;
+
+import com.minhhn.exception.JobQueueFullException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for analysis pipelines. Jobs run on virtual threads, at most
+ * {@code analysis.jobs.max-concurrent} at a time, with room for
+ * {@code analysis.jobs.queue-capacity} more waiting. Submissions beyond that are
+ * rejected so callers get immediate backpressure instead of an ever-growing backlog.
+ */
+@Component
+@Slf4j
+public class AnalysisJobExecutor {
+
+    private final ThreadPoolExecutor executor;
+    
+    // One permit per running or queued job; the executor queue itself is unbounded
+    private final Semaphore slots;
+    private final int maxConcurrent;
+    private final int capacity;
+    private final AtomicLong rejected = new AtomicLong();
+    private final MeterRegistry meterRegistry;
+    
+    public AnalysisJobExecutor(@Value("${analysis.jobs.max-concurrent:4}") int maxConcurrent,
+                               @Value("${analysis.jobs.queue-capacity:100}") int queueCapacity,
+                               MeterRegistry meterRegistry) {
+        this.maxConcurrent = maxConcurrent;
+        this.capacity = maxConcurrent + queueCapacity;
+        this.slots = new Semaphore(capacity);
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), Thread.ofVirtual().name("analysis-job-", 0).factory());
+        this.meterRegistry = meterRegistry;
+    }
+    
+    @PostConstruct
+    public void registerMetrics() {
+        Gauge.builder("analysis.executor.running", this, AnalysisJobExecutor::getRunningCount)
+                .description("Analyses running on this node")
+                .register(meterRegistry);
+        Gauge.builder("analysis.executor.queued", this, AnalysisJobExecutor::getQueueDepth)
+                .description("Analyses claimed by this node and waiting for a thread")
+                .register(meterRegistry);
+        Gauge.builder("analysis.executor.capacity", this, AnalysisJobExecutor::getCapacity)
+                .register(meterRegistry);
+        FunctionCounter.builder("analysis.executor.rejected", rejected, AtomicLong::get)
+                .description("Analyses rejected because the executor was full")
+                .register(meterRegistry);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Submits a job. Inside a transaction the job is only started once the transaction
+     * has committed, so it never sees uncommitted or rolled back rows.
+     * 
+     * @param name Name of the job, for logging
+     * @param job The job to run
+     * @throws JobQueueFullException If the executor has no room for another job
+     */
+    public void submit(String name, Runnable job) {
+        if (!slots.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new JobQueueFullException("Analysis queue is full (" + capacity + " jobs), try again later");
+        }
+        
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            execute(name, job);
+            return;
+        }
+        
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    execute(name, job);
+                } else {
+                    slots.release();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Gets the number of jobs currently running.
+     * 
+     * @return The number of running jobs
+     */
+    public int getRunningCount() {
+        return executor.getActiveCount();
+    }
+    
+    /**
+     * Gets the number of threads free for another job, counting queued jobs as taking one.
+     * 
+     * @return The number of idle threads
+     */
+    public int getIdleCount() {
+        return Math.max(0, Math.min(maxConcurrent - executor.getActiveCount() - executor.getQueue().size(),
+                slots.availablePermits()));
+    }
+    
+    /**
+     * Gets the number of jobs waiting for a free thread.
+     * 
+     * @return The queue depth
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+    
+    /**
+     * Gets the total number of running and queued jobs the executor accepts.
+     * 
+     * @return The capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Gets the number of submissions rejected because the executor was full.
+     * 
+     * @return The rejection count
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+    
+    private void execute(String name, Runnable job) {
+        executor.execute(() -> {
+            try {
+                job.run();
+            } catch (RuntimeException e) {
+                log.error("Analysis job {} failed", name, e);
+            } finally {
+                slots.release();
+            }
+        });
+    }
+}
@@ -0,0 +1,331 @@
+package com.minhhn.service;
+
+import com.minhhn.enums.AnalysisStatus;
+import com.minhhn.enums.JobPriority;
+import com.minhhn.enums.JobStatus;
+import com.minhhn.exception.JobQueueFullException;
+import com.minhhn.model.Analysis;
+import com.minhhn.model.AnalysisProgress;
+import com.minhhn.model.AnalysisJob;
+import com.minhhn.model.JobLease;
+import com.minhhn.model.QueueWaitStats;
+import com.minhhn.repository.AnalysisBatchRepository;
+import com.minhhn.repository.AnalysisJobRepository;
+import com.minhhn.repository.AnalysisRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable, Postgres-backed queue of analysis jobs shared by all worker nodes. A job is
+ * claimed with {@code FOR UPDATE SKIP LOCKED} and held under a lease that the worker
+ * renews with heartbeats; when a worker dies its lease expires and another worker
+ * claims the job again.
+ */
+@Service
+@Slf4j
+public class AnalysisJobService {
+
+    private final AnalysisJobRepository analysisJobRepository;
+    private final AnalysisRepository analysisRepository;
+    private final AnalysisBatchRepository analysisBatchRepository;
+    private final AtomicLong rejected = new AtomicLong();
+    
+    // Job counts of the whole queue as of the last refresh, so that metric scrapes do not query the database
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong runningCount = new AtomicLong();
+    
+    private final QueueWaitStatistics waitStatistics = new QueueWaitStatistics();
+    private final MeterRegistry meterRegistry;
+    
+    /**
+     * Identity of this node in the job table.
+     */
+    @Getter
+    private final String workerId;
+    
+    @Value("${analysis.jobs.lease-duration-ms:60000}")
+    private long leaseDurationMs;
+    
+    @Value("${analysis.jobs.max-attempts:3}")
+    private int maxAttempts;
+    
+    @Value("${analysis.jobs.max-queued:1000}")
+    private long maxQueued;
+    
+    // Queued jobs are promoted one priority class per interval so that low priority work eventually runs
+    @Value("${analysis.jobs.aging-interval-ms:1800000}")
+    private long agingIntervalMs;
+    
+    public AnalysisJobService(AnalysisJobRepository analysisJobRepository,
+                              AnalysisRepository analysisRepository,
+                              AnalysisBatchRepository analysisBatchRepository,
+                              @Value("${analysis.jobs.worker-id:}") String workerId,
+                              MeterRegistry meterRegistry) {
+        this.analysisJobRepository = analysisJobRepository;
+        this.analysisRepository = analysisRepository;
+        this.analysisBatchRepository = analysisBatchRepository;
+        this.workerId = workerId.isBlank() ? defaultWorkerId() : workerId;
+        this.meterRegistry = meterRegistry;
+    }
+    
+    @PostConstruct
+    public void registerMetrics() {
+        // Shared by all nodes, so every node reports the same value; aggregate with max, not sum
+        Gauge.builder("analysis.jobs.queued", queuedCount, AtomicLong::get)
+                .description("Analysis jobs waiting to be claimed by any worker")
+                .register(meterRegistry);
+        Gauge.builder("analysis.jobs.running", runningCount, AtomicLong::get)
+                .description("Analysis jobs held by a worker")
+                .register(meterRegistry);
+        FunctionCounter.builder("analysis.jobs.rejected", rejected, AtomicLong::get)
+                .description("Analyses rejected because the job queue was full")
+                .register(meterRegistry);
+    }
+    
+    /**
+     * Adds a job for an analysis. Joins the caller's transaction, so the job only becomes
+     * visible to workers together with the analysis.
+     * 
+     * @param analysis The analysis to run
+     * @return The queued job
+     * @throws JobQueueFullException If too many jobs are already waiting
+     */
+    @Transactional
+    public AnalysisJob enqueue(Analysis analysis) {
+        reserve(1);
+        
+        return analysisJobRepository.save(AnalysisJob.builder()
+                .analysis(analysis)
+                .status(JobStatus.QUEUED)
+                .priority(analysis.getPriority())
+                .submitter(analysis.getSubmitter())
+                .createdAt(LocalDateTime.now())
+                .build());
+    }
+    
+    /**
+     * Adds the jobs of a batch of analyses in one JDBC batch. The whole batch is rejected
+     * if the queue has no room for all of it.
+     * 
+     * @param analyses The inserted analyses of the batch
+     * @param batchId The batch ID
+     * @throws JobQueueFullException If the queue has no room for the batch
+     */
+    @Transactional
+    public void enqueueBatch(List<Analysis> analyses, String batchId) {
+        reserve(analyses.size());
+        analysisBatchRepository.insertJobs(analyses, batchId, LocalDateTime.now());
+    }
+    
+    /**
+     * Claims up to {@code limit} jobs for this worker, highest priority first. Jobs
+     * reclaimed from a dead worker that have used up their attempts are failed instead
+     * of claimed.
+     * 
+     * @param limit The maximum number of jobs to claim
+     * @return The claimed jobs
+     */
+    @Transactional
+    public List<AnalysisJob> claim(int limit) {
+        LocalDateTime now = LocalDateTime.now();
+        List<AnalysisJob> claimed = new ArrayList<>();
+        
+        long agingSeconds = Math.max(agingIntervalMs / 1000, 1);
+        for (AnalysisJob job : analysisJobRepository.lockClaimable(now, agingSeconds, limit)) {
+            if (job.getStatus() == JobStatus.RUNNING) {
+                log.warn("Lease of worker {} on job {} expired, reclaiming it", job.getWorkerId(), job.getId());
+                if (job.getAttempts() >= maxAttempts) {
+                    failJob(job, "Worker lease expired after " + job.getAttempts() + " attempts", now);
+                    continue;
+                }
+            } else if (job.getAttempts() == 0) {
+                JobPriority priority = job.getPriority() != null ? job.getPriority() : JobPriority.ROUTINE;
+                Duration wait = Duration.between(job.getCreatedAt(), now);
+                waitStatistics.record(priority, wait);
+                Timer.builder("analysis.job.wait")
+                        .description("Time analysis jobs waited in the queue before a worker claimed them")
+                        .tag("priority", priority.name())
+                        .register(meterRegistry)
+                        .record(wait);
+            }
+            
+            job.setStatus(JobStatus.RUNNING);
+            job.setWorkerId(workerId);
+            job.setAttempts(job.getAttempts() + 1);
+            job.setStartedAt(now);
+            job.setHeartbeatAt(now);
+            job.setLeaseExpiresAt(now.plus(Duration.ofMillis(leaseDurationMs)));
+            claimed.add(analysisJobRepository.save(job));
+        }
+        
+        return claimed;
+    }
+    
+    /**
+     * Extends a lease held by this worker and records the progress of its analysis.
+     * 
+     * @param lease The lease
+     * @param progress The progress of the analysis on this node, may be null
+     * @return False if this worker no longer holds the lease
+     */
+    @Transactional
+    public boolean renewLease(JobLease lease, AnalysisProgress progress) {
+        LocalDateTime now = LocalDateTime.now();
+        return analysisJobRepository.renewLease(lease.jobId(), lease.workerId(), lease.attempt(),
+                now, now.plus(Duration.ofMillis(leaseDurationMs)),
+                progress != null ? progress.getPercentComplete() : null,
+                progress != null ? locusOf(progress) : null,
+                progress != null ? progress.getRecordsPerMinute() : null,
+                progress != null ? progress.getUpdatedAt() : null) == 1;
+    }
+    
+    /**
+     * Finds the job of an analysis.
+     * 
+     * @param analysisId The ID of the analysis
+     * @return The job, if the analysis was queued
+     */
+    @Transactional(readOnly = true)
+    public Optional<AnalysisJob> findByAnalysisId(Long analysisId) {
+        return analysisJobRepository.findByAnalysisId(analysisId);
+    }
+    
+    /**
+     * Formats the last reported locus of an analysis as contig:position.
+     * 
+     * @param progress The progress of the analysis
+     * @return The locus, or null if none was reported yet
+     */
+    public static String locusOf(AnalysisProgress progress) {
+        if (progress.getCurrentContig() == null) {
+            return null;
+        }
+        return progress.getCurrentPosition() != null
+                ? progress.getCurrentContig() + ":" + progress.getCurrentPosition()
+                : progress.getCurrentContig();
+    }
+    
+    /**
+     * Cancels the job of an analysis. A worker running it notices on its next heartbeat,
+     * when it can no longer renew the lease.
+     * 
+     * @param analysisId The ID of the analysis
+     */
+    @Transactional
+    public void cancel(Long analysisId) {
+        analysisJobRepository.findByAnalysisId(analysisId)
+                .filter(job -> job.getStatus() == JobStatus.QUEUED || job.getStatus() == JobStatus.RUNNING)
+                .ifPresent(job -> {
+                    job.setStatus(JobStatus.CANCELLED);
+                    job.setFinishedAt(LocalDateTime.now());
+                    job.setLeaseExpiresAt(null);
+                    analysisJobRepository.save(job);
+                });
+    }
+    
+    /**
+     * Records the end of a job from the final status of its analysis. Nothing is changed
+     * if the job was cancelled or taken over by another claim in the meantime.
+     * 
+     * @param lease The lease the job ran under
+     */
+    @Transactional
+    public void finish(JobLease lease) {
+        Analysis analysis = analysisRepository.findById(lease.analysisId()).orElse(null);
+        boolean done = analysis != null && analysis.getStatus() == AnalysisStatus.DONE;
+        int finished = analysisJobRepository.finishLease(lease.jobId(), lease.workerId(), lease.attempt(),
+                done ? JobStatus.DONE : JobStatus.FAILED,
+                done || analysis == null ? null : analysis.getResultSummary(), LocalDateTime.now());
+        if (finished == 0) {
+            log.info("Job {} is no longer held by worker {} under attempt {}, not recording its result",
+                    lease.jobId(), lease.workerId(), lease.attempt());
+        }
+    }
+    
+    /**
+     * Counts the queued and running jobs of the whole queue for the metrics and the queue status.
+     */
+    @Scheduled(fixedDelayString = "${analysis.jobs.count-refresh-interval-ms:15000}")
+    @Transactional(readOnly = true)
+    public void refreshCounts() {
+        queuedCount.set(analysisJobRepository.countByStatus(JobStatus.QUEUED));
+        runningCount.set(analysisJobRepository.countByStatus(JobStatus.RUNNING));
+    }
+    
+    /**
+     * Gets the number of jobs waiting to be claimed by any worker, as of the last refresh.
+     * 
+     * @return The number of QUEUED jobs
+     */
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+    
+    /**
+     * Gets the number of jobs rejected because the queue was full.
+     * 
+     * @return The rejection count
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+    
+    /**
+     * Gets how long jobs of each priority class waited in the queue before this worker
+     * claimed them.
+     * 
+     * @return The wait times, highest class first
+     */
+    public List<QueueWaitStats> getWaitStatistics() {
+        return waitStatistics.snapshot();
+    }
+    
+    private void reserve(int jobs) {
+        if (analysisJobRepository.countByStatus(JobStatus.QUEUED) + jobs > maxQueued) {
+            rejected.addAndGet(jobs);
+            throw new JobQueueFullException("Analysis queue is full (" + maxQueued + " jobs), try again later");
+        }
+    }
+    
+    private void failJob(AnalysisJob job, String error, LocalDateTime now) {
+        job.setStatus(JobStatus.FAILED);
+        job.setLastError(error);
+        job.setFinishedAt(now);
+        job.setLeaseExpiresAt(null);
+        analysisJobRepository.save(job);
+        
+        // An analysis cancelled in the meantime keeps its status
+        Long analysisId = job.getAnalysis().getId();
+        if (analysisRepository.finishIfActive(analysisId, AnalysisStatus.FAILED, now, error) == 1) {
+            log.error("Job {} of analysis {} failed: {}", job.getId(), analysisId, error);
+        }
+    }
+    
+    private static String defaultWorkerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+}
@@ -0,0 +1,119 @@
+package com.minhhn.service;
+
+import com.minhhn.event.AnalysisCancelledEvent;
+import com.minhhn.model.AnalysisJob;
+import com.minhhn.model.AnalysisProgress;
+import com.minhhn.model.JobLease;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Worker side of the analysis job queue. Every node polls the job table, claims as many
+ * jobs as its executor has idle threads for, and heartbeats the leases of the jobs it runs.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class AnalysisJobWorker {
+
+    private final AnalysisJobService analysisJobService;
+    private final AnalysisJobExecutor analysisJobExecutor;
+    private final AnalysisService analysisService;
+    private final GatkRunnerService gatkRunnerService;
+    private final GatkProgressTracker gatkProgressTracker;
+    private final AnalysisWorkspaceService analysisWorkspaceService;
+    
+    // Leases of the jobs running on this node, by run ID
+    private final Map<String, JobLease> activeJobs = new ConcurrentHashMap<>();
+    
+    @Value("${analysis.jobs.worker-enabled:true}")
+    private boolean workerEnabled;
+    
+    /**
+     * Claims jobs for the idle threads of the executor.
+     */
+    @Scheduled(fixedDelayString = "${analysis.jobs.poll-interval-ms:1000}")
+    public void poll() {
+        if (!workerEnabled) {
+            return;
+        }
+        
+        int idle = analysisJobExecutor.getIdleCount();
+        if (idle == 0) {
+            return;
+        }
+        
+        // Leave the jobs to nodes with room on their disks
+        if (!analysisWorkspaceService.hasCapacity()) {
+            return;
+        }
+        
+        for (AnalysisJob job : analysisJobService.claim(idle)) {
+            JobLease lease = JobLease.of(job);
+            boolean reclaimed = lease.attempt() > 1;
+            log.info("Worker {} claimed job {} for analysis {} (attempt {})",
+                    lease.workerId(), lease.jobId(), lease.analysisId(), lease.attempt());
+            
+            activeJobs.put(lease.runId(), lease);
+            analysisJobExecutor.submit("analysis-" + lease.analysisId(), () -> run(lease, reclaimed));
+        }
+    }
+    
+    /**
+     * Extends the leases of the jobs running on this node and publishes their progress.
+     */
+    @Scheduled(fixedDelayString = "${analysis.jobs.heartbeat-interval-ms:15000}")
+    public void heartbeat() {
+        activeJobs.values().forEach(lease -> {
+            AnalysisProgress progress = gatkProgressTracker.getProgress(lease.analysisId()).orElse(null);
+            if (!analysisJobService.renewLease(lease, progress)) {
+                // Cancelled, or reclaimed after a missed heartbeat, possibly by this very node; stop this run only
+                log.warn("Worker {} lost the lease on job {} of analysis {} (attempt {}), stopping it",
+                        lease.workerId(), lease.jobId(), lease.analysisId(), lease.attempt());
+                gatkRunnerService.cancel(lease.analysisId(), lease.runId());
+            }
+        });
+    }
+    
+    /**
+     * Stops the GATK commands of a cancelled analysis if it runs on this node.
+     * 
+     * @param event The cancellation
+     */
+    @TransactionalEventListener
+    public void onAnalysisCancelled(AnalysisCancelledEvent event) {
+        if (isActive(event.analysisId())) {
+            gatkRunnerService.cancel(event.analysisId());
+        }
+    }
+    
+    private void run(JobLease lease, boolean reclaimed) {
+        try {
+            if (reclaimed) {
+                analysisService.resumeAnalysis(lease);
+            } else {
+                analysisService.runAnalysis(lease);
+            }
+        } finally {
+            activeJobs.remove(lease.runId());
+            gatkRunnerService.clearCancellation(lease.analysisId(), lease.runId());
+            // A later claim of the same analysis may already run on this node
+            if (!isActive(lease.analysisId())) {
+                gatkRunnerService.clearCancellation(lease.analysisId());
+                gatkProgressTracker.clear(lease.analysisId());
+            }
+            analysisJobService.finish(lease);
+        }
+    }
+    
+    private boolean isActive(Long analysisId) {
+        return activeJobs.values().stream().anyMatch(lease -> lease.analysisId().equals(analysisId));
+    }
+}
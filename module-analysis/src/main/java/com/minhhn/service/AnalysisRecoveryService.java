@@ -0,0 +1,57 @@
+package com.minhhn.service;
+
+import com.minhhn.enums.AnalysisStatus;
+import com.minhhn.exception.JobQueueFullException;
+import com.minhhn.model.Analysis;
+import com.minhhn.repository.AnalysisJobRepository;
+import com.minhhn.repository.AnalysisRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queues analyses that were left PENDING or RUNNING without a job, i.e. created before
+ * the durable job queue existed. Analyses with a job are recovered by the job queue
+ * itself when the lease of their dead worker expires.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class AnalysisRecoveryService {
+
+    private final AnalysisRepository analysisRepository;
+    private final AnalysisJobRepository analysisJobRepository;
+    private final AnalysisJobService analysisJobService;
+    
+    /**
+     * Finds orphaned analyses without a job on startup and queues them. Their workers
+     * resume them from the first incomplete step.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeOrphanedAnalyses() {
+        List<Analysis> orphaned = new ArrayList<>(analysisRepository.findByStatus(AnalysisStatus.RUNNING));
+        orphaned.addAll(analysisRepository.findByStatus(AnalysisStatus.PENDING));
+        orphaned.removeIf(analysis -> analysisJobRepository.existsByAnalysisId(analysis.getId()));
+        if (orphaned.isEmpty()) {
+            return;
+        }
+        
+        log.info("Queueing {} analyses that were left without a job", orphaned.size());
+        for (Analysis analysis : orphaned) {
+            try {
+                analysisJobService.enqueue(analysis);
+            } catch (DataIntegrityViolationException e) {
+                // Another node starting at the same time queued it first
+                log.debug("Analysis {} was already queued", analysis.getId());
+            } catch (JobQueueFullException e) {
+                log.warn("Cannot queue analysis {}: {}", analysis.getId(), e.getMessage());
+            }
+        }
+    }
+}
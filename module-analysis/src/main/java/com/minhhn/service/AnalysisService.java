@@ -1,27 +1,53 @@
 package com.minhhn.service;
 
+import com.minhhn.dto.AnalysisBatchDTO;
 import com.minhhn.dto.AnalysisDTO;
+import com.minhhn.dto.AnalysisProgressDTO;
+import com.minhhn.dto.CreateAnalysisBatchRequest;
 import com.minhhn.dto.CreateAnalysisRequest;
+import com.minhhn.dto.JobQueueStatusDTO;
 import com.minhhn.enums.AnalysisStatus;
+import com.minhhn.enums.JobPriority;
+import com.minhhn.enums.JobStatus;
+import com.minhhn.event.AnalysisCancelledEvent;
+import com.minhhn.exception.InvalidAnalysisStateException;
+import com.minhhn.exception.ResourceNotFoundException;
 import com.minhhn.mapper.AnalysisMapper;
 import com.minhhn.model.Analysis;
-import com.minhhn.model.GatkCommand;
-import com.minhhn.model.GatkCommandResult;
+import com.minhhn.model.AnalysisJob;
+import com.minhhn.model.AnalysisProgress;
+import com.minhhn.model.GatkRunContext;
+import com.minhhn.model.JobLease;
+import com.minhhn.model.Sample;
+import com.minhhn.pipeline.PipelineContext;
+import com.minhhn.pipeline.PipelineDefinition;
+import com.minhhn.pipeline.PipelineEngine;
+import com.minhhn.pipeline.PipelineRegistry;
+import com.minhhn.pipeline.PipelineResult;
+import com.minhhn.pipeline.StepTiming;
+import com.minhhn.repository.AnalysisBatchRepository;
 import com.minhhn.repository.AnalysisRepository;
-import com.minhhn.service.VariantCallingService;
-import com.minhhn.service.VariantFilteringService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -32,11 +58,24 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class AnalysisService {
 
+    // Block-gzipped VCFs, which GATK indexes with tabix so later steps can seek to their intervals
+    private static final String VCF_EXTENSION = ".vcf.gz";
+    
     private final AnalysisRepository analysisRepository;
+    private final AnalysisBatchRepository analysisBatchRepository;
     private final AnalysisMapper analysisMapper;
     private final com.minhhn.repository.SampleRepository sampleRepository;
-    private final VariantCallingService variantCallingService;
-    private final VariantFilteringService variantFilteringService;
+    private final PipelineRegistry pipelineRegistry;
+    private final PipelineEngine pipelineEngine;
+    private final StepCheckpointService stepCheckpointService;
+    private final AnalysisJobExecutor analysisJobExecutor;
+    private final AnalysisJobService analysisJobService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final GatkProgressTracker gatkProgressTracker;
+    private final GatkJobScheduler gatkJobScheduler;
+    private final AnalysisWorkspaceService analysisWorkspaceService;
+    private final VariantRegionService variantRegionService;
+    private final MeterRegistry meterRegistry;
     
     @Value("${analysis.output.directory:/data/output}")
     private String outputDirectory;
@@ -44,35 +83,106 @@ public class AnalysisService {
     @Value("${analysis.reference.genome:/data/reference/Homo_sapiens_assembly38.fasta}")
     private String defaultReferenceGenome;
     
-    @Value("${analysis.funcotator.datasources:/data/funcotator_dataSources}")
-    private String funcotatorDataSources;
-    
     /**
-     * Creates a new analysis and starts it asynchronously.
+     * Creates a new analysis and queues it for execution.
      * 
      * @param request The analysis creation request
      * @return The created analysis DTO
+     * @throws com.minhhn.exception.JobQueueFullException If no more analyses can be queued
+     * @throws com.minhhn.exception.InsufficientStorageException If the scratch or output volume is nearly full
      */
     @Transactional
     public AnalysisDTO createAnalysis(CreateAnalysisRequest request) {
         log.info("Creating new analysis for sample ID: {}", request.getSampleId());
+        analysisWorkspaceService.requireCapacity();
         
         // Verify sample exists
         var sample = sampleRepository.findById(request.getSampleId())
                 .orElseThrow(() -> new RuntimeException("Sample not found with ID: " + request.getSampleId()));
         
+        Analysis analysis = prepareAnalysis(request, sample);
+        
+        // Save the analysis
+        Analysis savedAnalysis = analysisRepository.save(analysis);
+        
+        // Queue the analysis; a worker node claims the job once this transaction has committed
+        analysisJobService.enqueue(savedAnalysis);
+        meterRegistry.counter("analysis.submitted", "source", "single").increment();
+        
+        return analysisMapper.toDto(savedAnalysis);
+    }
+    
+    /**
+     * Creates the analyses of a whole sequencing run and queues them as one batch. All
+     * samples are looked up with a single query and the analyses and jobs are written with
+     * JDBC batching, so the batch is accepted or rejected as a whole.
+     * 
+     * @param request The batch creation request
+     * @return The created batch with its analyses
+     * @throws ResourceNotFoundException If any of the samples does not exist
+     * @throws com.minhhn.exception.JobQueueFullException If the queue has no room for the batch
+     * @throws com.minhhn.exception.InsufficientStorageException If the scratch or output volume is nearly full
+     */
+    @Transactional
+    public AnalysisBatchDTO createAnalysisBatch(CreateAnalysisBatchRequest request) {
+        List<CreateAnalysisRequest> requests = request.getAnalyses();
+        log.info("Creating batch of {} analyses", requests.size());
+        analysisWorkspaceService.requireCapacity();
+        
+        Set<Long> sampleIds = requests.stream()
+                .map(CreateAnalysisRequest::getSampleId)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        Map<Long, Sample> samples = sampleRepository.findAllById(sampleIds).stream()
+                .collect(Collectors.toMap(Sample::getId, Function.identity()));
+        List<Long> missing = sampleIds.stream().filter(id -> !samples.containsKey(id)).toList();
+        if (!missing.isEmpty()) {
+            throw new ResourceNotFoundException("Sample", "IDs", missing);
+        }
+        
+        String batchId = UUID.randomUUID().toString();
+        List<Analysis> analyses = requests.stream()
+                .map(item -> prepareAnalysis(item, samples.get(item.getSampleId())))
+                .toList();
+        analyses.forEach(analysis -> analysis.setBatchId(batchId));
+        
+        analysisBatchRepository.insertAnalyses(analyses);
+        
+        // The jobs share one creation time, so workers claim the batch back to back and the
+        // reference and annotation resources stay warm across it
+        analysisJobService.enqueueBatch(analyses, batchId);
+        meterRegistry.counter("analysis.submitted", "source", "batch").increment(analyses.size());
+        log.info("Queued batch {} with {} analyses", batchId, analyses.size());
+        
+        return AnalysisBatchDTO.builder()
+                .batchId(batchId)
+                .count(analyses.size())
+                .analyses(analyses.stream().map(analysisMapper::toDto).toList())
+                .build();
+    }
+    
+    /**
+     * Builds a pending analysis for a sample with unique output paths.
+     * 
+     * @param request The analysis creation request
+     * @param sample The sample to analyze
+     * @return The unsaved analysis
+     */
+    private Analysis prepareAnalysis(CreateAnalysisRequest request, Sample sample) {
         // Create analysis entity
         Analysis analysis = analysisMapper.toEntity(request);
         analysis.setSample(sample);
         analysis.setStatus(AnalysisStatus.PENDING);
         analysis.setStartedAt(LocalDateTime.now());
+        if (analysis.getPriority() == null) {
+            analysis.setPriority(JobPriority.ROUTINE);
+        }
         
         // Generate unique output paths
         String analysisId = UUID.randomUUID().toString().substring(0, 8);
         String sampleCode = sample.getSampleCode();
         
         Path outputPath = Paths.get(outputDirectory, sampleCode, analysisId);
-        String vcfPath = outputPath.resolve(sampleCode + ".vcf").toString();
+        String vcfPath = outputPath.resolve(sampleCode + VCF_EXTENSION).toString();
         String logPath = outputPath.resolve(sampleCode + ".log").toString();
         
         analysis.setVcfPath(vcfPath);
@@ -87,34 +197,48 @@ public class AnalysisService {
             analysis.setBamPath(request.getBamPath());
         }
         
-        // Save the analysis
-        Analysis savedAnalysis = analysisRepository.save(analysis);
-        
-        // Start the analysis asynchronously
-        startAnalysis(savedAnalysis.getId(), request.getReferenceGenomePath(), request.getIntervalListPath());
-        
-        return analysisMapper.toDto(savedAnalysis);
+        return analysis;
     }
     
     /**
-     * Starts the analysis process asynchronously.
+     * Runs the analysis pipeline. Called by the job worker on the analysis job executor.
+     * The final status is only recorded while the worker still holds the lease of the job.
      * 
-     * @param analysisId The ID of the analysis to start
+     * @param lease The lease of the job the analysis runs under
      * @param referenceGenomePath Optional custom reference genome path
      * @param intervalListPath Optional interval list path for targeted analysis
      */
-    @Async
-    public void startAnalysis(Long analysisId, String referenceGenomePath, String intervalListPath) {
+    public void startAnalysis(JobLease lease, String referenceGenomePath, String intervalListPath) {
+        Long analysisId = lease.analysisId();
         log.info("Starting analysis with ID: {}", analysisId);
         
+        String pipelineVersion = "unknown";
+        long runningSince = 0;
+        boolean workspaceOpened = false;
+        boolean succeeded = false;
+        // Set once the job is found to belong to another claim, which may be using the workspace
+        boolean leaseLost = false;
         try {
             // Get the analysis
-            Analysis analysis = analysisRepository.findById(analysisId)
+            Analysis analysis = analysisRepository.findWithSampleById(analysisId)
                     .orElseThrow(() -> new RuntimeException("Analysis not found with ID: " + analysisId));
+            if (analysis.getStatus() == AnalysisStatus.CANCELLED) {
+                log.info("Analysis {} was cancelled before it started", analysisId);
+                return;
+            }
             
             // Update status to RUNNING
-            analysis.setStatus(AnalysisStatus.RUNNING);
-            analysisRepository.save(analysis);
+            pipelineVersion = analysis.getPipelineVersion();
+            if (analysis.getStatus() == AnalysisStatus.PENDING && analysis.getStartedAt() != null) {
+                recordTransition(pipelineVersion, AnalysisStatus.PENDING, AnalysisStatus.RUNNING,
+                        Duration.between(analysis.getStartedAt(), LocalDateTime.now()));
+            }
+            // A conditional update, so that a cancellation since the analysis was read is not overwritten
+            if (analysisRepository.markRunning(analysisId) == 0) {
+                log.info("Analysis {} was cancelled before it started", analysisId);
+                return;
+            }
+            runningSince = System.nanoTime();
             
             // Use provided reference genome or default
             String referenceGenome = (referenceGenomePath != null && !referenceGenomePath.isEmpty()) 
@@ -125,43 +249,93 @@ public class AnalysisService {
             String sampleCode = analysis.getSample().getSampleCode();
             Path outputPath = Paths.get(analysis.getVcfPath()).getParent();
             
-            // Generate intermediate file paths
-            String rawVcfPath = outputPath.resolve(sampleCode + ".raw.vcf").toString();
-            String filteredVcfPath = outputPath.resolve(sampleCode + ".filtered.vcf").toString();
-            String finalVcfPath = analysis.getVcfPath();
+            // Steps run on local scratch; a workspace left by an earlier run is reused for resuming
+            Path workspace = analysisWorkspaceService.open(analysisId);
+            workspaceOpened = true;
             
-            // Step 1: Call variants
-            GatkCommandResult variantResult = variantCallingService.callVariants(
-                    bamPath, rawVcfPath, intervalListPath);
+            // Every step streams its output to the analysis log
+            GatkRunContext context = GatkRunContext.builder()
+                    .analysisId(analysisId)
+                    .runId(lease.runId())
+                    .pipelineVersion(analysis.getPipelineVersion())
+                    .logFile(analysis.getLogPath())
+                    .priority(analysis.getPriority() != null ? analysis.getPriority() : JobPriority.ROUTINE)
+                    .submitter(analysis.getSubmitter())
+                    .workDirectory(workspace.toString())
+                    .build();
             
-            if (!variantResult.isSuccess()) {
-                failAnalysis(analysis, "Variant calling failed: " + variantResult.getErrorMessage());
-                return;
-            }
+            // Final location of the artifacts that are promoted to the output volume
+            Map<String, String> resultPaths = Map.of(
+                    PipelineRegistry.FINAL_VCF, analysis.getVcfPath(),
+                    PipelineRegistry.SNP_VCF, outputPath.resolve(sampleCode + ".snp" + VCF_EXTENSION).toString(),
+                    PipelineRegistry.INDEL_VCF, outputPath.resolve(sampleCode + ".indel" + VCF_EXTENSION).toString());
             
-            // Step 2: Filter variants
-            GatkCommandResult filterResult = variantFilteringService.filterVariants(
-                    rawVcfPath, filteredVcfPath);
+            // Paths of the input, intermediate and final files of the pipeline, all but the input in the workspace
+            PipelineContext pipelineContext = PipelineContext.builder()
+                    .artifactPaths(Map.of(
+                            PipelineRegistry.BAM, bamPath,
+                            PipelineRegistry.RAW_VCF, workspace.resolve(sampleCode + ".raw" + VCF_EXTENSION).toString(),
+                            PipelineRegistry.FILTERED_VCF,
+                            workspace.resolve(sampleCode + ".filtered" + VCF_EXTENSION).toString(),
+                            PipelineRegistry.FINAL_VCF, workspace.resolve(sampleCode + VCF_EXTENSION).toString(),
+                            PipelineRegistry.GENOTYPED_VCF,
+                            workspace.resolve(sampleCode + ".genotyped" + VCF_EXTENSION).toString(),
+                            PipelineRegistry.SNP_VCF, workspace.resolve(sampleCode + ".snp" + VCF_EXTENSION).toString(),
+                            PipelineRegistry.INDEL_VCF,
+                            workspace.resolve(sampleCode + ".indel" + VCF_EXTENSION).toString()))
+                    .referenceGenome(referenceGenome)
+                    .intervalList(intervalListPath)
+                    .runContext(context)
+                    .build();
             
-            if (!filterResult.isSuccess()) {
-                failAnalysis(analysis, "Variant filtering failed: " + filterResult.getErrorMessage());
+            // Run the pipeline of this version; independent steps run in parallel
+            PipelineDefinition pipeline = pipelineRegistry.forVersion(analysis.getPipelineVersion());
+            PipelineResult result = pipelineEngine.run(pipeline, pipelineContext,
+                    stepCheckpointService.forAnalysis(analysisId));
+            recordStepTimings(pipelineVersion, result);
+            
+            // A cancelled analysis keeps its CANCELLED status whatever the pipeline did
+            if (isCancelled(analysisId)) {
+                log.info("Analysis {} stopped after it was cancelled", analysisId);
+                recordTransition(pipelineVersion, AnalysisStatus.RUNNING, AnalysisStatus.CANCELLED,
+                        Duration.ofNanos(System.nanoTime() - runningSince));
                 return;
             }
             
-            // Step 3: Annotate variants
-            GatkCommandResult annotationResult = variantFilteringService.annotateVariants(
-                    filteredVcfPath, finalVcfPath, funcotatorDataSources);
-            
-            if (!annotationResult.isSuccess()) {
-                failAnalysis(analysis, "Variant annotation failed: " + annotationResult.getErrorMessage());
+            if (!result.isSuccess()) {
+                leaseLost = !failAnalysis(lease,
+                        "Pipeline step " + result.getFailedStep() + " failed: " + result.getErrorMessage());
+                if (!leaseLost) {
+                    recordTransition(pipelineVersion, AnalysisStatus.RUNNING, AnalysisStatus.FAILED,
+                            Duration.ofNanos(System.nanoTime() - runningSince));
+                }
                 return;
             }
             
+            // Move the results to the output volume; intermediates stay behind in the workspace
+            for (String artifact : pipeline.getProducedArtifacts()) {
+                if (resultPaths.containsKey(artifact)) {
+                    String artifactPath = pipelineContext.pathOf(artifact);
+                    // Region queries need the index, which then travels with the VCF
+                    if (artifactPath.endsWith(VCF_EXTENSION)) {
+                        variantRegionService.ensureIndex(artifactPath);
+                    }
+                    analysisWorkspaceService.promote(artifactPath, resultPaths.get(artifact));
+                }
+            }
+            succeeded = true;
+            
             // Complete the analysis
-            analysis.setStatus(AnalysisStatus.DONE);
-            analysis.setFinishedAt(LocalDateTime.now());
-            analysis.setResultSummary("Analysis completed successfully. Found variants in " + finalVcfPath);
-            analysisRepository.save(analysis);
+            String summary = "Analysis completed successfully. Found variants in " + analysis.getVcfPath()
+                    + ". Step timings: " + result.describeTimings();
+            if (!finishAnalysis(lease, AnalysisStatus.DONE, summary)) {
+                leaseLost = true;
+                log.warn("Analysis {} completed after its job lease (attempt {}) was lost, not recording it",
+                        analysisId, lease.attempt());
+                return;
+            }
+            recordTransition(pipelineVersion, AnalysisStatus.RUNNING, AnalysisStatus.DONE,
+                    Duration.ofNanos(System.nanoTime() - runningSince));
             
             log.info("Analysis completed successfully for ID: {}", analysisId);
             
@@ -169,24 +343,212 @@ public class AnalysisService {
             log.error("Error during analysis execution", e);
             
             // Get the analysis again in case it was modified
-            analysisRepository.findById(analysisId).ifPresent(analysis -> {
-                failAnalysis(analysis, "Analysis failed with error: " + e.getMessage());
-            });
+            boolean cancelled = analysisRepository.findById(analysisId)
+                    .map(analysis -> analysis.getStatus() == AnalysisStatus.CANCELLED)
+                    .orElse(true);
+            if (!cancelled) {
+                leaseLost = !failAnalysis(lease, "Analysis failed with error: " + e.getMessage());
+            }
+            if (runningSince != 0 && !cancelled && !leaseLost) {
+                recordTransition(pipelineVersion, AnalysisStatus.RUNNING, AnalysisStatus.FAILED,
+                        Duration.ofNanos(System.nanoTime() - runningSince));
+            }
+        } finally {
+            if (workspaceOpened && !leaseLost) {
+                analysisWorkspaceService.release(analysisId, succeeded);
+            }
         }
     }
     
     /**
-     * Marks an analysis as failed with the given error message.
+     * Records how long an analysis spent in a status before moving to the next one.
      * 
-     * @param analysis The analysis to mark as failed
+     * @param pipelineVersion The pipeline of the analysis
+     * @param from The status the analysis left
+     * @param to The status the analysis entered
+     * @param duration The time spent in the status it left
+     */
+    private void recordTransition(String pipelineVersion, AnalysisStatus from, AnalysisStatus to, Duration duration) {
+        Timer.builder("analysis.status.transition")
+                .description("Time analyses spent in a status before moving to the next")
+                .tag("pipeline", pipelineVersion)
+                .tag("from", from.name())
+                .tag("to", to.name())
+                .register(meterRegistry)
+                .record(duration);
+    }
+    
+    /**
+     * Records the duration and outcome of every step of a pipeline run.
+     * 
+     * @param pipelineVersion The pipeline that ran
+     * @param result The result of the run
+     */
+    private void recordStepTimings(String pipelineVersion, PipelineResult result) {
+        for (StepTiming timing : result.getStepTimings()) {
+            String outcome = timing.isResumed() ? "resumed" : timing.isSuccess() ? "success" : "failure";
+            Timer.builder("analysis.step")
+                    .description("Run time of pipeline steps")
+                    .tag("pipeline", pipelineVersion)
+                    .tag("step", timing.getStepName())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(timing.getDurationMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Resumes an analysis from its first incomplete step. Completed steps are only
+     * skipped if their recorded outputs are still intact.
+     * 
+     * @param lease The lease of the job the analysis runs under
+     */
+    public void resumeAnalysis(JobLease lease) {
+        log.info("Resuming analysis with ID: {}", lease.analysisId());
+        runAnalysis(lease);
+    }
+    
+    /**
+     * Runs an analysis with the reference genome and interval list it was created with.
+     * 
+     * @param lease The lease of the job the analysis runs under
+     */
+    public void runAnalysis(JobLease lease) {
+        Analysis analysis = analysisRepository.findById(lease.analysisId())
+                .orElseThrow(() -> new RuntimeException("Analysis not found with ID: " + lease.analysisId()));
+        
+        startAnalysis(lease, analysis.getReferenceGenomePath(), analysis.getIntervalListPath());
+    }
+    
+    /**
+     * Cancels an analysis. A queued analysis never starts; the GATK commands of a running
+     * one are killed and their resources released.
+     * 
+     * @param id The analysis ID
+     * @return The cancelled analysis DTO
+     * @throws ResourceNotFoundException If the analysis does not exist
+     * @throws InvalidAnalysisStateException If the analysis has already finished
+     */
+    @Transactional
+    public AnalysisDTO cancelAnalysis(Long id) {
+        if (!analysisRepository.existsById(id)) {
+            throw new ResourceNotFoundException("Analysis", "ID", id);
+        }
+        
+        // Only an analysis that has not finished yet, checked in the update itself to win any race with the worker
+        log.info("Cancelling analysis with ID: {}", id);
+        int cancelled = analysisRepository.finishIfActive(id, AnalysisStatus.CANCELLED, LocalDateTime.now(),
+                "Analysis cancelled by user");
+        Analysis analysis = analysisRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Analysis", "ID", id));
+        if (cancelled == 0) {
+            throw new InvalidAnalysisStateException("Analysis " + id + " is already " + analysis.getStatus());
+        }
+        
+        analysisJobService.cancel(id);
+        eventPublisher.publishEvent(new AnalysisCancelledEvent(id));
+        
+        return analysisMapper.toDto(analysis);
+    }
+    
+    /**
+     * Gets the progress of an analysis. The node running the analysis answers from the live
+     * ProgressMeter output of its GATK commands; other nodes answer from the progress the
+     * worker last recorded with its heartbeat.
+     * 
+     * @param id The analysis ID
+     * @return The progress DTO
+     * @throws ResourceNotFoundException If the analysis does not exist
+     */
+    @Transactional(readOnly = true)
+    public AnalysisProgressDTO getProgress(Long id) {
+        Analysis analysis = analysisRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Analysis", "ID", id));
+        AnalysisJob job = analysisJobService.findByAnalysisId(id).orElse(null);
+        
+        AnalysisProgressDTO.AnalysisProgressDTOBuilder progress = AnalysisProgressDTO.builder()
+                .analysisId(id)
+                .status(analysis.getStatus())
+                .workerId(job != null && job.getStatus() == JobStatus.RUNNING ? job.getWorkerId() : null);
+        
+        if (analysis.getStatus() == AnalysisStatus.DONE) {
+            return progress.percentComplete(100.0).build();
+        }
+        
+        Optional<AnalysisProgress> live = gatkProgressTracker.getProgress(id);
+        if (live.isPresent()) {
+            progress.percentComplete(live.get().getPercentComplete())
+                    .currentLocus(AnalysisJobService.locusOf(live.get()))
+                    .recordsPerMinute(live.get().getRecordsPerMinute())
+                    .updatedAt(live.get().getUpdatedAt())
+                    .commands(live.get().getCommands());
+        } else if (job != null) {
+            progress.percentComplete(job.getProgressPercent())
+                    .currentLocus(job.getProgressLocus())
+                    .recordsPerMinute(job.getProgressRecordsPerMinute())
+                    .updatedAt(job.getProgressUpdatedAt());
+        }
+        
+        AnalysisProgressDTO result = progress.build();
+        if (result.getUpdatedAt() != null) {
+            result.setSecondsSinceUpdate(Duration.between(result.getUpdatedAt(), LocalDateTime.now()).toSeconds());
+        }
+        return result;
+    }
+    
+    /**
+     * Gets the state of the analysis job executor of this node and of the shared job queue.
+     * 
+     * @return Running, queued and rejected job counts
+     */
+    public JobQueueStatusDTO getQueueStatus() {
+        return JobQueueStatusDTO.builder()
+                .workerId(analysisJobService.getWorkerId())
+                .running(analysisJobExecutor.getRunningCount())
+                .queued(analysisJobExecutor.getQueueDepth())
+                .capacity(analysisJobExecutor.getCapacity())
+                .pendingJobs(analysisJobService.getQueuedCount())
+                .rejected(analysisJobExecutor.getRejectedCount() + analysisJobService.getRejectedCount())
+                .jobWaits(analysisJobService.getWaitStatistics())
+                .commandWaits(gatkJobScheduler.getWaitStatistics())
+                .build();
+    }
+    
+    private boolean isCancelled(Long analysisId) {
+        return analysisRepository.findById(analysisId)
+                .map(analysis -> analysis.getStatus() == AnalysisStatus.CANCELLED)
+                .orElse(false);
+    }
+    
+    /**
+     * Marks an analysis as failed with the given error message, if the worker still holds
+     * the lease of its job.
+     * 
+     * @param lease The lease of the job the analysis ran under
      * @param errorMessage The error message
+     * @return False if the lease was lost and the status left alone
+     */
+    private boolean failAnalysis(JobLease lease, String errorMessage) {
+        if (!finishAnalysis(lease, AnalysisStatus.FAILED, errorMessage)) {
+            log.warn("Analysis {} failed after its job lease (attempt {}) was lost, not recording it: {}",
+                    lease.analysisId(), lease.attempt(), errorMessage);
+            return false;
+        }
+        log.error("Analysis failed for ID: {}. Reason: {}", lease.analysisId(), errorMessage);
+        return true;
+    }
+    
+    /**
+     * Records the final status of an analysis, if the worker still holds the lease of its job.
+     * 
+     * @param lease The lease of the job the analysis ran under
+     * @param status The final status
+     * @param resultSummary The summary of the result
+     * @return False if the lease was lost and the status left alone
      */
-    private void failAnalysis(Analysis analysis, String errorMessage) {
-        analysis.setStatus(AnalysisStatus.FAILED);
-        analysis.setFinishedAt(LocalDateTime.now());
-        analysis.setResultSummary(errorMessage);
-        analysisRepository.save(analysis);
-        log.error("Analysis failed for ID: {}. Reason: {}", analysis.getId(), errorMessage);
+    private boolean finishAnalysis(JobLease lease, AnalysisStatus status, String resultSummary) {
+        return analysisRepository.finishIfLeaseHeld(lease.analysisId(), lease.jobId(), lease.workerId(),
+                lease.attempt(), status, LocalDateTime.now(), resultSummary) == 1;
     }
     
     /**
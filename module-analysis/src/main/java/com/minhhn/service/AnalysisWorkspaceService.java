@@ -0,0 +1,287 @@
+package com.minhhn.service;
+
+import com.minhhn.config.WorkspaceProperties;
+import com.minhhn.enums.AnalysisStatus;
+import com.minhhn.enums.IntermediateRetention;
+import com.minhhn.exception.InsufficientStorageException;
+import com.minhhn.model.Analysis;
+import com.minhhn.repository.AnalysisRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Manages the local scratch workspace of every running analysis. GATK runs with the
+ * workspace as its working and temp directory, intermediates stay in it, and only the
+ * final artifacts are promoted to the shared output volume. Workspaces are deleted
+ * according to the retention policy, and new work is refused while either volume is
+ * short of free space.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class AnalysisWorkspaceService {
+    
+    private static final String WORKSPACE_PREFIX = "analysis-";
+    private static final String INDEX_EXTENSION = ".tbi";
+    
+    private final WorkspaceProperties workspaceProperties;
+    private final AnalysisRepository analysisRepository;
+    
+    @Value("${analysis.output.directory:/data/output}")
+    private String outputDirectory;
+    
+    // Whether the last capacity check found a shortage, so it is only logged when it starts and ends
+    private volatile boolean lowOnSpace;
+    
+    /**
+     * Creates the workspace of an analysis, or reuses the one left by an earlier run so
+     * that completed steps can be resumed.
+     * 
+     * @param analysisId The analysis ID
+     * @return The workspace directory
+     * @throws UncheckedIOException If the workspace cannot be created
+     */
+    public Path open(Long analysisId) {
+        Path workspace = workspaceOf(analysisId);
+        try {
+            Files.createDirectories(tmpDirectoryOf(workspace));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create workspace " + workspace, e);
+        }
+        log.debug("Opened workspace {} for analysis {}", workspace, analysisId);
+        return workspace;
+    }
+    
+    /**
+     * Gets the workspace directory of an analysis, whether it exists or not.
+     * 
+     * @param analysisId The analysis ID
+     * @return The workspace directory
+     */
+    public Path workspaceOf(Long analysisId) {
+        return Path.of(workspaceProperties.getScratchDirectory(), WORKSPACE_PREFIX + analysisId);
+    }
+    
+    /**
+     * Gets the directory GATK writes its temp files to within a workspace.
+     * 
+     * @param workspace The workspace directory
+     * @return The temp directory
+     */
+    public Path tmpDirectoryOf(Path workspace) {
+        return workspace.resolve("tmp");
+    }
+    
+    /**
+     * Checks that the scratch and output volumes have room for new analyses.
+     * 
+     * @throws InsufficientStorageException If either volume is below its free-space threshold
+     */
+    public void requireCapacity() {
+        String shortage = findShortage();
+        if (shortage != null) {
+            throw new InsufficientStorageException(shortage + ", not accepting new analyses");
+        }
+    }
+    
+    /**
+     * Tells whether the scratch and output volumes have room for new analyses.
+     * 
+     * @return True if both volumes are above their free-space thresholds
+     */
+    public boolean hasCapacity() {
+        String shortage = findShortage();
+        if (shortage != null && !lowOnSpace) {
+            log.warn("{}, not claiming new analyses", shortage);
+        } else if (shortage == null && lowOnSpace) {
+            log.info("Free space recovered, claiming new analyses again");
+        }
+        lowOnSpace = shortage != null;
+        return shortage == null;
+    }
+    
+    /**
+     * Moves a finished artifact from the workspace to its final location, together with
+     * its tabix index. Across file systems the artifact is copied next to its target first
+     * and renamed, so readers never see a partial file.
+     * 
+     * @param source The artifact in the workspace
+     * @param target The final path on the output volume
+     * @throws UncheckedIOException If the artifact cannot be moved
+     */
+    public void promote(String source, String target) {
+        try {
+            // The index goes first so the artifact never appears without it
+            Path sourceIndex = Path.of(source + INDEX_EXTENSION);
+            if (Files.exists(sourceIndex)) {
+                move(sourceIndex, Path.of(target + INDEX_EXTENSION));
+            }
+            move(Path.of(source), Path.of(target));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot promote " + source + " to " + target, e);
+        }
+        log.info("Promoted {} to {}", source, target);
+    }
+    
+    /**
+     * Releases the workspace of an analysis whose pipeline has finished, deleting it
+     * unless the retention policy keeps it.
+     * 
+     * @param analysisId The analysis ID
+     * @param success Whether the analysis completed successfully
+     */
+    public void release(Long analysisId, boolean success) {
+        IntermediateRetention retention = workspaceProperties.getRetention();
+        boolean keep = retention == IntermediateRetention.KEEP
+                || (retention == IntermediateRetention.KEEP_ON_FAILURE && !success);
+        if (keep) {
+            log.info("Keeping workspace of analysis {} for {}", analysisId, workspaceProperties.getRetentionPeriod());
+            return;
+        }
+        delete(workspaceOf(analysisId));
+    }
+    
+    /**
+     * Deletes kept workspaces that have not changed within the retention period, and
+     * workspaces of analyses that no longer exist. Workspaces of analyses that are
+     * pending or running are never touched.
+     */
+    @Scheduled(fixedDelayString = "${analysis.workspace.sweep-interval-ms:3600000}")
+    public void sweep() {
+        Path scratch = Path.of(workspaceProperties.getScratchDirectory());
+        if (!Files.isDirectory(scratch)) {
+            return;
+        }
+        
+        Instant cutoff = Instant.now().minus(workspaceProperties.getRetentionPeriod());
+        try (DirectoryStream<Path> workspaces = Files.newDirectoryStream(scratch, WORKSPACE_PREFIX + "*")) {
+            for (Path workspace : workspaces) {
+                Long analysisId = parseAnalysisId(workspace);
+                if (analysisId == null) {
+                    continue;
+                }
+                
+                Optional<AnalysisStatus> status = analysisRepository.findById(analysisId).map(Analysis::getStatus);
+                if (status.isPresent() && (status.get() == AnalysisStatus.PENDING
+                        || status.get() == AnalysisStatus.RUNNING)) {
+                    continue;
+                }
+                if (status.isEmpty() || lastModified(workspace).toInstant().isBefore(cutoff)) {
+                    log.info("Sweeping workspace {} of analysis {}", workspace, analysisId);
+                    delete(workspace);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot sweep scratch directory {}: {}", scratch, e.getMessage());
+        }
+    }
+    
+    private String findShortage() {
+        long minScratch = workspaceProperties.getMinFreeScratch().toBytes();
+        long freeScratch = usableSpace(Path.of(workspaceProperties.getScratchDirectory()));
+        if (freeScratch >= 0 && freeScratch < minScratch) {
+            return "Scratch volume has " + freeScratch / (1024 * 1024) + " MB free, below the minimum of "
+                    + minScratch / (1024 * 1024) + " MB";
+        }
+        
+        long minOutput = workspaceProperties.getMinFreeOutput().toBytes();
+        long freeOutput = usableSpace(Path.of(outputDirectory));
+        if (freeOutput >= 0 && freeOutput < minOutput) {
+            return "Output volume has " + freeOutput / (1024 * 1024) + " MB free, below the minimum of "
+                    + minOutput / (1024 * 1024) + " MB";
+        }
+        return null;
+    }
+    
+    /**
+     * Gets the usable space of the volume holding a path, which may not exist yet.
+     * 
+     * @param path The path
+     * @return The usable bytes, or -1 if no part of the path exists
+     */
+    private long usableSpace(Path path) {
+        Path existing = path.toAbsolutePath();
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            return -1;
+        }
+        
+        try {
+            return Files.getFileStore(existing).getUsableSpace();
+        } catch (IOException e) {
+            log.warn("Cannot determine free space of {}: {}", existing, e.getMessage());
+            return -1;
+        }
+    }
+    
+    private void move(Path source, Path target) throws IOException {
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Scratch is usually a different device than the output volume
+            Path partial = target.resolveSibling(target.getFileName() + ".partial");
+            // Keeping the modification times keeps a promoted index no older than its VCF
+            Files.copy(source, partial, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(source);
+        }
+    }
+    
+    private void delete(Path workspace) {
+        if (!Files.exists(workspace)) {
+            return;
+        }
+        
+        try (Stream<Path> paths = Files.walk(workspace)) {
+            List<Path> deepestFirst = paths.sorted(Comparator.reverseOrder()).toList();
+            for (Path path : deepestFirst) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot delete workspace {}: {}", workspace, e.getMessage());
+        }
+    }
+    
+    private FileTime lastModified(Path workspace) throws IOException {
+        try (Stream<Path> paths = Files.walk(workspace)) {
+            return paths.map(path -> {
+                try {
+                    return Files.getLastModifiedTime(path);
+                } catch (IOException e) {
+                    return FileTime.fromMillis(0);
+                }
+            }).max(Comparator.naturalOrder()).orElse(FileTime.fromMillis(0));
+        }
+    }
+    
+    private Long parseAnalysisId(Path workspace) {
+        try {
+            return Long.parseLong(workspace.getFileName().toString().substring(WORKSPACE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
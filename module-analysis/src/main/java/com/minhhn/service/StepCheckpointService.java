@@ -0,0 +1,160 @@
+package com.minhhn.service;
+
+import com.minhhn.enums.StepStatus;
+import com.minhhn.model.AnalysisStep;
+import com.minhhn.model.StepAttempt;
+import com.minhhn.model.StepOutput;
+import com.minhhn.pipeline.PipelineCheckpoints;
+import com.minhhn.pipeline.PipelineContext;
+import com.minhhn.pipeline.PipelineStep;
+import com.minhhn.pipeline.StepTiming;
+import com.minhhn.repository.AnalysisRepository;
+import com.minhhn.repository.AnalysisStepRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Persists per-step completion records of analyses, with the path, size and SHA-256 of
+ * every output, and verifies those outputs before a resumed analysis reuses them.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class StepCheckpointService {
+
+    private final AnalysisStepRepository analysisStepRepository;
+    private final AnalysisRepository analysisRepository;
+    
+    /**
+     * Gets the checkpoints of one analysis for the pipeline engine.
+     * 
+     * @param analysisId The analysis ID
+     * @return The checkpoints of the analysis
+     */
+    public PipelineCheckpoints forAnalysis(Long analysisId) {
+        return new PipelineCheckpoints() {
+            @Override
+            public boolean isCompleted(PipelineStep step, PipelineContext context) {
+                return verify(analysisId, step, context);
+            }
+            
+            @Override
+            public void stepFinished(PipelineStep step, StepTiming timing, PipelineContext context) {
+                record(analysisId, step, timing, context);
+            }
+        };
+    }
+    
+    private boolean verify(Long analysisId, PipelineStep step, PipelineContext context) {
+        Optional<AnalysisStep> record = analysisStepRepository.findByAnalysisIdAndStepName(analysisId, step.getName());
+        if (record.isEmpty() || record.get().getStatus() != StepStatus.COMPLETED
+                || record.get().getOutputs().size() != step.getOutputs().size()) {
+            return false;
+        }
+        
+        for (StepOutput output : record.get().getOutputs()) {
+            Path path = Path.of(output.getPath());
+            try {
+                if (!output.getPath().equals(context.pathOf(output.getArtifact()))
+                        || !Files.isRegularFile(path)
+                        || Files.size(path) != output.getSizeBytes()
+                        || !checksum(path).equals(output.getChecksum())) {
+                    log.warn("Output {} of step {} of analysis {} changed since it completed, running the step again",
+                            path, step.getName(), analysisId);
+                    return false;
+                }
+                // Later steps seek into compressed VCFs through their tabix index
+                if (output.getPath().endsWith(".vcf.gz") && !Files.isRegularFile(Path.of(output.getPath() + ".tbi"))) {
+                    log.warn("Index of output {} of step {} of analysis {} is missing, running the step again",
+                            path, step.getName(), analysisId);
+                    return false;
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                log.warn("Cannot verify output {} of step {}: {}", path, step.getName(), e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void record(Long analysisId, PipelineStep step, StepTiming timing, PipelineContext context) {
+        List<StepOutput> outputs = new ArrayList<>();
+        StepStatus status = timing.isSuccess() ? StepStatus.COMPLETED : StepStatus.FAILED;
+        
+        if (timing.isSuccess()) {
+            try {
+                for (String artifact : step.getOutputs()) {
+                    Path path = Path.of(context.pathOf(artifact));
+                    outputs.add(StepOutput.builder()
+                            .artifact(artifact)
+                            .path(path.toString())
+                            .sizeBytes(Files.size(path))
+                            .checksum(checksum(path))
+                            .build());
+                }
+            } catch (IOException e) {
+                // Without a checksum the step cannot be verified later, so it will simply run again
+                log.warn("Cannot checksum outputs of step {} of analysis {}: {}", step.getName(), analysisId, e.getMessage());
+                status = StepStatus.FAILED;
+                outputs.clear();
+            }
+        }
+        
+        AnalysisStep analysisStep = analysisStepRepository.findByAnalysisIdAndStepName(analysisId, step.getName())
+                .orElseGet(() -> AnalysisStep.builder()
+                        .analysis(analysisRepository.getReferenceById(analysisId))
+                        .stepName(step.getName())
+                        .build());
+        analysisStep.setStatus(status);
+        analysisStep.setStartedAt(timing.getStartedAt());
+        analysisStep.setFinishedAt(timing.getFinishedAt());
+        analysisStep.setDurationMs(timing.getDurationMs());
+        analysisStep.getOutputs().clear();
+        analysisStep.getOutputs().addAll(outputs);
+        timing.getAttempts().forEach(attempt -> analysisStep.getAttempts().add(StepAttempt.builder()
+                .toolName(attempt.getToolName())
+                .attempt(attempt.getAttempt())
+                .startedAt(attempt.getStartedAt())
+                .durationMs(attempt.getDurationMs())
+                .exitCode(attempt.getExitCode())
+                .success(attempt.isSuccess())
+                .failureClass(attempt.getFailureClass())
+                .error(attempt.getError())
+                .heapMb(attempt.getHeapMb())
+                .build()));
+        analysisStepRepository.save(analysisStep);
+    }
+    
+    private String checksum(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
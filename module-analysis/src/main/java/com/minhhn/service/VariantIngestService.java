@@ -0,0 +1,74 @@
+package com.minhhn.service;
+
+import com.minhhn.model.Analysis;
+import com.minhhn.repository.AnalysisRepository;
+import com.minhhn.repository.VariantStoreRepository;
+import com.minhhn.vcf.VcfReader;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the variants of finished analyses into the variant store, so that every called
+ * variant can be queried by analysis, sample and locus.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class VariantIngestService {
+    
+    private final VariantStoreRepository variantStoreRepository;
+    private final AnalysisRepository analysisRepository;
+    private final MeterRegistry meterRegistry;
+    
+    /**
+     * Replaces the stored variants of an analysis with the records of a VCF.
+     * 
+     * @param analysisId The analysis that called the variants
+     * @param vcfPath The VCF to load
+     * @return The number of stored variants
+     * @throws UncheckedIOException If the VCF cannot be read
+     * @throws IllegalStateException If the database rejects the variants
+     */
+    public long ingest(Long analysisId, String vcfPath) {
+        Analysis analysis = analysisRepository.findWithSampleById(analysisId)
+                .orElseThrow(() -> new IllegalArgumentException("Analysis not found with ID: " + analysisId));
+        variantStoreRepository.ensureSchema();
+        
+        long start = System.nanoTime();
+        long rows;
+        try (VcfReader reader = VcfReader.open(Path.of(vcfPath))) {
+            rows = variantStoreRepository.replaceVariants(analysisId, analysis.getSample().getId(), reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + vcfPath, e);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot store variants of analysis " + analysisId, e);
+        }
+        long loadNanos = System.nanoTime() - start;
+        
+        double rowsPerSecond = loadNanos > 0 ? rows / (loadNanos / 1e9) : 0;
+        Timer.builder("analysis.variants.ingest")
+                .description("Time spent loading the variants of an analysis")
+                .tag("pipeline", analysis.getPipelineVersion())
+                .register(meterRegistry)
+                .record(loadNanos, TimeUnit.NANOSECONDS);
+        meterRegistry.counter("analysis.variants.ingested").increment(rows);
+        DistributionSummary.builder("analysis.variants.ingest.rows.per.second")
+                .description("Throughput of variant loads")
+                .register(meterRegistry)
+                .record(rowsPerSecond);
+        
+        log.info("Stored {} variants of analysis {} in {} ms ({} rows/s)",
+                rows, analysisId, TimeUnit.NANOSECONDS.toMillis(loadNanos), Math.round(rowsPerSecond));
+        return rows;
+    }
+}
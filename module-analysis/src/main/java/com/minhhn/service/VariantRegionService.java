@@ -0,0 +1,248 @@
+package com.minhhn.service;
+
+import com.minhhn.enums.AnalysisStatus;
+import com.minhhn.exception.InvalidAnalysisStateException;
+import com.minhhn.exception.InvalidRegionException;
+import com.minhhn.exception.ResourceNotFoundException;
+import com.minhhn.model.Analysis;
+import com.minhhn.repository.AnalysisRepository;
+import com.minhhn.vcf.TabixIndex;
+import com.minhhn.vcf.VcfReader;
+import com.minhhn.vcf.VcfRecord;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the variants of finished analyses by genomic region. Final VCFs are
+ * block-compressed and carry a tabix index, so a query seeks straight to the few blocks
+ * that can hold the region instead of scanning the file. Indexes are small and kept in
+ * memory for the most recently queried VCFs.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class VariantRegionService {
+    
+    private static final String INDEX_EXTENSION = ".tbi";
+    
+    // chr7, chr7:55019017 or chr7:55,019,017-55,211,628
+    private static final Pattern REGION = Pattern.compile("([^:\\s]+)(?::([\\d,]+)(?:-([\\d,]+))?)?");
+    
+    private final AnalysisRepository analysisRepository;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${analysis.variants.index-cache-size:64}")
+    private int indexCacheSize;
+    
+    // Indexes by VCF path, least recently used first
+    private final Map<Path, CachedIndex> indexCache = new LinkedHashMap<>(16, 0.75f, true);
+    
+    private record CachedIndex(long lastModified, TabixIndex index) {
+    }
+    
+    private record Region(String contig, long start, long end) {
+    }
+    
+    /**
+     * Writes the tabix index of a block-compressed VCF unless an up-to-date one exists.
+     * GATK indexes its own outputs, so this only fills in for VCFs written without one.
+     * 
+     * @param vcfPath The VCF
+     * @throws UncheckedIOException If the VCF cannot be read or the index cannot be written
+     */
+    public void ensureIndex(String vcfPath) {
+        Path vcf = Path.of(vcfPath);
+        Path indexPath = Path.of(vcfPath + INDEX_EXTENSION);
+        try {
+            if (isUpToDate(vcf, indexPath) || !isIndexable(vcf)) {
+                return;
+            }
+            long start = System.nanoTime();
+            TabixIndex.build(vcf).write(indexPath);
+            log.info("Indexed {} in {} ms", vcf, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot index " + vcf, e);
+        }
+    }
+    
+    /**
+     * Prepares a region query on the final VCF of an analysis. The analysis and region are
+     * checked and the index loaded before anything is written, so errors still produce a
+     * proper error response.
+     * 
+     * @param analysisId The analysis ID
+     * @param region The region, as {@code chr:start-end}, {@code chr:pos} or {@code chr}
+     * @return A body writing the VCF header followed by the records overlapping the region
+     * @throws ResourceNotFoundException If the analysis or its VCF does not exist
+     * @throws InvalidAnalysisStateException If the analysis has not completed
+     * @throws InvalidRegionException If the region cannot be parsed
+     */
+    public StreamingResponseBody queryRegion(Long analysisId, String region) {
+        Analysis analysis = analysisRepository.findById(analysisId)
+                .orElseThrow(() -> new ResourceNotFoundException("Analysis", "ID", analysisId));
+        if (analysis.getStatus() != AnalysisStatus.DONE) {
+            throw new InvalidAnalysisStateException("Variants of analysis " + analysisId
+                    + " are not available in status " + analysis.getStatus());
+        }
+        Region parsed = parseRegion(region);
+        
+        Path vcf = Path.of(analysis.getVcfPath());
+        if (!Files.isReadable(vcf)) {
+            throw new ResourceNotFoundException("Variant file of analysis " + analysisId + " not found");
+        }
+        TabixIndex index;
+        try {
+            index = loadIndex(vcf);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load index of " + vcf, e);
+        }
+        
+        return out -> writeRegion(vcf, index, parsed, out);
+    }
+    
+    private void writeRegion(Path vcf, TabixIndex index, Region region, OutputStream response) throws IOException {
+        long start = System.nanoTime();
+        long records = 0;
+        OutputStream out = new BufferedOutputStream(response, 64 * 1024);
+        try (VcfReader reader = VcfReader.open(vcf)) {
+            out.write(reader.getHeader().toText().getBytes(StandardCharsets.ISO_8859_1));
+            VcfRecord record = reader.getRecord();
+            
+            if (index != null) {
+                reader.query(index, resolveContig(index, region.contig()), region.start(), region.end());
+                while (reader.next()) {
+                    record.writeTo(out);
+                    records++;
+                }
+            } else {
+                // Uncompressed or plain gzip output of older analyses can only be scanned
+                while (reader.next()) {
+                    if (record.getChrom().equals(region.contig()) && record.getPos() <= region.end()
+                            && record.getEnd() >= region.start()) {
+                        record.writeTo(out);
+                        records++;
+                    }
+                }
+            }
+        }
+        out.flush();
+        
+        long elapsed = System.nanoTime() - start;
+        Timer.builder("analysis.variants.region.query")
+                .description("Time spent streaming the variants of a region")
+                .tag("indexed", String.valueOf(index != null))
+                .register(meterRegistry)
+                .record(elapsed, TimeUnit.NANOSECONDS);
+        log.debug("Streamed {} variants of {}:{}-{} from {} in {} ms", records, region.contig(), region.start(),
+                region.end(), vcf, TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+    
+    /**
+     * Gets the index of a VCF from the cache, reading or building it when the VCF is new
+     * or has changed.
+     * 
+     * @param vcf The VCF
+     * @return The index, or null if the VCF is not block-compressed
+     * @throws IOException If the VCF or its index cannot be read
+     */
+    private TabixIndex loadIndex(Path vcf) throws IOException {
+        long lastModified = Files.getLastModifiedTime(vcf).toMillis();
+        synchronized (indexCache) {
+            CachedIndex cached = indexCache.get(vcf);
+            if (cached != null && cached.lastModified() == lastModified) {
+                return cached.index();
+            }
+        }
+        
+        TabixIndex index;
+        Path indexPath = Path.of(vcf + INDEX_EXTENSION);
+        if (isUpToDate(vcf, indexPath)) {
+            index = TabixIndex.read(indexPath);
+        } else if (isIndexable(vcf)) {
+            log.info("No index next to {}, indexing it in memory", vcf);
+            index = TabixIndex.build(vcf);
+        } else {
+            return null;
+        }
+        
+        synchronized (indexCache) {
+            indexCache.put(vcf, new CachedIndex(lastModified, index));
+            while (indexCache.size() > indexCacheSize) {
+                indexCache.remove(indexCache.keySet().iterator().next());
+            }
+        }
+        return index;
+    }
+    
+    private boolean isUpToDate(Path vcf, Path indexPath) throws IOException {
+        return Files.isReadable(indexPath) && Files.size(indexPath) > 0
+                && Files.getLastModifiedTime(indexPath).compareTo(Files.getLastModifiedTime(vcf)) >= 0;
+    }
+    
+    private boolean isIndexable(Path vcf) throws IOException {
+        try (VcfReader reader = VcfReader.open(vcf)) {
+            return reader.isIndexable();
+        }
+    }
+    
+    /**
+     * Parses a region given as {@code chr:start-end}, {@code chr:pos} or {@code chr}.
+     * Positions are 1-based and inclusive and may contain thousands separators.
+     * 
+     * @param region The region
+     * @return The parsed region
+     * @throws InvalidRegionException If the region is malformed or empty
+     */
+    private Region parseRegion(String region) {
+        Matcher matcher = region == null ? null : REGION.matcher(region.trim());
+        if (matcher == null || !matcher.matches()) {
+            throw new InvalidRegionException("Invalid region '" + region + "', expected chr:start-end");
+        }
+        
+        try {
+            long start = matcher.group(2) == null ? 1 : Long.parseLong(matcher.group(2).replace(",", ""));
+            long end = matcher.group(3) != null ? Long.parseLong(matcher.group(3).replace(",", ""))
+                    : matcher.group(2) != null ? start : Long.MAX_VALUE;
+            if (start < 1 || end < start) {
+                throw new InvalidRegionException("Invalid region '" + region + "', start must be between 1 and end");
+            }
+            return new Region(matcher.group(1), start, end);
+        } catch (NumberFormatException e) {
+            throw new InvalidRegionException("Invalid region '" + region + "', position out of range");
+        }
+    }
+    
+    /**
+     * Matches a contig name to the naming of an indexed VCF, so that {@code 7} finds
+     * {@code chr7} and the other way around.
+     * 
+     * @param index The index of the VCF
+     * @param contig The requested contig
+     * @return The contig as named in the VCF
+     */
+    private String resolveContig(TabixIndex index, String contig) {
+        if (index.getContigs().contains(contig)) {
+            return contig;
+        }
+        String alternative = contig.startsWith("chr") ? contig.substring(3) : "chr" + contig;
+        return index.getContigs().contains(alternative) ? alternative : contig;
+    }
+}
@@ -0,0 +1,163 @@
+package com.minhhn.repository;
+
+import com.minhhn.vcf.VcfReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.postgresql.ds.PGSimpleDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Testcontainers(disabledWithoutDocker = true)
+class VariantStoreRepositoryTest {
+    
+    private static final String VCF = """
+            ##fileformat=VCFv4.2
+            ##contig=<ID=chr1,length=248956422>
+            ##contig=<ID=chr2,length=242193529>
+            ##contig=<ID=chrX,length=156040895>
+            #CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tNA12878
+            chr1\t100\trs1\tA\tG\t50.5\tPASS\tDP=10\tGT:DP\t0/1:10
+            chr1\t200\t.\tAC\tA\t.\tLowQual\tDP=3\tGT\t1/1
+            chr2\t300\t.\tG\tT\t20\tPASS\tDP=7\tGT\t0/1
+            chrX\t400\t.\tC\tCA\t30\tPASS\tDP=9\tGT\t1
+            chrUn_KI270302v1\t5\t.\tT\tC\t12\tPASS\tDP=2\tGT\t0/1
+            """;
+    
+    // Reference blocks, a SNP and a multi-allelic call as HaplotypeCaller writes them with -ERC GVCF
+    private static final String GVCF = """
+            ##fileformat=VCFv4.2
+            ##ALT=<ID=NON_REF,Description="Represents any possible alternative allele not already represented">
+            ##contig=<ID=chr1,length=248956422>
+            ##contig=<ID=chr2,length=242193529>
+            ##contig=<ID=chrX,length=156040895>
+            #CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tNA12878
+            chr1\t1\t.\tN\t<NON_REF>\t.\t.\tEND=99\tGT:DP:GQ\t0/0:0:0
+            chr1\t100\t.\tA\tG,<NON_REF>\t50.6\t.\tDP=10\tGT:AD:DP\t0/1:5,5,0:10
+            chr1\t101\t.\tC\t<NON_REF>\t.\t.\tEND=500\tGT:DP:GQ\t0/0:12:30
+            chr2\t300\t.\tG\tT,C,<NON_REF>\t80.2\t.\tDP=9\tGT:AD:DP\t1/2:0,4,5,0:9
+            chr2\t301\t.\tA\t<NON_REF>\t.\t.\tEND=301\tGT:DP:GQ\t0/0:8:24
+            chrX\t1\t.\tN\t<NON_REF>\t.\t.\tEND=5000\tGT:DP:GQ\t0/0:0:0
+            """;
+    
+    @Container
+    static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+    
+    @TempDir
+    Path directory;
+    
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private VariantStoreRepository repository;
+    
+    @BeforeEach
+    void setUp() {
+        PGSimpleDataSource dataSource = new PGSimpleDataSource();
+        dataSource.setUrl(POSTGRES.getJdbcUrl());
+        dataSource.setUser(POSTGRES.getUsername());
+        dataSource.setPassword(POSTGRES.getPassword());
+        
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        repository = new VariantStoreRepository(jdbcTemplate, dataSource);
+        repository.ensureSchema();
+        jdbcTemplate.execute("TRUNCATE variants, variant_loads");
+    }
+    
+    @Test
+    void copiesRecordsIntoTheirPartitions() throws Exception {
+        assertThat(replace(1L, 11L, VCF)).isEqualTo(5);
+        
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT tableoid::regclass::text AS partition, * FROM variants ORDER BY pos");
+        assertThat(rows).extracting(row -> row.get("partition")).containsExactly(
+                "variants_other", "variants_chr1", "variants_chr1", "variants_chr2", "variants_chrx");
+        
+        Map<String, Object> first = rows.get(1);
+        assertThat(first.get("analysis_id")).isEqualTo(1L);
+        assertThat(first.get("sample_id")).isEqualTo(11L);
+        assertThat(first.get("end_pos")).isEqualTo(100L);
+        assertThat(first.get("variant_id")).isEqualTo("rs1");
+        assertThat(first.get("ref")).isEqualTo("A");
+        assertThat(first.get("alt")).isEqualTo("G");
+        assertThat(first.get("qual")).isEqualTo(50.5);
+        assertThat(first.get("filter")).isEqualTo("PASS");
+        assertThat(first.get("info")).isEqualTo("DP=10");
+        assertThat(first.get("genotype")).isEqualTo("0/1");
+        
+        Map<String, Object> second = rows.get(2);
+        assertThat(second.get("variant_id")).isNull();
+        assertThat(second.get("end_pos")).isEqualTo(201L);
+        assertThat(second.get("qual")).isNull();
+        assertThat(second.get("genotype")).isEqualTo("1/1");
+    }
+    
+    @Test
+    void replacesOnlyTheVariantsOfTheAnalysis() throws Exception {
+        replace(1L, 11L, VCF);
+        replace(2L, 12L, VCF);
+        
+        // A reload on fewer contigs leaves nothing of the previous load behind
+        String reload = VCF.lines().filter(line -> !line.startsWith("chrX") && !line.startsWith("chrUn"))
+                .reduce("", (text, line) -> text + line + "\n");
+        assertThat(replace(1L, 11L, reload)).isEqualTo(3);
+        assertThat(replace(1L, 11L, reload)).isEqualTo(3);
+        
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM variants WHERE analysis_id = 1", Long.class))
+                .isEqualTo(3);
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM variants WHERE analysis_id = 2", Long.class))
+                .isEqualTo(5);
+        
+        Map<String, Object> load = jdbcTemplate.queryForMap(
+                "SELECT array_to_string(chroms, ',') AS chroms, row_count FROM variant_loads WHERE analysis_id = 1");
+        assertThat(load.get("chroms")).isEqualTo("chr1,chr2");
+        assertThat(load.get("row_count")).isEqualTo(3L);
+    }
+    
+    @Test
+    void skipsReferenceBlocksOfGvcfs() throws Exception {
+        assertThat(replace(3L, 13L, GVCF)).isEqualTo(2);
+        
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList("SELECT * FROM variants ORDER BY chrom, pos");
+        assertThat(rows).extracting(row -> row.get("pos")).containsExactly(100L, 300L);
+        assertThat(rows).extracting(row -> row.get("alt")).containsExactly("G", "T,C");
+        assertThat(rows).extracting(row -> row.get("genotype")).containsExactly("0/1", "1/2");
+        
+        // Chromosomes with nothing but reference blocks are not recorded either
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT array_to_string(chroms, ',') FROM variant_loads WHERE analysis_id = 3", String.class))
+                .isEqualTo("chr1,chr2");
+    }
+    
+    @Test
+    void createsSchemaOnce() {
+        repository.ensureSchema();
+        new VariantStoreRepository(jdbcTemplate, jdbcTemplate.getDataSource()).ensureSchema();
+        
+        assertThat(jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE tablename = 'variants' ORDER BY indexname", String.class))
+                .containsExactly("idx_variants_analysis_locus", "idx_variants_sample");
+    }
+    
+    private long replace(Long analysisId, Long sampleId, String text) throws Exception {
+        Path vcf = Files.writeString(directory.resolve("variants-" + analysisId + ".vcf"), text);
+        return transactionTemplate.execute(status -> {
+            try (VcfReader reader = VcfReader.open(vcf)) {
+                return repository.replaceVariants(analysisId, sampleId, reader);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,48 @@
+package com.minhhn.config;
+
+import com.minhhn.enums.FilterEngine;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hard filters of the filter step and the engine that applies them and splits the
+ * filtered variants by type. Records matching an expression get its name in FILTER.
+ * <pre>
+ * gatk.filter.engine: native
+ * gatk.filter.parallelism: 4
+ * gatk.filter.expressions[0].name: QD2
+ * gatk.filter.expressions[0].expression: QD &lt; 2.0
+ * </pre>
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "gatk.filter")
+public class FilterProperties {
+    
+    private FilterEngine engine = FilterEngine.NATIVE;
+    
+    // Contigs filtered at the same time by the native engine
+    private int parallelism = 4;
+    
+    // Records the native engine decodes and evaluates, or hands to a split output, together
+    private int batchSize = 4096;
+    
+    private List<Expression> expressions = new ArrayList<>(List.of(
+            new Expression("QD2", "QD < 2.0"),
+            new Expression("FS60", "FS > 60.0"),
+            new Expression("MQ40", "MQ < 40.0")));
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Expression {
+        private String name;
+        private String expression;
+    }
+}
@@ -0,0 +1,45 @@
+package com.minhhn.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Retry policy for GATK commands that failed with a retryable failure.
+ * <pre>
+ * gatk.retry.max-attempts: 3
+ * gatk.retry.initial-backoff: 30s
+ * gatk.retry.multiplier: 2
+ * gatk.retry.max-backoff: 10m
+ * gatk.retry.oom-memory-factor: 1.5
+ * </pre>
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "gatk.retry")
+public class RetryProperties {
+
+    // Attempts per command including the first run, 1 disables retries
+    private int maxAttempts = 3;
+    
+    private Duration initialBackoff = Duration.ofSeconds(30);
+    private double multiplier = 2.0;
+    private Duration maxBackoff = Duration.ofMinutes(10);
+    
+    // After an out-of-memory failure the next attempt gets this much more memory and heap
+    private boolean increaseMemoryOnOom = true;
+    private double oomMemoryFactor = 1.5;
+    
+    /**
+     * Gets the delay before a retry.
+     * 
+     * @param failedAttempts The number of attempts that failed so far
+     * @return The delay, growing exponentially up to the maximum backoff
+     */
+    public Duration backoffFor(int failedAttempts) {
+        double millis = initialBackoff.toMillis() * Math.pow(multiplier, Math.max(0, failedAttempts - 1));
+        return Duration.ofMillis((long) Math.min(millis, maxBackoff.toMillis()));
+    }
+}
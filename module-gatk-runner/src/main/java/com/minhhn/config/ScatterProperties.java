@@ -0,0 +1,56 @@
+package com.minhhn.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Scatter-gather settings for HaplotypeCaller, with optional overrides per pipeline version.
+ * <pre>
+ * gatk.scatter.shard-count: 1
+ * gatk.scatter.parallelism: 1
+ * gatk.scatter.pipelines.wgs-v2.shard-count: 24
+ * gatk.scatter.pipelines.wgs-v2.parallelism: 8
+ * </pre>
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "gatk.scatter")
+public class ScatterProperties {
+
+    // A shard count of 1 disables scattering
+    private int shardCount = 1;
+    private int parallelism = 1;
+    private Map<String, Settings> pipelines = new HashMap<>();
+    
+    /**
+     * Resolves the settings for a pipeline version, falling back to the defaults.
+     * 
+     * @param pipelineVersion The pipeline version, may be null
+     * @return The scatter settings to use
+     */
+    public Settings forPipeline(String pipelineVersion) {
+        Settings defaults = new Settings(shardCount, parallelism);
+        if (pipelineVersion == null || !pipelines.containsKey(pipelineVersion)) {
+            return defaults;
+        }
+        
+        Settings override = pipelines.get(pipelineVersion);
+        return new Settings(
+                override.getShardCount() > 0 ? override.getShardCount() : defaults.getShardCount(),
+                override.getParallelism() > 0 ? override.getParallelism() : defaults.getParallelism());
+    }
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Settings {
+        private int shardCount;
+        private int parallelism;
+    }
+}
@@ -0,0 +1,83 @@
+package com.minhhn.config;
+
+import com.minhhn.model.ToolResources;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Host capacity and per-tool resource costs used for admission control of GATK commands.
+ * <pre>
+ * gatk.scheduler.cpus: 32
+ * gatk.scheduler.memory-mb: 131072
+ * gatk.scheduler.tools.HaplotypeCaller.cpus: 4
+ * gatk.scheduler.tools.HaplotypeCaller.memory-mb: 8192
+ * gatk.scheduler.aging-interval: 30m
+ * gatk.scheduler.submitter-weights.oncology-clinic: 4
+ * </pre>
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "gatk.scheduler")
+public class SchedulerProperties {
+
+    // Capacity of the host, defaults to the whole machine
+    private double cpus = Runtime.getRuntime().availableProcessors();
+    private long memoryMb = totalPhysicalMemoryMb();
+    
+    // Cost of tools that are not listed in tools
+    private ToolResources defaultTool = new ToolResources(1, 2048);
+    
+    private Map<String, ToolResources> tools = new HashMap<>(Map.of(
+            "HaplotypeCaller", new ToolResources(4, 8192),
+            "Funcotator", new ToolResources(2, 8192),
+            "GenotypeGVCFs", new ToolResources(2, 8192),
+            "GenomicsDBImport", new ToolResources(2, 8192),
+            "VariantFiltration", new ToolResources(1, 2048),
+            "SelectVariants", new ToolResources(1, 1024),
+            "GatherVcfs", new ToolResources(1, 1024),
+            "IndexFeatureFile", new ToolResources(1, 1024)
+    ));
+    
+    // Waiting commands are promoted one priority class per interval
+    private Duration agingInterval = Duration.ofMinutes(30);
+    
+    // Share of the host each submitter is entitled to relative to others, 1 if not listed
+    private Map<String, Double> submitterWeights = new HashMap<>();
+    
+    // How quickly past usage stops counting against a submitter's fair share
+    private Duration fairShareHalfLife = Duration.ofHours(1);
+    
+    /**
+     * Gets the fair-share weight of a submitter.
+     * 
+     * @param submitter The submitter or project, may be null
+     * @return The weight, at least a small positive value
+     */
+    public double weightOf(String submitter) {
+        double weight = submitter == null ? 1.0 : submitterWeights.getOrDefault(submitter, 1.0);
+        return Math.max(weight, 0.01);
+    }
+    
+    /**
+     * Gets the declared cost of a tool.
+     * 
+     * @param toolName The GATK tool name
+     * @return The resources the tool needs
+     */
+    public ToolResources resourcesFor(String toolName) {
+        return tools.getOrDefault(toolName, defaultTool);
+    }
+    
+    private static long totalPhysicalMemoryMb() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getTotalMemorySize() / (1024 * 1024);
+        }
+        return 8192;
+    }
+}
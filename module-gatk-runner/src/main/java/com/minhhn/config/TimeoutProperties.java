@@ -0,0 +1,47 @@
+package com.minhhn.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maximum run time per GATK tool. A command that runs longer is killed together with
+ * its container.
+ * <pre>
+ * gatk.timeouts.default-timeout: 4h
+ * gatk.timeouts.tools.HaplotypeCaller: 48h
+ * </pre>
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "gatk.timeouts")
+public class TimeoutProperties {
+
+    // Timeout of tools that are not listed in tools
+    private Duration defaultTimeout = Duration.ofHours(4);
+    
+    private Map<String, Duration> tools = new HashMap<>(Map.of(
+            "HaplotypeCaller", Duration.ofHours(48),
+            "GenotypeGVCFs", Duration.ofHours(24),
+            "GenomicsDBImport", Duration.ofHours(24),
+            "Funcotator", Duration.ofHours(12),
+            "VariantFiltration", Duration.ofHours(2),
+            "SelectVariants", Duration.ofHours(1),
+            "GatherVcfs", Duration.ofHours(2),
+            "IndexFeatureFile", Duration.ofHours(1)
+    ));
+    
+    /**
+     * Gets the timeout of a tool.
+     * 
+     * @param toolName The GATK tool name
+     * @return The maximum run time of the tool
+     */
+    public Duration timeoutFor(String toolName) {
+        return tools.getOrDefault(toolName, defaultTimeout);
+    }
+}
@@ -0,0 +1,38 @@
+package com.minhhn.enums;
+
+/**
+ * Cause of a failed GATK command, derived from its exit code and output. Retryable
+ * classes are failures of the environment that may not happen again; the others would
+ * fail the same way on every attempt.
+ */
+public enum FailureClass {
+    // The JVM ran out of heap or the container was killed for exceeding its memory limit
+    OUT_OF_MEMORY(true),
+    // The Docker daemon or container runtime failed to start or run the container
+    CONTAINER_RUNTIME(true),
+    // Shared storage hiccup such as a stale NFS handle or an I/O error
+    STORAGE(true),
+    // Connection to a remote resource was refused, reset or timed out
+    NETWORK(true),
+    // The command exceeded the timeout of its tool
+    TIMEOUT(false),
+    // GATK rejected the inputs or arguments
+    INVALID_INPUT(false),
+    // Any other non-zero exit
+    TOOL_ERROR(false);
+    
+    private final boolean retryable;
+    
+    FailureClass(boolean retryable) {
+        this.retryable = retryable;
+    }
+    
+    /**
+     * Checks whether a command that failed this way may succeed when run again.
+     * 
+     * @return True if the command should be retried
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,12 @@
+package com.minhhn.enums;
+
+/**
+ * Engine that applies the hard filters of the filter step and splits its output by
+ * variant type.
+ */
+public enum FilterEngine {
+    // GATK VariantFiltration and one SelectVariants per type, run like any other GATK command
+    GATK,
+    // The in-process engine of the variant module, without container or JVM startup
+    NATIVE
+}
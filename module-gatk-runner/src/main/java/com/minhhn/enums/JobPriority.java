@@ -0,0 +1,22 @@
+package com.minhhn.enums;
+
+/**
+ * Priority class of an analysis, highest first. Work of a higher class is scheduled
+ * before work of a lower class; waiting work is promoted one class per aging interval.
+ */
+public enum JobPriority {
+    URGENT,
+    CLINICAL,
+    ROUTINE,
+    RESEARCH;
+    
+    /**
+     * Gets the class after the given number of promotions.
+     * 
+     * @param steps The number of classes to promote by
+     * @return The promoted class, at most URGENT
+     */
+    public JobPriority promote(long steps) {
+        return values()[(int) Math.max(0, ordinal() - Math.min(steps, ordinal()))];
+    }
+}
@@ -0,0 +1,129 @@
+package com.minhhn.executor;
+
+import com.minhhn.model.GatkCommand;
+import com.minhhn.model.GatkRunContext;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Executes GATK commands in Docker. Commands run in a warm pooled container when
+ * the pool is enabled, otherwise in a fresh container per command.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "gatk.executor.type", havingValue = "docker", matchIfMissing = true)
+public class DockerGatkExecutor implements GatkExecutor {
+
+    private final GatkContainerPool containerPool;
+
+    @Value("${gatk.docker.image:broadinstitute/gatk:4.5.0.0}")
+    private String gatkDockerImage;
+
+    @Value("${gatk.data.volume:/data}")
+    private String gatkDataVolume;
+    
+    @Override
+    public String getName() {
+        return "docker";
+    }
+    
+    @Override
+    public GatkExecution start(GatkCommand command, GatkRunContext context) throws IOException, InterruptedException {
+        // Prefer a warm container, fall back to a fresh one per command
+        String container = containerPool.isAvailable() ? containerPool.acquire() : null;
+        
+        try {
+            if (container != null) {
+                containerPool.applyLimits(container, command.getResources());
+            }
+            // Name one-off containers so they can be killed; killing the docker CLI leaves them running
+            String runContainer = container != null ? container : "gatk-" + UUID.randomUUID().toString().substring(0, 12);
+            List<String> dockerCommand = container != null
+                    ? containerPool.buildExecCommand(container, command, context.getWorkDirectory())
+                    : buildDockerCommand(command, runContainer, context.getWorkDirectory());
+            Process process = new ProcessBuilder(dockerCommand).start();
+            
+            return new GatkExecution(process) {
+                @Override
+                public void terminate() {
+                    // A pooled container is recycled on release, which removes the orphaned exec as well
+                    if (container == null) {
+                        containerPool.kill(runContainer);
+                    }
+                    super.terminate();
+                }
+                
+                @Override
+                public void release(Integer exitCode) {
+                    containerPool.release(container, exitCode);
+                }
+            };
+        } catch (IOException e) {
+            containerPool.release(container, null);
+            throw e;
+        }
+    }
+    
+    /**
+     * Builds a Docker command to execute the GATK command.
+     *
+     * @param command The GATK command to execute
+     * @param container The name of the container
+     * @param workDirectory The scratch workspace of the command, or null to run on the data volume
+     * @return The Docker command as a list of strings
+     */
+    private List<String> buildDockerCommand(GatkCommand command, String container, String workDirectory) {
+        List<String> dockerCommand = new ArrayList<>();
+        dockerCommand.add("docker");
+        dockerCommand.add("run");
+        dockerCommand.add("--rm");
+        dockerCommand.add("--name");
+        dockerCommand.add(container);
+        
+        // Mount the data volume
+        dockerCommand.add("-v");
+        dockerCommand.add("./data:" + gatkDataVolume);
+        
+        // Mount the scratch workspace at the same path, so paths mean the same inside and out
+        if (workDirectory != null) {
+            dockerCommand.add("-v");
+            dockerCommand.add(workDirectory + ":" + workDirectory);
+        }
+        
+        // Set working directory
+        dockerCommand.add("-w");
+        dockerCommand.add(workDirectory != null ? workDirectory : gatkDataVolume);
+        
+        // Add environment variables if any
+        command.getEnvironmentVariables().forEach((key, value) -> {
+            dockerCommand.add("-e");
+            dockerCommand.add(key + "=" + value);
+        });
+        
+        // Limit the container to what the scheduler admitted
+        if (command.getResources() != null) {
+            dockerCommand.add("--cpus");
+            dockerCommand.add(String.valueOf(command.getResources().getCpus()));
+            dockerCommand.add("--memory");
+            dockerCommand.add(command.getResources().getMemoryMb() + "m");
+        }
+        
+        // Add the GATK Docker image
+        dockerCommand.add(gatkDockerImage);
+        
+        // Add the GATK command; docker passes the arguments on without a shell
+        dockerCommand.add("gatk");
+        dockerCommand.addAll(command.buildArguments());
+        
+        return dockerCommand;
+    }
+}
@@ -0,0 +1,291 @@
+package com.minhhn.executor;
+
+import com.minhhn.model.GatkCommand;
+import com.minhhn.model.ToolResources;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of long-lived GATK containers. Commands are handed to an idle container
+ * through {@code docker exec}, so a step no longer pays for container creation
+ * and volume mounting. Containers that stop responding are removed, and the pool
+ * is refilled to its size in the background.
+ */
+@Component
+@Slf4j
+public class GatkContainerPool {
+
+    private static final int DOCKER_CLI_TIMEOUT_SECONDS = 120;
+    
+    // docker exec exit codes that mean the container itself is broken, not the GATK tool
+    private static final Set<Integer> CONTAINER_FAILURE_EXIT_CODES = Set.of(125, 126, 127, 137);
+    
+    @Value("${gatk.pool.enabled:false}")
+    private boolean enabled;
+    
+    @Value("${gatk.pool.size:2}")
+    private int size;
+    
+    // How long a command waits for an idle container before running in a fresh one
+    @Value("${gatk.pool.acquire-timeout-seconds:30}")
+    private long acquireTimeoutSeconds;
+    
+    @Value("${gatk.pool.container-prefix:gatk-worker}")
+    private String containerPrefix;
+    
+    @Value("${gatk.docker.image:broadinstitute/gatk:4.5.0.0}")
+    private String gatkDockerImage;
+
+    @Value("${gatk.data.volume:/data}")
+    private String gatkDataVolume;
+    
+    // Local scratch holding the analysis workspaces, mounted at the same path
+    @Value("${gatk.scratch.volume:/scratch/genomics}")
+    private String scratchDirectory;
+    
+    private final BlockingQueue<String> idleContainers = new LinkedBlockingQueue<>();
+    private final Set<String> containers = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Starts the configured number of warm containers.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        
+        log.info("Starting {} warm GATK containers from image {}", size, gatkDockerImage);
+        refill();
+        
+        if (containers.isEmpty()) {
+            log.warn("No warm GATK container could be started, falling back to one container per command");
+        }
+    }
+    
+    /**
+     * Starts containers until the pool is back at its size. Containers lost to failures
+     * are replaced here rather than on the command thread, and a container that cannot
+     * be started is retried on the next run.
+     */
+    @Scheduled(fixedDelayString = "${gatk.pool.refill-interval-ms:30000}")
+    public synchronized void refill() {
+        if (!enabled) {
+            return;
+        }
+        
+        while (containers.size() < size) {
+            String container = startContainer();
+            if (container == null) {
+                return;
+            }
+            idleContainers.offer(container);
+        }
+    }
+    
+    /**
+     * Removes every container owned by the pool.
+     */
+    @PreDestroy
+    public synchronized void shutdown() {
+        // Stops further refills
+        enabled = false;
+        idleContainers.clear();
+        new ArrayList<>(containers).forEach(this::removeContainer);
+    }
+    
+    /**
+     * Whether commands should be executed in pooled containers.
+     * 
+     * @return true if the pool is enabled and owns at least one container
+     */
+    public boolean isAvailable() {
+        return enabled && !containers.isEmpty();
+    }
+    
+    /**
+     * Takes an idle container from the pool, waiting a bounded time for one to be
+     * released. The caller already holds its scheduler lease, so it runs in a fresh
+     * container rather than waiting on a pool that has shrunk.
+     * 
+     * @return The container name, or null if no healthy container is idle in time
+     * @throws InterruptedException If interrupted while waiting for a container
+     */
+    public String acquire() throws InterruptedException {
+        String container = idleContainers.poll(acquireTimeoutSeconds, TimeUnit.SECONDS);
+        if (container == null) {
+            log.info("No warm GATK container became idle within {}s, using a fresh container", acquireTimeoutSeconds);
+            return null;
+        }
+        if (isRunning(container)) {
+            return container;
+        }
+        
+        // Replaced by the next refill
+        log.warn("Warm GATK container {} is not running, removing it", container);
+        removeContainer(container);
+        return null;
+    }
+    
+    /**
+     * Returns a container to the pool after a command finished in it.
+     * 
+     * @param container The container name
+     * @param exitCode The exit code of the {@code docker exec} invocation, or null if it did not finish
+     */
+    public void release(String container, Integer exitCode) {
+        if (container == null) {
+            return;
+        }
+        
+        if (exitCode != null && !CONTAINER_FAILURE_EXIT_CODES.contains(exitCode)) {
+            idleContainers.offer(container);
+            return;
+        }
+        
+        // The container may still be running the abandoned command; the next refill replaces it
+        log.warn("Recycling warm GATK container {} (exit code {})", container, exitCode);
+        removeContainer(container);
+    }
+    
+    /**
+     * Applies the limits admitted by the scheduler to a leased container. A pooled
+     * container runs one command at a time, so its limits can follow the command.
+     * 
+     * @param container The container name
+     * @param resources The resources of the next command
+     */
+    public void applyLimits(String container, ToolResources resources) {
+        if (resources == null) {
+            return;
+        }
+        String memory = resources.getMemoryMb() + "m";
+        if (runDocker(List.of("docker", "update",
+                "--cpus", String.valueOf(resources.getCpus()),
+                "--memory", memory,
+                "--memory-swap", memory,
+                container)) == null) {
+            log.warn("Could not apply resource limits to warm GATK container {}", container);
+        }
+    }
+    
+    /**
+     * Builds the {@code docker exec} invocation of a GATK command in a pooled container.
+     * 
+     * @param container The container name
+     * @param command The GATK command to execute
+     * @param workDirectory The scratch workspace of the command, or null to run on the data volume
+     * @return The Docker command as a list of strings
+     */
+    public List<String> buildExecCommand(String container, GatkCommand command, String workDirectory) {
+        List<String> dockerCommand = new ArrayList<>();
+        dockerCommand.add("docker");
+        dockerCommand.add("exec");
+        
+        // Set working directory; workspaces live under the scratch directory mounted into every container
+        dockerCommand.add("-w");
+        dockerCommand.add(workDirectory != null ? workDirectory : gatkDataVolume);
+        
+        // Add environment variables if any
+        command.getEnvironmentVariables().forEach((key, value) -> {
+            dockerCommand.add("-e");
+            dockerCommand.add(key + "=" + value);
+        });
+        
+        dockerCommand.add(container);
+        
+        // Add the GATK command; docker passes the arguments on without a shell
+        dockerCommand.add("gatk");
+        dockerCommand.addAll(command.buildArguments());
+        
+        return dockerCommand;
+    }
+    
+    /**
+     * Kills a container, stopping every process running in it.
+     * 
+     * @param container The container name
+     */
+    public void kill(String container) {
+        if (runDocker(List.of("docker", "kill", container)) == null) {
+            log.warn("Could not kill GATK container {}", container);
+        }
+    }
+    
+    private String startContainer() {
+        String container = containerPrefix + "-" + UUID.randomUUID().toString().substring(0, 8);
+        
+        List<String> dockerCommand = new ArrayList<>(List.of(
+                "docker", "run", "-d",
+                "--name", container,
+                "-v", "./data:" + gatkDataVolume));
+        if (!scratchDirectory.isBlank()) {
+            dockerCommand.addAll(List.of("-v", scratchDirectory + ":" + scratchDirectory));
+        }
+        dockerCommand.addAll(List.of(
+                "-w", gatkDataVolume,
+                gatkDockerImage,
+                "sleep", "infinity"));
+        
+        if (runDocker(dockerCommand) == null) {
+            log.error("Failed to start warm GATK container {}", container);
+            return null;
+        }
+        
+        containers.add(container);
+        log.info("Started warm GATK container {}", container);
+        return container;
+    }
+    
+    private boolean isRunning(String container) {
+        String state = runDocker(List.of("docker", "inspect", "-f", "{{.State.Running}}", container));
+        return state != null && state.trim().equals("true");
+    }
+    
+    private void removeContainer(String container) {
+        containers.remove(container);
+        runDocker(List.of("docker", "rm", "-f", container));
+    }
+    
+    /**
+     * Runs a short Docker CLI command.
+     * 
+     * @return The standard output, or null if the command failed
+     */
+    private String runDocker(List<String> dockerCommand) {
+        try {
+            Process process = new ProcessBuilder(dockerCommand)
+                    .redirectErrorStream(true)
+                    .start();
+            byte[] output = process.getInputStream().readAllBytes();
+            
+            if (!process.waitFor(DOCKER_CLI_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return null;
+            }
+            return process.exitValue() == 0 ? new String(output, StandardCharsets.UTF_8) : null;
+            
+        } catch (IOException e) {
+            log.error("Error running {}", dockerCommand, e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
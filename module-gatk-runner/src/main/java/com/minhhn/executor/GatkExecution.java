@@ -0,0 +1,34 @@
+package com.minhhn.executor;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Handle to a GATK command started by a {@link GatkExecutor}.
+ */
+@Getter
+@RequiredArgsConstructor
+public class GatkExecution {
+
+    private final Process process;
+    
+    /**
+     * Forcibly stops the command together with every process it started.
+     */
+    public void terminate() {
+        try {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+        } catch (UnsupportedOperationException e) {
+            // Not backed by an operating system process
+        }
+        process.destroyForcibly();
+    }
+    
+    /**
+     * Releases backend resources held for the command.
+     * 
+     * @param exitCode The exit code of the process, or null if it did not finish
+     */
+    public void release(Integer exitCode) {
+    }
+}
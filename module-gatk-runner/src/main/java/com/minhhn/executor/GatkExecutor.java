@@ -0,0 +1,32 @@
+package com.minhhn.executor;
+
+import com.minhhn.model.GatkCommand;
+import com.minhhn.model.GatkRunContext;
+
+import java.io.IOException;
+
+/**
+ * Backend that launches GATK commands. The backend is selected with
+ * {@code gatk.executor.type}: {@code docker} (default), {@code local} or {@code simulated}.
+ */
+public interface GatkExecutor {
+
+    /**
+     * Gets the name of this backend.
+     * 
+     * @return The backend name
+     */
+    String getName();
+    
+    /**
+     * Starts a GATK command. The caller drains the output of the returned process,
+     * waits for it and releases the execution once it finished.
+     * 
+     * @param command The GATK command to execute
+     * @param context The analysis the command belongs to
+     * @return The running execution
+     * @throws IOException If the command could not be started
+     * @throws InterruptedException If interrupted while waiting for resources of the backend
+     */
+    GatkExecution start(GatkCommand command, GatkRunContext context) throws IOException, InterruptedException;
+}
@@ -0,0 +1,48 @@
+package com.minhhn.executor;
+
+import com.minhhn.model.GatkCommand;
+import com.minhhn.model.GatkRunContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Executes GATK commands with a locally installed {@code gatk} launcher, for
+ * bare-metal worker nodes where the container overhead is not wanted.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "gatk.executor.type", havingValue = "local")
+public class LocalGatkExecutor implements GatkExecutor {
+
+    @Value("${gatk.local.executable:gatk}")
+    private String gatkExecutable;
+    
+    @Value("${gatk.data.volume:/data}")
+    private String workingDirectory;
+    
+    @Override
+    public String getName() {
+        return "local";
+    }
+    
+    @Override
+    public GatkExecution start(GatkCommand command, GatkRunContext context) throws IOException {
+        // Run the launcher directly; paths and filter expressions are passed on without a shell
+        List<String> arguments = new ArrayList<>();
+        arguments.add(gatkExecutable);
+        arguments.addAll(command.buildArguments());
+        ProcessBuilder processBuilder = new ProcessBuilder(arguments);
+        processBuilder.directory(new File(
+                context.getWorkDirectory() != null ? context.getWorkDirectory() : workingDirectory));
+        processBuilder.environment().putAll(command.getEnvironmentVariables());
+        
+        return new GatkExecution(processBuilder.start());
+    }
+}
@@ -0,0 +1,123 @@
+package com.minhhn.executor;
+
+import com.minhhn.model.GatkCommand;
+import com.minhhn.model.GatkRunContext;
+import com.minhhn.vcf.BgzfOutputStream;
+import com.minhhn.vcf.TabixIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Deterministic stand-in for GATK. Every command sleeps for a configurable latency
+ * while printing progress lines, then writes a small VCF derived from the command
+ * to the output file. Used to load-test the orchestration layer without Docker.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "gatk.executor.type", havingValue = "simulated")
+public class SimulatedGatkExecutor implements GatkExecutor {
+
+    private static final int PROGRESS_INTERVALS = 10;
+    private static final int SIMULATED_RECORDS = 100;
+    
+    @Value("${gatk.simulated.latency-ms:1000}")
+    private long latencyMs;
+    
+    @Value("${gatk.simulated.exit-code:0}")
+    private int exitCode;
+    
+    @Value("${gatk.simulated.write-outputs:true}")
+    private boolean writeOutputs;
+    
+    @Override
+    public String getName() {
+        return "simulated";
+    }
+    
+    @Override
+    public GatkExecution start(GatkCommand command, GatkRunContext context) throws IOException {
+        String commandString = command.buildCommandString();
+        
+        SimulatedProcess process = new SimulatedProcess("simulated-" + command.getToolName(), (stdout, stderr) -> {
+            stdout.println("Using GATK stand-in for " + commandString);
+            printProgress(stderr, commandString);
+            
+            if (exitCode == 0 && writeOutputs && !command.getOutputFile().isEmpty()) {
+                writeOutput(Path.of(command.getOutputFile()), command.getToolName(), commandString);
+            }
+            stderr.println("Tool " + command.getToolName() + " done. Elapsed time: "
+                    + String.format(Locale.ROOT, "%.2f", latencyMs / 60_000.0) + " minutes.");
+            return exitCode;
+        });
+        
+        return new GatkExecution(process);
+    }
+    
+    private void printProgress(PrintStream stderr, String commandString) throws InterruptedException {
+        long step = latencyMs / PROGRESS_INTERVALS;
+        Random random = new Random(commandString.hashCode());
+        long records = 0;
+        
+        stderr.println("INFO  ProgressMeter - Starting traversal");
+        stderr.println("INFO  ProgressMeter -        Current Locus  Elapsed Minutes     Regions Processed   Regions/Minute");
+        for (int i = 1; i <= PROGRESS_INTERVALS; i++) {
+            Thread.sleep(step);
+            records += 1_000 + random.nextInt(1_000);
+            double minutes = step * i / 60_000.0;
+            stderr.printf(Locale.ROOT, "INFO  ProgressMeter -        chr1:%d              %.1f                 %d          %.1f%n",
+                    i * 24_800_000L, minutes, records, minutes > 0 ? records / minutes : 0.0);
+        }
+        stderr.println("INFO  ProgressMeter - Traversal complete. Processed " + records + " total regions");
+    }
+    
+    private void writeOutput(Path output, String toolName, String commandString) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        
+        // Seeded from the command so that identical commands produce identical files
+        Random random = new Random(commandString.hashCode());
+        boolean compressed = output.toString().endsWith(".gz");
+        OutputStream stream = compressed ? BgzfOutputStream.create(output) : Files.newOutputStream(output);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+            writer.write("##fileformat=VCFv4.2\n");
+            writer.write("##source=" + toolName + " (simulated)\n");
+            writer.write("##contig=<ID=chr1,length=248956422>\n");
+            writer.write("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Approximate read depth\">\n");
+            writer.write("##INFO=<ID=QD,Number=1,Type=Float,Description=\"Variant Confidence/Quality by Depth\">\n");
+            writer.write("##INFO=<ID=FS,Number=1,Type=Float,Description=\"Phred-scaled p-value using Fisher's exact test\">\n");
+            writer.write("##INFO=<ID=MQ,Number=1,Type=Float,Description=\"RMS Mapping Quality\">\n");
+            writer.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n");
+            
+            String bases = "ACGT";
+            long position = 0;
+            for (int i = 0; i < SIMULATED_RECORDS; i++) {
+                position += 1 + random.nextInt(2_000_000);
+                char ref = bases.charAt(random.nextInt(4));
+                char alt = bases.charAt((bases.indexOf(ref) + 1 + random.nextInt(3)) % 4);
+                writer.write(String.format(Locale.ROOT, "chr1\t%d\t.\t%c\t%c\t%.2f\t.\tDP=%d;QD=%.2f;FS=%.3f;MQ=%.2f%n",
+                        position, ref, alt, 30 + random.nextDouble() * 900, 10 + random.nextInt(60),
+                        random.nextDouble() * 35, random.nextDouble() * 80, 20 + random.nextDouble() * 40));
+            }
+        }
+        
+        // GATK block-compresses and indexes its VCF outputs, so later steps and region queries can rely on both
+        if (compressed) {
+            TabixIndex.build(output).write(Path.of(output + ".tbi"));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.minhhn.executor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * In-memory {@link Process} driven by a script running on a virtual thread.
+ * The script writes to the process stdout and stderr and returns the exit code.
+ */
+class SimulatedProcess extends Process {
+
+    private static final int KILLED_EXIT_CODE = 137;
+    
+    /**
+     * Body of a simulated process.
+     */
+    @FunctionalInterface
+    interface Script {
+        int run(PrintStream stdout, PrintStream stderr) throws Exception;
+    }
+    
+    private final PipedInputStream stdout = new PipedInputStream(64 * 1024);
+    private final PipedInputStream stderr = new PipedInputStream(64 * 1024);
+    private final CompletableFuture<Integer> exit = new CompletableFuture<>();
+    private final Thread runner;
+    
+    SimulatedProcess(String name, Script script) throws IOException {
+        PrintStream out = new PrintStream(new PipedOutputStream(stdout), true, StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new PipedOutputStream(stderr), true, StandardCharsets.UTF_8);
+        
+        this.runner = Thread.ofVirtual().name(name).start(() -> {
+            int exitCode;
+            try {
+                exitCode = script.run(out, err);
+            } catch (InterruptedException e) {
+                exitCode = KILLED_EXIT_CODE;
+            } catch (Exception e) {
+                err.println(e);
+                exitCode = 1;
+            }
+            out.close();
+            err.close();
+            exit.complete(exitCode);
+        });
+    }
+    
+    @Override
+    public OutputStream getOutputStream() {
+        return OutputStream.nullOutputStream();
+    }
+    
+    @Override
+    public InputStream getInputStream() {
+        return stdout;
+    }
+    
+    @Override
+    public InputStream getErrorStream() {
+        return stderr;
+    }
+    
+    @Override
+    public int waitFor() throws InterruptedException {
+        try {
+            return exit.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    @Override
+    public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            exit.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    @Override
+    public int exitValue() {
+        if (!exit.isDone()) {
+            throw new IllegalThreadStateException("Simulated process has not exited");
+        }
+        return exit.join();
+    }
+    
+    @Override
+    public boolean isAlive() {
+        return !exit.isDone();
+    }
+    
+    @Override
+    public void destroy() {
+        runner.interrupt();
+    }
+    
+    @Override
+    public Process destroyForcibly() {
+        runner.interrupt();
+        return this;
+    }
+}
@@ -0,0 +1,32 @@
+package com.minhhn.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Live progress of the GATK commands of an analysis on this node. The totals cover the
+ * current round of commands, e.g. all scatter shards of a HaplotypeCaller step.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AnalysisProgress {
+    private Long analysisId;
+    
+    // Share of the bases of the current commands that has been traversed, null if unknown
+    private Double percentComplete;
+    
+    // Most recently reported locus and the combined throughput of the running commands
+    private String currentContig;
+    private Long currentPosition;
+    private double recordsPerMinute;
+    
+    private LocalDateTime updatedAt;
+    private List<CommandProgress> commands;
+}
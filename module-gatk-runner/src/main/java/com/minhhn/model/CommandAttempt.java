@@ -0,0 +1,33 @@
+package com.minhhn.model;
+
+import com.minhhn.enums.FailureClass;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * One run of a GATK command. A command that failed with a retryable failure has one
+ * attempt per run.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CommandAttempt {
+    private String toolName;
+    private int attempt;
+    private LocalDateTime startedAt;
+    private long durationMs;
+    private int exitCode;
+    private boolean success;
+    
+    // Only set for failed attempts
+    private FailureClass failureClass;
+    private String error;
+    
+    // Heap the attempt ran with, if it was tuned
+    private Long heapMb;
+}
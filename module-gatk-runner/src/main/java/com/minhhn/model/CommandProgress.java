@@ -0,0 +1,40 @@
+package com.minhhn.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Progress of one running GATK command, parsed from its ProgressMeter output.
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class CommandProgress {
+    private String toolName;
+    private String outputFile;
+    
+    // Last locus reported by the ProgressMeter, e.g. chr1:248000000
+    private String currentContig;
+    private Long currentPosition;
+    
+    private double elapsedMinutes;
+    private long recordsProcessed;
+    private double recordsPerMinute;
+    
+    // What the tool counts, e.g. regions or variants
+    private String recordUnit;
+    
+    // Bases of the traversed intervals, null if the intervals are unknown
+    private Long totalBases;
+    private Long basesDone;
+    private Double percentComplete;
+    
+    private LocalDateTime startedAt;
+    private LocalDateTime updatedAt;
+    private boolean finished;
+}
@@ -30,6 +30,9 @@ public class GatkCommand {
     @Builder.Default
     private String referenceGenome = "";
     
+    // Limits assigned by the scheduler when the command is admitted
+    private ToolResources resources;
+    
     /**
      * Builds the complete GATK command as a string.
      * 
@@ -64,6 +67,37 @@ public class GatkCommand {
         return command.toString();
     }
     
+    /**
+     * Builds the GATK command as separate arguments, for executors that start it without
+     * a shell. Unlike {@link #buildCommandString()}, values are not quoted.
+     * 
+     * @return The tool name followed by its arguments
+     */
+    public List<String> buildArguments() {
+        List<String> arguments = new ArrayList<>();
+        arguments.add(toolName);
+        
+        if (!referenceGenome.isEmpty()) {
+            arguments.add("-R");
+            arguments.add(referenceGenome);
+        }
+        for (String inputFile : inputFiles) {
+            arguments.add("-I");
+            arguments.add(inputFile);
+        }
+        if (!outputFile.isEmpty()) {
+            arguments.add("-O");
+            arguments.add(outputFile);
+        }
+        if (parameters != null) {
+            for (GatkCommandParameter param : parameters) {
+                arguments.addAll(param.toArguments());
+            }
+        }
+        
+        return arguments;
+    }
+    
     /**
      * Creates a map of environment variables needed for the command.
      * 
@@ -5,6 +5,9 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+import java.util.regex.Pattern;
+
 /**
  * Represents a parameter for a GATK command.
  */
@@ -13,6 +16,10 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 public class GatkCommandParameter {
+    
+    // Values made of these characters mean the same to a shell without quoting
+    private static final Pattern SHELL_SAFE = Pattern.compile("[A-Za-z0-9_./:=,+@%-]+");
+    
     private String name;
     private String value;
     private boolean flag;
@@ -27,7 +34,31 @@ public class GatkCommandParameter {
         if (flag) {
             return name;
         } else {
-            return name + " " + value;
+            return name + " " + shellQuote(value);
+        }
+    }
+    
+    /**
+     * Converts the parameter to command-line arguments, for executors that start the
+     * command without a shell. The value is passed as is.
+     * 
+     * @return The name, followed by the value unless the parameter is a flag
+     */
+    public List<String> toArguments() {
+        return flag ? List.of(name) : List.of(name, value);
+    }
+    
+    /**
+     * Quotes a value for a POSIX shell, so that values with spaces or operators such as
+     * filter expressions reach GATK as a single argument.
+     * 
+     * @param value The value
+     * @return The value, single-quoted if it needs quoting
+     */
+    static String shellQuote(String value) {
+        if (value != null && SHELL_SAFE.matcher(value).matches()) {
+            return value;
         }
+        return "'" + String.valueOf(value).replace("'", "'\\''") + "'";
     }
 }
@@ -1,10 +1,15 @@
 package com.minhhn.model;
 
+import com.minhhn.enums.FailureClass;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Represents the result of executing a GATK command.
  */
@@ -15,9 +20,34 @@ import lombok.NoArgsConstructor;
 public class GatkCommandResult {
     private boolean success;
     private String outputFile;
+    
+    // Last lines of stderr and stdout; the complete output is streamed to logFile
     private String errorMessage;
     private String standardOutput;
+    private String logFile;
     private int exitCode;
     private long executionTimeMs;
     private GatkCommand command;
+    
+    // Command was stopped because its analysis was cancelled
+    private boolean cancelled;
+    
+    // Command was killed after exceeding the timeout of its tool
+    private boolean timedOut;
+    
+    // Why the last attempt failed, null on success or cancellation
+    private FailureClass failureClass;
+    
+    // Every run of the command, including retries after retryable failures
+    @Builder.Default
+    private List<CommandAttempt> attempts = new ArrayList<>();
+    
+    // Output was restored from the step result cache instead of running GATK
+    private boolean cached;
+    
+    // JVM and threading settings the command ran with
+    private TuningProfile tuningProfile;
+    
+    // Records written per variant type by a split run in process, null otherwise
+    private Map<String, Long> recordCounts;
 }
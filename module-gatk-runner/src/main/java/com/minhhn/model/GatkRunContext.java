@@ -0,0 +1,47 @@
+package com.minhhn.model;
+
+import com.minhhn.enums.JobPriority;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.function.Consumer;
+
+/**
+ * Describes the analysis on whose behalf a GATK command is executed.
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class GatkRunContext {
+    private Long analysisId;
+    private String pipelineVersion;
+    
+    // Run of the analysis, such as one claim of its job; cancelling a run leaves other runs of the analysis alone
+    private String runId;
+    
+    // Log file that receives the streamed stdout/stderr of every step
+    private String logFile;
+    
+    // Scheduling class and the submitter or project whose fair share the command counts against
+    @Builder.Default
+    private JobPriority priority = JobPriority.ROUTINE;
+    private String submitter;
+    
+    // Scratch workspace that commands run in and write their temp files to; the data volume if not set
+    private String workDirectory;
+    
+    // Notified of every attempt of every command, so that the steps of a pipeline can record their history
+    private Consumer<CommandAttempt> attemptListener;
+    
+    /**
+     * Creates an empty context for commands that do not belong to an analysis.
+     * 
+     * @return An empty run context
+     */
+    public static GatkRunContext none() {
+        return new GatkRunContext();
+    }
+}
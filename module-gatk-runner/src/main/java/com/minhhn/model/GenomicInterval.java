@@ -0,0 +1,37 @@
+package com.minhhn.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A genomic interval with 1-based, inclusive coordinates.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class GenomicInterval {
+    private String contig;
+    private long start;
+    private long end;
+    
+    /**
+     * Gets the number of bases covered by the interval.
+     * 
+     * @return The interval length in bases
+     */
+    public long length() {
+        return end - start + 1;
+    }
+    
+    /**
+     * Formats the interval the way GATK expects it on the command line or in a .intervals file.
+     * 
+     * @return The interval as contig:start-end
+     */
+    public String toIntervalString() {
+        return contig + ":" + start + "-" + end;
+    }
+}
@@ -0,0 +1,24 @@
+package com.minhhn.model;
+
+import com.minhhn.enums.JobPriority;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Queue wait times of one priority class since startup.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class QueueWaitStats {
+    private JobPriority priority;
+    
+    // Work of this class that has left the queue, and the time it waited
+    private long count;
+    private long averageWaitMs;
+    private long maxWaitMs;
+    private long lastWaitMs;
+}
@@ -0,0 +1,18 @@
+package com.minhhn.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * CPU and memory a GATK command is allowed to use.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ToolResources {
+    private double cpus;
+    private long memoryMb;
+}
@@ -0,0 +1,35 @@
+package com.minhhn.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * JVM and threading settings chosen for a GATK command.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TuningProfile {
+    // -1 when the size of an input could not be read
+    private long inputSizeBytes;
+    private long heapMb;
+    private String garbageCollector;
+    private int gcThreads;
+    
+    // Only set for tools with a native PairHMM (HaplotypeCaller, Mutect2)
+    private Integer pairHmmThreads;
+    
+    private String tmpDir;
+    
+    /**
+     * Formats the JVM options passed to GATK through --java-options.
+     * 
+     * @return The JVM options
+     */
+    public String toJavaOptions() {
+        return "-Xmx" + heapMb + "m -XX:+Use" + garbageCollector + " -XX:ParallelGCThreads=" + gcThreads;
+    }
+}
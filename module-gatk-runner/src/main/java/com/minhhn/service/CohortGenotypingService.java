@@ -0,0 +1,579 @@
+package com.minhhn.service;
+
+import com.minhhn.model.GatkCommand;
+import com.minhhn.model.GatkCommandParameter;
+import com.minhhn.model.GatkCommandResult;
+import com.minhhn.model.GatkRunContext;
+import com.minhhn.model.GenomicInterval;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Incremental joint genotyping of a growing cohort through GenomicsDB. A cohort workspace
+ * is a directory with one GenomicsDB workspace per interval shard:
+ * <pre>
+ * cohort/shard-0000.intervals   intervals of the shard, fixed when the workspace is created
+ * cohort/shard-0000/            GenomicsDB workspace of the shard
+ * cohort/shard-0000.samples     samples imported into the shard
+ * </pre>
+ * Imports and genotyping run per shard in parallel. New samples are appended to the
+ * existing shard workspaces, so adding samples does not re-import the cohort.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class CohortGenotypingService {
+
+    private static final String LOCK_FILE = ".cohort.lock";
+    
+    // Workspace files rewritten by an update, backed up so that a failed update can be rolled back
+    private static final List<String> WORKSPACE_METADATA = List.of("callset.json", "vidmap.json", "vcfheader.vcf");
+    
+    private final GatkRunnerService gatkRunnerService;
+    private final IntervalShardingService intervalShardingService;
+    
+    // Serializes imports and genotyping of a workspace within this JVM; the file lock covers other nodes
+    private final Map<Path, ReentrantLock> workspaceLocks = new ConcurrentHashMap<>();
+    
+    @Value("${gatk.reference.genome:/data/reference/Homo_sapiens_assembly38.fasta}")
+    private String referenceGenome;
+    
+    @Value("${gatk.cohort.shard-count:24}")
+    private int shardCount;
+    
+    @Value("${gatk.cohort.parallelism:8}")
+    private int parallelism;
+    
+    @Value("${gatk.cohort.batch-size:50}")
+    private int batchSize;
+    
+    @Value("${gatk.cohort.reader-threads:1}")
+    private int readerThreads;
+    
+    /**
+     * Imports GVCFs into a cohort workspace, creating it if it does not exist. Samples that
+     * a shard already contains are skipped, so an interrupted import can simply be repeated.
+     *
+     * @param workspace The cohort workspace directory
+     * @param gvcfFiles Single-sample GVCFs to import
+     * @param intervalList Optional interval list, only used when the workspace is created
+     * @param context The analysis the commands belong to
+     * @return The result of the import
+     */
+    public GatkCommandResult importSamples(String workspace, List<String> gvcfFiles, String intervalList,
+                                          GatkRunContext context) {
+        long startTime = System.currentTimeMillis();
+        Path workspacePath = Path.of(workspace).toAbsolutePath();
+        log.info("Importing {} GVCF files into cohort workspace {}", gvcfFiles.size(), workspacePath);
+        
+        try (WorkspaceLock lock = lockWorkspace(workspacePath)) {
+            List<Path> shardIntervals = prepareShards(workspacePath, intervalList);
+            Map<String, String> samples = sampleNames(gvcfFiles);
+            
+            List<Integer> shards = new ArrayList<>();
+            List<GatkCommand> commands = new ArrayList<>();
+            Map<Integer, Set<String>> newSamples = new ConcurrentHashMap<>();
+            Map<Integer, Set<Path>> snapshots = new HashMap<>();
+            for (int i = 0; i < shardIntervals.size(); i++) {
+                Set<String> missing = new LinkedHashSet<>(samples.keySet());
+                missing.removeAll(readSamples(samplesFile(workspacePath, i)));
+                if (missing.isEmpty()) {
+                    continue;
+                }
+                
+                Path sampleMap = workspacePath.resolve(String.format("shard-%04d.import.map", i));
+                writeSampleMap(sampleMap, missing, samples);
+                Path shardWorkspace = shardWorkspace(workspacePath, i);
+                if (isWorkspace(shardWorkspace)) {
+                    snapshots.put(i, snapshot(shardWorkspace));
+                    backupMetadata(shardWorkspace);
+                } else {
+                    deleteRecursively(shardWorkspace);
+                }
+                
+                shards.add(i);
+                newSamples.put(i, missing);
+                commands.add(buildImportCommand(shardWorkspace, shardIntervals.get(i), sampleMap));
+            }
+            
+            if (commands.isEmpty()) {
+                return GatkCommandResult.builder()
+                        .success(true)
+                        .standardOutput("All " + samples.size() + " samples are already in " + workspacePath)
+                        .errorMessage("")
+                        .executionTimeMs(System.currentTimeMillis() - startTime)
+                        .build();
+            }
+            
+            // Record the samples of each shard as soon as its import succeeded
+            Set<Integer> succeeded = ConcurrentHashMap.newKeySet();
+            Optional<GatkCommandResult> failure = ShardRunner.runAll(gatkRunnerService, commands, parallelism,
+                    "genomicsdb-import", context, index -> {
+                        int shard = shards.get(index);
+                        if (appendSamples(samplesFile(workspacePath, shard), newSamples.get(shard))) {
+                            succeeded.add(shard);
+                        }
+                    });
+            
+            for (int shard : shards) {
+                Path shardWorkspace = shardWorkspace(workspacePath, shard);
+                if (succeeded.contains(shard)) {
+                    deleteBackup(shardWorkspace);
+                    Files.deleteIfExists(workspacePath.resolve(String.format("shard-%04d.import.map", shard)));
+                } else {
+                    rollBack(shardWorkspace, snapshots.get(shard));
+                }
+            }
+            
+            if (failure.isPresent()) {
+                failure.get().setExecutionTimeMs(System.currentTimeMillis() - startTime);
+                return failure.get();
+            }
+            if (succeeded.size() != shards.size()) {
+                return GatkCommandResult.builder()
+                        .success(false)
+                        .errorMessage("Could not record the imported samples of " + workspacePath)
+                        .executionTimeMs(System.currentTimeMillis() - startTime)
+                        .build();
+            }
+            
+            Set<String> imported = new LinkedHashSet<>();
+            newSamples.values().forEach(imported::addAll);
+            log.info("Imported {} samples into {} shards of {}", imported.size(), shards.size(), workspacePath);
+            return GatkCommandResult.builder()
+                    .success(true)
+                    .standardOutput("Imported " + imported.size() + " samples into " + shards.size() + " shards")
+                    .errorMessage("")
+                    .executionTimeMs(System.currentTimeMillis() - startTime)
+                    .build();
+        
+        } catch (IOException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("Import into cohort workspace {} failed", workspacePath, e);
+            return GatkCommandResult.builder()
+                    .success(false)
+                    .errorMessage("Cohort import failed: " + e.getMessage())
+                    .executionTimeMs(System.currentTimeMillis() - startTime)
+                    .build();
+        }
+    }
+    
+    /**
+     * Joint genotypes every sample of a cohort workspace. Each shard is genotyped from its
+     * GenomicsDB workspace in parallel and the shard VCFs are gathered into the output.
+     *
+     * @param workspace The cohort workspace directory
+     * @param outputVcf Path to the output VCF file
+     * @param context The analysis the commands belong to
+     * @return The result of the genotyping
+     */
+    public GatkCommandResult genotype(String workspace, String outputVcf, GatkRunContext context) {
+        long startTime = System.currentTimeMillis();
+        Path workspacePath = Path.of(workspace).toAbsolutePath();
+        Path scatterDirectory = Path.of(outputVcf + ".scatter");
+        String extension = outputVcf.endsWith(".vcf.gz") ? ".vcf.gz" : ".vcf";
+        
+        try (WorkspaceLock lock = lockWorkspace(workspacePath)) {
+            List<Path> shardIntervals = existingShards(workspacePath);
+            if (shardIntervals.isEmpty()) {
+                return GatkCommandResult.builder()
+                        .success(false)
+                        .errorMessage("No cohort workspace found at " + workspacePath)
+                        .executionTimeMs(System.currentTimeMillis() - startTime)
+                        .build();
+            }
+            
+            // A shard that missed an import lacks samples, and GatherVcfs would join VCFs with different columns
+            Set<String> samples = readSamples(samplesFile(workspacePath, 0));
+            for (int i = 1; i < shardIntervals.size(); i++) {
+                Set<String> shardSamples = readSamples(samplesFile(workspacePath, i));
+                if (!shardSamples.equals(samples)) {
+                    return GatkCommandResult.builder()
+                            .success(false)
+                            .errorMessage(String.format("Shard %d of cohort workspace %s holds %d samples, shard 0 "
+                                    + "holds %d; import the missing samples again before genotyping",
+                                    i, workspacePath, shardSamples.size(), samples.size()))
+                            .executionTimeMs(System.currentTimeMillis() - startTime)
+                            .build();
+                }
+            }
+            
+            Files.createDirectories(scatterDirectory);
+            List<GatkCommand> commands = new ArrayList<>();
+            List<String> shardOutputs = new ArrayList<>();
+            for (int i = 0; i < shardIntervals.size(); i++) {
+                String shardOutput = scatterDirectory.resolve(String.format("shard-%04d%s", i, extension)).toString();
+                shardOutputs.add(shardOutput);
+                commands.add(buildGenotypeCommand(shardWorkspace(workspacePath, i), shardIntervals.get(i), shardOutput));
+            }
+            
+            log.info("Genotyping cohort {} over {} shards with parallelism {}", workspacePath, commands.size(), parallelism);
+            Optional<GatkCommandResult> failure = ShardRunner.runAll(
+                    gatkRunnerService, commands, parallelism, "genotype-gvcfs", context);
+            if (failure.isPresent()) {
+                failure.get().setExecutionTimeMs(System.currentTimeMillis() - startTime);
+                return failure.get();
+            }
+            
+            GatkCommandResult result = ShardRunner.gatherAndIndex(gatkRunnerService, shardOutputs, outputVcf, context);
+            result.setExecutionTimeMs(System.currentTimeMillis() - startTime);
+            if (result.isSuccess()) {
+                ShardRunner.deleteScatterDirectory(scatterDirectory);
+            }
+            return result;
+        
+        } catch (IOException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("Genotyping of cohort workspace {} failed", workspacePath, e);
+            return GatkCommandResult.builder()
+                    .success(false)
+                    .errorMessage("Cohort genotyping failed: " + e.getMessage())
+                    .executionTimeMs(System.currentTimeMillis() - startTime)
+                    .build();
+        }
+    }
+    
+    /**
+     * Gets the samples that every shard of a cohort workspace contains.
+     *
+     * @param workspace The cohort workspace directory
+     * @return The sample names, in import order
+     * @throws IOException If the workspace cannot be read
+     */
+    public List<String> getSamples(String workspace) throws IOException {
+        Path workspacePath = Path.of(workspace).toAbsolutePath();
+        List<Path> shardIntervals = existingShards(workspacePath);
+        if (shardIntervals.isEmpty()) {
+            return List.of();
+        }
+        
+        Set<String> samples = new LinkedHashSet<>(readSamples(samplesFile(workspacePath, 0)));
+        for (int i = 1; i < shardIntervals.size(); i++) {
+            samples.retainAll(readSamples(samplesFile(workspacePath, i)));
+        }
+        return new ArrayList<>(samples);
+    }
+    
+    /**
+     * Writes the shard interval files of a new workspace, or reads those of an existing one.
+     * The shards of a workspace never change, since GenomicsDB can only append samples to
+     * the intervals a workspace was created with.
+     */
+    private List<Path> prepareShards(Path workspace, String intervalList) throws IOException {
+        List<Path> existing = existingShards(workspace);
+        if (!existing.isEmpty()) {
+            if (intervalList != null && !intervalList.isEmpty()) {
+                log.info("Cohort workspace {} already exists, keeping its {} shards", workspace, existing.size());
+            }
+            return existing;
+        }
+        
+        List<GenomicInterval> intervals = intervalShardingService.loadIntervals(intervalList, referenceGenome);
+        List<List<GenomicInterval>> shards = intervalShardingService.split(intervals, shardCount);
+        List<Path> shardIntervals = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            Path shardFile = workspace.resolve(String.format("shard-%04d.intervals", i));
+            intervalShardingService.writeIntervalFile(shardFile, shards.get(i));
+            shardIntervals.add(shardFile);
+        }
+        log.info("Created cohort workspace {} with {} shards", workspace, shardIntervals.size());
+        return shardIntervals;
+    }
+    
+    private List<Path> existingShards(Path workspace) {
+        List<Path> shardIntervals = new ArrayList<>();
+        for (int i = 0; ; i++) {
+            Path shardFile = workspace.resolve(String.format("shard-%04d.intervals", i));
+            if (!Files.exists(shardFile)) {
+                return shardIntervals;
+            }
+            shardIntervals.add(shardFile);
+        }
+    }
+    
+    private GatkCommand buildImportCommand(Path shardWorkspace, Path shardIntervals, Path sampleMap) {
+        List<GatkCommandParameter> parameters = new ArrayList<>();
+        
+        if (isWorkspace(shardWorkspace)) {
+            // Appending: the intervals are taken from the workspace
+            parameters.add(GatkCommandParameter.builder()
+                    .name("--genomicsdb-update-workspace-path")
+                    .value(shardWorkspace.toString())
+                    .flag(false)
+                    .build());
+        } else {
+            parameters.add(GatkCommandParameter.builder()
+                    .name("--genomicsdb-workspace-path")
+                    .value(shardWorkspace.toString())
+                    .flag(false)
+                    .build());
+            parameters.add(GatkCommandParameter.builder()
+                    .name("-L")
+                    .value(shardIntervals.toString())
+                    .flag(false)
+                    .build());
+        }
+        
+        parameters.add(GatkCommandParameter.builder()
+                .name("--sample-name-map")
+                .value(sampleMap.toString())
+                .flag(false)
+                .build());
+        
+        // Bound the number of GVCFs held open at once
+        parameters.add(GatkCommandParameter.builder()
+                .name("--batch-size")
+                .value(String.valueOf(batchSize))
+                .flag(false)
+                .build());
+        
+        parameters.add(GatkCommandParameter.builder()
+                .name("--reader-threads")
+                .value(String.valueOf(readerThreads))
+                .flag(false)
+                .build());
+        
+        return GatkCommand.builder()
+                .toolName("GenomicsDBImport")
+                .referenceGenome(referenceGenome)
+                .parameters(parameters)
+                .build();
+    }
+    
+    private GatkCommand buildGenotypeCommand(Path shardWorkspace, Path shardIntervals, String outputVcf) {
+        List<GatkCommandParameter> parameters = new ArrayList<>();
+        
+        parameters.add(GatkCommandParameter.builder()
+                .name("-V")
+                .value("gendb://" + shardWorkspace)
+                .flag(false)
+                .build());
+        
+        parameters.add(GatkCommandParameter.builder()
+                .name("-L")
+                .value(shardIntervals.toString())
+                .flag(false)
+                .build());
+        
+        return GatkCommand.builder()
+                .toolName("GenotypeGVCFs")
+                .referenceGenome(referenceGenome)
+                .outputFile(outputVcf)
+                .parameters(parameters)
+                .build();
+    }
+    
+    /**
+     * Reads the sample name of every GVCF from the #CHROM line of its header.
+     */
+    private Map<String, String> sampleNames(List<String> gvcfFiles) throws IOException {
+        Map<String, String> samples = new LinkedHashMap<>();
+        for (String gvcfFile : gvcfFiles) {
+            String sample = sampleNameOf(Path.of(gvcfFile));
+            String previous = samples.put(sample, gvcfFile);
+            if (previous != null && !previous.equals(gvcfFile)) {
+                throw new IOException("Sample " + sample + " appears in both " + previous + " and " + gvcfFile);
+            }
+        }
+        return samples;
+    }
+    
+    private String sampleNameOf(Path gvcf) throws IOException {
+        try (InputStream file = Files.newInputStream(gvcf);
+             InputStream input = gvcf.toString().endsWith(".gz") ? new GZIPInputStream(file) : file;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null && line.startsWith("#")) {
+                if (line.startsWith("#CHROM")) {
+                    String[] columns = line.split("\t");
+                    if (columns.length != 10) {
+                        throw new IOException(gvcf + " is not a single-sample GVCF");
+                    }
+                    return columns[9];
+                }
+            }
+        }
+        throw new IOException("No #CHROM header line in " + gvcf);
+    }
+    
+    private void writeSampleMap(Path sampleMap, Set<String> sampleNames, Map<String, String> samples) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(sampleMap, StandardCharsets.UTF_8)) {
+            for (String sample : sampleNames) {
+                writer.write(sample + "\t" + samples.get(sample) + "\n");
+            }
+        }
+    }
+    
+    private Path shardWorkspace(Path workspace, int shard) {
+        return workspace.resolve(String.format("shard-%04d", shard));
+    }
+    
+    private Path samplesFile(Path workspace, int shard) {
+        return workspace.resolve(String.format("shard-%04d.samples", shard));
+    }
+    
+    private Set<String> readSamples(Path samplesFile) throws IOException {
+        if (!Files.exists(samplesFile)) {
+            return new LinkedHashSet<>();
+        }
+        Set<String> samples = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(samplesFile, StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                samples.add(line.trim());
+            }
+        }
+        return samples;
+    }
+    
+    private boolean appendSamples(Path samplesFile, Set<String> samples) {
+        try {
+            Files.write(samplesFile, samples, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            return true;
+        } catch (IOException e) {
+            log.error("Could not record samples in {}: {}", samplesFile, e.getMessage());
+            return false;
+        }
+    }
+    
+    private boolean isWorkspace(Path shardWorkspace) {
+        return Files.exists(shardWorkspace.resolve("callset.json"));
+    }
+    
+    private void backupMetadata(Path shardWorkspace) throws IOException {
+        for (String file : WORKSPACE_METADATA) {
+            Path source = shardWorkspace.resolve(file);
+            if (Files.exists(source)) {
+                Files.copy(source, shardWorkspace.resolve(file + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+    
+    private void deleteBackup(Path shardWorkspace) throws IOException {
+        for (String file : WORKSPACE_METADATA) {
+            Files.deleteIfExists(shardWorkspace.resolve(file + ".bak"));
+        }
+    }
+    
+    /**
+     * Lists the files and directories of a shard workspace before it is updated.
+     * 
+     * @param shardWorkspace The GenomicsDB workspace of the shard
+     * @return The paths in the workspace, relative to it
+     * @throws IOException If the workspace cannot be listed
+     */
+    private Set<Path> snapshot(Path shardWorkspace) throws IOException {
+        try (Stream<Path> paths = Files.walk(shardWorkspace)) {
+            return paths.map(shardWorkspace::relativize).collect(Collectors.toSet());
+        }
+    }
+    
+    /**
+     * Undoes a failed import of a shard: an update is rolled back to the backed up metadata,
+     * so the workspace lists only the samples it had before, and the array fragments it wrote
+     * are removed; a partly created workspace is removed.
+     * 
+     * @param shardWorkspace The GenomicsDB workspace of the shard
+     * @param snapshot The paths of the workspace before the update, or null if it was created
+     * @throws IOException If the workspace cannot be restored
+     */
+    private void rollBack(Path shardWorkspace, Set<Path> snapshot) throws IOException {
+        if (snapshot == null || !Files.exists(shardWorkspace.resolve("callset.json.bak"))) {
+            deleteRecursively(shardWorkspace);
+            return;
+        }
+        
+        log.warn("Rolling back failed import into {}", shardWorkspace);
+        for (String file : WORKSPACE_METADATA) {
+            Path backup = shardWorkspace.resolve(file + ".bak");
+            if (Files.exists(backup)) {
+                Files.move(backup, shardWorkspace.resolve(file), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        
+        // Existing fragments are never modified by an import, so removing the new ones restores the arrays
+        List<Path> added;
+        try (Stream<Path> paths = Files.walk(shardWorkspace)) {
+            added = paths.filter(path -> !snapshot.contains(shardWorkspace.relativize(path)))
+                    .sorted(Comparator.reverseOrder())
+                    .toList();
+        }
+        for (Path path : added) {
+            Files.deleteIfExists(path);
+        }
+    }
+    
+    private void deleteRecursively(Path directory) {
+        if (Files.exists(directory)) {
+            ShardRunner.deleteScatterDirectory(directory);
+        }
+    }
+    
+    private WorkspaceLock lockWorkspace(Path workspace) throws IOException, InterruptedException {
+        Files.createDirectories(workspace);
+        ReentrantLock lock = workspaceLocks.computeIfAbsent(workspace, path -> new ReentrantLock());
+        lock.lockInterruptibly();
+        try {
+            FileChannel channel = FileChannel.open(workspace.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                return new WorkspaceLock(lock, channel, channel.lock());
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+    
+    /**
+     * Exclusive access to a cohort workspace, across threads and across nodes sharing the file system.
+     */
+    private record WorkspaceLock(ReentrantLock lock, FileChannel channel, FileLock fileLock) implements AutoCloseable {
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                fileLock.release();
+                channel.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.minhhn.service;
+
+import com.minhhn.enums.FailureClass;
+import com.minhhn.model.GatkCommandResult;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Classifies failed GATK commands from their exit code and the tail of their output.
+ */
+@Component
+public class FailureClassifier {
+
+    // Exit code of a process killed with SIGKILL, which is what the kernel OOM killer sends
+    private static final int EXIT_KILLED = 137;
+    
+    // Exit code of docker run when the daemon could not create or start the container
+    private static final int EXIT_DOCKER_RUN_FAILED = 125;
+    
+    private static final int MAX_ERROR_LENGTH = 500;
+    
+    // Checked in order, so a GATK user error mentioning a missing file is not taken for a storage failure
+    private static final List<Map.Entry<FailureClass, Pattern>> PATTERNS = List.of(
+            Map.entry(FailureClass.OUT_OF_MEMORY, Pattern.compile(
+                    "java\\.lang\\.OutOfMemoryError|GC overhead limit exceeded|Cannot allocate memory|OOMKilled")),
+            Map.entry(FailureClass.CONTAINER_RUNTIME, Pattern.compile(
+                    "Cannot connect to the Docker daemon|Error response from daemon|OCI runtime|"
+                            + "error during connect|context deadline exceeded")),
+            Map.entry(FailureClass.STORAGE, Pattern.compile(
+                    "Stale file handle|Input/output error|ESTALE|Transport endpoint is not connected")),
+            Map.entry(FailureClass.NETWORK, Pattern.compile(
+                    "Connection (refused|reset|timed out)|SocketTimeoutException|UnknownHostException|"
+                            + "Temporary failure in name resolution")),
+            Map.entry(FailureClass.INVALID_INPUT, Pattern.compile(
+                    "A USER ERROR has occurred|MalformedRead|Invalid command line|is malformed|"
+                            + "(Contig|contig) .* not (present|found)")));
+    
+    /**
+     * Determines why a command failed.
+     * 
+     * @param result The result of the failed command
+     * @return The failure class
+     */
+    public FailureClass classify(GatkCommandResult result) {
+        if (result.isTimedOut()) {
+            return FailureClass.TIMEOUT;
+        }
+        
+        String output = outputOf(result);
+        for (Map.Entry<FailureClass, Pattern> entry : PATTERNS) {
+            if (entry.getValue().matcher(output).find()) {
+                return entry.getKey();
+            }
+        }
+        
+        if (result.getExitCode() == EXIT_KILLED) {
+            return FailureClass.OUT_OF_MEMORY;
+        }
+        if (result.getExitCode() == EXIT_DOCKER_RUN_FAILED) {
+            return FailureClass.CONTAINER_RUNTIME;
+        }
+        return FailureClass.TOOL_ERROR;
+    }
+    
+    /**
+     * Extracts a short description of a failure for the attempt history: the first line
+     * matching a known failure pattern, or else the last line of stderr.
+     * 
+     * @param result The result of the failed command
+     * @return The description, at most 500 characters
+     */
+    public String describe(GatkCommandResult result) {
+        String output = outputOf(result);
+        String description = null;
+        
+        for (String line : output.lines().toList()) {
+            if (PATTERNS.stream().anyMatch(entry -> entry.getValue().matcher(line).find())) {
+                description = line.strip();
+                break;
+            }
+            if (!line.isBlank()) {
+                description = line.strip();
+            }
+        }
+        
+        if (description == null) {
+            description = "Exit code " + result.getExitCode();
+        }
+        return description.length() > MAX_ERROR_LENGTH ? description.substring(0, MAX_ERROR_LENGTH) : description;
+    }
+    
+    private String outputOf(GatkCommandResult result) {
+        return result.getErrorMessage() != null ? result.getErrorMessage() : "";
+    }
+}
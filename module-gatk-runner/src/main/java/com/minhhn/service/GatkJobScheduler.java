@@ -0,0 +1,333 @@
+package com.minhhn.service;
+
+import com.minhhn.config.SchedulerProperties;
+import com.minhhn.enums.JobPriority;
+import com.minhhn.model.GatkCommand;
+import com.minhhn.model.GatkRunContext;
+import com.minhhn.model.QueueWaitStats;
+import com.minhhn.model.ToolResources;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for GATK commands. Every tool has a declared CPU and memory cost;
+ * a command is only started when the host has that capacity left.
+ * <p>
+ * Only the command at the head of the wait queue may start, so a heavy command cannot be
+ * starved by a stream of light ones. The head is the waiting command with the highest
+ * priority class, where every aging interval spent waiting promotes a command by one
+ * class. Within a class, the submitter with the least weighted recent usage goes first, so
+ * one large batch cannot starve other submitters; ties are broken by arrival. Usage is the
+ * CPUs admitted for a submitter, decaying with the configured half-life.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class GatkJobScheduler {
+
+    private static final String DEFAULT_SUBMITTER = "default";
+    
+    private final SchedulerProperties schedulerProperties;
+    private final MeterRegistry meterRegistry;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition capacityChanged = lock.newCondition();
+    private final List<Ticket> waiting = new ArrayList<>();
+    private final Map<String, Usage> usageBySubmitter = new HashMap<>();
+    private final QueueWaitStatistics waitStatistics = new QueueWaitStatistics();
+    
+    private double usedCpus;
+    private long usedMemoryMb;
+    private int running;
+    private long arrivals;
+    
+    // Head of the wait queue, valid until the queue or usage changes or a ticket is promoted
+    private Ticket head;
+    private boolean headStale = true;
+    private long headValidUntil;
+    
+    @PostConstruct
+    public void registerMetrics() {
+        Gauge.builder("gatk.scheduler.running", this, GatkJobScheduler::getRunningCount)
+                .description("GATK commands admitted and running")
+                .register(meterRegistry);
+        Gauge.builder("gatk.scheduler.queued", this, GatkJobScheduler::getQueuedCount)
+                .description("GATK commands waiting for capacity")
+                .register(meterRegistry);
+        Gauge.builder("gatk.scheduler.cpus.used", this, GatkJobScheduler::getUsedCpus)
+                .description("CPUs reserved by running GATK commands")
+                .register(meterRegistry);
+        Gauge.builder("gatk.scheduler.cpus.capacity", schedulerProperties, SchedulerProperties::getCpus)
+                .register(meterRegistry);
+        Gauge.builder("gatk.scheduler.memory.used", this, GatkJobScheduler::getUsedMemoryMb)
+                .baseUnit("megabytes")
+                .description("Memory reserved by running GATK commands")
+                .register(meterRegistry);
+        Gauge.builder("gatk.scheduler.memory.capacity", schedulerProperties, SchedulerProperties::getMemoryMb)
+                .baseUnit("megabytes")
+                .register(meterRegistry);
+    }
+    
+    /**
+     * Resolves the resources a command is allowed to use, capped at the host capacity
+     * so that a single command can always be admitted eventually.
+     * 
+     * @param command The GATK command
+     * @return The resources for the command
+     */
+    public ToolResources resourcesFor(GatkCommand command) {
+        return resourcesFor(command, 1.0);
+    }
+    
+    /**
+     * Resolves the resources of a command with its declared memory scaled, as for a
+     * retry after running out of memory. The result is capped at the host capacity.
+     * 
+     * @param command The GATK command
+     * @param memoryScale Factor applied to the declared memory
+     * @return The resources for the command
+     */
+    public ToolResources resourcesFor(GatkCommand command, double memoryScale) {
+        ToolResources declared = schedulerProperties.resourcesFor(command.getToolName());
+        return new ToolResources(
+                Math.min(declared.getCpus(), schedulerProperties.getCpus()),
+                Math.min((long) (declared.getMemoryMb() * memoryScale), schedulerProperties.getMemoryMb()));
+    }
+    
+    /**
+     * Blocks until the command is at the head of the wait queue and the host has capacity
+     * for the given resources, then reserves it.
+     * 
+     * @param resources The resources to reserve
+     * @param context The analysis the command belongs to, giving its priority and submitter
+     * @return A lease that gives the capacity back when closed
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public Lease acquire(ToolResources resources, GatkRunContext context) throws InterruptedException {
+        JobPriority priority = context.getPriority() != null ? context.getPriority() : JobPriority.ROUTINE;
+        String submitter = context.getSubmitter() != null ? context.getSubmitter() : DEFAULT_SUBMITTER;
+        
+        lock.lock();
+        try {
+            Ticket ticket = new Ticket(resources, priority, submitter, System.nanoTime(), arrivals++);
+            waiting.add(ticket);
+            headStale = true;
+            try {
+                while (head() != ticket || !fits(resources)) {
+                    // Wake up for the next promotion, which may change the head without a release
+                    long untilPromotion = headValidUntil - System.nanoTime();
+                    capacityChanged.awaitNanos(Math.max(untilPromotion, TimeUnit.MILLISECONDS.toNanos(10)));
+                }
+            } finally {
+                waiting.remove(ticket);
+                headStale = true;
+                capacityChanged.signalAll();
+            }
+            
+            Duration wait = Duration.ofNanos(System.nanoTime() - ticket.enqueuedAt);
+            waitStatistics.record(priority, wait);
+            Timer.builder("gatk.scheduler.wait")
+                    .description("Time GATK commands waited for capacity")
+                    .tag("priority", priority.name())
+                    .register(meterRegistry)
+                    .record(wait);
+            usedCpus += resources.getCpus();
+            usedMemoryMb += resources.getMemoryMb();
+            usageBySubmitter.computeIfAbsent(submitter, key -> new Usage()).charge(resources.getCpus(), halfLifeNanos());
+            running++;
+            return new Lease(resources);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of commands currently admitted.
+     * 
+     * @return The number of running commands
+     */
+    public int getRunningCount() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the number of commands waiting for capacity.
+     * 
+     * @return The number of queued commands
+     */
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the CPUs reserved by admitted commands.
+     * 
+     * @return The used CPUs
+     */
+    public double getUsedCpus() {
+        lock.lock();
+        try {
+            return usedCpus;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the memory reserved by admitted commands.
+     * 
+     * @return The used memory in MB
+     */
+    public long getUsedMemoryMb() {
+        lock.lock();
+        try {
+            return usedMemoryMb;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Gets how long admitted commands of each priority class waited for capacity.
+     * 
+     * @return The wait times, highest class first
+     */
+    public List<QueueWaitStats> getWaitStatistics() {
+        return waitStatistics.snapshot();
+    }
+    
+    private boolean fits(ToolResources resources) {
+        return usedCpus + resources.getCpus() <= schedulerProperties.getCpus()
+                && usedMemoryMb + resources.getMemoryMb() <= schedulerProperties.getMemoryMb();
+    }
+    
+    /**
+     * Selects the waiting ticket that may start next. Must be called with the lock held.
+     * 
+     * @return The head of the wait queue
+     */
+    private Ticket head() {
+        long now = System.nanoTime();
+        if (!headStale && now < headValidUntil) {
+            return head;
+        }
+        
+        long agingNanos = Math.max(schedulerProperties.getAgingInterval().toNanos(), 1);
+        long halfLifeNanos = halfLifeNanos();
+        Ticket best = null;
+        int bestClass = Integer.MAX_VALUE;
+        double bestShare = Double.MAX_VALUE;
+        long nextPromotion = now + agingNanos;
+        
+        for (Ticket ticket : waiting) {
+            long steps = (now - ticket.enqueuedAt) / agingNanos;
+            int effectiveClass = ticket.priority.promote(steps).ordinal();
+            if (effectiveClass > 0) {
+                nextPromotion = Math.min(nextPromotion, ticket.enqueuedAt + (steps + 1) * agingNanos);
+            }
+            Usage usage = usageBySubmitter.get(ticket.submitter);
+            double share = (usage != null ? usage.valueAt(now, halfLifeNanos) : 0.0)
+                    / schedulerProperties.weightOf(ticket.submitter);
+            
+            if (best == null || effectiveClass < bestClass
+                    || (effectiveClass == bestClass && share < bestShare)
+                    || (effectiveClass == bestClass && share == bestShare && ticket.sequence < best.sequence)) {
+                best = ticket;
+                bestClass = effectiveClass;
+                bestShare = share;
+            }
+        }
+        
+        head = best;
+        headStale = false;
+        headValidUntil = nextPromotion;
+        return head;
+    }
+    
+    private long halfLifeNanos() {
+        return Math.max(schedulerProperties.getFairShareHalfLife().toNanos(), 1);
+    }
+    
+    private void release(ToolResources resources) {
+        lock.lock();
+        try {
+            usedCpus -= resources.getCpus();
+            usedMemoryMb -= resources.getMemoryMb();
+            running--;
+            headStale = true;
+            capacityChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Exponentially decaying sum of the CPUs admitted for a submitter.
+     */
+    private static final class Usage {
+        private double value;
+        private long updatedAt = System.nanoTime();
+        
+        private double valueAt(long now, long halfLifeNanos) {
+            return value * Math.pow(0.5, (double) (now - updatedAt) / halfLifeNanos);
+        }
+        
+        private void charge(double cpus, long halfLifeNanos) {
+            long now = System.nanoTime();
+            value = valueAt(now, halfLifeNanos) + cpus;
+            updatedAt = now;
+        }
+    }
+    
+    /**
+     * A command waiting for admission.
+     */
+    private record Ticket(ToolResources resources, JobPriority priority, String submitter,
+                          long enqueuedAt, long sequence) {
+    }
+    
+    /**
+     * Capacity reserved for one command. Closing it more than once has no effect.
+     */
+    public class Lease implements AutoCloseable {
+        
+        private final ToolResources resources;
+        private boolean released;
+        
+        private Lease(ToolResources resources) {
+            this.resources = resources;
+        }
+        
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                release(resources);
+            }
+        }
+    }
+}
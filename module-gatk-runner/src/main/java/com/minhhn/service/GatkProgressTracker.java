@@ -0,0 +1,340 @@
+package com.minhhn.service;
+
+import com.minhhn.model.AnalysisProgress;
+import com.minhhn.model.CommandProgress;
+import com.minhhn.model.GatkCommand;
+import com.minhhn.model.GatkCommandParameter;
+import com.minhhn.model.GatkRunContext;
+import com.minhhn.model.GenomicInterval;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tracks the progress of running GATK commands per analysis by parsing the ProgressMeter
+ * lines GATK writes to stderr while it traverses the genome:
+ * <pre>
+ * INFO  ProgressMeter -        Current Locus  Elapsed Minutes     Regions Processed   Regions/Minute
+ * INFO  ProgressMeter -        chr1:24800000              1.0                  1523           1523.0
+ * </pre>
+ * The percentage done is the share of the bases of the traversed intervals, or of the
+ * whole reference when no intervals are given, that lies before the current locus.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class GatkProgressTracker {
+
+    private static final Pattern HEADER = Pattern.compile(
+            "ProgressMeter\\s+-\\s+Current Locus\\s+Elapsed Minutes\\s+(\\w+) Processed");
+    private static final Pattern PROGRESS = Pattern.compile(
+            "ProgressMeter\\s+-\\s+(\\S+)\\s+([\\d.,]+)\\s+([\\d,]+)\\s+([\\d.,]+)\\s*$");
+    
+    private final IntervalShardingService intervalShardingService;
+    
+    private final Map<Long, List<TrackedCommand>> commandsByAnalysis = new ConcurrentHashMap<>();
+    
+    // Reference contigs by FASTA path; references are few and never change while in use
+    private final Map<String, List<GenomicInterval>> referenceContigs = new ConcurrentHashMap<>();
+    
+    /**
+     * Starts tracking a command. Once all tracked commands of the analysis have finished,
+     * the next command starts a new round and the finished ones are dropped.
+     * 
+     * @param command The command being started
+     * @param context The analysis the command belongs to
+     * @return The tracked command, which consumes stderr lines; null outside an analysis
+     */
+    TrackedCommand track(GatkCommand command, GatkRunContext context) {
+        if (context.getAnalysisId() == null) {
+            return null;
+        }
+        
+        LocalDateTime now = LocalDateTime.now();
+        TrackedCommand tracked = new TrackedCommand(traversalOf(command), CommandProgress.builder()
+                .toolName(command.getToolName())
+                .outputFile(command.getOutputFile())
+                .startedAt(now)
+                .updatedAt(now)
+                .build());
+        
+        commandsByAnalysis.compute(context.getAnalysisId(), (id, commands) -> {
+            List<TrackedCommand> round = commands == null || commands.stream().allMatch(TrackedCommand::isFinished)
+                    ? new ArrayList<>() : new ArrayList<>(commands);
+            round.add(tracked);
+            return round;
+        });
+        return tracked;
+    }
+    
+    /**
+     * Marks a tracked command as finished.
+     * 
+     * @param tracked The tracked command, may be null
+     * @param success Whether the command completed successfully
+     */
+    void finished(TrackedCommand tracked, boolean success) {
+        if (tracked != null) {
+            tracked.finish(success);
+        }
+    }
+    
+    /**
+     * Gets the progress of the commands of an analysis running on this node.
+     * 
+     * @param analysisId The analysis ID
+     * @return The progress, empty if no command of the analysis ran here
+     */
+    public Optional<AnalysisProgress> getProgress(Long analysisId) {
+        List<TrackedCommand> commands = commandsByAnalysis.get(analysisId);
+        if (commands == null || commands.isEmpty()) {
+            return Optional.empty();
+        }
+        
+        List<CommandProgress> snapshots = commands.stream().map(TrackedCommand::snapshot).toList();
+        CommandProgress latest = snapshots.stream()
+                .max(Comparator.comparing(CommandProgress::getUpdatedAt))
+                .orElseThrow();
+        
+        long totalBases = 0;
+        long basesDone = 0;
+        boolean basesKnown = true;
+        double recordsPerMinute = 0;
+        for (CommandProgress progress : snapshots) {
+            if (progress.getTotalBases() == null) {
+                basesKnown = false;
+            } else {
+                totalBases += progress.getTotalBases();
+                basesDone += progress.getBasesDone();
+            }
+            if (!progress.isFinished()) {
+                recordsPerMinute += progress.getRecordsPerMinute();
+            }
+        }
+        
+        return Optional.of(AnalysisProgress.builder()
+                .analysisId(analysisId)
+                .percentComplete(basesKnown && totalBases > 0 ? 100.0 * basesDone / totalBases : null)
+                .currentContig(latest.getCurrentContig())
+                .currentPosition(latest.getCurrentPosition())
+                .recordsPerMinute(recordsPerMinute)
+                .updatedAt(latest.getUpdatedAt())
+                .commands(snapshots)
+                .build());
+    }
+    
+    /**
+     * Forgets the progress of an analysis once it has stopped running.
+     * 
+     * @param analysisId The analysis ID
+     */
+    public void clear(Long analysisId) {
+        commandsByAnalysis.remove(analysisId);
+    }
+    
+    private Traversal traversalOf(GatkCommand command) {
+        String reference = command.getReferenceGenome();
+        if (reference == null || reference.isEmpty()) {
+            return null;
+        }
+        
+        try {
+            List<GenomicInterval> contigs = referenceContigs.get(reference);
+            if (contigs == null) {
+                contigs = intervalShardingService.readReferenceContigs(reference);
+                referenceContigs.put(reference, contigs);
+            }
+            
+            String intervalList = intervalsOf(command);
+            List<GenomicInterval> intervals = intervalList != null
+                    ? intervalShardingService.loadIntervals(intervalList, reference)
+                    : contigs;
+            return new Traversal(intervals, contigs);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Progress of {} is tracked without a percentage: {}", command.getToolName(), e.getMessage());
+            return null;
+        }
+    }
+    
+    private static String intervalsOf(GatkCommand command) {
+        if (command.getParameters() == null) {
+            return null;
+        }
+        return command.getParameters().stream()
+                .filter(param -> "-L".equals(param.getName()) || "--intervals".equals(param.getName()))
+                .map(GatkCommandParameter::getValue)
+                .findFirst()
+                .orElse(null);
+    }
+    
+    private static double parseNumber(String value) {
+        return Double.parseDouble(value.replace(",", ""));
+    }
+    
+    /**
+     * A tracked command; consumes the stderr lines of the command.
+     */
+    static final class TrackedCommand implements Consumer<String> {
+        
+        private final Traversal traversal;
+        private CommandProgress progress;
+        
+        private TrackedCommand(Traversal traversal, CommandProgress progress) {
+            this.traversal = traversal;
+            this.progress = progress.toBuilder()
+                    .totalBases(traversal != null ? traversal.totalBases() : null)
+                    .basesDone(traversal != null ? 0L : null)
+                    .percentComplete(traversal != null ? 0.0 : null)
+                    .build();
+        }
+        
+        @Override
+        public synchronized void accept(String line) {
+            if (!line.contains("ProgressMeter")) {
+                return;
+            }
+            
+            Matcher header = HEADER.matcher(line);
+            if (header.find()) {
+                progress.setRecordUnit(header.group(1).toLowerCase(Locale.ROOT));
+                return;
+            }
+            
+            Matcher matcher = PROGRESS.matcher(line);
+            if (!matcher.find()) {
+                return;
+            }
+            
+            String locus = matcher.group(1);
+            int colon = locus.lastIndexOf(':');
+            String contig = colon > 0 ? locus.substring(0, colon) : locus;
+            Long position = null;
+            if (colon > 0) {
+                try {
+                    position = Long.parseLong(locus.substring(colon + 1).replace(",", ""));
+                } catch (NumberFormatException e) {
+                    // Locus without a plain position, keep the contig only
+                }
+            }
+            
+            progress.setCurrentContig(contig);
+            progress.setCurrentPosition(position);
+            progress.setElapsedMinutes(parseNumber(matcher.group(2)));
+            progress.setRecordsProcessed((long) parseNumber(matcher.group(3)));
+            progress.setRecordsPerMinute(parseNumber(matcher.group(4)));
+            progress.setUpdatedAt(LocalDateTime.now());
+            
+            if (traversal != null && position != null) {
+                Long done = traversal.basesBefore(contig, position);
+                if (done != null) {
+                    progress.setBasesDone(done);
+                    progress.setPercentComplete(100.0 * done / Math.max(1, traversal.totalBases()));
+                }
+            }
+        }
+        
+        synchronized void finish(boolean success) {
+            progress.setFinished(true);
+            progress.setUpdatedAt(LocalDateTime.now());
+            if (success && traversal != null) {
+                progress.setBasesDone(traversal.totalBases());
+                progress.setPercentComplete(100.0);
+            }
+        }
+        
+        synchronized boolean isFinished() {
+            return progress.isFinished();
+        }
+        
+        synchronized CommandProgress snapshot() {
+            return progress.toBuilder().build();
+        }
+    }
+    
+    /**
+     * Intervals of a command in traversal order with their cumulative base offsets, so that
+     * a locus maps to the number of bases traversed before it.
+     */
+    private static final class Traversal {
+        
+        private final Map<String, Integer> contigOrder = new HashMap<>();
+        private final List<GenomicInterval> intervals;
+        private final long[] offsets;
+        private final long totalBases;
+        
+        private Traversal(List<GenomicInterval> intervals, List<GenomicInterval> referenceContigs) {
+            for (GenomicInterval contig : referenceContigs) {
+                contigOrder.putIfAbsent(contig.getContig(), contigOrder.size());
+            }
+            for (GenomicInterval interval : intervals) {
+                contigOrder.putIfAbsent(interval.getContig(), contigOrder.size());
+            }
+            
+            // GATK traverses intervals in reference order whatever the order of the interval list
+            this.intervals = intervals.stream()
+                    .sorted(Comparator.comparingInt((GenomicInterval interval) -> contigOrder.get(interval.getContig()))
+                            .thenComparingLong(GenomicInterval::getStart))
+                    .toList();
+            this.offsets = new long[this.intervals.size()];
+            long offset = 0;
+            for (int i = 0; i < this.intervals.size(); i++) {
+                offsets[i] = offset;
+                offset += this.intervals.get(i).length();
+            }
+            this.totalBases = offset;
+        }
+        
+        long totalBases() {
+            return totalBases;
+        }
+        
+        /**
+         * @return Bases traversed before the locus, or null if the contig is not traversed
+         */
+        Long basesBefore(String contig, long position) {
+            Integer order = contigOrder.get(contig);
+            if (order == null) {
+                return null;
+            }
+            
+            // Last interval starting at or before the locus
+            int low = 0;
+            int high = intervals.size() - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                GenomicInterval interval = intervals.get(mid);
+                int cmp = Integer.compare(contigOrder.get(interval.getContig()), order);
+                if (cmp < 0 || (cmp == 0 && interval.getStart() <= position)) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (found < 0) {
+                return 0L;
+            }
+            
+            GenomicInterval interval = intervals.get(found);
+            long within = interval.getContig().equals(contig)
+                    ? Math.min(position, interval.getEnd()) - interval.getStart() + 1
+                    : interval.length();
+            return offsets[found] + within;
+        }
+    }
+}
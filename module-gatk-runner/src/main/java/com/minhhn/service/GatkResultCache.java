@@ -0,0 +1,352 @@
+package com.minhhn.service;
+
+import com.minhhn.model.GatkCommand;
+import com.minhhn.model.GatkCommandParameter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of GATK step outputs. The key is a hash of the GATK version, the
+ * tool name, the parameters of the command and content fingerprints of its inputs and reference, so
+ * re-running an identical step restores the stored output instead of executing GATK.
+ * The cache is bounded in size and evicts the least recently used entries.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class GatkResultCache {
+
+    private static final String OUTPUT_FILE = "output";
+    
+    // Index files GATK writes next to its outputs
+    private static final List<String> SIDECAR_SUFFIXES = List.of(".tbi", ".idx", ".bai");
+    
+    // Parameters that change how a command runs but not what it produces
+    private static final Set<String> NON_SEMANTIC_PARAMETERS = Set.of(
+            "--java-options", "--tmp-dir", "--native-pair-hmm-threads");
+    
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+    
+    @Value("${gatk.cache.enabled:false}")
+    private boolean enabled;
+    
+    @Value("${gatk.cache.directory:/data/cache}")
+    private String cacheDirectory;
+    
+    @Value("${gatk.cache.max-size-gb:200}")
+    private long maxSizeGb;
+    
+    // GATK the outputs come from; the Docker image by default, set it when running a local GATK
+    @Value("${gatk.cache.tool-version:${gatk.docker.image:broadinstitute/gatk:4.5.0.0}}")
+    private String toolVersion;
+    
+    private final MeterRegistry meterRegistry;
+    
+    // Digest of each input file, valid while its size and modification time are unchanged
+    private final Map<Path, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+    
+    private record Fingerprint(long size, long lastModified, String digest) {
+    }
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    
+    @PostConstruct
+    public void registerMetrics() {
+        FunctionCounter.builder("gatk.cache.requests", this, GatkResultCache::getHits)
+                .tag("result", "hit")
+                .description("Cache lookups of GATK step outputs")
+                .register(meterRegistry);
+        FunctionCounter.builder("gatk.cache.requests", this, GatkResultCache::getMisses)
+                .tag("result", "miss")
+                .description("Cache lookups of GATK step outputs")
+                .register(meterRegistry);
+        FunctionCounter.builder("gatk.cache.evictions", this, GatkResultCache::getEvictions)
+                .description("Cache entries evicted to stay within the size limit")
+                .register(meterRegistry);
+    }
+    
+    /**
+     * Whether the command's output can be served from or stored in the cache.
+     * 
+     * @param command The GATK command
+     * @return true if caching is enabled and the command writes an output file
+     */
+    public boolean isCacheable(GatkCommand command) {
+        // GenomicsDB workspaces change in place when samples are appended, so their path says nothing
+        return enabled && command.getOutputFile() != null && !command.getOutputFile().isEmpty()
+                && (command.getParameters() == null || command.getParameters().stream()
+                        .noneMatch(param -> param.getValue() != null && param.getValue().startsWith("gendb://")));
+    }
+    
+    /**
+     * Computes the cache key of a command.
+     * 
+     * @param command The GATK command
+     * @return The hex encoded key
+     * @throws IOException If an input file cannot be fingerprinted
+     */
+    public String keyOf(GatkCommand command) throws IOException {
+        MessageDigest digest = sha256();
+        // Outputs of another GATK version are not reused after an upgrade
+        update(digest, "version", toolVersion);
+        update(digest, "tool", command.getToolName());
+        update(digest, "reference", fingerprintOrValue(command.getReferenceGenome()));
+        for (String inputFile : command.getInputFiles()) {
+            update(digest, "input", fingerprintOrValue(inputFile));
+        }
+        if (command.getParameters() != null) {
+            for (GatkCommandParameter param : command.getParameters()) {
+                if (NON_SEMANTIC_PARAMETERS.contains(param.getName())) {
+                    continue;
+                }
+                update(digest, param.getName(), param.isFlag() ? "" : fingerprintOrValue(param.getValue()));
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    /**
+     * Restores the output of a command from the cache if an entry exists.
+     * 
+     * @param key The cache key of the command
+     * @param command The GATK command
+     * @return true on a cache hit
+     */
+    public boolean restore(String key, GatkCommand command) {
+        Path entry = Path.of(cacheDirectory, key);
+        Path cachedOutput = entry.resolve(OUTPUT_FILE);
+        if (!Files.exists(cachedOutput)) {
+            misses.incrementAndGet();
+            return false;
+        }
+        
+        try {
+            Path output = Path.of(command.getOutputFile());
+            if (output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+            linkOrCopy(cachedOutput, output);
+            for (String suffix : SIDECAR_SUFFIXES) {
+                Path cachedSidecar = entry.resolve(OUTPUT_FILE + suffix);
+                if (Files.exists(cachedSidecar)) {
+                    linkOrCopy(cachedSidecar, Path.of(command.getOutputFile() + suffix));
+                }
+            }
+            
+            // Entry modification time doubles as its last access time for eviction
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            log.info("Restored {} output {} from cache entry {}", command.getToolName(), output, key);
+            return true;
+            
+        } catch (IOException e) {
+            log.warn("Could not restore cache entry {}: {}", key, e.getMessage());
+            misses.incrementAndGet();
+            return false;
+        }
+    }
+    
+    /**
+     * Stores the output of a successful command and evicts old entries if the cache is full.
+     * 
+     * @param key The cache key of the command
+     * @param command The GATK command
+     */
+    public void store(String key, GatkCommand command) {
+        Path output = Path.of(command.getOutputFile());
+        if (!Files.exists(output)) {
+            return;
+        }
+        
+        Path entry = Path.of(cacheDirectory, key);
+        Path staging = Path.of(cacheDirectory, key + ".tmp-" + Thread.currentThread().threadId());
+        try {
+            Files.createDirectories(staging);
+            linkOrCopy(output, staging.resolve(OUTPUT_FILE));
+            for (String suffix : SIDECAR_SUFFIXES) {
+                Path sidecar = Path.of(command.getOutputFile() + suffix);
+                if (Files.exists(sidecar)) {
+                    linkOrCopy(sidecar, staging.resolve(OUTPUT_FILE + suffix));
+                }
+            }
+            Files.move(staging, entry, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Stored {} output {} as cache entry {}", command.getToolName(), output, key);
+        } catch (FileAlreadyExistsException e) {
+            // Another run stored the same result first
+            deleteRecursively(staging);
+        } catch (IOException e) {
+            log.warn("Could not store cache entry {}: {}", key, e.getMessage());
+            deleteRecursively(staging);
+            return;
+        }
+        
+        evictIfNeeded();
+    }
+    
+    public long getHits() {
+        return hits.get();
+    }
+    
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    public long getEvictions() {
+        return evictions.get();
+    }
+    
+    private synchronized void evictIfNeeded() {
+        long maxBytes = maxSizeGb * 1024 * 1024 * 1024;
+        try (Stream<Path> entries = Files.list(Path.of(cacheDirectory))) {
+            List<Path> sorted = new ArrayList<>(entries
+                    .filter(path -> !path.getFileName().toString().contains(".tmp-"))
+                    .sorted(Comparator.comparing(this::lastModified))
+                    .toList());
+            
+            long total = 0;
+            Map<Path, Long> sizes = new HashMap<>();
+            for (Path entry : sorted) {
+                long size = sizeOf(entry);
+                sizes.put(entry, size);
+                total += size;
+            }
+            
+            // Oldest access first
+            for (Path entry : sorted) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                deleteRecursively(entry);
+                total -= sizes.get(entry);
+                evictions.incrementAndGet();
+                log.info("Evicted cache entry {}", entry.getFileName());
+            }
+        } catch (IOException e) {
+            log.warn("Could not evict cache entries: {}", e.getMessage());
+        }
+    }
+    
+    private String fingerprintOrValue(String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            return "";
+        }
+        Path path;
+        try {
+            path = Path.of(value);
+        } catch (RuntimeException e) {
+            return value.trim();
+        }
+        if (!Files.isRegularFile(path)) {
+            return value.trim();
+        }
+        
+        // Memoized per path, size and modification time, so large BAMs and references are hashed once
+        Path key = path.toAbsolutePath();
+        long size = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        Fingerprint cached = fingerprints.get(key);
+        if (cached != null && cached.size() == size && cached.lastModified() == lastModified) {
+            return cached.digest();
+        }
+        String digest = fingerprint(path);
+        fingerprints.put(key, new Fingerprint(size, lastModified, digest));
+        return digest;
+    }
+    
+    /**
+     * Hashes the whole content of a file. Sampling parts of it would let two inputs of
+     * the same size share a key and get each other's outputs.
+     * 
+     * @param path The file
+     * @return The hex SHA-256 of the content
+     * @throws IOException If the file cannot be read
+     */
+    private String fingerprint(Path path) throws IOException {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                digest.update(buffer.flip());
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    private void update(MessageDigest digest, String name, String value) {
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+    
+    private void linkOrCopy(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Different file systems
+            Files.copy(source, target);
+        }
+    }
+    
+    private FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+    
+    private long sizeOf(Path entry) throws IOException {
+        try (Stream<Path> files = Files.walk(entry)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+    
+    private void deleteRecursively(Path path) {
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,136 +1,601 @@
 package com.minhhn.service;
 
+import com.minhhn.config.RetryProperties;
+import com.minhhn.config.TimeoutProperties;
+import com.minhhn.enums.FailureClass;
+import com.minhhn.executor.GatkExecution;
+import com.minhhn.executor.GatkExecutor;
+import com.minhhn.model.CommandAttempt;
 import com.minhhn.model.GatkCommand;
+import com.minhhn.model.GatkCommandParameter;
 import com.minhhn.model.GatkCommandResult;
+import com.minhhn.model.GatkRunContext;
+import com.minhhn.model.TuningProfile;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
- * Service for executing GATK commands using Docker.
+ * Service for executing GATK commands through the configured {@link GatkExecutor}.
+ * Commands are admitted by the {@link GatkJobScheduler} before they are started.
  */
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class GatkRunnerService {
 
-    @Value("${gatk.docker.image:broadinstitute/gatk:4.5.0.0}")
-    private String gatkDockerImage;
+    private final GatkExecutor gatkExecutor;
+    private final GatkJobScheduler gatkJobScheduler;
+    private final GatkTuningService gatkTuningService;
+    private final GatkResultCache gatkResultCache;
+    private final TimeoutProperties timeoutProperties;
+    private final GatkProgressTracker gatkProgressTracker;
+    private final FailureClassifier failureClassifier;
+    private final RetryProperties retryProperties;
+    private final MeterRegistry meterRegistry;
+    
+    // Commands in flight per run of an analysis, so that an analysis or a single run can be cancelled
+    private final Map<RunKey, Set<RunningCommand>> runningCommands = new ConcurrentHashMap<>();
+    private final Set<Long> cancelledAnalyses = ConcurrentHashMap.newKeySet();
+    private final Set<RunKey> cancelledRuns = ConcurrentHashMap.newKeySet();
 
-    @Value("${gatk.data.volume:/data}")
-    private String gatkDataVolume;
+    @Value("${gatk.output.tail-lines:200}")
+    private int outputTailLines;
 
     /**
-     * Executes a GATK command using Docker.
+     * Executes a GATK command.
      *
      * @param command The GATK command to execute
      * @return The result of the command execution
      */
     public GatkCommandResult executeCommand(GatkCommand command) {
+        return executeCommand(command, GatkRunContext.none());
+    }
+
+    /**
+     * Executes a GATK command on behalf of an analysis. The output of the command is
+     * streamed to the analysis log file while it runs; the result only keeps the last
+     * lines of stdout and stderr. The command is killed when it exceeds the timeout of
+     * its tool or when the analysis is cancelled.
+     * <p>
+     * A command that fails with a retryable failure, such as a Docker daemon hiccup or a
+     * stale NFS handle, is run again after an exponential backoff; after running out of
+     * memory it is given more memory and heap. Every attempt is recorded in the result.
+     *
+     * @param command The GATK command to execute
+     * @param context The analysis the command belongs to
+     * @return The result of the last attempt
+     */
+    public GatkCommandResult executeCommand(GatkCommand command, GatkRunContext context) {
+        // Tuning adds parameters to the command, every attempt starts from the requested ones
+        List<GatkCommandParameter> requestedParameters = command.getParameters() != null
+                ? List.copyOf(command.getParameters()) : List.of();
+        List<CommandAttempt> attempts = new ArrayList<>();
+        double memoryScale = 1.0;
+        
+        while (true) {
+            command.setParameters(new ArrayList<>(requestedParameters));
+            LocalDateTime startedAt = LocalDateTime.now();
+            GatkCommandResult result = executeOnce(command, context, memoryScale);
+            
+            FailureClass failureClass = result.isSuccess() || result.isCancelled()
+                    ? null : failureClassifier.classify(result);
+            CommandAttempt attempt = recordAttempt(command, context, result, failureClass, startedAt,
+                    attempts.size() + 1);
+            attempts.add(attempt);
+            result.setFailureClass(failureClass);
+            result.setAttempts(attempts);
+            
+            if (failureClass == null || !failureClass.isRetryable()) {
+                return result;
+            }
+            if (attempts.size() >= retryProperties.getMaxAttempts()) {
+                log.error("{} of analysis {} failed with {} after {} attempts, giving up",
+                        command.getToolName(), context.getAnalysisId(), failureClass, attempts.size());
+                return result;
+            }
+            
+            meterRegistry.counter("gatk.command.retries",
+                    "tool", command.getToolName(), "failure.class", failureClass.name()).increment();
+            if (failureClass == FailureClass.OUT_OF_MEMORY && retryProperties.isIncreaseMemoryOnOom()) {
+                memoryScale *= retryProperties.getOomMemoryFactor();
+            }
+            Duration backoff = retryProperties.backoffFor(attempts.size());
+            log.warn("{} of analysis {} failed with {} ({}), retrying in {} (attempt {} of {})",
+                    command.getToolName(), context.getAnalysisId(), failureClass, attempt.getError(),
+                    backoff, attempts.size() + 1, retryProperties.getMaxAttempts());
+            
+            if (!awaitRetry(context, backoff)) {
+                if (!isCancelled(context)) {
+                    return result;
+                }
+                GatkCommandResult cancelled = cancelledResult(command, context, result.getTuningProfile(),
+                        System.currentTimeMillis());
+                cancelled.setAttempts(attempts);
+                return cancelled;
+            }
+        }
+    }
+    
+    /**
+     * Runs a step in this JVM on behalf of an analysis, under the same rules as a GATK
+     * process: it waits for the scheduler to admit the resources of its tool, cancelling
+     * the analysis interrupts it, and its run is recorded as one attempt. A step that
+     * fails is not retried.
+     *
+     * @param command The command the step replaces, naming its tool and files; it is not executed
+     * @param context The analysis the step belongs to
+     * @param step Runs the step and describes its outcome; must stop when its thread is interrupted
+     * @return The result of the step, or a cancelled result
+     */
+    public GatkCommandResult executeInProcess(GatkCommand command, GatkRunContext context,
+                                              Supplier<GatkCommandResult> step) {
+        LocalDateTime startedAt = LocalDateTime.now();
+        long startTime = System.currentTimeMillis();
+        GatkCommandResult result;
+        
+        if (isCancelled(context)) {
+            result = cancelledResult(command, context, null, startTime);
+        } else {
+            RunningCommand running = register(context);
+            try {
+                command.setResources(gatkJobScheduler.resourcesFor(command));
+                running.lease = gatkJobScheduler.acquire(command.getResources(), context);
+                result = step.get();
+                if (running.cancelled) {
+                    result = cancelledResult(command, context, null, startTime);
+                }
+            } catch (InterruptedException e) {
+                if (!running.cancelled) {
+                    Thread.currentThread().interrupt();
+                }
+                result = running.cancelled ? cancelledResult(command, context, null, startTime)
+                        : GatkCommandResult.builder()
+                                .success(false)
+                                .errorMessage("Interrupted while waiting for capacity")
+                                .executionTimeMs(System.currentTimeMillis() - startTime)
+                                .build();
+            } finally {
+                unregister(context, running);
+                if (running.lease != null) {
+                    running.lease.close();
+                }
+            }
+        }
+        
+        result.setCommand(command);
+        result.setLogFile(context.getLogFile());
+        FailureClass failureClass = result.isSuccess() || result.isCancelled() ? null : result.getFailureClass();
+        result.setFailureClass(failureClass);
+        result.setAttempts(new ArrayList<>(List.of(
+                recordAttempt(command, context, result, failureClass, startedAt, 1))));
+        return result;
+    }
+    
+    /**
+     * Records one run of a command in the metrics and reports it to the attempt listener
+     * of the analysis.
+     *
+     * @param command The command
+     * @param context The analysis the command belongs to
+     * @param result The result of the run
+     * @param failureClass Why the run failed, or null
+     * @param startedAt When the run started
+     * @param number The number of the attempt, starting at 1
+     * @return The attempt
+     */
+    private CommandAttempt recordAttempt(GatkCommand command, GatkRunContext context, GatkCommandResult result,
+                                         FailureClass failureClass, LocalDateTime startedAt, int number) {
+        CommandAttempt attempt = CommandAttempt.builder()
+                .toolName(command.getToolName())
+                .attempt(number)
+                .startedAt(startedAt)
+                .durationMs(result.getExecutionTimeMs())
+                .exitCode(result.getExitCode())
+                .success(result.isSuccess())
+                .failureClass(failureClass)
+                .error(failureClass != null ? failureClassifier.describe(result) : null)
+                .heapMb(result.getTuningProfile() != null ? result.getTuningProfile().getHeapMb() : null)
+                .build();
+        recordMetrics(command, result, failureClass);
+        if (context.getAttemptListener() != null) {
+            context.getAttemptListener().accept(attempt);
+        }
+        return attempt;
+    }
+    
+    /**
+     * Runs a command once.
+     *
+     * @param command The GATK command to execute
+     * @param context The analysis the command belongs to
+     * @param memoryScale Factor applied to the declared memory and the tuned heap
+     * @return The result of the command execution
+     */
+    private GatkCommandResult executeOnce(GatkCommand command, GatkRunContext context, double memoryScale) {
         long startTime = System.currentTimeMillis();
         
-        List<String> dockerCommand = buildDockerCommand(command);
-        ProcessBuilder processBuilder = new ProcessBuilder(dockerCommand);
+        if (isCancelled(context)) {
+            return cancelledResult(command, context, null, startTime);
+        }
         
-        StringBuilder output = new StringBuilder();
-        StringBuilder error = new StringBuilder();
-        int exitCode = -1;
+        // Identical inputs, reference and parameters produce the same output, reuse it if present
+        String cacheKey = cacheKeyOf(command);
+        if (cacheKey != null && gatkResultCache.restore(cacheKey, command)) {
+            return GatkCommandResult.builder()
+                    .success(true)
+                    .cached(true)
+                    .outputFile(command.getOutputFile())
+                    .standardOutput("Restored from cache entry " + cacheKey)
+                    .errorMessage("")
+                    .exitCode(0)
+                    .executionTimeMs(System.currentTimeMillis() - startTime)
+                    .command(command)
+                    .logFile(context.getLogFile())
+                    .build();
+        }
+        
+        RunningCommand running = register(context);
+        GatkExecution execution = null;
+        GatkProgressTracker.TrackedCommand progress = null;
+        TuningProfile tuningProfile = null;
+        Integer exitCode = null;
         
         try {
-            log.info("Executing GATK command: {}", command.buildCommandString());
-            Process process = processBuilder.start();
+            // Size the JVM to the inputs and the admitted resources, then wait until the host has room
+            command.setResources(gatkJobScheduler.resourcesFor(command, memoryScale));
+            tuningProfile = gatkTuningService.tune(command, memoryScale,
+                    context.getWorkDirectory() != null ? Path.of(context.getWorkDirectory(), "tmp").toString() : null);
+            running.lease = gatkJobScheduler.acquire(command.getResources(), context);
             
-            // Read output and error streams
-            try (BufferedReader outputReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                 BufferedReader errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
+            log.info("Executing GATK command with {} executor: {}", gatkExecutor.getName(), command.buildCommandString());
+            execution = gatkExecutor.start(command, context);
+            running.execution = execution;
+            if (running.cancelled) {
+                // Cancelled between admission and start
+                execution.terminate();
+            }
+            Process process = execution.getProcess();
+            
+            // Drain stdout and stderr concurrently so neither pipe can fill up and stall the process;
+            // stderr also feeds the ProgressMeter lines to the progress tracker as they arrive
+            progress = gatkProgressTracker.track(command, context);
+            try (ProcessOutputCollector output = ProcessOutputCollector.start(
+                    process, command.getToolName(), context.getLogFile(), outputTailLines, progress)) {
                 
-                String line;
-                while ((line = outputReader.readLine()) != null) {
-                    output.append(line).append(System.lineSeparator());
+                // Wait for the process to complete
+                Duration timeout = timeoutProperties.timeoutFor(command.getToolName());
+                boolean completed = process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS);
+                if (!completed) {
+                    log.warn("{} of analysis {} timed out after {}, killing it",
+                            command.getToolName(), context.getAnalysisId(), timeout);
+                    execution.terminate();
+                    output.awaitDrained();
+                    // Keep the last stderr lines; they usually show where the tool was stuck
+                    String standardError = output.getStandardError();
+                    String errorMessage = "Command execution timed out after " + timeout;
+                    if (standardError != null && !standardError.isBlank()) {
+                        errorMessage += System.lineSeparator() + standardError;
+                    }
+                    return GatkCommandResult.builder()
+                            .success(false)
+                            .timedOut(true)
+                            .errorMessage(errorMessage)
+                            .standardOutput(output.getStandardOutput())
+                            .command(command)
+                            .logFile(context.getLogFile())
+                            .tuningProfile(tuningProfile)
+                            .executionTimeMs(System.currentTimeMillis() - startTime)
+                            .build();
                 }
+                output.awaitDrained();
                 
-                while ((line = errorReader.readLine()) != null) {
-                    error.append(line).append(System.lineSeparator());
+                if (running.cancelled) {
+                    return cancelledResult(command, context, tuningProfile, startTime);
                 }
-            }
-            
-            // Wait for the process to complete
-            boolean completed = process.waitFor(30, TimeUnit.MINUTES);
-            if (!completed) {
-                process.destroyForcibly();
+                
+                exitCode = process.exitValue();
+                boolean success = exitCode == 0;
+                
+                long endTime = System.currentTimeMillis();
+                
+                if (success && cacheKey != null) {
+                    gatkResultCache.store(cacheKey, command);
+                }
+                
                 return GatkCommandResult.builder()
-                        .success(false)
-                        .errorMessage("Command execution timed out after 30 minutes")
+                        .success(success)
+                        .outputFile(command.getOutputFile())
+                        .standardOutput(output.getStandardOutput())
+                        .errorMessage(output.getStandardError())
+                        .exitCode(exitCode)
+                        .executionTimeMs(endTime - startTime)
                         .command(command)
-                        .executionTimeMs(System.currentTimeMillis() - startTime)
+                        .logFile(context.getLogFile())
+                        .tuningProfile(tuningProfile)
                         .build();
             }
             
-            exitCode = process.exitValue();
-            boolean success = exitCode == 0;
-            
-            long endTime = System.currentTimeMillis();
-            
-            return GatkCommandResult.builder()
-                    .success(success)
-                    .outputFile(command.getOutputFile())
-                    .standardOutput(output.toString())
-                    .errorMessage(error.toString())
-                    .exitCode(exitCode)
-                    .executionTimeMs(endTime - startTime)
-                    .command(command)
-                    .build();
-            
         } catch (IOException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                // Do not leave the command running when the caller gives up on it
+                if (execution != null) {
+                    execution.terminate();
+                }
+                if (running.cancelled) {
+                    return cancelledResult(command, context, tuningProfile, startTime);
+                }
+                Thread.currentThread().interrupt();
+            }
             log.error("Error executing GATK command", e);
             return GatkCommandResult.builder()
                     .success(false)
                     .errorMessage("Error executing command: " + e.getMessage())
                     .command(command)
+                    .logFile(context.getLogFile())
+                    .tuningProfile(tuningProfile)
                     .executionTimeMs(System.currentTimeMillis() - startTime)
                     .build();
+        } finally {
+            gatkProgressTracker.finished(progress, exitCode != null && exitCode == 0);
+            unregister(context, running);
+            if (execution != null) {
+                execution.release(exitCode);
+            }
+            if (running.lease != null) {
+                running.lease.close();
+            }
         }
     }
     
     /**
-     * Builds a Docker command to execute the GATK command.
+     * Cancels an analysis: the running commands of all its runs are killed together with
+     * their containers, their scheduler capacity is released at once, and commands it starts
+     * from now on fail immediately until {@link #clearCancellation(Long)} is called.
      *
-     * @param command The GATK command to execute
-     * @return The Docker command as a list of strings
+     * @param analysisId The ID of the analysis
+     * @return The number of commands that were stopped
      */
-    private List<String> buildDockerCommand(GatkCommand command) {
-        List<String> dockerCommand = new ArrayList<>();
-        dockerCommand.add("docker");
-        dockerCommand.add("run");
-        dockerCommand.add("--rm");
-        
-        // Mount the data volume
-        dockerCommand.add("-v");
-        dockerCommand.add("./data:" + gatkDataVolume);
-        
-        // Set working directory
-        dockerCommand.add("-w");
-        dockerCommand.add(gatkDataVolume);
-        
-        // Add environment variables if any
-        command.getEnvironmentVariables().forEach((key, value) -> {
-            dockerCommand.add("-e");
-            dockerCommand.add(key + "=" + value);
-        });
-        
-        // Add the GATK Docker image
-        dockerCommand.add(gatkDockerImage);
-        
-        // Add the GATK command
-        dockerCommand.add("gatk");
-        dockerCommand.add(command.buildCommandString());
-        
-        return dockerCommand;
+    public int cancel(Long analysisId) {
+        cancelledAnalyses.add(analysisId);
+        
+        List<RunningCommand> commands = runningCommands.entrySet().stream()
+                .filter(entry -> entry.getKey().analysisId().equals(analysisId))
+                .flatMap(entry -> entry.getValue().stream())
+                .toList();
+        commands.forEach(RunningCommand::cancel);
+        log.info("Cancelled analysis {}, stopped {} running GATK commands", analysisId, commands.size());
+        return commands.size();
+    }
+    
+    /**
+     * Cancels one run of an analysis, like {@link #cancel(Long)} but leaving other runs of
+     * the same analysis alone, such as the run that took over a job whose lease this one lost.
+     * Commands of the run fail immediately until {@link #clearCancellation(Long, String)} is called.
+     *
+     * @param analysisId The ID of the analysis
+     * @param runId The run, as set on its {@link GatkRunContext}
+     * @return The number of commands that were stopped
+     */
+    public int cancel(Long analysisId, String runId) {
+        RunKey key = new RunKey(analysisId, runId);
+        cancelledRuns.add(key);
+        
+        Set<RunningCommand> commands = runningCommands.getOrDefault(key, Set.of());
+        commands.forEach(RunningCommand::cancel);
+        log.info("Cancelled run {} of analysis {}, stopped {} running GATK commands",
+                runId, analysisId, commands.size());
+        return commands.size();
+    }
+    
+    /**
+     * Forgets the cancellation of an analysis once none of its runs is running any more.
+     *
+     * @param analysisId The ID of the analysis
+     */
+    public void clearCancellation(Long analysisId) {
+        cancelledAnalyses.remove(analysisId);
+    }
+    
+    /**
+     * Forgets the cancellation of a run once it has stopped running.
+     *
+     * @param analysisId The ID of the analysis
+     * @param runId The run
+     */
+    public void clearCancellation(Long analysisId, String runId) {
+        cancelledRuns.remove(new RunKey(analysisId, runId));
+    }
+    
+    /**
+     * Records the duration and outcome of one run of a command, and its exit code if a
+     * process ran to completion.
+     *
+     * @param command The command
+     * @param result The result of the run
+     * @param failureClass Why the run failed, or null
+     */
+    private void recordMetrics(GatkCommand command, GatkCommandResult result, FailureClass failureClass) {
+        String outcome;
+        if (result.isCached()) {
+            outcome = "cached";
+        } else if (result.isCancelled()) {
+            outcome = "cancelled";
+        } else if (result.isTimedOut()) {
+            outcome = "timeout";
+        } else {
+            outcome = result.isSuccess() ? "success" : "failure";
+        }
+        
+        Timer.builder("gatk.command")
+                .description("Run time of GATK commands per tool and outcome")
+                .tag("tool", command.getToolName())
+                .tag("outcome", outcome)
+                .tag("failure.class", failureClass != null ? failureClass.name() : "none")
+                .register(meterRegistry)
+                .record(result.getExecutionTimeMs(), TimeUnit.MILLISECONDS);
+        
+        if (outcome.equals("success") || (outcome.equals("failure") && result.getExitCode() != 0)) {
+            meterRegistry.counter("gatk.command.exit",
+                    "tool", command.getToolName(), "exit.code", String.valueOf(result.getExitCode())).increment();
+        }
+    }
+    
+    /**
+     * Waits before retrying a command. The wait is registered like a running command so
+     * that cancelling the analysis ends it.
+     *
+     * @param context The analysis the command belongs to
+     * @param backoff The time to wait
+     * @return False if the analysis was cancelled or the thread interrupted in the meantime
+     */
+    private boolean awaitRetry(GatkRunContext context, Duration backoff) {
+        RunningCommand waiting = register(context);
+        try {
+            if (!waiting.cancelled) {
+                Thread.sleep(backoff.toMillis());
+            }
+        } catch (InterruptedException e) {
+            if (!waiting.cancelled) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        } finally {
+            unregister(context, waiting);
+        }
+        return !waiting.cancelled;
+    }
+    
+    private boolean isCancelled(GatkRunContext context) {
+        return context.getAnalysisId() != null && (cancelledAnalyses.contains(context.getAnalysisId())
+                || cancelledRuns.contains(RunKey.of(context)));
+    }
+    
+    private RunningCommand register(GatkRunContext context) {
+        RunningCommand running = new RunningCommand(Thread.currentThread());
+        if (context.getAnalysisId() != null) {
+            runningCommands.computeIfAbsent(RunKey.of(context), key -> ConcurrentHashMap.newKeySet()).add(running);
+            if (isCancelled(context)) {
+                running.cancel();
+            }
+        }
+        return running;
+    }
+    
+    private void unregister(GatkRunContext context, RunningCommand running) {
+        running.finish();
+        if (running.cancelled) {
+            // The interrupt was meant for this command only, not for the next task of the thread
+            Thread.interrupted();
+        }
+        if (context.getAnalysisId() != null) {
+            runningCommands.computeIfPresent(RunKey.of(context), (key, commands) -> {
+                commands.remove(running);
+                return commands.isEmpty() ? null : commands;
+            });
+        }
+    }
+    
+    private GatkCommandResult cancelledResult(GatkCommand command, GatkRunContext context,
+                                              TuningProfile tuningProfile, long startTime) {
+        return GatkCommandResult.builder()
+                .success(false)
+                .cancelled(true)
+                .errorMessage("Analysis " + context.getAnalysisId() + " was cancelled")
+                .command(command)
+                .logFile(context.getLogFile())
+                .tuningProfile(tuningProfile)
+                .executionTimeMs(System.currentTimeMillis() - startTime)
+                .build();
+    }
+    
+    private String cacheKeyOf(GatkCommand command) {
+        if (!gatkResultCache.isCacheable(command)) {
+            return null;
+        }
+        try {
+            String key = gatkResultCache.keyOf(command);
+            
+            // The output may be a hard link into the cache, never let GATK overwrite it in place
+            Files.deleteIfExists(Path.of(command.getOutputFile()));
+            return key;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Not caching {}: {}", command.getToolName(), e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * One run of an analysis; the run ID is null for commands not started by a job.
+     */
+    private record RunKey(Long analysisId, String runId) {
+        
+        static RunKey of(GatkRunContext context) {
+            return new RunKey(context.getAnalysisId(), context.getRunId());
+        }
+    }
+    
+    /**
+     * A command in flight, with everything needed to stop it from another thread.
+     */
+    private static final class RunningCommand {
+        
+        private final Thread thread;
+        private volatile GatkExecution execution;
+        private volatile GatkJobScheduler.Lease lease;
+        private volatile boolean cancelled;
+        private boolean finished;
+        
+        private RunningCommand(Thread thread) {
+            this.thread = thread;
+        }
+        
+        void cancel() {
+            GatkExecution toTerminate;
+            GatkJobScheduler.Lease toClose;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                cancelled = true;
+                toTerminate = execution;
+                toClose = lease;
+            }
+            
+            // Terminating may run docker kill; outside the lock it does not hold up finish()
+            if (toTerminate != null) {
+                toTerminate.terminate();
+            }
+            if (toClose != null) {
+                toClose.close();
+            }
+            synchronized (this) {
+                // Wakes the command up if it is still waiting for admission or for the process; once
+                // finished, the interrupt would hit the next task of the thread instead
+                if (!finished) {
+                    thread.interrupt();
+                }
+            }
+        }
+        
+        synchronized void finish() {
+            finished = true;
+        }
     }
 }
@@ -0,0 +1,203 @@
+package com.minhhn.service;
+
+import com.minhhn.model.GatkCommand;
+import com.minhhn.model.GatkCommandParameter;
+import com.minhhn.model.TuningProfile;
+import com.minhhn.model.ToolResources;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Derives heap size, garbage collector, PairHMM threads and temp directory of a GATK
+ * command from its tool name, the size of its inputs and the resources it was admitted with.
+ */
+@Service
+@Slf4j
+public class GatkTuningService {
+
+    private static final long GB = 1024L * 1024 * 1024;
+    
+    private static final Set<String> PAIR_HMM_TOOLS = Set.of("HaplotypeCaller", "Mutect2");
+    
+    // Tools whose memory use grows with the size of their input
+    private static final Set<String> INPUT_BOUND_TOOLS = Set.of(
+            "HaplotypeCaller", "Mutect2", "GenotypeGVCFs", "GenomicsDBImport", "Funcotator");
+    
+    @Value("${gatk.data.volume:/data}")
+    private String gatkDataVolume;
+    
+    // Host directory mounted into the containers at the data volume
+    @Value("${gatk.data.host-directory:./data}")
+    private String dataHostDirectory;
+    
+    @Value("${gatk.tuning.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${gatk.tuning.tmp-dir:/data/tmp}")
+    private String tmpDir;
+    
+    @Value("${gatk.tuning.min-heap-mb:1024}")
+    private long minHeapMb;
+    
+    // Share of the admitted memory given to the heap, the rest is left for native code
+    @Value("${gatk.tuning.heap-fraction:0.8}")
+    private double heapFraction;
+    
+    /**
+     * Chooses a tuning profile for the command and adds the matching parameters to it.
+     * Parameters already set on the command are left untouched.
+     * 
+     * @param command The GATK command, with the resources it was admitted with
+     * @return The chosen profile, or null if tuning is disabled
+     */
+    public TuningProfile tune(GatkCommand command) {
+        return tune(command, 1.0);
+    }
+    
+    /**
+     * Chooses a tuning profile like {@link #tune(GatkCommand)} with the heap scaled up,
+     * as for a retry after running out of memory. The heap stays within the admitted memory.
+     * 
+     * @param command The GATK command, with the resources it was admitted with
+     * @param heapScale Factor applied to the heap the inputs would normally get
+     * @return The chosen profile, or null if tuning is disabled
+     */
+    public TuningProfile tune(GatkCommand command, double heapScale) {
+        return tune(command, heapScale, null);
+    }
+    
+    /**
+     * Chooses a tuning profile like {@link #tune(GatkCommand, double)} with the temp
+     * files of the command going to a directory of its own. The temp directory is set
+     * even when tuning is disabled, so that temp files stay in the analysis workspace.
+     * 
+     * @param command The GATK command, with the resources it was admitted with
+     * @param heapScale Factor applied to the heap the inputs would normally get
+     * @param tmpDirectory Temp directory of the command, or null for the configured one
+     * @return The chosen profile, or null if tuning is disabled
+     */
+    public TuningProfile tune(GatkCommand command, double heapScale, String tmpDirectory) {
+        if (!enabled) {
+            if (tmpDirectory != null) {
+                List<GatkCommandParameter> parameters = command.getParameters() != null
+                        ? new ArrayList<>(command.getParameters()) : new ArrayList<>();
+                addIfAbsent(parameters, "--tmp-dir", tmpDirectory);
+                command.setParameters(parameters);
+            }
+            return null;
+        }
+        
+        TuningProfile profile = chooseProfile(command, heapScale);
+        if (tmpDirectory != null) {
+            profile.setTmpDir(tmpDirectory);
+        }
+        
+        List<GatkCommandParameter> parameters = command.getParameters() != null
+                ? new ArrayList<>(command.getParameters()) : new ArrayList<>();
+        
+        addIfAbsent(parameters, "--java-options", profile.toJavaOptions());
+        addIfAbsent(parameters, "--tmp-dir", profile.getTmpDir());
+        if (profile.getPairHmmThreads() != null) {
+            addIfAbsent(parameters, "--native-pair-hmm-threads", String.valueOf(profile.getPairHmmThreads()));
+        }
+        
+        command.setParameters(parameters);
+        log.debug("Tuned {} for {} bytes of input: {}", command.getToolName(), profile.getInputSizeBytes(), profile);
+        return profile;
+    }
+    
+    private TuningProfile chooseProfile(GatkCommand command, double heapScale) {
+        ToolResources resources = command.getResources();
+        int cpus = resources != null ? Math.max(1, (int) resources.getCpus()) : 1;
+        long maxHeapMb = resources != null
+                ? Math.max(minHeapMb, (long) (resources.getMemoryMb() * heapFraction))
+                : 4096;
+        
+        long inputSize = inputSizeBytes(command);
+        
+        // Small inputs (panels, exomes) do not need the full allowance; an unknown size gets all of it
+        long heapMb = maxHeapMb;
+        if (INPUT_BOUND_TOOLS.contains(command.getToolName())) {
+            if (inputSize < 0) {
+                heapMb = maxHeapMb;
+            } else if (inputSize < 5 * GB) {
+                heapMb = Math.min(maxHeapMb, 4096);
+            } else if (inputSize < 40 * GB) {
+                heapMb = Math.min(maxHeapMb, 8192);
+            }
+        } else {
+            heapMb = Math.min(maxHeapMb, 2048);
+        }
+        heapMb = Math.max(minHeapMb, Math.min(maxHeapMb, (long) (heapMb * heapScale)));
+        
+        // ParallelGC gives the best throughput for batch tools; G1 keeps pauses short on large heaps
+        String garbageCollector = heapMb > 8192 ? "G1GC" : "ParallelGC";
+        
+        return TuningProfile.builder()
+                .inputSizeBytes(inputSize)
+                .heapMb(heapMb)
+                .garbageCollector(garbageCollector)
+                .gcThreads(cpus)
+                .pairHmmThreads(PAIR_HMM_TOOLS.contains(command.getToolName()) ? cpus : null)
+                .tmpDir(tmpDir)
+                .build();
+    }
+    
+    /**
+     * Sums the sizes of the inputs of a command, as seen from this host.
+     * 
+     * @return The total size, or -1 if the size of an input could not be read
+     */
+    private long inputSizeBytes(GatkCommand command) {
+        long total = 0;
+        for (String inputFile : command.getInputFiles()) {
+            Path path = hostPath(inputFile);
+            try {
+                total += Files.size(path);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot read the size of {} input {} at {}, using the default profile",
+                        command.getToolName(), inputFile, path);
+                return -1;
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Maps a path as the container sees it to this host. Workspace paths are mounted at
+     * the same path; paths under the data volume, or relative to it as the working
+     * directory, live in the mounted host directory unless the volume is local.
+     */
+    private Path hostPath(String inputFile) {
+        Path path = Path.of(inputFile);
+        Path dataVolume = Path.of(gatkDataVolume);
+        if (path.isAbsolute() && !path.startsWith(dataVolume)) {
+            return path;
+        }
+        
+        Path inVolume = dataVolume.resolve(path);
+        if (Files.exists(inVolume)) {
+            return inVolume;
+        }
+        return Path.of(dataHostDirectory).resolve(dataVolume.relativize(inVolume));
+    }
+    
+    private void addIfAbsent(List<GatkCommandParameter> parameters, String name, String value) {
+        boolean present = parameters.stream().anyMatch(param -> name.equals(param.getName()));
+        if (!present) {
+            parameters.add(GatkCommandParameter.builder()
+                    .name(name)
+                    .value(value)
+                    .flag(false)
+                    .build());
+        }
+    }
+}
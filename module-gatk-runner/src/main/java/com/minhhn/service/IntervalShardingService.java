@@ -0,0 +1,204 @@
+package com.minhhn.service;
+
+import com.minhhn.model.GenomicInterval;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service for reading genomic intervals and splitting them into shards of balanced size.
+ */
+@Service
+@Slf4j
+public class IntervalShardingService {
+
+    /**
+     * Loads the intervals to process: the given interval list if present, otherwise
+     * every contig of the reference genome as listed in its {@code .fai} or {@code .dict}.
+     * 
+     * @param intervalList Optional interval list (.interval_list, .bed, .list or .intervals)
+     * @param referenceGenome Path to the reference FASTA
+     * @return The intervals in file order
+     * @throws IOException If the intervals cannot be read
+     */
+    public List<GenomicInterval> loadIntervals(String intervalList, String referenceGenome) throws IOException {
+        if (intervalList != null && !intervalList.isEmpty()) {
+            return readIntervalList(Path.of(intervalList), referenceGenome);
+        }
+        return readReferenceContigs(referenceGenome);
+    }
+    
+    /**
+     * Reads the contigs of a reference genome as whole-contig intervals.
+     * 
+     * @param referenceGenome Path to the reference FASTA
+     * @return One interval per contig, in reference order
+     * @throws IOException If neither a .fai nor a .dict index exists
+     */
+    public List<GenomicInterval> readReferenceContigs(String referenceGenome) throws IOException {
+        Path fastaIndex = Path.of(referenceGenome + ".fai");
+        if (Files.exists(fastaIndex)) {
+            List<GenomicInterval> contigs = new ArrayList<>();
+            for (String line : Files.readAllLines(fastaIndex, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t");
+                if (fields.length >= 2) {
+                    contigs.add(new GenomicInterval(fields[0], 1, Long.parseLong(fields[1])));
+                }
+            }
+            return contigs;
+        }
+        
+        Path dictionary = Path.of(referenceGenome.replaceFirst("\\.(fasta|fa)(\\.gz)?$", "") + ".dict");
+        if (Files.exists(dictionary)) {
+            return readSequenceHeader(Files.readAllLines(dictionary, StandardCharsets.UTF_8));
+        }
+        
+        throw new IOException("No .fai or .dict index found for reference genome " + referenceGenome);
+    }
+    
+    /**
+     * Splits intervals into shards that cover roughly the same number of bases.
+     * Intervals larger than the remaining room of a shard are split across shards,
+     * and the genomic order of the input is preserved.
+     * 
+     * @param intervals The intervals to split
+     * @param shardCount The desired number of shards
+     * @return The shards, each a non-empty list of intervals
+     */
+    public List<List<GenomicInterval>> split(List<GenomicInterval> intervals, int shardCount) {
+        long totalBases = intervals.stream().mapToLong(GenomicInterval::length).sum();
+        long basesPerShard = Math.max(1, (totalBases + shardCount - 1) / shardCount);
+        
+        List<List<GenomicInterval>> shards = new ArrayList<>();
+        List<GenomicInterval> current = new ArrayList<>();
+        long room = basesPerShard;
+        
+        for (GenomicInterval interval : intervals) {
+            long start = interval.getStart();
+            while (start <= interval.getEnd()) {
+                long end = Math.min(interval.getEnd(), start + room - 1);
+                current.add(new GenomicInterval(interval.getContig(), start, end));
+                room -= end - start + 1;
+                start = end + 1;
+                
+                if (room == 0) {
+                    shards.add(current);
+                    current = new ArrayList<>();
+                    room = basesPerShard;
+                }
+            }
+        }
+        if (!current.isEmpty()) {
+            shards.add(current);
+        }
+        
+        log.debug("Split {} bases into {} shards of about {} bases", totalBases, shards.size(), basesPerShard);
+        return shards;
+    }
+    
+    /**
+     * Writes intervals to a GATK {@code .intervals} file, one contig:start-end per line.
+     * 
+     * @param path The file to write
+     * @param intervals The intervals
+     * @throws IOException If the file cannot be written
+     */
+    public void writeIntervalFile(Path path, List<GenomicInterval> intervals) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (GenomicInterval interval : intervals) {
+                writer.write(interval.toIntervalString());
+                writer.write('\n');
+            }
+        }
+    }
+    
+    private List<GenomicInterval> readIntervalList(Path path, String referenceGenome) throws IOException {
+        String fileName = path.getFileName().toString();
+        List<GenomicInterval> intervals = new ArrayList<>();
+        Map<String, Long> contigLengths = null;
+        
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("@") || line.startsWith("#")
+                        || line.startsWith("track") || line.startsWith("browser")) {
+                    continue;
+                }
+                
+                String[] fields = line.trim().split("\\s+");
+                if (fileName.endsWith(".bed")) {
+                    // BED is 0-based, half-open
+                    intervals.add(new GenomicInterval(fields[0],
+                            Long.parseLong(fields[1]) + 1, Long.parseLong(fields[2])));
+                } else if (fileName.endsWith(".interval_list")) {
+                    intervals.add(new GenomicInterval(fields[0],
+                            Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                } else if (fields[0].indexOf(':') < 0) {
+                    // Whole contig, take its length from the reference
+                    if (contigLengths == null) {
+                        contigLengths = new HashMap<>();
+                        for (GenomicInterval contig : readReferenceContigs(referenceGenome)) {
+                            contigLengths.put(contig.getContig(), contig.getEnd());
+                        }
+                    }
+                    Long length = contigLengths.get(fields[0]);
+                    if (length == null) {
+                        throw new IOException("Contig " + fields[0] + " is not part of reference " + referenceGenome);
+                    }
+                    intervals.add(new GenomicInterval(fields[0], 1, length));
+                } else {
+                    intervals.add(parseIntervalString(fields[0]));
+                }
+            }
+        }
+        return intervals;
+    }
+    
+    private GenomicInterval parseIntervalString(String interval) {
+        int colon = interval.lastIndexOf(':');
+        int dash = interval.lastIndexOf('-');
+        if (dash < colon) {
+            // Single position
+            long position = Long.parseLong(interval.substring(colon + 1).replace(",", ""));
+            return new GenomicInterval(interval.substring(0, colon), position, position);
+        }
+        return new GenomicInterval(interval.substring(0, colon),
+                Long.parseLong(interval.substring(colon + 1, dash).replace(",", "")),
+                Long.parseLong(interval.substring(dash + 1).replace(",", "")));
+    }
+    
+    private List<GenomicInterval> readSequenceHeader(List<String> lines) {
+        List<GenomicInterval> contigs = new ArrayList<>();
+        for (String line : lines) {
+            if (!line.startsWith("@SQ")) {
+                continue;
+            }
+            String name = null;
+            long length = 0;
+            for (String field : line.split("\t")) {
+                if (field.startsWith("SN:")) {
+                    name = field.substring(3);
+                } else if (field.startsWith("LN:")) {
+                    length = Long.parseLong(field.substring(3));
+                }
+            }
+            if (name != null) {
+                contigs.add(new GenomicInterval(name, 1, length));
+            }
+        }
+        return contigs;
+    }
+}
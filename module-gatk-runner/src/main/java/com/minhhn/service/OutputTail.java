@@ -0,0 +1,43 @@
+package com.minhhn.service;
+
+/**
+ * Fixed-size ring buffer that keeps only the last lines written to it.
+ */
+class OutputTail {
+
+    private final String[] lines;
+    private int next;
+    private int size;
+    
+    OutputTail(int capacity) {
+        this.lines = new String[Math.max(1, capacity)];
+    }
+    
+    /**
+     * Appends a line, overwriting the oldest one once the buffer is full.
+     * 
+     * @param line The line to append
+     */
+    synchronized void append(String line) {
+        lines[next] = line;
+        next = (next + 1) % lines.length;
+        if (size < lines.length) {
+            size++;
+        }
+    }
+    
+    /**
+     * Joins the buffered lines, oldest first.
+     * 
+     * @return The tail of the output
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder tail = new StringBuilder();
+        int first = (next - size + lines.length) % lines.length;
+        for (int i = 0; i < size; i++) {
+            tail.append(lines[(first + i) % lines.length]).append(System.lineSeparator());
+        }
+        return tail.toString();
+    }
+}
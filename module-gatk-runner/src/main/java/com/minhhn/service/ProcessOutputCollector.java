@@ -0,0 +1,160 @@
+package com.minhhn.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+/**
+ * Drains stdout and stderr of a running process concurrently on virtual threads.
+ * Every line is streamed to an optional log file as it arrives; only a bounded
+ * tail of each stream is kept in memory. Stderr lines can also be handed to a
+ * listener while the process runs.
+ */
+@Slf4j
+class ProcessOutputCollector implements AutoCloseable {
+
+    private static final long DRAIN_TIMEOUT_MS = 10_000;
+    
+    private final OutputTail stdoutTail;
+    private final OutputTail stderrTail;
+    private final Writer logWriter;
+    private final Thread stdoutDrainer;
+    private final Thread stderrDrainer;
+    private volatile boolean logFailed;
+    
+    private ProcessOutputCollector(Process process, String name, Writer logWriter, int tailLines,
+                                   Consumer<String> stderrListener) {
+        this.stdoutTail = new OutputTail(tailLines);
+        this.stderrTail = new OutputTail(tailLines);
+        this.logWriter = logWriter;
+        this.stdoutDrainer = Thread.ofVirtual()
+                .name(name + "-stdout")
+                .start(() -> drain(process.getInputStream(), stdoutTail, null));
+        this.stderrDrainer = Thread.ofVirtual()
+                .name(name + "-stderr")
+                .start(() -> drain(process.getErrorStream(), stderrTail, stderrListener));
+    }
+    
+    /**
+     * Starts draining the output streams of the given process.
+     * 
+     * @param process The running process
+     * @param name Name used for the drainer threads and the log header
+     * @param logFile Optional log file the output is appended to
+     * @param tailLines Number of lines to keep in memory per stream
+     * @return The running collector
+     * @throws IOException If the log file cannot be opened
+     */
+    static ProcessOutputCollector start(Process process, String name, String logFile, int tailLines)
+            throws IOException {
+        return start(process, name, logFile, tailLines, null);
+    }
+    
+    /**
+     * Starts draining the output streams of the given process, passing every stderr
+     * line to a listener as it arrives.
+     * 
+     * @param process The running process
+     * @param name Name used for the drainer threads and the log header
+     * @param logFile Optional log file the output is appended to
+     * @param tailLines Number of lines to keep in memory per stream
+     * @param stderrListener Optional listener for stderr lines
+     * @return The running collector
+     * @throws IOException If the log file cannot be opened
+     */
+    static ProcessOutputCollector start(Process process, String name, String logFile, int tailLines,
+                                        Consumer<String> stderrListener) throws IOException {
+        Writer logWriter = null;
+        if (logFile != null && !logFile.isEmpty()) {
+            Path logPath = Path.of(logFile);
+            if (logPath.getParent() != null) {
+                Files.createDirectories(logPath.getParent());
+            }
+            logWriter = Files.newBufferedWriter(logPath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            logWriter.write("=== " + name + " started at " + LocalDateTime.now() + System.lineSeparator());
+        }
+        return new ProcessOutputCollector(process, name, logWriter, tailLines, stderrListener);
+    }
+    
+    /**
+     * Waits for both streams to reach end of file. Bounded so that a grandchild
+     * process holding the pipe open cannot block the caller forever.
+     * 
+     * @throws InterruptedException If interrupted while waiting
+     */
+    void awaitDrained() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        stdoutDrainer.join(Math.max(1, deadline - System.currentTimeMillis()));
+        stderrDrainer.join(Math.max(1, deadline - System.currentTimeMillis()));
+    }
+    
+    String getStandardOutput() {
+        return stdoutTail.toString();
+    }
+    
+    String getStandardError() {
+        return stderrTail.toString();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (logWriter != null) {
+            synchronized (logWriter) {
+                logWriter.close();
+            }
+        }
+    }
+    
+    private void drain(InputStream stream, OutputTail tail, Consumer<String> listener) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                tail.append(line);
+                writeToLog(line);
+                notify(listener, line);
+            }
+        } catch (IOException e) {
+            log.warn("Stopped reading process output: {}", e.getMessage());
+        }
+    }
+    
+    private void notify(Consumer<String> listener, String line) {
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.accept(line);
+        } catch (RuntimeException e) {
+            // A broken listener must not stop the draining either
+            log.debug("Output listener failed on line '{}': {}", line, e.getMessage());
+        }
+    }
+    
+    private void writeToLog(String line) {
+        if (logWriter == null || logFailed) {
+            return;
+        }
+        synchronized (logWriter) {
+            try {
+                logWriter.write(line);
+                logWriter.write(System.lineSeparator());
+            } catch (IOException e) {
+                // Keep draining even if the log is gone, otherwise the process stalls on a full pipe
+                logFailed = true;
+                log.warn("Could not write process output to log: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.minhhn.service;
+
+import com.minhhn.enums.JobPriority;
+import com.minhhn.model.QueueWaitStats;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe per priority class record of how long work waited in a queue, used to
+ * check turnaround targets for each class.
+ */
+public final class QueueWaitStatistics {
+
+    private final Map<JobPriority, ClassWaits> waits = new EnumMap<>(JobPriority.class);
+    
+    public QueueWaitStatistics() {
+        for (JobPriority priority : JobPriority.values()) {
+            waits.put(priority, new ClassWaits());
+        }
+    }
+    
+    /**
+     * Records the wait of work that has left the queue.
+     * 
+     * @param priority The priority class of the work
+     * @param wait The time it waited
+     */
+    public void record(JobPriority priority, Duration wait) {
+        long waitMs = Math.max(0, wait.toMillis());
+        ClassWaits classWaits = waits.get(priority);
+        classWaits.count.increment();
+        classWaits.totalMs.add(waitMs);
+        classWaits.maxMs.accumulate(waitMs);
+        classWaits.lastMs.set(waitMs);
+    }
+    
+    /**
+     * Gets the wait times of every priority class.
+     * 
+     * @return The wait times, highest class first
+     */
+    public List<QueueWaitStats> snapshot() {
+        return Arrays.stream(JobPriority.values())
+                .map(priority -> {
+                    ClassWaits classWaits = waits.get(priority);
+                    long count = classWaits.count.sum();
+                    return QueueWaitStats.builder()
+                            .priority(priority)
+                            .count(count)
+                            .averageWaitMs(count == 0 ? 0 : classWaits.totalMs.sum() / count)
+                            .maxWaitMs(classWaits.maxMs.get())
+                            .lastWaitMs(classWaits.lastMs.get())
+                            .build();
+                })
+                .toList();
+    }
+    
+    private static final class ClassWaits {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMs = new LongAdder();
+        private final LongAccumulator maxMs = new LongAccumulator(Math::max, 0);
+        private final AtomicLong lastMs = new AtomicLong();
+    }
+}
@@ -0,0 +1,176 @@
+package com.minhhn.service;
+
+import com.minhhn.model.GatkCommand;
+import com.minhhn.model.GatkCommandResult;
+import com.minhhn.model.GatkRunContext;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Runs the per-shard commands of a scattered step in parallel on virtual threads.
+ */
+@Slf4j
+final class ShardRunner {
+
+    private ShardRunner() {
+    }
+    
+    /**
+     * Runs the commands, at most {@code parallelism} at a time. The remaining shards are
+     * stopped as soon as one fails, since the step cannot succeed anyway. Returns only once
+     * every shard has stopped, so the caller can clean up after them safely.
+     * 
+     * @param gatkRunnerService The runner executing the commands
+     * @param commands One command per shard
+     * @param parallelism Maximum number of shards running at the same time
+     * @param name Name of the step, used for the threads and error messages
+     * @param context The analysis the commands belong to
+     * @return The result of the first failed shard, or empty if all shards succeeded
+     */
+    static Optional<GatkCommandResult> runAll(GatkRunnerService gatkRunnerService, List<GatkCommand> commands,
+                                              int parallelism, String name, GatkRunContext context) {
+        return runAll(gatkRunnerService, commands, parallelism, name, context, shard -> { });
+    }
+    
+    /**
+     * Runs the commands like {@link #runAll(GatkRunnerService, List, int, String, GatkRunContext)},
+     * reporting every shard that succeeded as soon as it finishes.
+     * 
+     * @param gatkRunnerService The runner executing the commands
+     * @param commands One command per shard
+     * @param parallelism Maximum number of shards running at the same time
+     * @param name Name of the step, used for the threads and error messages
+     * @param context The analysis the commands belong to
+     * @param onShardSucceeded Called with the index of each shard that succeeded
+     * @return The result of the first failed shard, or empty if all shards succeeded
+     */
+    static Optional<GatkCommandResult> runAll(GatkRunnerService gatkRunnerService, List<GatkCommand> commands,
+                                              int parallelism, String name, GatkRunContext context,
+                                              IntConsumer onShardSucceeded) {
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism),
+                Thread.ofVirtual().name(name + "-shard-", 0).factory());
+        try {
+            List<Future<GatkCommandResult>> futures = new ArrayList<>();
+            for (int i = 0; i < commands.size(); i++) {
+                int shard = i;
+                GatkCommand command = commands.get(i);
+                futures.add(executor.submit(() -> {
+                    GatkCommandResult result = gatkRunnerService.executeCommand(command, context);
+                    if (result.isSuccess()) {
+                        onShardSucceeded.accept(shard);
+                    }
+                    return result;
+                }));
+            }
+            
+            for (int i = 0; i < futures.size(); i++) {
+                GatkCommandResult shardResult = futures.get(i).get();
+                if (!shardResult.isSuccess()) {
+                    executor.shutdownNow();
+                    shardResult.setErrorMessage("Shard " + i + " failed: " + shardResult.getErrorMessage());
+                    shardResult.setExecutionTimeMs(System.currentTimeMillis() - startTime);
+                    return Optional.of(shardResult);
+                }
+            }
+            return Optional.empty();
+            
+        } catch (InterruptedException | ExecutionException e) {
+            executor.shutdownNow();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return Optional.of(GatkCommandResult.builder()
+                    .success(false)
+                    .errorMessage("Scattered " + name + " failed: " + e.getMessage())
+                    .executionTimeMs(System.currentTimeMillis() - startTime)
+                    .build());
+        } finally {
+            // Waits for stopped shards too; they may still be writing outputs or reporting success
+            executor.close();
+        }
+    }
+    
+    /**
+     * Concatenates per-shard VCFs into the output and indexes it. GatherVcfs copies the
+     * compressed blocks of block-gzipped shards without re-encoding them, but does not
+     * write an index for them, so a tabix index is created afterwards.
+     * 
+     * @param gatkRunnerService The runner executing the commands
+     * @param shardOutputs The per-shard VCFs, in genomic order
+     * @param outputVcf The gathered VCF
+     * @param context The analysis the commands belong to
+     * @return The result of the gather, or of the indexing if that failed
+     */
+    static GatkCommandResult gatherAndIndex(GatkRunnerService gatkRunnerService, List<String> shardOutputs,
+                                            String outputVcf, GatkRunContext context) {
+        GatkCommandResult result = gatkRunnerService.executeCommand(gatherCommand(shardOutputs, outputVcf), context);
+        if (!result.isSuccess() || !outputVcf.endsWith(".gz")) {
+            return result;
+        }
+        
+        GatkCommandResult index = gatkRunnerService.executeCommand(indexCommand(outputVcf), context);
+        if (!index.isSuccess()) {
+            index.setErrorMessage("Could not index " + outputVcf + ": " + index.getErrorMessage());
+            return index;
+        }
+        return result;
+    }
+    
+    /**
+     * Builds the command concatenating per-shard VCFs, which must be in genomic order.
+     * 
+     * @param shardOutputs The per-shard VCFs
+     * @param outputVcf The gathered VCF
+     * @return The GatherVcfs command
+     */
+    static GatkCommand gatherCommand(List<String> shardOutputs, String outputVcf) {
+        return GatkCommand.builder()
+                .toolName("GatherVcfs")
+                .inputFiles(shardOutputs)
+                .outputFile(outputVcf)
+                .parameters(new ArrayList<>())
+                .build();
+    }
+    
+    /**
+     * Builds the command writing the index of a VCF next to it, a tabix {@code .tbi} for
+     * block-gzipped VCFs.
+     * 
+     * @param vcf The VCF to index
+     * @return The IndexFeatureFile command
+     */
+    static GatkCommand indexCommand(String vcf) {
+        return GatkCommand.builder()
+                .toolName("IndexFeatureFile")
+                .inputFiles(List.of(vcf))
+                .parameters(new ArrayList<>())
+                .build();
+    }
+    
+    /**
+     * Deletes the per-shard intermediate files of a step after it has been gathered.
+     * 
+     * @param scatterDirectory The directory holding the shard files
+     */
+    static void deleteScatterDirectory(Path scatterDirectory) {
+        try (Stream<Path> files = Files.walk(scatterDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Could not delete scatter directory {}: {}", scatterDirectory, e.getMessage());
+        }
+    }
+}
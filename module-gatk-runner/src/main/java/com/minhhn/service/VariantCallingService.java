@@ -1,18 +1,26 @@
 package com.minhhn.service;
 
+import com.minhhn.config.ScatterProperties;
 import com.minhhn.model.GatkCommand;
 import com.minhhn.model.GatkCommandParameter;
 import com.minhhn.model.GatkCommandResult;
+import com.minhhn.model.GatkRunContext;
+import com.minhhn.model.GenomicInterval;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 /**
- * Service for performing variant calling using GATK HaplotypeCaller.
+ * Service for performing variant calling using GATK HaplotypeCaller. Depending on the
+ * pipeline version, calling is scattered over interval shards and gathered afterwards.
  */
 @Service
 @Slf4j
@@ -20,6 +28,9 @@ import java.util.List;
 public class VariantCallingService {
 
     private final GatkRunnerService gatkRunnerService;
+    private final IntervalShardingService intervalShardingService;
+    private final ScatterProperties scatterProperties;
+    private final CohortGenotypingService cohortGenotypingService;
     
     @Value("${gatk.reference.genome:/data/reference/Homo_sapiens_assembly38.fasta}")
     private String referenceGenome;
@@ -33,8 +44,92 @@ public class VariantCallingService {
      * @return The result of the variant calling operation
      */
     public GatkCommandResult callVariants(String bamFile, String outputVcf, String intervalList) {
+        return callVariants(bamFile, outputVcf, intervalList, GatkRunContext.none());
+    }
+    
+    /**
+     * Performs variant calling on a BAM file using GATK HaplotypeCaller.
+     * 
+     * @param bamFile Path to the BAM file
+     * @param outputVcf Path to the output VCF file
+     * @param intervalList Optional interval list to restrict analysis
+     * @param context The analysis the command belongs to
+     * @return The result of the variant calling operation
+     */
+    public GatkCommandResult callVariants(String bamFile, String outputVcf, String intervalList, GatkRunContext context) {
         log.info("Starting variant calling for BAM file: {}", bamFile);
         
+        ScatterProperties.Settings scatter = scatterProperties.forPipeline(context.getPipelineVersion());
+        GatkCommandResult result = scatter.getShardCount() > 1
+                ? callVariantsScattered(bamFile, outputVcf, intervalList, scatter, context)
+                : gatkRunnerService.executeCommand(
+                        buildHaplotypeCallerCommand(bamFile, outputVcf, intervalList), context);
+        
+        if (result.isSuccess()) {
+            log.info("Variant calling completed successfully. Output VCF: {}", outputVcf);
+        } else {
+            log.error("Variant calling failed: {}", result.getErrorMessage());
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Splits the intervals into shards balanced by base count, runs HaplotypeCaller on each
+     * shard in parallel and gathers the per-shard outputs into the requested output file.
+     */
+    private GatkCommandResult callVariantsScattered(String bamFile, String outputVcf, String intervalList,
+                                                    ScatterProperties.Settings scatter, GatkRunContext context) {
+        long startTime = System.currentTimeMillis();
+        Path scatterDirectory = Path.of(outputVcf + ".scatter");
+        String extension = outputVcf.endsWith(".vcf.gz") ? ".vcf.gz" : ".vcf";
+        
+        List<List<GenomicInterval>> shards;
+        List<String> shardFiles = new ArrayList<>();
+        List<String> shardOutputs = new ArrayList<>();
+        try {
+            List<GenomicInterval> intervals = intervalShardingService.loadIntervals(intervalList, referenceGenome);
+            shards = intervalShardingService.split(intervals, scatter.getShardCount());
+            
+            for (int i = 0; i < shards.size(); i++) {
+                Path shardFile = scatterDirectory.resolve(String.format("shard-%04d.intervals", i));
+                intervalShardingService.writeIntervalFile(shardFile, shards.get(i));
+                shardFiles.add(shardFile.toString());
+                shardOutputs.add(scatterDirectory.resolve(String.format("shard-%04d%s", i, extension)).toString());
+            }
+        } catch (IOException e) {
+            return GatkCommandResult.builder()
+                    .success(false)
+                    .errorMessage("Could not prepare scatter intervals: " + e.getMessage())
+                    .executionTimeMs(System.currentTimeMillis() - startTime)
+                    .build();
+        }
+        
+        log.info("Scattering HaplotypeCaller over {} shards with parallelism {}", shards.size(), scatter.getParallelism());
+        
+        // Scatter: one HaplotypeCaller per shard, at most `parallelism` at a time
+        List<GatkCommand> shardCommands = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            shardCommands.add(buildHaplotypeCallerCommand(bamFile, shardOutputs.get(i), shardFiles.get(i)));
+        }
+        Optional<GatkCommandResult> failure = ShardRunner.runAll(
+                gatkRunnerService, shardCommands, scatter.getParallelism(), "haplotype-caller", context);
+        if (failure.isPresent()) {
+            failure.get().setExecutionTimeMs(System.currentTimeMillis() - startTime);
+            return failure.get();
+        }
+        
+        // Gather: shards are in genomic order, so GatherVcfs can concatenate them
+        GatkCommandResult result = ShardRunner.gatherAndIndex(gatkRunnerService, shardOutputs, outputVcf, context);
+        result.setExecutionTimeMs(System.currentTimeMillis() - startTime);
+        
+        if (result.isSuccess()) {
+            ShardRunner.deleteScatterDirectory(scatterDirectory);
+        }
+        return result;
+    }
+    
+    private GatkCommand buildHaplotypeCallerCommand(String bamFile, String outputVcf, String intervalList) {
         List<GatkCommandParameter> parameters = new ArrayList<>();
         
         // Add interval list if provided
@@ -66,24 +161,13 @@ public class VariantCallingService {
                 .build());
         
         // Build the GATK command
-        GatkCommand command = GatkCommand.builder()
+        return GatkCommand.builder()
                 .toolName("HaplotypeCaller")
                 .referenceGenome(referenceGenome)
                 .inputFiles(List.of(bamFile))
                 .outputFile(outputVcf)
                 .parameters(parameters)
                 .build();
-        
-        // Execute the command
-        GatkCommandResult result = gatkRunnerService.executeCommand(command);
-        
-        if (result.isSuccess()) {
-            log.info("Variant calling completed successfully. Output VCF: {}", outputVcf);
-        } else {
-            log.error("Variant calling failed: {}", result.getErrorMessage());
-        }
-        
-        return result;
     }
     
     /**
@@ -94,8 +178,26 @@ public class VariantCallingService {
      * @return The result of the joint genotyping operation
      */
     public GatkCommandResult jointGenotyping(List<String> gvcfFiles, String outputVcf) {
+        return jointGenotyping(gvcfFiles, outputVcf, GatkRunContext.none());
+    }
+    
+    /**
+     * Performs joint genotyping on multiple GVCF files. More than one GVCF is imported into
+     * a throwaway GenomicsDB workspace and genotyped per shard; use
+     * {@link CohortGenotypingService} directly to keep a cohort workspace between runs.
+     * 
+     * @param gvcfFiles List of GVCF files
+     * @param outputVcf Path to the output VCF file
+     * @param context The analysis the command belongs to
+     * @return The result of the joint genotyping operation
+     */
+    public GatkCommandResult jointGenotyping(List<String> gvcfFiles, String outputVcf, GatkRunContext context) {
         log.info("Starting joint genotyping for {} GVCF files", gvcfFiles.size());
         
+        if (gvcfFiles.size() > 1) {
+            return jointGenotypingWithWorkspace(gvcfFiles, outputVcf, context);
+        }
+        
         List<GatkCommandParameter> parameters = new ArrayList<>();
         
         // Add GVCF variant files
@@ -116,7 +218,7 @@ public class VariantCallingService {
                 .build();
         
         // Execute the command
-        GatkCommandResult result = gatkRunnerService.executeCommand(command);
+        GatkCommandResult result = gatkRunnerService.executeCommand(command, context);
         
         if (result.isSuccess()) {
             log.info("Joint genotyping completed successfully. Output VCF: {}", outputVcf);
@@ -126,4 +228,39 @@ public class VariantCallingService {
         
         return result;
     }
+    
+    /**
+     * Joint genotyping of a cohort in a temporary GenomicsDB workspace next to the output.
+     * GenotypeGVCFs reads a single input, so several GVCFs always go through GenomicsDB.
+     * The workspace is created afresh, since import appends to the samples of a workspace
+     * left behind by an earlier run, and deleted again whatever the outcome.
+     */
+    private GatkCommandResult jointGenotypingWithWorkspace(List<String> gvcfFiles, String outputVcf,
+                                                           GatkRunContext context) {
+        Path workspace = Path.of(outputVcf + ".genomicsdb");
+        deleteWorkspace(workspace);
+        
+        try {
+            GatkCommandResult result = cohortGenotypingService.importSamples(workspace.toString(), gvcfFiles, null,
+                    context);
+            if (result.isSuccess()) {
+                result = cohortGenotypingService.genotype(workspace.toString(), outputVcf, context);
+            }
+            
+            if (result.isSuccess()) {
+                log.info("Joint genotyping completed successfully. Output VCF: {}", outputVcf);
+            } else {
+                log.error("Joint genotyping failed: {}", result.getErrorMessage());
+            }
+            return result;
+        } finally {
+            deleteWorkspace(workspace);
+        }
+    }
+    
+    private void deleteWorkspace(Path workspace) {
+        if (Files.exists(workspace)) {
+            ShardRunner.deleteScatterDirectory(workspace);
+        }
+    }
 }
@@ -1,15 +1,32 @@
 package com.minhhn.service;
 
+import com.minhhn.config.FilterProperties;
+import com.minhhn.enums.FailureClass;
+import com.minhhn.enums.FilterEngine;
+import com.minhhn.model.CommandAttempt;
 import com.minhhn.model.GatkCommand;
 import com.minhhn.model.GatkCommandParameter;
 import com.minhhn.model.GatkCommandResult;
+import com.minhhn.model.GatkRunContext;
+import com.minhhn.vcf.Region;
+import com.minhhn.vcf.VariantType;
+import com.minhhn.vcf.VcfFilterEngine;
+import com.minhhn.vcf.VcfSplitter;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Service for filtering and annotating variants using GATK tools.
@@ -18,12 +35,30 @@ import java.util.List;
 @Slf4j
 @RequiredArgsConstructor
 public class VariantFilteringService {
-
+    
     private final GatkRunnerService gatkRunnerService;
+    private final IntervalShardingService intervalShardingService;
+    private final FilterProperties filterProperties;
     
     @Value("${gatk.reference.genome:/data/reference/Homo_sapiens_assembly38.fasta}")
     private String referenceGenome;
     
+    private VcfFilterEngine filterEngine;
+    
+    /**
+     * Compiles the filter expressions for the native engine, so that an invalid
+     * expression fails at startup instead of in the first analysis.
+     */
+    @PostConstruct
+    void compileFilters() {
+        if (filterProperties.getEngine() == FilterEngine.NATIVE) {
+            filterEngine = new VcfFilterEngine(filterProperties.getExpressions().stream()
+                    .map(expression -> new VcfFilterEngine.Filter(expression.getName(), expression.getExpression()))
+                    .toList(), filterProperties.getBatchSize());
+            log.info("Variant filtering runs in process with {} filters", filterProperties.getExpressions().size());
+        }
+    }
+    
     /**
      * Filters variants based on standard quality filters.
      * 
@@ -32,46 +67,57 @@ public class VariantFilteringService {
      * @return The result of the variant filtering operation
      */
     public GatkCommandResult filterVariants(String inputVcf, String outputVcf) {
+        return filterVariants(inputVcf, outputVcf, GatkRunContext.none());
+    }
+    
+    /**
+     * Filters variants based on standard quality filters.
+     * 
+     * @param inputVcf Path to the input VCF file
+     * @param outputVcf Path to the output filtered VCF file
+     * @param context The analysis the command belongs to
+     * @return The result of the variant filtering operation
+     */
+    public GatkCommandResult filterVariants(String inputVcf, String outputVcf, GatkRunContext context) {
+        return filterVariants(inputVcf, outputVcf, null, context);
+    }
+    
+    /**
+     * Filters variants based on standard quality filters, reading only the given intervals
+     * of the indexed input. Depending on {@code gatk.filter.engine} the filters are applied
+     * by GATK VariantFiltration or in process, which seeks to the intervals the same way.
+     * 
+     * @param inputVcf Path to the input VCF file
+     * @param outputVcf Path to the output filtered VCF file
+     * @param intervalList Optional interval list to restrict filtering
+     * @param context The analysis the command belongs to
+     * @return The result of the variant filtering operation
+     */
+    public GatkCommandResult filterVariants(String inputVcf, String outputVcf, String intervalList,
+                                            GatkRunContext context) {
         log.info("Starting variant filtering for VCF file: {}", inputVcf);
         
+        if (filterProperties.getEngine() == FilterEngine.NATIVE) {
+            return filterInProcess(inputVcf, outputVcf, intervalList, context);
+        }
+        
         List<GatkCommandParameter> parameters = new ArrayList<>();
+        addIntervals(parameters, intervalList);
         
         // Add filter expressions
-        parameters.add(GatkCommandParameter.builder()
-                .name("--filter-expression")
-                .value("\"QD < 2.0\"")
-                .flag(false)
-                .build());
-                
-        parameters.add(GatkCommandParameter.builder()
-                .name("--filter-name")
-                .value("\"QD2\"")
-                .flag(false)
-                .build());
-                
-        parameters.add(GatkCommandParameter.builder()
-                .name("--filter-expression")
-                .value("\"FS > 60.0\"")
-                .flag(false)
-                .build());
-                
-        parameters.add(GatkCommandParameter.builder()
-                .name("--filter-name")
-                .value("\"FS60\"")
-                .flag(false)
-                .build());
-                
-        parameters.add(GatkCommandParameter.builder()
-                .name("--filter-expression")
-                .value("\"MQ < 40.0\"")
-                .flag(false)
-                .build());
-                
-        parameters.add(GatkCommandParameter.builder()
-                .name("--filter-name")
-                .value("\"MQ40\"")
-                .flag(false)
-                .build());
+        for (FilterProperties.Expression expression : filterProperties.getExpressions()) {
+            parameters.add(GatkCommandParameter.builder()
+                    .name("--filter-expression")
+                    .value(expression.getExpression())
+                    .flag(false)
+                    .build());
+            
+            parameters.add(GatkCommandParameter.builder()
+                    .name("--filter-name")
+                    .value(expression.getName())
+                    .flag(false)
+                    .build());
+        }
         
         // Build the GATK command
         GatkCommand command = GatkCommand.builder()
@@ -83,7 +129,7 @@ public class VariantFilteringService {
                 .build();
         
         // Execute the command
-        GatkCommandResult result = gatkRunnerService.executeCommand(command);
+        GatkCommandResult result = gatkRunnerService.executeCommand(command, context);
         
         if (result.isSuccess()) {
             log.info("Variant filtering completed successfully. Output VCF: {}", outputVcf);
@@ -94,6 +140,64 @@ public class VariantFilteringService {
         return result;
     }
     
+    /**
+     * Applies the filters with the native engine: one streaming pass over the input,
+     * contigs in parallel, with the output block-compressed and indexed like GATK's. The
+     * run is admitted by the scheduler as VariantFiltration, reported as an attempt of it
+     * and stopped when the analysis is cancelled.
+     * 
+     * @param inputVcf Path to the input VCF file
+     * @param outputVcf Path to the output filtered VCF file
+     * @param intervalList Optional interval list to restrict filtering
+     * @param context The analysis the step belongs to
+     * @return The result, shaped like the result of a GATK command
+     */
+    private GatkCommandResult filterInProcess(String inputVcf, String outputVcf, String intervalList,
+                                              GatkRunContext context) {
+        GatkCommand command = GatkCommand.builder()
+                .toolName("VariantFiltration")
+                .referenceGenome(referenceGenome)
+                .inputFiles(List.of(inputVcf))
+                .outputFile(outputVcf)
+                .parameters(new ArrayList<>())
+                .build();
+        return gatkRunnerService.executeInProcess(command, context,
+                () -> runFilterEngine(inputVcf, outputVcf, intervalList));
+    }
+    
+    private GatkCommandResult runFilterEngine(String inputVcf, String outputVcf, String intervalList) {
+        long startTime = System.currentTimeMillis();
+        try {
+            Path output = Path.of(outputVcf);
+            createParent(output);
+            
+            VcfFilterEngine.Result counts = filterEngine.filter(Path.of(inputVcf), output, loadRegions(intervalList),
+                    filterProperties.getParallelism());
+            long executionTime = System.currentTimeMillis() - startTime;
+            String summary = counts.filtered() + " of " + counts.records() + " records filtered " + counts.failures();
+            log.info("Variant filtering completed in process in {} ms, {}. Output VCF: {}",
+                    executionTime, summary, outputVcf);
+            
+            return GatkCommandResult.builder()
+                    .success(true)
+                    .outputFile(outputVcf)
+                    .standardOutput(summary)
+                    .exitCode(0)
+                    .executionTimeMs(executionTime)
+                    .build();
+        } catch (IOException | RuntimeException e) {
+            log.error("Variant filtering failed: {}", e.getMessage());
+            return GatkCommandResult.builder()
+                    .success(false)
+                    .outputFile(outputVcf)
+                    .errorMessage(e.getMessage())
+                    .exitCode(1)
+                    .executionTimeMs(System.currentTimeMillis() - startTime)
+                    .failureClass(e instanceof IOException ? FailureClass.STORAGE : FailureClass.INVALID_INPUT)
+                    .build();
+        }
+    }
+    
     /**
      * Annotates variants with functional information using GATK Funcotator.
      * 
@@ -103,9 +207,39 @@ public class VariantFilteringService {
      * @return The result of the variant annotation operation
      */
     public GatkCommandResult annotateVariants(String inputVcf, String outputVcf, String dataSourcesPath) {
+        return annotateVariants(inputVcf, outputVcf, dataSourcesPath, GatkRunContext.none());
+    }
+    
+    /**
+     * Annotates variants with functional information using GATK Funcotator.
+     * 
+     * @param inputVcf Path to the input VCF file
+     * @param outputVcf Path to the output annotated VCF file
+     * @param dataSourcesPath Path to the Funcotator data sources
+     * @param context The analysis the command belongs to
+     * @return The result of the variant annotation operation
+     */
+    public GatkCommandResult annotateVariants(String inputVcf, String outputVcf, String dataSourcesPath, GatkRunContext context) {
+        return annotateVariants(inputVcf, outputVcf, dataSourcesPath, null, context);
+    }
+    
+    /**
+     * Annotates variants with functional information using GATK Funcotator, reading only
+     * the given intervals of the indexed input.
+     * 
+     * @param inputVcf Path to the input VCF file
+     * @param outputVcf Path to the output annotated VCF file
+     * @param dataSourcesPath Path to the Funcotator data sources
+     * @param intervalList Optional interval list to restrict annotation
+     * @param context The analysis the command belongs to
+     * @return The result of the variant annotation operation
+     */
+    public GatkCommandResult annotateVariants(String inputVcf, String outputVcf, String dataSourcesPath,
+                                              String intervalList, GatkRunContext context) {
         log.info("Starting variant annotation for VCF file: {}", inputVcf);
         
         List<GatkCommandParameter> parameters = new ArrayList<>();
+        addIntervals(parameters, intervalList);
         
         // Add Funcotator parameters
         parameters.add(GatkCommandParameter.builder()
@@ -113,13 +247,13 @@ public class VariantFilteringService {
                 .value(dataSourcesPath)
                 .flag(false)
                 .build());
-                
+        
         parameters.add(GatkCommandParameter.builder()
                 .name("--ref-version")
                 .value("hg38")
                 .flag(false)
                 .build());
-                
+        
         parameters.add(GatkCommandParameter.builder()
                 .name("--output-file-format")
                 .value("VCF")
@@ -136,7 +270,7 @@ public class VariantFilteringService {
                 .build();
         
         // Execute the command
-        GatkCommandResult result = gatkRunnerService.executeCommand(command);
+        GatkCommandResult result = gatkRunnerService.executeCommand(command, context);
         
         if (result.isSuccess()) {
             log.info("Variant annotation completed successfully. Output VCF: {}", outputVcf);
@@ -156,9 +290,39 @@ public class VariantFilteringService {
      * @return The result of the variant selection operation
      */
     public GatkCommandResult selectVariantsByType(String inputVcf, String outputVcf, String variantType) {
+        return selectVariantsByType(inputVcf, outputVcf, variantType, GatkRunContext.none());
+    }
+    
+    /**
+     * Selects specific variants by type (SNP, INDEL) from a VCF file.
+     * 
+     * @param inputVcf Path to the input VCF file
+     * @param outputVcf Path to the output VCF file
+     * @param variantType Type of variants to select (SNP or INDEL)
+     * @param context The analysis the command belongs to
+     * @return The result of the variant selection operation
+     */
+    public GatkCommandResult selectVariantsByType(String inputVcf, String outputVcf, String variantType, GatkRunContext context) {
+        return selectVariantsByType(inputVcf, outputVcf, variantType, null, context);
+    }
+    
+    /**
+     * Selects specific variants by type (SNP, INDEL) from the given intervals of an
+     * indexed VCF file.
+     * 
+     * @param inputVcf Path to the input VCF file
+     * @param outputVcf Path to the output VCF file
+     * @param variantType Type of variants to select (SNP or INDEL)
+     * @param intervalList Optional interval list to restrict the selection
+     * @param context The analysis the command belongs to
+     * @return The result of the variant selection operation
+     */
+    public GatkCommandResult selectVariantsByType(String inputVcf, String outputVcf, String variantType,
+                                                  String intervalList, GatkRunContext context) {
         log.info("Selecting {} variants from VCF file: {}", variantType, inputVcf);
         
         List<GatkCommandParameter> parameters = new ArrayList<>();
+        addIntervals(parameters, intervalList);
         
         // Add select type parameter
         parameters.add(GatkCommandParameter.builder()
@@ -177,7 +341,7 @@ public class VariantFilteringService {
                 .build();
         
         // Execute the command
-        GatkCommandResult result = gatkRunnerService.executeCommand(command);
+        GatkCommandResult result = gatkRunnerService.executeCommand(command, context);
         
         if (result.isSuccess()) {
             log.info("Variant selection completed successfully. Output VCF: {}", outputVcf);
@@ -187,4 +351,207 @@ public class VariantFilteringService {
         
         return result;
     }
+    
+    /**
+     * Splits variants by type into one VCF per type.
+     * 
+     * @param inputVcf Path to the input VCF file
+     * @param outputs Path to the output VCF file of each type to keep
+     * @return The result of the split
+     */
+    public GatkCommandResult splitVariantsByType(String inputVcf, Map<VariantType, String> outputs) {
+        return splitVariantsByType(inputVcf, outputs, GatkRunContext.none());
+    }
+    
+    /**
+     * Splits variants by type into one VCF per type.
+     * 
+     * @param inputVcf Path to the input VCF file
+     * @param outputs Path to the output VCF file of each type to keep
+     * @param context The analysis the command belongs to
+     * @return The result of the split
+     */
+    public GatkCommandResult splitVariantsByType(String inputVcf, Map<VariantType, String> outputs,
+                                                 GatkRunContext context) {
+        return splitVariantsByType(inputVcf, outputs, null, context);
+    }
+    
+    /**
+     * Splits the variants of the given intervals by type into one VCF per type. With the
+     * native engine the input is read once and the outputs are written concurrently;
+     * with GATK every type is a SelectVariants run over the whole input, and the result
+     * covers the outputs and attempts of all of them.
+     * 
+     * @param inputVcf Path to the input VCF file
+     * @param outputs Path to the output VCF file of each type to keep
+     * @param intervalList Optional interval list to restrict the split
+     * @param context The analysis the command belongs to
+     * @return The result of the split, with the records written per type when run in process
+     */
+    public GatkCommandResult splitVariantsByType(String inputVcf, Map<VariantType, String> outputs,
+                                                 String intervalList, GatkRunContext context) {
+        log.info("Splitting {} variants from VCF file: {}", outputs.keySet(), inputVcf);
+        
+        if (filterProperties.getEngine() == FilterEngine.NATIVE) {
+            return splitInProcess(inputVcf, outputs, intervalList, context);
+        }
+        
+        List<GatkCommandResult> results = new ArrayList<>();
+        for (Map.Entry<VariantType, String> output : outputs.entrySet()) {
+            GatkCommandResult result = selectVariantsByType(inputVcf, output.getValue(), output.getKey().name(),
+                    intervalList, context);
+            results.add(result);
+            if (!result.isSuccess()) {
+                break;
+            }
+        }
+        return combineResults(results);
+    }
+    
+    /**
+     * Combines the SelectVariants runs of a split into one result. The outcome is that of
+     * the last run, which is the first to fail, if any; outputs, attempts and times add up.
+     * 
+     * @param results The results of the runs, in order
+     * @return The result of the split
+     */
+    private GatkCommandResult combineResults(List<GatkCommandResult> results) {
+        if (results.isEmpty()) {
+            return GatkCommandResult.builder()
+                    .success(true)
+                    .outputFile("")
+                    .build();
+        }
+        
+        GatkCommandResult last = results.get(results.size() - 1);
+        List<CommandAttempt> attempts = new ArrayList<>();
+        long executionTime = 0;
+        for (GatkCommandResult result : results) {
+            attempts.addAll(result.getAttempts());
+            executionTime += result.getExecutionTimeMs();
+        }
+        return GatkCommandResult.builder()
+                .success(last.isSuccess())
+                .outputFile(results.stream().map(GatkCommandResult::getOutputFile).collect(Collectors.joining(",")))
+                .errorMessage(last.getErrorMessage())
+                .standardOutput(last.getStandardOutput())
+                .logFile(last.getLogFile())
+                .exitCode(last.getExitCode())
+                .executionTimeMs(executionTime)
+                .command(last.getCommand())
+                .cancelled(last.isCancelled())
+                .timedOut(last.isTimedOut())
+                .failureClass(last.getFailureClass())
+                .attempts(attempts)
+                .cached(results.stream().allMatch(GatkCommandResult::isCached))
+                .tuningProfile(last.getTuningProfile())
+                .build();
+    }
+    
+    /**
+     * Splits variants with the native splitter. The run is admitted by the scheduler as
+     * SelectVariants, reported as an attempt of it and stopped when the analysis is cancelled.
+     * 
+     * @param inputVcf Path to the input VCF file
+     * @param outputs Path to the output VCF file of each type to keep
+     * @param intervalList Optional interval list to restrict the split
+     * @param context The analysis the step belongs to
+     * @return The result, shaped like the result of a GATK command
+     */
+    private GatkCommandResult splitInProcess(String inputVcf, Map<VariantType, String> outputs,
+                                             String intervalList, GatkRunContext context) {
+        GatkCommand command = GatkCommand.builder()
+                .toolName("SelectVariants")
+                .referenceGenome(referenceGenome)
+                .inputFiles(List.of(inputVcf))
+                .outputFile(String.join(",", outputs.values()))
+                .parameters(new ArrayList<>())
+                .build();
+        return gatkRunnerService.executeInProcess(command, context,
+                () -> runSplitter(inputVcf, outputs, intervalList));
+    }
+    
+    /**
+     * Splits variants with the native splitter: one streaming pass over the input, with
+     * every output written and compressed by its own thread.
+     */
+    private GatkCommandResult runSplitter(String inputVcf, Map<VariantType, String> outputs, String intervalList) {
+        long startTime = System.currentTimeMillis();
+        String outputFile = String.join(",", outputs.values());
+        try {
+            Map<VariantType, Path> paths = new EnumMap<>(VariantType.class);
+            for (Map.Entry<VariantType, String> output : outputs.entrySet()) {
+                Path path = Path.of(output.getValue());
+                createParent(path);
+                paths.put(output.getKey(), path);
+            }
+            
+            VcfSplitter.Result counts = new VcfSplitter(filterProperties.getBatchSize())
+                    .split(Path.of(inputVcf), paths, loadRegions(intervalList));
+            Map<String, Long> recordCounts = new LinkedHashMap<>();
+            counts.counts().forEach((type, count) -> recordCounts.put(type.name(), count));
+            long executionTime = System.currentTimeMillis() - startTime;
+            String summary = counts.records() + " records split " + recordCounts;
+            log.info("Variant split completed in process in {} ms, {}. Output VCFs: {}",
+                    executionTime, summary, outputFile);
+            
+            return GatkCommandResult.builder()
+                    .success(true)
+                    .outputFile(outputFile)
+                    .standardOutput(summary)
+                    .exitCode(0)
+                    .executionTimeMs(executionTime)
+                    .recordCounts(recordCounts)
+                    .build();
+        } catch (IOException | RuntimeException e) {
+            log.error("Variant split failed: {}", e.getMessage());
+            return GatkCommandResult.builder()
+                    .success(false)
+                    .outputFile(outputFile)
+                    .errorMessage(e.getMessage())
+                    .exitCode(1)
+                    .executionTimeMs(System.currentTimeMillis() - startTime)
+                    .failureClass(e instanceof IOException ? FailureClass.STORAGE : FailureClass.INVALID_INPUT)
+                    .build();
+        }
+    }
+    
+    /**
+     * Loads an interval list as regions for the native engine.
+     * 
+     * @param intervalList Optional interval list
+     * @return The regions, or null for the whole input
+     * @throws IOException If the interval list cannot be read
+     */
+    private List<Region> loadRegions(String intervalList) throws IOException {
+        if (intervalList == null || intervalList.isEmpty()) {
+            return null;
+        }
+        return intervalShardingService.loadIntervals(intervalList, referenceGenome).stream()
+                .map(interval -> new Region(interval.getContig(), interval.getStart(), interval.getEnd()))
+                .toList();
+    }
+    
+    private void createParent(Path output) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+    }
+    
+    /**
+     * Restricts a command to the intervals of the analysis. With an indexed input GATK
+     * seeks to these regions instead of reading the whole file.
+     * 
+     * @param parameters The parameters of the command
+     * @param intervalList Optional interval list
+     */
+    private void addIntervals(List<GatkCommandParameter> parameters, String intervalList) {
+        if (intervalList != null && !intervalList.isEmpty()) {
+            parameters.add(GatkCommandParameter.builder()
+                    .name("-L")
+                    .value(intervalList)
+                    .flag(false)
+                    .build());
+        }
+    }
 }
@@ -0,0 +1,193 @@
+package com.minhhn.vcf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF file (block-gzipped, as written by bgzip, htslib and GATK) one block at
+ * a time. Every block is an independent gzip member of at most 64 KB uncompressed, so
+ * blocks are inflated straight into a reused buffer with a single reused inflater, and
+ * every position has a virtual file offset: the file offset of its block shifted left by
+ * 16 bits, plus the offset within the block.
+ */
+public class BgzfBlockReader implements BlockReader {
+    
+    static final int MAX_BLOCK_SIZE = 64 * 1024;
+    
+    // Fixed part of the gzip header up to and including XLEN
+    private static final int GZIP_HEADER_SIZE = 12;
+    // CRC32 and ISIZE
+    private static final int GZIP_TRAILER_SIZE = 8;
+    
+    private final FileChannel channel;
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] compressed = new byte[4 * MAX_BLOCK_SIZE];
+    private final byte[] data = new byte[MAX_BLOCK_SIZE];
+    
+    // Unconsumed compressed bytes are compressed[start, end)
+    private int start;
+    private int end;
+    private int length;
+    private long blockAddress;
+    private long nextBlockAddress;
+    
+    public BgzfBlockReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+    
+    /**
+     * Tells whether the first bytes of a file are the header of a BGZF block.
+     * 
+     * @param head The first bytes of the file
+     * @param length The number of bytes read
+     * @return True for BGZF, false for plain gzip and anything else
+     */
+    static boolean isBgzf(byte[] head, int length) {
+        return length >= 18
+                && (head[0] & 0xff) == 31 && (head[1] & 0xff) == 139 && head[2] == 8 && (head[3] & 4) != 0
+                && head[12] == 'B' && head[13] == 'C';
+    }
+    
+    @Override
+    public boolean next() throws IOException {
+        // Empty blocks, such as the EOF marker, carry no data
+        do {
+            if (!fill(GZIP_HEADER_SIZE)) {
+                return false;
+            }
+            int blockSize = blockSize();
+            if (!fill(blockSize)) {
+                throw new IOException("Truncated BGZF block at offset " + nextBlockAddress);
+            }
+            
+            int extraLength = unsignedShort(start + 10);
+            int dataOffset = start + GZIP_HEADER_SIZE + extraLength;
+            int dataLength = blockSize - GZIP_HEADER_SIZE - extraLength - GZIP_TRAILER_SIZE;
+            int expected = unsignedShort(start + blockSize - 4) | unsignedShort(start + blockSize - 2) << 16;
+            
+            inflater.reset();
+            inflater.setInput(compressed, dataOffset, dataLength);
+            try {
+                length = inflater.inflate(data, 0, data.length);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt BGZF block at offset " + nextBlockAddress, e);
+            }
+            if (length != expected) {
+                throw new IOException("BGZF block at offset " + nextBlockAddress + " inflated to " + length
+                        + " bytes instead of " + expected);
+            }
+            
+            blockAddress = nextBlockAddress;
+            nextBlockAddress += blockSize;
+            start += blockSize;
+        } while (length == 0);
+        return true;
+    }
+    
+    @Override
+    public byte[] data() {
+        return data;
+    }
+    
+    @Override
+    public int length() {
+        return length;
+    }
+    
+    @Override
+    public long addressOf(int position) {
+        // The end of a block is the start of the next, which is how index chunks join up
+        if (position >= length) {
+            return nextBlockAddress << 16;
+        }
+        return blockAddress << 16 | position;
+    }
+    
+    /**
+     * Moves to the block of a virtual file offset and reads it.
+     * 
+     * @param address The virtual file offset
+     * @return The offset within the block that is now current, which has no data if the
+     *         address is at the end of the file
+     * @throws IOException If the file cannot be read or is corrupt
+     */
+    public int seek(long address) throws IOException {
+        long fileOffset = address >>> 16;
+        channel.position(fileOffset);
+        start = 0;
+        end = 0;
+        length = 0;
+        nextBlockAddress = fileOffset;
+        blockAddress = fileOffset;
+        if (!next()) {
+            return 0;
+        }
+        return (int) (address & 0xffff);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+    
+    private int blockSize() throws IOException {
+        if ((compressed[start] & 0xff) != 31 || (compressed[start + 1] & 0xff) != 139
+                || (compressed[start + 3] & 4) == 0) {
+            throw new IOException("Not a BGZF block at offset " + nextBlockAddress);
+        }
+        
+        // Find the BC subfield holding the total block size minus one
+        int extraLength = unsignedShort(start + 10);
+        if (!fill(GZIP_HEADER_SIZE + extraLength)) {
+            throw new IOException("Truncated BGZF header at offset " + nextBlockAddress);
+        }
+        int subfield = start + GZIP_HEADER_SIZE;
+        int extraEnd = subfield + extraLength;
+        while (subfield + 4 <= extraEnd) {
+            int subfieldLength = unsignedShort(subfield + 2);
+            if (compressed[subfield] == 'B' && compressed[subfield + 1] == 'C' && subfieldLength == 2) {
+                return unsignedShort(subfield + 4) + 1;
+            }
+            subfield += 4 + subfieldLength;
+        }
+        throw new IOException("BGZF block at offset " + nextBlockAddress + " has no block size");
+    }
+    
+    /**
+     * Makes sure at least {@code needed} unconsumed compressed bytes are buffered.
+     * 
+     * @param needed The number of bytes needed
+     * @return False if the file ends before that many bytes
+     */
+    private boolean fill(int needed) throws IOException {
+        if (end - start >= needed) {
+            return true;
+        }
+        
+        System.arraycopy(compressed, start, compressed, 0, end - start);
+        end -= start;
+        start = 0;
+        ByteBuffer buffer = ByteBuffer.wrap(compressed, end, compressed.length - end);
+        while (end < needed) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                if (end > 0) {
+                    throw new IOException("Truncated BGZF file after offset " + nextBlockAddress);
+                }
+                return false;
+            }
+            end += read;
+        }
+        return true;
+    }
+    
+    private int unsignedShort(int offset) {
+        return (compressed[offset] & 0xff) | (compressed[offset + 1] & 0xff) << 8;
+    }
+}
@@ -0,0 +1,187 @@
+package com.minhhn.vcf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes BGZF: data is cut into blocks of at most 64 KB, each compressed as its own gzip
+ * member with the block size in the BC extra field, followed by the empty EOF block.
+ * The result is readable by any gzip reader and seekable by virtual file offsets.
+ */
+public class BgzfOutputStream extends OutputStream {
+
+    // Uncompressed bytes per block, as in htslib, so a block always fits 64 KB compressed
+    private static final int BLOCK_DATA_SIZE = 0xff00;
+    private static final int BLOCK_HEADER_SIZE = 18;
+    private static final int BLOCK_TRAILER_SIZE = 8;
+    
+    // Empty block marking the end of a file
+    static final byte[] EOF_BLOCK = {
+            31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 'B', 'C', 2, 0,
+            27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+    
+    private final OutputStream out;
+    private final boolean eofBlock;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] data = new byte[BLOCK_DATA_SIZE];
+    private final byte[] block = new byte[BgzfBlockReader.MAX_BLOCK_SIZE];
+    private int length;
+    private long blockAddress;
+    private boolean closed;
+    
+    /**
+     * Creates a BGZF stream.
+     * 
+     * @param out The stream receiving the compressed blocks, closed with this stream
+     * @param level The deflate compression level
+     */
+    public BgzfOutputStream(OutputStream out, int level) {
+        this(out, level, true);
+    }
+    
+    /**
+     * Creates a BGZF stream that may leave out the EOF block, for parts of a file that are
+     * compressed separately and concatenated afterwards.
+     * 
+     * @param out The stream receiving the compressed blocks, closed with this stream
+     * @param level The deflate compression level
+     * @param eofBlock Whether to end the stream with the EOF block
+     */
+    public BgzfOutputStream(OutputStream out, int level, boolean eofBlock) {
+        this.out = out;
+        this.eofBlock = eofBlock;
+        this.deflater = new Deflater(level, true);
+    }
+    
+    /**
+     * Creates a BGZF file with the default compression level of bgzip.
+     * 
+     * @param path The file to create or replace
+     * @return The stream
+     * @throws IOException If the file cannot be created
+     */
+    public static BgzfOutputStream create(Path path) throws IOException {
+        return new BgzfOutputStream(Files.newOutputStream(path), 6);
+    }
+    
+    /**
+     * Gets the virtual file offset of the next byte written, for indexing what is written.
+     * 
+     * @return The virtual file offset
+     */
+    public long getAddress() {
+        return blockAddress << 16 | length;
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        if (length == data.length) {
+            writeBlock();
+        }
+        data[length++] = (byte) b;
+    }
+    
+    @Override
+    public void write(byte[] bytes, int offset, int count) throws IOException {
+        while (count > 0) {
+            if (length == data.length) {
+                writeBlock();
+            }
+            int copied = Math.min(count, data.length - length);
+            System.arraycopy(bytes, offset, data, length, copied);
+            length += copied;
+            offset += copied;
+            count -= copied;
+        }
+    }
+    
+    /**
+     * Ends the current block, so that everything written so far can be read. Does not
+     * flush the underlying stream.
+     * 
+     * @throws IOException If the block cannot be written
+     */
+    public void endBlock() throws IOException {
+        if (length > 0) {
+            writeBlock();
+        }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        endBlock();
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            endBlock();
+            if (eofBlock) {
+                out.write(EOF_BLOCK);
+            }
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+    
+    private void writeBlock() throws IOException {
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        int compressedLength = deflater.deflate(block, BLOCK_HEADER_SIZE,
+                block.length - BLOCK_HEADER_SIZE - BLOCK_TRAILER_SIZE);
+        if (!deflater.finished()) {
+            throw new IOException("BGZF block does not fit in " + block.length + " bytes");
+        }
+        int blockSize = BLOCK_HEADER_SIZE + compressedLength + BLOCK_TRAILER_SIZE;
+        
+        block[0] = 31;
+        block[1] = (byte) 139;
+        block[2] = 8;
+        block[3] = 4;
+        block[4] = 0;
+        block[5] = 0;
+        block[6] = 0;
+        block[7] = 0;
+        block[8] = 0;
+        block[9] = (byte) 255;
+        block[10] = 6;
+        block[11] = 0;
+        block[12] = 'B';
+        block[13] = 'C';
+        block[14] = 2;
+        block[15] = 0;
+        putShort(16, blockSize - 1);
+        
+        crc.reset();
+        crc.update(data, 0, length);
+        int trailer = BLOCK_HEADER_SIZE + compressedLength;
+        putInt(trailer, (int) crc.getValue());
+        putInt(trailer + 4, length);
+        
+        out.write(block, 0, blockSize);
+        blockAddress += blockSize;
+        length = 0;
+    }
+    
+    private void putShort(int offset, int value) {
+        block[offset] = (byte) value;
+        block[offset + 1] = (byte) (value >>> 8);
+    }
+    
+    private void putInt(int offset, int value) {
+        putShort(offset, value);
+        putShort(offset + 2, value >>> 16);
+    }
+}
@@ -0,0 +1,42 @@
+package com.minhhn.vcf;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of the decompressed bytes of a VCF, delivered block by block into a buffer
+ * owned by the reader. The buffer is only valid until the next call to {@link #next()}.
+ */
+interface BlockReader extends Closeable {
+    
+    /**
+     * Reads the next non-empty block.
+     * 
+     * @return False at the end of the file
+     * @throws IOException If the file cannot be read or is corrupt
+     */
+    boolean next() throws IOException;
+    
+    /**
+     * Gets the buffer holding the current block.
+     * 
+     * @return The buffer, of which the first {@link #length()} bytes are valid
+     */
+    byte[] data();
+    
+    /**
+     * Gets the number of bytes of the current block.
+     * 
+     * @return The block length
+     */
+    int length();
+    
+    /**
+     * Gets the address of a position in the current block, as used by indexes: the
+     * virtual file offset for BGZF files, the file offset for plain files.
+     * 
+     * @param position The position within the current block
+     * @return The address, or -1 if the file is not seekable
+     */
+    long addressOf(int position);
+}
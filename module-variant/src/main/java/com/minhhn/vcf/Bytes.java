@@ -0,0 +1,161 @@
+package com.minhhn.vcf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parsing of numbers and comparison of keys directly on the bytes of a line, so records
+ * can be decoded without creating strings.
+ */
+final class Bytes {
+    
+    // Largest mantissa a double holds exactly
+    private static final long MAX_EXACT = 1L << 53;
+    
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    
+    private Bytes() {
+    }
+    
+    /**
+     * Parses a non-negative decimal integer.
+     * 
+     * @param bytes The buffer
+     * @param from The first byte
+     * @param to The end of the number, exclusive
+     * @return The value, or -1 if the bytes are not a number
+     */
+    static long parseLong(byte[] bytes, int from, int to) {
+        if (from >= to || to - from > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+    
+    /**
+     * Parses a decimal number. Plain decimals are parsed in place; exponents and very
+     * long numbers fall back to {@link Double#parseDouble}. {@code Inf}, {@code Infinity}
+     * and {@code NaN} are accepted in any case, as VCF allows.
+     * 
+     * @param bytes The buffer
+     * @param from The first byte
+     * @param to The end of the number, exclusive
+     * @return The value, or NaN for a missing value or anything that is not a number
+     */
+    static double parseDouble(byte[] bytes, int from, int to) {
+        if (from >= to || (to - from == 1 && bytes[from] == '.')) {
+            return Double.NaN;
+        }
+        
+        int i = from;
+        boolean negative = bytes[i] == '-';
+        if (negative || bytes[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int fractionDigits = -1;
+        int digits = 0;
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        
+        if (i == to && digits > 0 && digits <= 18 && mantissa < MAX_EXACT
+                && fractionDigits < POWERS_OF_TEN.length) {
+            // One rounding of two exact values, so the result is correctly rounded
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+        
+        int numberStart = negative || bytes[from] == '+' ? from + 1 : from;
+        if (equalsIgnoreCase(bytes, numberStart, to, "inf") || equalsIgnoreCase(bytes, numberStart, to, "infinity")) {
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        // Double.parseDouble would also take hex and suffixes such as 1d, which are not VCF numbers
+        for (int j = from; j < to; j++) {
+            byte b = bytes[j];
+            if (!(b >= '0' && b <= '9') && b != '.' && b != 'e' && b != 'E' && b != '-' && b != '+') {
+                return Double.NaN;
+            }
+        }
+        try {
+            return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+    
+    private static boolean equalsIgnoreCase(byte[] bytes, int from, int to, String text) {
+        if (to - from != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.toLowerCase((char) bytes[from + i]) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Tells whether a range of bytes spells out a string of ASCII characters.
+     * 
+     * @param bytes The buffer
+     * @param from The first byte
+     * @param to The end of the range, exclusive
+     * @param text The string to compare with
+     * @return True if they are equal
+     */
+    static boolean equals(byte[] bytes, int from, int to, String text) {
+        if (to - from != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (bytes[from + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Finds a byte in a range.
+     * 
+     * @param bytes The buffer
+     * @param from The first byte to look at
+     * @param to The end of the range, exclusive
+     * @param b The byte to find
+     * @return The position of the byte, or {@code to} if it does not occur
+     */
+    static int indexOf(byte[] bytes, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+    
+    static String toString(byte[] bytes, int from, int to) {
+        return new String(bytes, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+}
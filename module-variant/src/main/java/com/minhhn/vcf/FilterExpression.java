@@ -0,0 +1,359 @@
+package com.minhhn.vcf;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A hard-filter expression such as {@code QD < 2.0 || FS > 60.0}, compiled into an
+ * evaluator over columns of decoded values. Operands are numeric INFO keys, {@code QUAL}
+ * or numbers; comparisons can be combined with {@code &&}, {@code ||} and parentheses.
+ * As in GATK VariantFiltration, a record lacking any key the expression reads does not
+ * match it at all: {@code QD < 2.0 || FS > 60.0} does not filter a record without QD,
+ * whatever its FS.
+ */
+final class FilterExpression {
+    
+    private final Node root;
+    // Columns of every key the expression reads
+    private final int[] operandColumns;
+    
+    private FilterExpression(Node root, int[] operandColumns) {
+        this.root = root;
+        this.operandColumns = operandColumns;
+    }
+    
+    /**
+     * Compiles an expression. The keys it reads are added to {@code columns} if they are
+     * not in it yet, and the evaluator reads each key from the column at its index.
+     * 
+     * @param expression The expression
+     * @param columns The keys of the value columns, extended with the keys of this expression
+     * @return The compiled expression
+     * @throws IllegalArgumentException If the expression is not valid
+     */
+    static FilterExpression compile(String expression, List<String> columns) {
+        Parser parser = new Parser(expression, columns);
+        Node root = parser.parseOr();
+        if (parser.peek() != null) {
+            throw parser.error("Unexpected '" + parser.peek() + "'");
+        }
+        return new FilterExpression(root, parser.operandColumns.stream().mapToInt(Integer::intValue).toArray());
+    }
+    
+    /**
+     * Evaluates the expression for a batch of records.
+     * 
+     * @param columns The values of every key, one column per key and one row per record
+     * @param count The number of records
+     * @param result Receives whether each record matches
+     */
+    void evaluate(double[][] columns, int count, boolean[] result) {
+        root.evaluate(columns, count, result);
+        for (int column : operandColumns) {
+            double[] values = columns[column];
+            for (int i = 0; i < count; i++) {
+                if (Double.isNaN(values[i])) {
+                    result[i] = false;
+                }
+            }
+        }
+    }
+    
+    private interface Node {
+        void evaluate(double[][] columns, int count, boolean[] result);
+    }
+    
+    private enum Operator {
+        LT("<"), LE("<="), GT(">"), GE(">="), EQ("=="), NE("!=");
+        
+        private final String symbol;
+        
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+        
+        Operator flip() {
+            return switch (this) {
+                case LT -> GT;
+                case LE -> GE;
+                case GT -> LT;
+                case GE -> LE;
+                default -> this;
+            };
+        }
+        
+        boolean test(double left, double right) {
+            if (Double.isNaN(left) || Double.isNaN(right)) {
+                return false;
+            }
+            return switch (this) {
+                case LT -> left < right;
+                case LE -> left <= right;
+                case GT -> left > right;
+                case GE -> left >= right;
+                case EQ -> left == right;
+                case NE -> left != right;
+            };
+        }
+        
+        static Operator of(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * A column compared with a constant, the shape of nearly every hard filter. One loop
+     * per operator keeps the comparison out of the loop body.
+     */
+    private record ColumnConstant(int column, Operator operator, double constant) implements Node {
+        
+        @Override
+        public void evaluate(double[][] columns, int count, boolean[] result) {
+            double[] values = columns[column];
+            double c = constant;
+            // Comparisons with NaN are false except !=, which is handled explicitly
+            switch (operator) {
+                case LT -> {
+                    for (int i = 0; i < count; i++) {
+                        result[i] = values[i] < c;
+                    }
+                }
+                case LE -> {
+                    for (int i = 0; i < count; i++) {
+                        result[i] = values[i] <= c;
+                    }
+                }
+                case GT -> {
+                    for (int i = 0; i < count; i++) {
+                        result[i] = values[i] > c;
+                    }
+                }
+                case GE -> {
+                    for (int i = 0; i < count; i++) {
+                        result[i] = values[i] >= c;
+                    }
+                }
+                case EQ -> {
+                    for (int i = 0; i < count; i++) {
+                        result[i] = values[i] == c;
+                    }
+                }
+                case NE -> {
+                    for (int i = 0; i < count; i++) {
+                        result[i] = values[i] != c && !Double.isNaN(values[i]);
+                    }
+                }
+            }
+        }
+    }
+    
+    private record ColumnColumn(int left, Operator operator, int right) implements Node {
+        
+        @Override
+        public void evaluate(double[][] columns, int count, boolean[] result) {
+            double[] leftValues = columns[left];
+            double[] rightValues = columns[right];
+            for (int i = 0; i < count; i++) {
+                result[i] = operator.test(leftValues[i], rightValues[i]);
+            }
+        }
+    }
+    
+    private record Constant(boolean value) implements Node {
+        
+        @Override
+        public void evaluate(double[][] columns, int count, boolean[] result) {
+            for (int i = 0; i < count; i++) {
+                result[i] = value;
+            }
+        }
+    }
+    
+    private record Logical(Node left, Node right, boolean and) implements Node {
+        
+        @Override
+        public void evaluate(double[][] columns, int count, boolean[] result) {
+            left.evaluate(columns, count, result);
+            boolean[] other = new boolean[count];
+            right.evaluate(columns, count, other);
+            if (and) {
+                for (int i = 0; i < count; i++) {
+                    result[i] &= other[i];
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    result[i] |= other[i];
+                }
+            }
+        }
+    }
+    
+    /**
+     * Recursive descent parser: or := and ('||' and)*, and := term ('&&' term)*,
+     * term := '(' or ')' | operand operator operand.
+     */
+    private static class Parser {
+        
+        private final String expression;
+        private final List<String> columns;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Integer> positions = new ArrayList<>();
+        private final Set<Integer> operandColumns = new LinkedHashSet<>();
+        private int next;
+        
+        Parser(String expression, List<String> columns) {
+            this.expression = expression;
+            this.columns = columns;
+            tokenize();
+        }
+        
+        Node parseOr() {
+            Node node = parseAnd();
+            while ("||".equals(peek())) {
+                next++;
+                node = new Logical(node, parseAnd(), false);
+            }
+            return node;
+        }
+        
+        private Node parseAnd() {
+            Node node = parseTerm();
+            while ("&&".equals(peek())) {
+                next++;
+                node = new Logical(node, parseTerm(), true);
+            }
+            return node;
+        }
+        
+        private Node parseTerm() {
+            if ("(".equals(peek())) {
+                next++;
+                Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            
+            String left = operand();
+            String symbol = peek();
+            Operator operator = symbol == null ? null : Operator.of(symbol);
+            if (operator == null) {
+                throw error("Expected a comparison after '" + left + "'");
+            }
+            next++;
+            String right = operand();
+            
+            Double leftConstant = number(left);
+            Double rightConstant = number(right);
+            if (leftConstant != null && rightConstant != null) {
+                return new Constant(operator.test(leftConstant, rightConstant));
+            }
+            if (rightConstant != null) {
+                return new ColumnConstant(column(left), operator, rightConstant);
+            }
+            if (leftConstant != null) {
+                return new ColumnConstant(column(right), operator.flip(), leftConstant);
+            }
+            return new ColumnColumn(column(left), operator, column(right));
+        }
+        
+        private String operand() {
+            String token = peek();
+            if (token == null || !(Character.isLetterOrDigit(token.charAt(0)) || token.charAt(0) == '_'
+                    || token.charAt(0) == '-' || token.charAt(0) == '.')) {
+                throw error(token == null ? "Unexpected end of expression" : "Unexpected '" + token + "'");
+            }
+            next++;
+            return token;
+        }
+        
+        private void expect(String token) {
+            if (!token.equals(peek())) {
+                throw error("Expected '" + token + "'");
+            }
+            next++;
+        }
+        
+        String peek() {
+            return next < tokens.size() ? tokens.get(next) : null;
+        }
+        
+        IllegalArgumentException error(String message) {
+            int position = next < positions.size() ? positions.get(next) : expression.length();
+            return new IllegalArgumentException(message + " at position " + position + " of filter expression '"
+                    + expression + "'");
+        }
+        
+        private int column(String key) {
+            int index = columns.indexOf(key);
+            if (index < 0) {
+                columns.add(key);
+                index = columns.size() - 1;
+            }
+            operandColumns.add(index);
+            return index;
+        }
+        
+        private Double number(String token) {
+            char first = token.charAt(0);
+            if (!Character.isDigit(first) && first != '-' && first != '.') {
+                return null;
+            }
+            try {
+                return Double.parseDouble(token);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number '" + token + "' in filter expression '"
+                        + expression + "'");
+            }
+        }
+        
+        private void tokenize() {
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                    continue;
+                }
+                
+                int start = i;
+                if (Character.isLetterOrDigit(c) || c == '_' || c == '.'
+                        || (c == '-' && i + 1 < expression.length()
+                                && (Character.isDigit(expression.charAt(i + 1)) || expression.charAt(i + 1) == '.'))) {
+                    i++;
+                    while (i < expression.length()) {
+                        char d = expression.charAt(i);
+                        boolean exponentSign = (d == '-' || d == '+') && (expression.charAt(i - 1) == 'e'
+                                || expression.charAt(i - 1) == 'E') && Character.isDigit(expression.charAt(start));
+                        if (!Character.isLetterOrDigit(d) && d != '_' && d != '.' && !exponentSign) {
+                            break;
+                        }
+                        i++;
+                    }
+                } else if (i + 1 < expression.length() && isTwoCharacterToken(expression.substring(i, i + 2))) {
+                    i += 2;
+                } else if (c == '<' || c == '>' || c == '(' || c == ')') {
+                    i++;
+                } else {
+                    throw new IllegalArgumentException("Unexpected '" + c + "' at position " + i
+                            + " of filter expression '" + expression + "'");
+                }
+                tokens.add(expression.substring(start, i));
+                positions.add(start);
+            }
+        }
+        
+        private static boolean isTwoCharacterToken(String token) {
+            return switch (token) {
+                case "<=", ">=", "==", "!=", "&&", "||" -> true;
+                default -> false;
+            };
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.minhhn.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a gzip file that is not block-compressed. Such files cannot be indexed, so
+ * positions have no address.
+ */
+class GzipBlockReader implements BlockReader {
+    
+    private static final int CHUNK_SIZE = 256 * 1024;
+    
+    private final InputStream stream;
+    private final byte[] buffer = new byte[CHUNK_SIZE];
+    private int length;
+    
+    GzipBlockReader(Path path) throws IOException {
+        this.stream = new GZIPInputStream(Files.newInputStream(path), 64 * 1024);
+    }
+    
+    @Override
+    public boolean next() throws IOException {
+        length = stream.readNBytes(buffer, 0, buffer.length);
+        return length > 0;
+    }
+    
+    @Override
+    public byte[] data() {
+        return buffer;
+    }
+    
+    @Override
+    public int length() {
+        return length;
+    }
+    
+    @Override
+    public long addressOf(int position) {
+        return -1;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+}
@@ -0,0 +1,57 @@
+package com.minhhn.vcf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads an uncompressed file in large chunks through a file channel.
+ */
+class PlainBlockReader implements BlockReader {
+    
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+    private long chunkAddress;
+    private long nextAddress;
+    
+    PlainBlockReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+    
+    @Override
+    public boolean next() throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        chunkAddress = nextAddress;
+        nextAddress += buffer.position();
+        return buffer.position() > 0;
+    }
+    
+    @Override
+    public byte[] data() {
+        return buffer.array();
+    }
+    
+    @Override
+    public int length() {
+        return buffer.position();
+    }
+    
+    @Override
+    public long addressOf(int position) {
+        return chunkAddress + position;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
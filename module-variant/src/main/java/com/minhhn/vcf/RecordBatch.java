@@ -0,0 +1,114 @@
+package com.minhhn.vcf;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of records copied out of a reader, with the values of the keys a filter reads
+ * decoded into one column per key. Filters then run over whole columns instead of one
+ * record at a time.
+ */
+final class RecordBatch {
+    
+    private static final String QUAL = "QUAL";
+    
+    private final String[] infoKeys;
+    // Column of each INFO key, and of QUAL or -1
+    private final int[] infoColumns;
+    private final int qualColumn;
+    private final double[] infoValues;
+    
+    final double[][] columns;
+    final int[] starts;
+    final int[] filterStarts;
+    final int[] filterEnds;
+    final int[] ends;
+    final String[] chroms;
+    final long[] positions;
+    final long[] endPositions;
+    int count;
+    
+    // Grows to the size of the largest batch
+    private byte[] data = new byte[64 * 1024];
+    private int size;
+    
+    /**
+     * Creates an empty batch.
+     * 
+     * @param keys The keys to decode, INFO keys or {@code QUAL}
+     * @param capacity The maximum number of records
+     */
+    RecordBatch(List<String> keys, int capacity) {
+        qualColumn = keys.indexOf(QUAL);
+        int infoCount = qualColumn >= 0 ? keys.size() - 1 : keys.size();
+        infoKeys = new String[infoCount];
+        infoColumns = new int[infoCount];
+        int info = 0;
+        for (int column = 0; column < keys.size(); column++) {
+            if (column != qualColumn) {
+                infoKeys[info] = keys.get(column);
+                infoColumns[info++] = column;
+            }
+        }
+        infoValues = new double[infoCount];
+        
+        columns = new double[keys.size()][capacity];
+        starts = new int[capacity];
+        filterStarts = new int[capacity];
+        filterEnds = new int[capacity];
+        ends = new int[capacity];
+        chroms = new String[capacity];
+        positions = new long[capacity];
+        endPositions = new long[capacity];
+    }
+    
+    boolean isFull() {
+        return count == starts.length;
+    }
+    
+    byte[] data() {
+        return data;
+    }
+    
+    /**
+     * Copies a record into the batch and decodes its values.
+     * 
+     * @param record The record
+     * @param withLocus Whether to keep the locus of the record, needed to index it
+     */
+    void add(VcfRecord record, boolean withLocus) {
+        int lineStart = record.lineStart();
+        int length = record.lineEnd() - lineStart;
+        if (size + length > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+        }
+        System.arraycopy(record.buffer(), lineStart, data, size, length);
+        
+        int row = count++;
+        starts[row] = size;
+        filterStarts[row] = size + record.filterStart() - lineStart;
+        filterEnds[row] = size + record.filterEnd() - lineStart;
+        ends[row] = size + length;
+        size += length;
+        
+        if (infoKeys.length > 0) {
+            record.getInfoDoubles(infoKeys, infoValues);
+            for (int i = 0; i < infoKeys.length; i++) {
+                columns[infoColumns[i]][row] = infoValues[i];
+            }
+        }
+        if (qualColumn >= 0) {
+            columns[qualColumn][row] = record.getQual();
+        }
+        if (withLocus) {
+            chroms[row] = record.getChrom();
+            positions[row] = record.getPos();
+            endPositions[row] = record.getEnd();
+        }
+    }
+    
+    void clear() {
+        count = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,92 @@
+package com.minhhn.vcf;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A genomic region with 1-based, inclusive coordinates.
+ * 
+ * @param contig The contig
+ * @param start The first position
+ * @param end The last position
+ */
+public record Region(String contig, long start, long end) {
+    
+    /**
+     * Tells whether a record overlaps the region.
+     * 
+     * @param chrom The contig of the record
+     * @param pos The first position of the record
+     * @param recordEnd The last position of the record
+     * @return True if the record overlaps
+     */
+    public boolean overlaps(String chrom, long pos, long recordEnd) {
+        return contig.equals(chrom) && pos <= end && recordEnd >= start;
+    }
+    
+    /**
+     * Groups regions by contig, sorted by start and with overlapping regions merged.
+     * 
+     * @param regions The regions, or null for all positions
+     * @return The merged regions of each contig, or null if {@code regions} is null
+     */
+    static Map<String, List<Region>> mergeByContig(List<Region> regions) {
+        if (regions == null) {
+            return null;
+        }
+        Map<String, List<Region>> sorted = new LinkedHashMap<>();
+        for (Region region : regions) {
+            sorted.computeIfAbsent(region.contig(), contig -> new ArrayList<>()).add(region);
+        }
+        
+        Map<String, List<Region>> merged = new LinkedHashMap<>();
+        sorted.forEach((contig, contigRegions) -> {
+            contigRegions.sort(Comparator.comparingLong(Region::start));
+            List<Region> result = new ArrayList<>();
+            for (Region region : contigRegions) {
+                Region last = result.isEmpty() ? null : result.get(result.size() - 1);
+                if (last != null && region.start() <= last.end() + 1) {
+                    result.set(result.size() - 1, new Region(contig, last.start(), Math.max(last.end(), region.end())));
+                } else {
+                    result.add(region);
+                }
+            }
+            merged.put(contig, result);
+        });
+        return merged;
+    }
+    
+    /**
+     * Tells whether a record overlaps one of the merged, sorted regions of its contig.
+     * 
+     * @param regions The regions grouped by {@link #mergeByContig(List)}
+     * @param record The record
+     * @return True if the record overlaps one of the regions
+     */
+    static boolean overlapsAny(Map<String, List<Region>> regions, VcfRecord record) {
+        List<Region> contigRegions = regions.get(record.getChrom());
+        if (contigRegions == null) {
+            return false;
+        }
+        long pos = record.getPos();
+        long end = record.getEnd();
+        
+        // Last region starting at or before the end of the record; merged regions do not overlap
+        int low = 0;
+        int high = contigRegions.size() - 1;
+        int candidate = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (contigRegions.get(middle).start() <= end) {
+                candidate = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return candidate >= 0 && contigRegions.get(candidate).end() >= pos;
+    }
+}
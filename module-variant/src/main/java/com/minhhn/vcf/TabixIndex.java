@@ -0,0 +1,444 @@
+package com.minhhn.vcf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A tabix index of a BGZF-compressed VCF, compatible with {@code .tbi} files written by
+ * htslib and GATK. Records are assigned to the smallest of the UCSC hierarchical bins
+ * (512 Mb down to 16 kb) that contains them, each bin lists the chunks of virtual file
+ * offsets holding its records, and a linear index of 16 kb windows gives the lowest
+ * offset any record overlapping a window can start at. A region query therefore touches
+ * only a handful of blocks whatever the size of the file.
+ */
+public class TabixIndex {
+    
+    private static final byte[] MAGIC = {'T', 'B', 'I', 1};
+    private static final int FORMAT_VCF = 2;
+    private static final int LINEAR_SHIFT = 14;
+    
+    // Bins cover positions below 2^29, the longest contig the binning scheme can address
+    private static final int MAX_POSITION = 1 << 29;
+    
+    // Bin holding the metadata htslib appends to every contig, not records
+    private static final int PSEUDO_BIN = 37450;
+    
+    private final List<String> contigs;
+    private final Map<String, Integer> contigIds = new HashMap<>();
+    private final List<Map<Integer, List<Chunk>>> bins;
+    private final List<long[]> linearIndexes;
+    
+    /**
+     * A range of virtual file offsets, from the start of the first record to the end of
+     * the last.
+     * 
+     * @param start The virtual offset of the first record
+     * @param end The virtual offset just past the last record
+     */
+    public record Chunk(long start, long end) {
+    }
+    
+    private TabixIndex(List<String> contigs, List<Map<Integer, List<Chunk>>> bins, List<long[]> linearIndexes) {
+        this.contigs = List.copyOf(contigs);
+        this.bins = bins;
+        this.linearIndexes = linearIndexes;
+        for (int i = 0; i < contigs.size(); i++) {
+            contigIds.put(contigs.get(i), i);
+        }
+    }
+    
+    /**
+     * Indexes a BGZF-compressed VCF by reading it once.
+     * 
+     * @param vcf The VCF
+     * @return The index
+     * @throws IOException If the file cannot be read
+     * @throws IllegalArgumentException If the file is not BGZF-compressed or not sorted
+     */
+    public static TabixIndex build(Path vcf) throws IOException {
+        try (VcfReader reader = VcfReader.open(vcf)) {
+            if (!reader.isIndexable()) {
+                throw new IllegalArgumentException(vcf + " is not BGZF-compressed and cannot be indexed");
+            }
+            Builder builder = new Builder();
+            VcfRecord record = reader.getRecord();
+            while (reader.next()) {
+                builder.add(record.getChrom(), record.getPos(), record.getEnd(),
+                        record.getOffset(), reader.getAddress());
+            }
+            return builder.build();
+        }
+    }
+    
+    /**
+     * Reads a {@code .tbi} file.
+     * 
+     * @param path The index file
+     * @return The index
+     * @throws IOException If the file cannot be read or is not a tabix index
+     */
+    public static TabixIndex read(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path), 64 * 1024)) {
+            buffer = ByteBuffer.wrap(in.readAllBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(path + " is not a tabix index");
+            }
+            
+            int contigCount = buffer.getInt();
+            // Format, sequence/begin/end columns, meta character and skipped lines are fixed for VCF
+            buffer.position(buffer.position() + 6 * Integer.BYTES);
+            byte[] names = new byte[buffer.getInt()];
+            buffer.get(names);
+            List<String> contigs = new ArrayList<>();
+            int nameStart = 0;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] == 0) {
+                    contigs.add(new String(names, nameStart, i - nameStart, StandardCharsets.UTF_8));
+                    nameStart = i + 1;
+                }
+            }
+            if (contigs.size() != contigCount) {
+                throw new IOException(path + " names " + contigs.size() + " contigs instead of " + contigCount);
+            }
+            
+            List<Map<Integer, List<Chunk>>> bins = new ArrayList<>();
+            List<long[]> linearIndexes = new ArrayList<>();
+            for (int c = 0; c < contigCount; c++) {
+                Map<Integer, List<Chunk>> contigBins = new HashMap<>();
+                int binCount = buffer.getInt();
+                for (int b = 0; b < binCount; b++) {
+                    int bin = buffer.getInt();
+                    int chunkCount = buffer.getInt();
+                    List<Chunk> chunks = new ArrayList<>(chunkCount);
+                    for (int k = 0; k < chunkCount; k++) {
+                        chunks.add(new Chunk(buffer.getLong(), buffer.getLong()));
+                    }
+                    if (bin != PSEUDO_BIN) {
+                        contigBins.put(bin, chunks);
+                    }
+                }
+                long[] linear = new long[buffer.getInt()];
+                for (int w = 0; w < linear.length; w++) {
+                    linear[w] = buffer.getLong();
+                }
+                bins.add(contigBins);
+                linearIndexes.add(linear);
+            }
+            return new TabixIndex(contigs, bins, linearIndexes);
+        } catch (RuntimeException e) {
+            throw new IOException(path + " is not a valid tabix index: " + e, e);
+        }
+    }
+    
+    /**
+     * Writes the index as a BGZF-compressed {@code .tbi} file.
+     * 
+     * @param path The index file to create or replace
+     * @throws IOException If the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        for (String contig : contigs) {
+            names.write(contig.getBytes(StandardCharsets.UTF_8));
+            names.write(0);
+        }
+        
+        try (OutputStream out = BgzfOutputStream.create(path)) {
+            ByteBuffer header = ByteBuffer.allocate(9 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC)
+                    .putInt(contigs.size())
+                    .putInt(FORMAT_VCF)
+                    .putInt(1)      // sequence column
+                    .putInt(2)      // begin column
+                    .putInt(0)      // end column, derived from REF and INFO END
+                    .putInt('#')    // meta character
+                    .putInt(0)      // skipped lines
+                    .putInt(names.size());
+            out.write(header.array());
+            names.writeTo(out);
+            
+            for (int c = 0; c < contigs.size(); c++) {
+                Map<Integer, List<Chunk>> contigBins = bins.get(c);
+                long[] linear = linearIndexes.get(c);
+                int size = Integer.BYTES;
+                for (List<Chunk> chunks : contigBins.values()) {
+                    size += 2 * Integer.BYTES + chunks.size() * 2 * Long.BYTES;
+                }
+                size += Integer.BYTES + linear.length * Long.BYTES;
+                
+                ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(contigBins.size());
+                for (Map.Entry<Integer, List<Chunk>> bin : new TreeMap<>(contigBins).entrySet()) {
+                    buffer.putInt(bin.getKey()).putInt(bin.getValue().size());
+                    for (Chunk chunk : bin.getValue()) {
+                        buffer.putLong(chunk.start()).putLong(chunk.end());
+                    }
+                }
+                buffer.putInt(linear.length);
+                for (long offset : linear) {
+                    buffer.putLong(offset);
+                }
+                out.write(buffer.array());
+            }
+        }
+    }
+    
+    public List<String> getContigs() {
+        return contigs;
+    }
+    
+    /**
+     * Gets the chunks of the file that may hold records overlapping a region, sorted and
+     * with overlapping chunks merged.
+     * 
+     * @param contig The contig
+     * @param start The first position of the region, 1-based
+     * @param end The last position of the region, inclusive
+     * @return The chunks to read, empty if the contig has no records
+     */
+    public List<Chunk> chunks(String contig, long start, long end) {
+        Integer contigId = contigIds.get(contig);
+        if (contigId == null || end < start) {
+            return List.of();
+        }
+        int begin = (int) Math.max(0, Math.min(start - 1, MAX_POSITION - 1));
+        int stop = (int) Math.min(end, MAX_POSITION);
+        
+        // Chunks ending before the first record that can overlap the region are skipped
+        long[] linear = linearIndexes.get(contigId);
+        long minOffset = 0;
+        if (linear.length > 0) {
+            minOffset = linear[Math.min(begin >> LINEAR_SHIFT, linear.length - 1)];
+        }
+        
+        Map<Integer, List<Chunk>> contigBins = bins.get(contigId);
+        List<Chunk> candidates = new ArrayList<>();
+        for (int bin : regionToBins(begin, stop)) {
+            for (Chunk chunk : contigBins.getOrDefault(bin, List.of())) {
+                if (chunk.end() > minOffset) {
+                    candidates.add(chunk);
+                }
+            }
+        }
+        candidates.sort((a, b) -> Long.compareUnsigned(a.start(), b.start()));
+        
+        List<Chunk> merged = new ArrayList<>();
+        for (Chunk chunk : candidates) {
+            Chunk last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && chunk.start() <= last.end()) {
+                merged.set(merged.size() - 1, new Chunk(last.start(), Math.max(last.end(), chunk.end())));
+            } else {
+                merged.add(new Chunk(Math.max(chunk.start(), minOffset), chunk.end()));
+            }
+        }
+        return merged;
+    }
+    
+    /**
+     * Gets the smallest bin that contains a region.
+     * 
+     * @param begin The 0-based start of the region
+     * @param end The 0-based end of the region, exclusive
+     * @return The bin number
+     */
+    static int regionToBin(int begin, int end) {
+        end--;
+        if (begin >> 14 == end >> 14) {
+            return ((1 << 15) - 1) / 7 + (begin >> 14);
+        }
+        if (begin >> 17 == end >> 17) {
+            return ((1 << 12) - 1) / 7 + (begin >> 17);
+        }
+        if (begin >> 20 == end >> 20) {
+            return ((1 << 9) - 1) / 7 + (begin >> 20);
+        }
+        if (begin >> 23 == end >> 23) {
+            return ((1 << 6) - 1) / 7 + (begin >> 23);
+        }
+        if (begin >> 26 == end >> 26) {
+            return ((1 << 3) - 1) / 7 + (begin >> 26);
+        }
+        return 0;
+    }
+    
+    /**
+     * Gets every bin that may hold records overlapping a region.
+     * 
+     * @param begin The 0-based start of the region
+     * @param end The 0-based end of the region, exclusive
+     * @return The bin numbers
+     */
+    static List<Integer> regionToBins(int begin, int end) {
+        end--;
+        List<Integer> result = new ArrayList<>();
+        result.add(0);
+        int[] offsets = {1, 9, 73, 585, 4681};
+        int[] shifts = {26, 23, 20, 17, 14};
+        for (int level = 0; level < shifts.length; level++) {
+            int first = offsets[level] + (begin >> shifts[level]);
+            int last = offsets[level] + (end >> shifts[level]);
+            for (int bin = first; bin <= last; bin++) {
+                result.add(bin);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Collects the records of a sorted file in file order into an index.
+     */
+    public static class Builder {
+        
+        private final List<String> contigs = new ArrayList<>();
+        private final List<Map<Integer, List<Chunk>>> bins = new ArrayList<>();
+        private final List<long[]> linearIndexes = new ArrayList<>();
+        
+        private Map<Integer, List<Chunk>> currentBins;
+        private long[] linear = new long[0];
+        private String currentContig;
+        private long lastPos;
+        
+        /**
+         * Adds a record.
+         * 
+         * @param contig The contig of the record
+         * @param pos The 1-based position of the record
+         * @param end The last position covered by the record, inclusive
+         * @param startAddress The virtual offset of the record
+         * @param endAddress The virtual offset just past the record
+         * @throws IllegalArgumentException If the record is out of order
+         */
+        public void add(String contig, long pos, long end, long startAddress, long endAddress) {
+            if (!contig.equals(currentContig)) {
+                if (contigs.contains(contig)) {
+                    throw new IllegalArgumentException("Records of " + contig
+                            + " are not contiguous, file is not sorted");
+                }
+                finishContig();
+                currentContig = contig;
+                currentBins = new HashMap<>();
+                linear = new long[0];
+                lastPos = 0;
+                contigs.add(contig);
+            }
+            if (pos < lastPos) {
+                throw new IllegalArgumentException("Record at " + contig + ":" + pos + " follows position " + lastPos
+                        + ", file is not sorted");
+            }
+            lastPos = pos;
+            
+            int begin = (int) Math.min(pos - 1, MAX_POSITION - 1);
+            int stop = (int) Math.min(Math.max(end, pos), MAX_POSITION);
+            
+            // Extend the last chunk of the bin if this record directly follows it
+            List<Chunk> chunks = currentBins.computeIfAbsent(regionToBin(begin, stop), bin -> new ArrayList<>());
+            Chunk last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (last != null && last.end() == startAddress) {
+                chunks.set(chunks.size() - 1, new Chunk(last.start(), endAddress));
+            } else {
+                chunks.add(new Chunk(startAddress, endAddress));
+            }
+            
+            int lastWindow = (stop - 1) >> LINEAR_SHIFT;
+            if (lastWindow >= linear.length) {
+                int oldLength = linear.length;
+                linear = Arrays.copyOf(linear, Math.max(lastWindow + 1, oldLength * 2));
+                Arrays.fill(linear, oldLength, linear.length, -1);
+            }
+            for (int window = begin >> LINEAR_SHIFT; window <= lastWindow; window++) {
+                if (linear[window] == -1) {
+                    linear[window] = startAddress;
+                }
+            }
+        }
+        
+        /**
+         * Adds the contigs of an index of a file part that was compressed on its own and
+         * appended to this file, moving its offsets to where the part starts.
+         * 
+         * @param part The index of the part
+         * @param blockOffset The file offset the part starts at in this file
+         * @throws IllegalArgumentException If a contig of the part was already added
+         */
+        public void append(TabixIndex part, long blockOffset) {
+            finishContig();
+            currentContig = null;
+            
+            long shift = blockOffset << 16;
+            for (int i = 0; i < part.contigs.size(); i++) {
+                String contig = part.contigs.get(i);
+                if (contigs.contains(contig)) {
+                    throw new IllegalArgumentException("Records of " + contig
+                            + " are not contiguous, file is not sorted");
+                }
+                
+                Map<Integer, List<Chunk>> shiftedBins = new HashMap<>();
+                part.bins.get(i).forEach((bin, chunks) -> shiftedBins.put(bin, chunks.stream()
+                        .map(chunk -> new Chunk(chunk.start() + shift, chunk.end() + shift))
+                        .toList()));
+                long[] shiftedLinear = part.linearIndexes.get(i).clone();
+                for (int window = 0; window < shiftedLinear.length; window++) {
+                    shiftedLinear[window] += shift;
+                }
+                
+                contigs.add(contig);
+                bins.add(shiftedBins);
+                linearIndexes.add(shiftedLinear);
+            }
+        }
+        
+        /**
+         * Finishes the index.
+         * 
+         * @return The index of the added records
+         */
+        public TabixIndex build() {
+            finishContig();
+            currentContig = null;
+            return new TabixIndex(contigs, bins, linearIndexes);
+        }
+        
+        private void finishContig() {
+            if (currentContig == null) {
+                return;
+            }
+            
+            // Trim unused windows and give empty windows the offset of the window before them
+            int used = linear.length;
+            while (used > 0 && linear[used - 1] == -1) {
+                used--;
+            }
+            long[] trimmed = Arrays.copyOf(linear, used);
+            long previous = 0;
+            for (int window = 0; window < trimmed.length; window++) {
+                if (trimmed[window] == -1) {
+                    trimmed[window] = previous;
+                } else {
+                    previous = trimmed[window];
+                }
+            }
+            bins.add(currentBins);
+            linearIndexes.add(trimmed);
+        }
+    }
+}
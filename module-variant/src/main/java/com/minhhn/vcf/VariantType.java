@@ -0,0 +1,20 @@
+package com.minhhn.vcf;
+
+/**
+ * Type of a variant record, determined from its REF and ALT alleles the way GATK
+ * SelectVariants does for {@code --select-type}.
+ */
+public enum VariantType {
+    // Every alternate allele is a single base replacing a single base
+    SNP,
+    // Every alternate allele replaces several bases with as many other bases
+    MNP,
+    // Every alternate allele is shorter or longer than the reference
+    INDEL,
+    // Alternate alleles of different types
+    MIXED,
+    // Structural alleles such as <DEL> or breakends
+    SYMBOLIC,
+    // No alternate allele, or only the spanning deletion *
+    NO_VARIATION
+}
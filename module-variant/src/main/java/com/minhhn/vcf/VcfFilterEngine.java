@@ -0,0 +1,440 @@
+package com.minhhn.vcf;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Applies hard filters to a VCF in one streaming pass, the way GATK VariantFiltration
+ * does: every record is written with the names of the filters it fails in FILTER, or
+ * PASS. Records are read in batches, the values the filters need are decoded into
+ * columns, and each compiled filter runs over whole columns. A block-compressed, indexed
+ * input is processed one contig per task in parallel; the compressed parts are
+ * concatenated and indexed without compressing anything twice.
+ */
+public class VcfFilterEngine {
+    
+    // Default level of htsjdk, which GATK writes its VCFs with
+    private static final int COMPRESSION_LEVEL = 5;
+    private static final String INDEX_EXTENSION = ".tbi";
+    private static final byte[] PASS = "PASS".getBytes(StandardCharsets.ISO_8859_1);
+    
+    private final List<Filter> filters;
+    private final List<FilterExpression> expressions = new ArrayList<>();
+    private final List<String> columns = new ArrayList<>();
+    private final byte[][] filterNames;
+    private final int batchSize;
+    
+    /**
+     * A named filter; records matching the expression fail it.
+     * 
+     * @param name The name written to FILTER
+     * @param expression The filter expression, e.g. {@code QD < 2.0}
+     */
+    public record Filter(String name, String expression) {
+    }
+    
+    /**
+     * Counts of a filter run.
+     * 
+     * @param records The number of records written
+     * @param filtered The number of records failing at least one filter
+     * @param failures The number of records failing each filter, by filter name
+     */
+    public record Result(long records, long filtered, Map<String, Long> failures) {
+    }
+    
+    /**
+     * Compiles the filters.
+     * 
+     * @param filters The filters, applied in this order
+     * @param batchSize The number of records evaluated together
+     * @throws IllegalArgumentException If a name or an expression is not valid
+     */
+    public VcfFilterEngine(List<Filter> filters, int batchSize) {
+        this.filters = List.copyOf(filters);
+        this.batchSize = Math.max(1, batchSize);
+        this.filterNames = new byte[filters.size()][];
+        for (int i = 0; i < filters.size(); i++) {
+            Filter filter = filters.get(i);
+            String name = filter.name();
+            if (name == null || name.isEmpty() || name.equals("PASS") || name.equals(".")
+                    || name.chars().anyMatch(c -> c == ';' || Character.isWhitespace(c))) {
+                throw new IllegalArgumentException("Invalid filter name '" + name + "'");
+            }
+            expressions.add(FilterExpression.compile(filter.expression(), columns));
+            filterNames[i] = name.getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+    
+    /**
+     * Filters a VCF. A {@code .gz} output is block-compressed and gets a tabix index.
+     * When filtering fails or the calling thread is interrupted, the tasks are stopped
+     * and neither the output nor its index is left behind.
+     * 
+     * @param input The VCF to filter
+     * @param output The filtered VCF
+     * @param regions The regions to keep, or null to keep every record
+     * @param parallelism The maximum number of contigs processed at the same time
+     * @return The counts of the run
+     * @throws IOException If the input cannot be read or the output cannot be written
+     * @throws VcfFormatException If the input is not a valid VCF
+     */
+    public Result filter(Path input, Path output, List<Region> regions, int parallelism) throws IOException {
+        VcfHeader header;
+        boolean indexable;
+        try (VcfReader reader = VcfReader.open(input)) {
+            header = reader.getHeader();
+            indexable = reader.isIndexable();
+        }
+        boolean compressed = output.getFileName().toString().endsWith(".gz");
+        Map<String, List<Region>> regionsByContig = Region.mergeByContig(regions);
+        
+        // One task per contig of an indexed input, a single sequential task otherwise
+        List<PartTask> tasks = new ArrayList<>();
+        if (indexable) {
+            TabixIndex index = loadIndex(input);
+            for (String contig : index.getContigs()) {
+                if (regionsByContig == null || regionsByContig.containsKey(contig)) {
+                    List<Region> queries = regionsByContig == null
+                            ? List.of(new Region(contig, 1, Long.MAX_VALUE))
+                            : regionsByContig.get(contig);
+                    tasks.add(new PartTask(input, partPath(output, tasks.size()), index, contig, queries,
+                            null, compressed));
+                }
+            }
+        } else {
+            tasks.add(new PartTask(input, partPath(output, 0), null, null, null, regionsByContig, compressed));
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, tasks.size())),
+                Thread.ofPlatform().name("vcf-filter-", 0).daemon().factory());
+        boolean completed = false;
+        try {
+            List<Future<Part>> futures = new ArrayList<>();
+            for (PartTask task : tasks) {
+                futures.add(executor.submit(() -> filterPart(task)));
+            }
+            Result result = concatenate(header, futures, output, compressed);
+            completed = true;
+            return result;
+        } finally {
+            // Parts are only deleted once no task can write them any more
+            executor.shutdownNow();
+            executor.close();
+            for (PartTask task : tasks) {
+                Files.deleteIfExists(task.path());
+            }
+            if (!completed) {
+                // A partial output must not pass for a result
+                Files.deleteIfExists(output);
+                Files.deleteIfExists(Path.of(output + INDEX_EXTENSION));
+            }
+        }
+    }
+    
+    /**
+     * Writes the header and appends every part in order as soon as it is finished, so
+     * the parts of the first contigs are copied while the last ones are still filtered.
+     */
+    private Result concatenate(VcfHeader header, List<Future<Part>> futures, Path output, boolean compressed)
+            throws IOException {
+        TabixIndex.Builder indexBuilder = compressed ? new TabixIndex.Builder() : null;
+        long records = 0;
+        long filtered = 0;
+        long[] failures = new long[filters.size()];
+        
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            byte[] headerBytes = headerText(header).getBytes(StandardCharsets.ISO_8859_1);
+            if (compressed) {
+                ByteArrayOutputStream block = new ByteArrayOutputStream();
+                try (BgzfOutputStream bgzf = new BgzfOutputStream(block, COMPRESSION_LEVEL, false)) {
+                    bgzf.write(headerBytes);
+                }
+                headerBytes = block.toByteArray();
+            }
+            writeFully(out, ByteBuffer.wrap(headerBytes));
+            
+            for (Future<Part> future : futures) {
+                Part part = await(future);
+                long partOffset = out.position();
+                try (FileChannel in = FileChannel.open(part.path(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long copied = 0;
+                    while (copied < size) {
+                        copied += in.transferTo(copied, size - copied, out);
+                    }
+                }
+                Files.delete(part.path());
+                
+                if (indexBuilder != null) {
+                    indexBuilder.append(part.index(), partOffset);
+                }
+                records += part.records();
+                filtered += part.filtered();
+                for (int i = 0; i < failures.length; i++) {
+                    failures[i] += part.failures()[i];
+                }
+            }
+            
+            if (compressed) {
+                writeFully(out, ByteBuffer.wrap(BgzfOutputStream.EOF_BLOCK));
+            }
+        }
+        
+        if (indexBuilder != null) {
+            indexBuilder.build().write(Path.of(output + INDEX_EXTENSION));
+        }
+        
+        Map<String, Long> failuresByName = new LinkedHashMap<>();
+        for (int i = 0; i < failures.length; i++) {
+            failuresByName.merge(filters.get(i).name(), failures[i], Long::sum);
+        }
+        return new Result(records, filtered, failuresByName);
+    }
+    
+    private Part filterPart(PartTask task) throws IOException {
+        RecordBatch batch = new RecordBatch(columns, batchSize);
+        boolean[][] failed = new boolean[filters.size()][batchSize];
+        PartWriter writer = new PartWriter(task.path(), task.compressed());
+        
+        try (VcfReader reader = VcfReader.open(task.input()); writer) {
+            VcfRecord record = reader.getRecord();
+            if (task.index() != null) {
+                // Regions are merged, but a long record can still overlap two of them
+                long lastOffset = -1;
+                for (Region query : task.queries()) {
+                    reader.query(task.index(), task.contig(), query.start(), query.end());
+                    while (reader.next()) {
+                        if (lastOffset >= 0 && Long.compareUnsigned(record.getOffset(), lastOffset) <= 0) {
+                            continue;
+                        }
+                        lastOffset = record.getOffset();
+                        add(batch, record, failed, writer);
+                    }
+                }
+            } else {
+                while (reader.next()) {
+                    if (task.regions() == null || Region.overlapsAny(task.regions(), record)) {
+                        add(batch, record, failed, writer);
+                    }
+                }
+            }
+            if (batch.count > 0) {
+                writeBatch(batch, failed, writer);
+            }
+        }
+        return writer.toPart();
+    }
+    
+    private void add(RecordBatch batch, VcfRecord record, boolean[][] failed, PartWriter writer) throws IOException {
+        batch.add(record, writer.indexBuilder != null);
+        if (batch.isFull()) {
+            writeBatch(batch, failed, writer);
+        }
+    }
+    
+    private void writeBatch(RecordBatch batch, boolean[][] failed, PartWriter writer) throws IOException {
+        // Stops the task between batches once the run is cancelled or another task failed
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Filtering of " + writer.path + " was interrupted");
+        }
+        int count = batch.count;
+        for (int i = 0; i < expressions.size(); i++) {
+            expressions.get(i).evaluate(batch.columns, count, failed[i]);
+        }
+        
+        byte[] data = batch.data();
+        OutputStream out = writer.out;
+        for (int row = 0; row < count; row++) {
+            long startAddress = writer.address();
+            int start = batch.starts[row];
+            int filterStart = batch.filterStarts[row];
+            int filterEnd = batch.filterEnds[row];
+            out.write(data, start, filterStart - start);
+            writeFilter(out, data, filterStart, filterEnd, failed, row, writer);
+            out.write(data, filterEnd, batch.ends[row] - filterEnd);
+            out.write('\n');
+            
+            if (writer.indexBuilder != null) {
+                writer.indexBuilder.add(batch.chroms[row], batch.positions[row], batch.endPositions[row],
+                        startAddress, writer.address());
+            }
+        }
+        writer.records += count;
+        batch.clear();
+    }
+    
+    /**
+     * Writes the new FILTER of a record: filters it already failed are kept, and the
+     * failed filters are added to them, or PASS if there are none.
+     */
+    private void writeFilter(OutputStream out, byte[] data, int filterStart, int filterEnd, boolean[][] failed,
+                             int row, PartWriter writer) throws IOException {
+        boolean unfiltered = (filterEnd - filterStart == 1 && data[filterStart] == '.')
+                || Bytes.equals(data, filterStart, filterEnd, "PASS");
+        List<String> existing = unfiltered ? List.of()
+                : Arrays.asList(Bytes.toString(data, filterStart, filterEnd).split(";"));
+        if (!unfiltered) {
+            out.write(data, filterStart, filterEnd - filterStart);
+        }
+        
+        boolean written = !unfiltered;
+        boolean anyFailed = false;
+        for (int i = 0; i < filterNames.length; i++) {
+            if (!failed[i][row]) {
+                continue;
+            }
+            anyFailed = true;
+            writer.failures[i]++;
+            if (existing.contains(filters.get(i).name())) {
+                continue;
+            }
+            if (written) {
+                out.write(';');
+            }
+            out.write(filterNames[i]);
+            written = true;
+        }
+        if (anyFailed) {
+            writer.filtered++;
+        }
+        if (!written) {
+            out.write(PASS);
+        }
+    }
+    
+    /**
+     * Gets the header of the output: the input header with a FILTER line for every filter
+     * it does not declare yet.
+     */
+    private String headerText(VcfHeader header) {
+        List<String> declared = header.getIds("FILTER");
+        List<String> lines = new ArrayList<>(header.getMetaLines());
+        int insertAt = lines.size();
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            if (lines.get(i).startsWith("FILTER=")) {
+                insertAt = i + 1;
+                break;
+            }
+        }
+        for (Filter filter : filters) {
+            if (!declared.contains(filter.name())) {
+                lines.add(insertAt++, "FILTER=<ID=" + filter.name() + ",Description=\""
+                        + filter.expression().replace("\"", "\\\"") + "\">");
+                declared = new ArrayList<>(declared);
+                declared.add(filter.name());
+            }
+        }
+        
+        StringBuilder text = new StringBuilder();
+        lines.forEach(line -> text.append("##").append(line).append('\n'));
+        return text.append(header.getColumnLine()).append('\n').toString();
+    }
+    
+    private TabixIndex loadIndex(Path input) throws IOException {
+        Path indexPath = Path.of(input + INDEX_EXTENSION);
+        if (Files.isReadable(indexPath) && Files.size(indexPath) > 0
+                && Files.getLastModifiedTime(indexPath).compareTo(Files.getLastModifiedTime(input)) >= 0) {
+            return TabixIndex.read(indexPath);
+        }
+        // Costs an extra pass, but GATK indexes its outputs, so this is the exception
+        return TabixIndex.build(input);
+    }
+    
+    private static Path partPath(Path output, int index) {
+        return output.resolveSibling(output.getFileName() + ".part" + index);
+    }
+    
+    private static Part await(Future<Part> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while filtering", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new UncheckedIOException(new IOException(cause));
+        }
+    }
+    
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+    
+    private record PartTask(Path input, Path path, TabixIndex index, String contig, List<Region> queries,
+                            Map<String, List<Region>> regions, boolean compressed) {
+    }
+    
+    private record Part(Path path, TabixIndex index, long records, long filtered, long[] failures) {
+    }
+    
+    /**
+     * The output of one task: a compressed part without EOF block and its index, with
+     * addresses relative to the start of the part, or plain text.
+     */
+    private class PartWriter implements AutoCloseable {
+        
+        private final Path path;
+        private final BgzfOutputStream bgzf;
+        private final OutputStream out;
+        private final TabixIndex.Builder indexBuilder;
+        private final long[] failures = new long[filters.size()];
+        private long records;
+        private long filtered;
+        
+        PartWriter(Path path, boolean compressed) throws IOException {
+            this.path = path;
+            OutputStream file = Files.newOutputStream(path);
+            if (compressed) {
+                bgzf = new BgzfOutputStream(file, COMPRESSION_LEVEL, false);
+                out = bgzf;
+                indexBuilder = new TabixIndex.Builder();
+            } else {
+                bgzf = null;
+                out = new BufferedOutputStream(file, 256 * 1024);
+                indexBuilder = null;
+            }
+        }
+        
+        long address() {
+            return bgzf != null ? bgzf.getAddress() : -1;
+        }
+        
+        Part toPart() {
+            return new Part(path, indexBuilder != null ? indexBuilder.build() : null, records, filtered, failures);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
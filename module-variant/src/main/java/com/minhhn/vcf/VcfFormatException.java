@@ -0,0 +1,11 @@
+package com.minhhn.vcf;
+
+/**
+ * Exception thrown when a VCF line cannot be parsed.
+ */
+public class VcfFormatException extends RuntimeException {
+    
+    public VcfFormatException(String message) {
+        super(message);
+    }
+}
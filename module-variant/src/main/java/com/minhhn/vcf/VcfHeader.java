@@ -0,0 +1,64 @@
+package com.minhhn.vcf;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The header of a VCF: its meta-information lines and the sample columns.
+ */
+@Getter
+public class VcfHeader {
+    
+    // The ## lines, without the leading ##
+    private final List<String> metaLines;
+    
+    // The #CHROM line as written, needed to write a VCF with the same columns
+    private final String columnLine;
+    
+    private final List<String> sampleNames;
+    
+    VcfHeader(List<String> metaLines, String columnLine) {
+        this.metaLines = List.copyOf(metaLines);
+        this.columnLine = columnLine;
+        
+        // Samples follow the eight fixed columns and FORMAT
+        String[] columns = columnLine.split("\t");
+        List<String> samples = new ArrayList<>();
+        for (int i = 9; i < columns.length; i++) {
+            samples.add(columns[i]);
+        }
+        this.sampleNames = List.copyOf(samples);
+    }
+    
+    /**
+     * Gets the values of the meta-information lines with a key, such as the IDs of the
+     * contigs for {@code contig}.
+     * 
+     * @param key The key, e.g. {@code INFO}, {@code FILTER} or {@code contig}
+     * @return The value of the ID attribute of every line with the key, in file order
+     */
+    public List<String> getIds(String key) {
+        String prefix = key + "=<ID=";
+        List<String> ids = new ArrayList<>();
+        for (String line : metaLines) {
+            if (line.startsWith(prefix)) {
+                int end = line.indexOf(',', prefix.length());
+                ids.add(line.substring(prefix.length(), end >= 0 ? end : line.length() - 1));
+            }
+        }
+        return ids;
+    }
+    
+    /**
+     * Gets the header as written in the file, ending with the #CHROM line.
+     * 
+     * @return The header lines, each terminated by a newline
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        metaLines.forEach(line -> text.append("##").append(line).append('\n'));
+        return text.append(columnLine).append('\n').toString();
+    }
+}
@@ -0,0 +1,284 @@
+package com.minhhn.vcf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams the records of a {@code .vcf}, {@code .vcf.gz} (BGZF) or plain gzip VCF with
+ * constant memory. Lines are located directly in the decompressed blocks and only lines
+ * that cross a block boundary are copied, and the same {@link VcfRecord} is refilled for
+ * every line.
+ * <pre>
+ * try (VcfReader reader = VcfReader.open(path)) {
+ *     VcfRecord record = reader.getRecord();
+ *     while (reader.next()) {
+ *         ... record.getChrom(), record.getPos(), record.getInfoDouble("DP") ...
+ *     }
+ * }
+ * </pre>
+ */
+public class VcfReader implements Closeable {
+    
+    private final BlockReader blocks;
+    private final VcfRecord record = new VcfRecord();
+    private final VcfHeader header;
+    
+    private byte[] block;
+    private int position;
+    private int limit;
+    
+    // Holds lines that cross a block boundary
+    private byte[] carry = new byte[16 * 1024];
+    
+    private byte[] lineBuffer;
+    private int lineStart;
+    private int lineEnd;
+    private long lineAddress;
+    private long lineNumber;
+    
+    // Region being queried and the chunks of the file still to read for it
+    private String regionContig;
+    private long regionStart;
+    private long regionEnd;
+    private List<TabixIndex.Chunk> chunks = List.of();
+    private int nextChunk;
+    private long chunkEnd;
+    
+    private VcfReader(BlockReader blocks) throws IOException {
+        this.blocks = blocks;
+        this.header = readHeader();
+    }
+    
+    /**
+     * Opens a VCF and reads its header. The compression is detected from the content.
+     * 
+     * @param path The VCF file
+     * @return The reader, positioned before the first record
+     * @throws IOException If the file cannot be read
+     * @throws VcfFormatException If the file has no #CHROM line
+     */
+    public static VcfReader open(Path path) throws IOException {
+        byte[] head = new byte[18];
+        int length;
+        try (InputStream in = Files.newInputStream(path)) {
+            length = in.readNBytes(head, 0, head.length);
+        }
+        
+        BlockReader blocks;
+        if (BgzfBlockReader.isBgzf(head, length)) {
+            blocks = new BgzfBlockReader(path);
+        } else if (length >= 2 && (head[0] & 0xff) == 31 && (head[1] & 0xff) == 139) {
+            blocks = new GzipBlockReader(path);
+        } else {
+            blocks = new PlainBlockReader(path);
+        }
+        
+        try {
+            return new VcfReader(blocks);
+        } catch (IOException | RuntimeException e) {
+            blocks.close();
+            throw e;
+        }
+    }
+    
+    public VcfHeader getHeader() {
+        return header;
+    }
+    
+    /**
+     * Gets the record that every call to {@link #next()} refills.
+     * 
+     * @return The reused record
+     */
+    public VcfRecord getRecord() {
+        return record;
+    }
+    
+    /**
+     * Reads the next record into {@link #getRecord()}. Empty lines are skipped.
+     * 
+     * @return False at the end of the file
+     * @throws IOException If the file cannot be read
+     * @throws VcfFormatException If the line is not a valid record
+     */
+    public boolean next() throws IOException {
+        if (regionContig != null) {
+            return nextInRegion();
+        }
+        while (readLine()) {
+            if (lineEnd > lineStart) {
+                record.parse(lineBuffer, lineStart, lineEnd, lineAddress, lineNumber);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Restricts the reader to the records overlapping a region. Following calls to
+     * {@link #next()} seek straight to the blocks the index lists for the region and stop
+     * after its last record.
+     * 
+     * @param index The index of this file
+     * @param contig The contig of the region
+     * @param start The first position of the region, 1-based
+     * @param end The last position of the region, inclusive
+     * @throws IllegalStateException If the file is not BGZF-compressed
+     */
+    public void query(TabixIndex index, String contig, long start, long end) {
+        if (!isIndexable()) {
+            throw new IllegalStateException("Only BGZF-compressed files can be queried by region");
+        }
+        regionContig = contig;
+        regionStart = start;
+        regionEnd = end;
+        chunks = index.chunks(contig, start, end);
+        nextChunk = 0;
+        chunkEnd = -1;
+    }
+    
+    /**
+     * Tells whether the file is BGZF-compressed, so that it can be indexed and queried.
+     * 
+     * @return True for BGZF files
+     */
+    public boolean isIndexable() {
+        return blocks instanceof BgzfBlockReader;
+    }
+    
+    /**
+     * Gets the index address just past the current record, where the next one starts.
+     * 
+     * @return The address, or -1 if the file cannot be indexed
+     */
+    public long getAddress() {
+        return blocks.addressOf(position);
+    }
+    
+    public long getLineNumber() {
+        return lineNumber;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        blocks.close();
+    }
+    
+    private boolean nextInRegion() throws IOException {
+        while (true) {
+            if (chunkEnd == -1 || getAddress() >= chunkEnd) {
+                if (nextChunk == chunks.size()) {
+                    return false;
+                }
+                TabixIndex.Chunk chunk = chunks.get(nextChunk++);
+                if (chunkEnd == -1 || getAddress() != chunk.start()) {
+                    seek(chunk.start());
+                }
+                chunkEnd = chunk.end();
+            }
+            
+            if (!readLine()) {
+                return false;
+            }
+            if (lineEnd == lineStart) {
+                continue;
+            }
+            record.parse(lineBuffer, lineStart, lineEnd, lineAddress, lineNumber);
+            
+            // Chunks are in file order and the file is sorted, so nothing further can overlap
+            if (!record.getChrom().equals(regionContig) || record.getPos() > regionEnd) {
+                return false;
+            }
+            if (record.getEnd() >= regionStart) {
+                return true;
+            }
+        }
+    }
+    
+    private void seek(long address) throws IOException {
+        BgzfBlockReader bgzf = (BgzfBlockReader) blocks;
+        int offset = bgzf.seek(address);
+        block = bgzf.data();
+        limit = bgzf.length();
+        position = Math.min(offset, limit);
+    }
+    
+    private VcfHeader readHeader() throws IOException {
+        List<String> metaLines = new ArrayList<>();
+        while (readLine()) {
+            if (lineEnd - lineStart >= 2 && lineBuffer[lineStart] == '#' && lineBuffer[lineStart + 1] == '#') {
+                metaLines.add(Bytes.toString(lineBuffer, lineStart + 2, lineEnd));
+            } else if (lineEnd > lineStart && lineBuffer[lineStart] == '#') {
+                return new VcfHeader(metaLines, Bytes.toString(lineBuffer, lineStart, lineEnd));
+            } else if (lineEnd > lineStart) {
+                break;
+            }
+        }
+        throw new VcfFormatException("VCF has no #CHROM header line");
+    }
+    
+    private boolean readLine() throws IOException {
+        if (position >= limit && !nextBlock()) {
+            return false;
+        }
+        lineAddress = blocks.addressOf(position);
+        lineNumber++;
+        
+        int newline = Bytes.indexOf(block, position, limit, (byte) '\n');
+        if (newline < limit) {
+            // The common case: the whole line is in the current block
+            lineBuffer = block;
+            lineStart = position;
+            lineEnd = newline;
+            position = newline + 1;
+        } else {
+            int carried = 0;
+            while (true) {
+                carried = append(carried, position, newline);
+                if (newline < limit) {
+                    position = newline + 1;
+                    break;
+                }
+                position = limit;
+                if (!nextBlock()) {
+                    // Last line without a terminator
+                    break;
+                }
+                newline = Bytes.indexOf(block, position, limit, (byte) '\n');
+            }
+            lineBuffer = carry;
+            lineStart = 0;
+            lineEnd = carried;
+        }
+        
+        if (lineEnd > lineStart && lineBuffer[lineEnd - 1] == '\r') {
+            lineEnd--;
+        }
+        return true;
+    }
+    
+    private int append(int carried, int from, int to) {
+        int needed = carried + to - from;
+        if (needed > carry.length) {
+            carry = Arrays.copyOf(carry, Math.max(needed, carry.length * 2));
+        }
+        System.arraycopy(block, from, carry, carried, to - from);
+        return needed;
+    }
+    
+    private boolean nextBlock() throws IOException {
+        if (!blocks.next()) {
+            return false;
+        }
+        block = blocks.data();
+        position = 0;
+        limit = blocks.length();
+        return true;
+    }
+}
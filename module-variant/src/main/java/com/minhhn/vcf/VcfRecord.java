@@ -0,0 +1,480 @@
+package com.minhhn.vcf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * One data line of a VCF. CHROM, POS, REF, ALT, QUAL and FILTER are located and the
+ * numeric ones decoded when the line is read; ID, INFO and the sample columns are only
+ * decoded when asked for. A reader fills the same record for every line, so a record is
+ * only valid until the next line is read and must be copied with {@link #toString()} or
+ * {@link #writeTo(OutputStream)} to be kept.
+ */
+public class VcfRecord {
+    
+    private static final int CHROM = 0;
+    private static final int POS = 1;
+    private static final int ID = 2;
+    private static final int REF = 3;
+    private static final int ALT = 4;
+    private static final int QUAL = 5;
+    private static final int FILTER = 6;
+    private static final int INFO = 7;
+    private static final int FORMAT = 8;
+    
+    private byte[] line;
+    private int start;
+    private int end;
+    private long offset;
+    
+    // Position of the tab ending each of the fixed fields, up to FORMAT; the last field ends at the line end
+    private final int[] tabs = new int[FORMAT + 1];
+    private int tabCount;
+    
+    private String chrom;
+    private long pos;
+    private double qual;
+    private int altCount;
+    
+    // Start of every sample column, located on first access to FORMAT
+    private int[] sampleStarts = new int[8];
+    private int sampleCount = -1;
+    
+    /**
+     * Fills the record with a line. Only the fixed fields are decoded here.
+     * 
+     * @param buffer The buffer holding the line
+     * @param from The first byte of the line
+     * @param to The end of the line, exclusive, without the line terminator
+     * @param address The index address of the line, or -1
+     * @param lineNumber The line number, for error messages
+     * @throws VcfFormatException If the line has fewer than eight columns or an invalid POS
+     */
+    void parse(byte[] buffer, int from, int to, long address, long lineNumber) {
+        line = buffer;
+        start = from;
+        end = to;
+        offset = address;
+        sampleCount = -1;
+        
+        tabCount = 0;
+        for (int i = from; i < to && tabCount < tabs.length; i++) {
+            if (buffer[i] == '\t') {
+                tabs[tabCount++] = i;
+            }
+        }
+        if (tabCount < INFO) {
+            throw new VcfFormatException("Line " + lineNumber + " has " + (tabCount + 1)
+                    + " columns, expected at least 8");
+        }
+        
+        // Files are sorted, so the chromosome of the previous line nearly always matches
+        if (chrom == null || !Bytes.equals(buffer, from, tabs[CHROM], chrom)) {
+            chrom = Bytes.toString(buffer, from, tabs[CHROM]);
+        }
+        
+        pos = Bytes.parseLong(buffer, fieldStart(POS), fieldEnd(POS));
+        if (pos < 0) {
+            throw new VcfFormatException("Line " + lineNumber + " has an invalid POS");
+        }
+        
+        qual = Bytes.parseDouble(buffer, fieldStart(QUAL), fieldEnd(QUAL));
+        
+        altCount = 0;
+        int altStart = fieldStart(ALT);
+        int altEnd = fieldEnd(ALT);
+        if (altEnd - altStart != 1 || buffer[altStart] != '.') {
+            altCount = 1;
+            for (int i = altStart; i < altEnd; i++) {
+                if (buffer[i] == ',') {
+                    altCount++;
+                }
+            }
+        }
+    }
+    
+    public String getChrom() {
+        return chrom;
+    }
+    
+    public long getPos() {
+        return pos;
+    }
+    
+    /**
+     * Gets the last reference position covered by the record: the END of a symbolic or
+     * gVCF block record, otherwise the position of the last base of REF.
+     * 
+     * @return The 1-based inclusive end position
+     */
+    public long getEnd() {
+        int valueStart = findInfo("END");
+        if (valueStart >= 0) {
+            int valueEnd = Bytes.indexOf(line, valueStart, fieldEnd(INFO), (byte) ';');
+            long infoEnd = Bytes.parseLong(line, valueStart, valueEnd);
+            if (infoEnd >= pos) {
+                return infoEnd;
+            }
+        }
+        return pos + Math.max(getRefLength(), 1) - 1;
+    }
+    
+    public String getId() {
+        return field(ID);
+    }
+    
+    public String getRef() {
+        return field(REF);
+    }
+    
+    public int getRefLength() {
+        return fieldEnd(REF) - fieldStart(REF);
+    }
+    
+    /**
+     * Gets the ALT column as written, with the alleles separated by commas.
+     * 
+     * @return The ALT column, {@code .} if there are no alternate alleles
+     */
+    public String getAlt() {
+        return field(ALT);
+    }
+    
+    public int getAltCount() {
+        return altCount;
+    }
+    
+    /**
+     * Gets the type of the record from its alleles. The spanning deletion {@code *} only
+     * stands for a deletion called at another record and does not count.
+     * 
+     * @return The type, MIXED if the alternate alleles are of different types
+     */
+    public VariantType getType() {
+        int refLength = getRefLength();
+        int altEnd = fieldEnd(ALT);
+        VariantType type = VariantType.NO_VARIATION;
+        if (altCount == 0) {
+            return type;
+        }
+        
+        int from = fieldStart(ALT);
+        while (from <= altEnd) {
+            int to = Bytes.indexOf(line, from, altEnd, (byte) ',');
+            VariantType alleleType = alleleType(from, to, refLength);
+            if (type == VariantType.NO_VARIATION) {
+                type = alleleType;
+            } else if (alleleType != VariantType.NO_VARIATION && alleleType != type) {
+                return VariantType.MIXED;
+            }
+            from = to + 1;
+        }
+        return type;
+    }
+    
+    /**
+     * Gets one alternate allele.
+     * 
+     * @param index The index of the allele, from 0
+     * @return The allele
+     * @throws IndexOutOfBoundsException If there is no such allele
+     */
+    public String getAltAllele(int index) {
+        if (index < 0 || index >= altCount) {
+            throw new IndexOutOfBoundsException("Allele " + index + " of " + altCount);
+        }
+        int from = fieldStart(ALT);
+        int to = fieldEnd(ALT);
+        for (int i = 0; i < index; i++) {
+            from = Bytes.indexOf(line, from, to, (byte) ',') + 1;
+        }
+        return Bytes.toString(line, from, Bytes.indexOf(line, from, to, (byte) ','));
+    }
+    
+    /**
+     * Gets the QUAL column.
+     * 
+     * @return The quality, or NaN if it is missing
+     */
+    public double getQual() {
+        return qual;
+    }
+    
+    public String getFilter() {
+        return field(FILTER);
+    }
+    
+    /**
+     * Tells whether the record passed all filters.
+     * 
+     * @return True if FILTER is PASS
+     */
+    public boolean isPass() {
+        return Bytes.equals(line, fieldStart(FILTER), fieldEnd(FILTER), "PASS");
+    }
+    
+    /**
+     * Tells whether the record failed a filter.
+     * 
+     * @return True if FILTER is neither PASS nor missing
+     */
+    public boolean isFiltered() {
+        int from = fieldStart(FILTER);
+        int to = fieldEnd(FILTER);
+        return !(to - from == 1 && line[from] == '.') && !Bytes.equals(line, from, to, "PASS");
+    }
+    
+    /**
+     * Gets the index address of the line: its virtual offset in a BGZF file, its file
+     * offset in an uncompressed file.
+     * 
+     * @return The address, or -1 if the file cannot be indexed
+     */
+    public long getOffset() {
+        return offset;
+    }
+    
+    /**
+     * Tells whether the INFO column has a key, as a flag or with a value.
+     * 
+     * @param key The INFO key
+     * @return True if the key is present
+     */
+    public boolean hasInfo(String key) {
+        return findInfo(key) >= 0;
+    }
+    
+    /**
+     * Gets the value of an INFO key.
+     * 
+     * @param key The INFO key
+     * @return The value as written, an empty string for a flag, or null if the key is absent
+     */
+    public String getInfo(String key) {
+        int valueStart = findInfo(key);
+        if (valueStart < 0) {
+            return null;
+        }
+        return Bytes.toString(line, valueStart, Bytes.indexOf(line, valueStart, fieldEnd(INFO), (byte) ';'));
+    }
+    
+    /**
+     * Gets the first value of a numeric INFO key without creating strings.
+     * 
+     * @param key The INFO key
+     * @return The value, or NaN if the key is absent, a flag or not numeric
+     */
+    public double getInfoDouble(String key) {
+        int valueStart = findInfo(key);
+        if (valueStart < 0) {
+            return Double.NaN;
+        }
+        int valueEnd = Bytes.indexOf(line, valueStart, fieldEnd(INFO), (byte) ';');
+        return Bytes.parseDouble(line, valueStart, Bytes.indexOf(line, valueStart, valueEnd, (byte) ','));
+    }
+    
+    /**
+     * Gets the first values of several numeric INFO keys in one pass over INFO.
+     * 
+     * @param keys The INFO keys
+     * @param values Receives the value of each key, NaN if it is absent, a flag or not numeric
+     */
+    public void getInfoDoubles(String[] keys, double[] values) {
+        Arrays.fill(values, 0, keys.length, Double.NaN);
+        int infoEnd = fieldEnd(INFO);
+        int from = fieldStart(INFO);
+        while (from < infoEnd) {
+            int entryEnd = Bytes.indexOf(line, from, infoEnd, (byte) ';');
+            int keyEnd = Bytes.indexOf(line, from, entryEnd, (byte) '=');
+            if (keyEnd < entryEnd) {
+                for (int i = 0; i < keys.length; i++) {
+                    if (Bytes.equals(line, from, keyEnd, keys[i])) {
+                        values[i] = Bytes.parseDouble(line, keyEnd + 1,
+                                Bytes.indexOf(line, keyEnd + 1, entryEnd, (byte) ','));
+                        break;
+                    }
+                }
+            }
+            from = entryEnd + 1;
+        }
+    }
+    
+    /**
+     * Gets the INFO column as written.
+     * 
+     * @return The INFO column
+     */
+    public String getInfo() {
+        return field(INFO);
+    }
+    
+    /**
+     * Gets the number of sample columns.
+     * 
+     * @return The number of samples, 0 for a sites-only VCF
+     */
+    public int getSampleCount() {
+        locateSamples();
+        return sampleCount;
+    }
+    
+    /**
+     * Gets a FORMAT value of a sample.
+     * 
+     * @param sample The index of the sample column, from 0
+     * @param key The FORMAT key, e.g. {@code GT} or {@code DP}
+     * @return The value, or null if the key is not in FORMAT or the sample omits it
+     * @throws IndexOutOfBoundsException If there is no such sample
+     */
+    public String getFormat(int sample, String key) {
+        locateSamples();
+        if (sample < 0 || sample >= sampleCount) {
+            throw new IndexOutOfBoundsException("Sample " + sample + " of " + sampleCount);
+        }
+        
+        // Index of the key within FORMAT
+        int formatEnd = fieldEnd(FORMAT);
+        int keyIndex = 0;
+        int from = fieldStart(FORMAT);
+        while (true) {
+            int to = Bytes.indexOf(line, from, formatEnd, (byte) ':');
+            if (Bytes.equals(line, from, to, key)) {
+                break;
+            }
+            if (to == formatEnd) {
+                return null;
+            }
+            keyIndex++;
+            from = to + 1;
+        }
+        
+        // The same index within the sample column; trailing values may be dropped
+        int sampleEnd = sample + 1 < sampleCount ? sampleStarts[sample + 1] - 1 : end;
+        from = sampleStarts[sample];
+        for (int i = 0; i < keyIndex; i++) {
+            int to = Bytes.indexOf(line, from, sampleEnd, (byte) ':');
+            if (to == sampleEnd) {
+                return null;
+            }
+            from = to + 1;
+        }
+        return Bytes.toString(line, from, Bytes.indexOf(line, from, sampleEnd, (byte) ':'));
+    }
+    
+    /**
+     * Gets the genotype of a sample.
+     * 
+     * @param sample The index of the sample column, from 0
+     * @return The GT value, or null if there is none
+     */
+    public String getGenotype(int sample) {
+        return getFormat(sample, "GT");
+    }
+    
+    /**
+     * Writes the line as read, followed by a newline.
+     * 
+     * @param out The stream to write to
+     * @throws IOException If the stream cannot be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(line, start, end - start);
+        out.write('\n');
+    }
+    
+    /**
+     * Gets the line as read.
+     * 
+     * @return The line without terminator
+     */
+    @Override
+    public String toString() {
+        return Bytes.toString(line, start, end);
+    }
+    
+    private VariantType alleleType(int from, int to, int refLength) {
+        int length = to - from;
+        if (length == 1 && line[from] == '*') {
+            return VariantType.NO_VARIATION;
+        }
+        if (line[from] == '<' || Bytes.indexOf(line, from, to, (byte) '[') < to
+                || Bytes.indexOf(line, from, to, (byte) ']') < to
+                || (length > 1 && (line[from] == '.' || line[to - 1] == '.'))) {
+            return VariantType.SYMBOLIC;
+        }
+        if (length != refLength) {
+            return VariantType.INDEL;
+        }
+        return length == 1 ? VariantType.SNP : VariantType.MNP;
+    }
+    
+    byte[] buffer() {
+        return line;
+    }
+    
+    int lineStart() {
+        return start;
+    }
+    
+    int lineEnd() {
+        return end;
+    }
+    
+    int filterStart() {
+        return fieldStart(FILTER);
+    }
+    
+    int filterEnd() {
+        return fieldEnd(FILTER);
+    }
+    
+    private int findInfo(String key) {
+        int infoEnd = fieldEnd(INFO);
+        int from = fieldStart(INFO);
+        while (from < infoEnd) {
+            int entryEnd = Bytes.indexOf(line, from, infoEnd, (byte) ';');
+            int keyEnd = Bytes.indexOf(line, from, entryEnd, (byte) '=');
+            if (Bytes.equals(line, from, keyEnd, key)) {
+                return keyEnd < entryEnd ? keyEnd + 1 : entryEnd;
+            }
+            from = entryEnd + 1;
+        }
+        return -1;
+    }
+    
+    private void locateSamples() {
+        if (sampleCount >= 0) {
+            return;
+        }
+        sampleCount = 0;
+        if (tabCount <= FORMAT) {
+            return;
+        }
+        
+        int from = tabs[FORMAT] + 1;
+        while (true) {
+            if (sampleCount == sampleStarts.length) {
+                sampleStarts = Arrays.copyOf(sampleStarts, sampleCount * 2);
+            }
+            sampleStarts[sampleCount++] = from;
+            int tab = Bytes.indexOf(line, from, end, (byte) '\t');
+            if (tab == end) {
+                return;
+            }
+            from = tab + 1;
+        }
+    }
+    
+    private int fieldStart(int field) {
+        return field == 0 ? start : tabs[field - 1] + 1;
+    }
+    
+    private int fieldEnd(int field) {
+        return field < tabCount ? tabs[field] : end;
+    }
+    
+    private String field(int field) {
+        return Bytes.toString(line, fieldStart(field), fieldEnd(field));
+    }
+}
@@ -0,0 +1,265 @@
+package com.minhhn.vcf;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits a VCF by variant type in one pass. The input is read once and every record is
+ * routed to the output of its type; each output is written and compressed by its own
+ * thread from batches of records, so compression of the outputs runs in parallel with
+ * each other and with reading. A {@code .gz} output is block-compressed and gets a
+ * tabix index.
+ */
+public class VcfSplitter {
+    
+    // Default level of htsjdk, which GATK writes its VCFs with
+    private static final int COMPRESSION_LEVEL = 5;
+    private static final String INDEX_EXTENSION = ".tbi";
+    
+    // Batches per output; the reader waits for a free one when an output falls behind
+    private static final int BATCHES_PER_OUTPUT = 4;
+    
+    private final int batchSize;
+    
+    /**
+     * Counts of a split.
+     * 
+     * @param records The number of records read
+     * @param counts The number of records of each type, whether it had an output or not
+     */
+    public record Result(long records, Map<VariantType, Long> counts) {
+    }
+    
+    /**
+     * Creates a splitter.
+     * 
+     * @param batchSize The number of records handed to an output thread at a time
+     */
+    public VcfSplitter(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+    
+    /**
+     * Splits a VCF. Every output gets the header of the input; records of types without
+     * an output are counted and dropped.
+     * 
+     * @param input The VCF to split
+     * @param outputs The output of each type to keep
+     * @return The counts of the split
+     * @throws IOException If the input cannot be read or an output cannot be written
+     * @throws VcfFormatException If the input is not a valid VCF
+     */
+    public Result split(Path input, Map<VariantType, Path> outputs) throws IOException {
+        return split(input, outputs, null);
+    }
+    
+    /**
+     * Splits the records of a VCF that overlap the given regions. Records outside them
+     * are neither written nor counted.
+     * 
+     * @param input The VCF to split
+     * @param outputs The output of each type to keep
+     * @param regions The regions to keep, or null for the whole input
+     * @return The counts of the split
+     * @throws IOException If the input cannot be read or an output cannot be written
+     * @throws VcfFormatException If the input is not a valid VCF
+     */
+    public Result split(Path input, Map<VariantType, Path> outputs, List<Region> regions) throws IOException {
+        Map<String, List<Region>> regionsByContig = Region.mergeByContig(regions);
+        long[] counts = new long[VariantType.values().length];
+        long records = 0;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, outputs.size()),
+                Thread.ofPlatform().name("vcf-split-", 0).daemon().factory());
+        Map<VariantType, OutputWriter> writers = new EnumMap<>(VariantType.class);
+        boolean completed = false;
+        try (VcfReader reader = VcfReader.open(input)) {
+            byte[] header = reader.getHeader().toText().getBytes(StandardCharsets.ISO_8859_1);
+            for (Map.Entry<VariantType, Path> output : outputs.entrySet()) {
+                OutputWriter writer = new OutputWriter(output.getValue(), header);
+                writer.future = executor.submit(writer);
+                writers.put(output.getKey(), writer);
+            }
+            
+            VcfRecord record = reader.getRecord();
+            while (reader.next()) {
+                if (regionsByContig != null && !Region.overlapsAny(regionsByContig, record)) {
+                    continue;
+                }
+                VariantType type = record.getType();
+                counts[type.ordinal()]++;
+                records++;
+                OutputWriter writer = writers.get(type);
+                if (writer != null) {
+                    writer.add(record);
+                }
+            }
+            
+            for (OutputWriter writer : writers.values()) {
+                writer.finish();
+            }
+            for (OutputWriter writer : writers.values()) {
+                await(writer.future);
+            }
+            completed = true;
+        } finally {
+            // Outputs are only deleted once no writer can write them any more
+            executor.shutdownNow();
+            executor.close();
+            if (!completed) {
+                // Partial outputs must not pass for results
+                for (Path output : outputs.values()) {
+                    Files.deleteIfExists(output);
+                    Files.deleteIfExists(Path.of(output + INDEX_EXTENSION));
+                }
+            }
+        }
+        
+        Map<VariantType, Long> countsByType = new EnumMap<>(VariantType.class);
+        for (VariantType type : VariantType.values()) {
+            countsByType.put(type, counts[type.ordinal()]);
+        }
+        return new Result(records, countsByType);
+    }
+    
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while splitting", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new UncheckedIOException(new IOException(cause));
+        }
+    }
+    
+    /**
+     * One output: the reading thread fills batches and hands them over, the writer thread
+     * writes them and returns them for reuse.
+     */
+    private final class OutputWriter implements Callable<Void> {
+        
+        private final Path path;
+        private final byte[] header;
+        private final boolean compressed;
+        private final BlockingQueue<RecordBatch> filled = new ArrayBlockingQueue<>(BATCHES_PER_OUTPUT + 1);
+        private final BlockingQueue<RecordBatch> free = new ArrayBlockingQueue<>(BATCHES_PER_OUTPUT);
+        private RecordBatch current;
+        private Future<?> future;
+        
+        // Handed over after the last batch
+        private final RecordBatch end = new RecordBatch(List.of(), 1);
+        
+        OutputWriter(Path path, byte[] header) {
+            this.path = path;
+            this.header = header;
+            this.compressed = path.getFileName().toString().endsWith(".gz");
+            current = new RecordBatch(List.of(), batchSize);
+            for (int i = 1; i < BATCHES_PER_OUTPUT; i++) {
+                free.add(new RecordBatch(List.of(), batchSize));
+            }
+        }
+        
+        void add(VcfRecord record) throws IOException {
+            current.add(record, compressed);
+            if (current.isFull()) {
+                handOver(current);
+                current = takeFree();
+            }
+        }
+        
+        void finish() {
+            if (current.count > 0) {
+                handOver(current);
+            }
+            handOver(end);
+        }
+        
+        private void handOver(RecordBatch batch) {
+            // There are never more batches than places in the queue, so this does not block
+            if (!filled.offer(batch)) {
+                throw new IllegalStateException("Output queue of " + path + " is full");
+            }
+        }
+        
+        private RecordBatch takeFree() throws IOException {
+            try {
+                while (true) {
+                    RecordBatch batch = free.poll(100, TimeUnit.MILLISECONDS);
+                    if (batch != null) {
+                        return batch;
+                    }
+                    if (future.isDone()) {
+                        // The writer failed; its exception says why
+                        await(future);
+                        throw new IOException("Writer of " + path + " stopped");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while splitting", e);
+            }
+        }
+        
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            TabixIndex.Builder indexBuilder = compressed ? new TabixIndex.Builder() : null;
+            OutputStream file = Files.newOutputStream(path);
+            BgzfOutputStream bgzf = compressed ? new BgzfOutputStream(file, COMPRESSION_LEVEL) : null;
+            try (OutputStream out = compressed ? bgzf : new BufferedOutputStream(file, 256 * 1024)) {
+                out.write(header);
+                if (bgzf != null) {
+                    // Records start in a block of their own, like in files written by htslib
+                    bgzf.endBlock();
+                }
+                
+                while (true) {
+                    RecordBatch batch = filled.take();
+                    if (batch == end) {
+                        break;
+                    }
+                    byte[] data = batch.data();
+                    for (int row = 0; row < batch.count; row++) {
+                        long startAddress = bgzf != null ? bgzf.getAddress() : -1;
+                        out.write(data, batch.starts[row], batch.ends[row] - batch.starts[row]);
+                        out.write('\n');
+                        if (indexBuilder != null) {
+                            indexBuilder.add(batch.chroms[row], batch.positions[row], batch.endPositions[row],
+                                    startAddress, bgzf.getAddress());
+                        }
+                    }
+                    batch.clear();
+                    free.put(batch);
+                }
+            }
+            
+            if (indexBuilder != null) {
+                indexBuilder.build().write(Path.of(path + INDEX_EXTENSION));
+            }
+            return null;
+        }
+    }
+}
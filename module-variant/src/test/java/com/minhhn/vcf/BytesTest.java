@@ -0,0 +1,74 @@
+package com.minhhn.vcf;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BytesTest {
+    
+    @Test
+    void parsesPlainDecimals() {
+        assertThat(parseDouble("0")).isEqualTo(0.0);
+        assertThat(parseDouble("42")).isEqualTo(42.0);
+        assertThat(parseDouble("1.5")).isEqualTo(1.5);
+        assertThat(parseDouble("-2.25")).isEqualTo(-2.25);
+        assertThat(parseDouble("+3")).isEqualTo(3.0);
+        assertThat(parseDouble(".5")).isEqualTo(0.5);
+        assertThat(parseDouble("-.5")).isEqualTo(-0.5);
+        assertThat(parseDouble("7.")).isEqualTo(7.0);
+    }
+    
+    @Test
+    void roundsLikeDoubleParseDouble() {
+        for (String value : new String[] {"0.1", "60.000", "2.0000000001", "35.123456789012", "123456789.987654321"}) {
+            assertThat(parseDouble(value)).as(value).isEqualTo(Double.parseDouble(value));
+        }
+    }
+    
+    @Test
+    void parsesExponents() {
+        assertThat(parseDouble("1e3")).isEqualTo(1000.0);
+        assertThat(parseDouble("1.5E-2")).isEqualTo(0.015);
+        assertThat(parseDouble("-2.5e+1")).isEqualTo(-25.0);
+        assertThat(parseDouble("12345678901234567890")).isEqualTo(1.2345678901234567e19);
+    }
+    
+    @Test
+    void parsesSpecialValuesInAnyCase() {
+        assertThat(parseDouble("inf")).isEqualTo(Double.POSITIVE_INFINITY);
+        assertThat(parseDouble("Inf")).isEqualTo(Double.POSITIVE_INFINITY);
+        assertThat(parseDouble("-INF")).isEqualTo(Double.NEGATIVE_INFINITY);
+        assertThat(parseDouble("+Infinity")).isEqualTo(Double.POSITIVE_INFINITY);
+        assertThat(parseDouble("nan")).isNaN();
+        assertThat(parseDouble("NaN")).isNaN();
+    }
+    
+    @Test
+    void returnsNanForMissingAndInvalidValues() {
+        assertThat(parseDouble("")).isNaN();
+        assertThat(parseDouble(".")).isNaN();
+        assertThat(parseDouble("-")).isNaN();
+        assertThat(parseDouble("+")).isNaN();
+        assertThat(parseDouble("1.2.3")).isNaN();
+        assertThat(parseDouble("abc")).isNaN();
+        assertThat(parseDouble("1d")).isNaN();
+        assertThat(parseDouble("0x10")).isNaN();
+        assertThat(parseDouble("1e")).isNaN();
+    }
+    
+    @Test
+    void parsesWithinALine() {
+        byte[] line = "DP=12;QD=3.75;FS=.".getBytes(StandardCharsets.US_ASCII);
+        assertThat(Bytes.parseDouble(line, 9, 13)).isEqualTo(3.75);
+        assertThat(Bytes.parseDouble(line, 17, 18)).isNaN();
+        assertThat(Bytes.parseLong(line, 3, 5)).isEqualTo(12);
+        assertThat(Bytes.parseLong(line, 9, 13)).isEqualTo(-1);
+    }
+    
+    private static double parseDouble(String value) {
+        byte[] bytes = ("|" + value + "|").getBytes(StandardCharsets.US_ASCII);
+        return Bytes.parseDouble(bytes, 1, bytes.length - 1);
+    }
+}
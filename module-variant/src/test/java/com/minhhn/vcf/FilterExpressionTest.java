@@ -0,0 +1,130 @@
+package com.minhhn.vcf;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FilterExpressionTest {
+    
+    private static final double MISSING = Double.NaN;
+    
+    @Test
+    void comparesColumnsWithConstants() {
+        List<Map<String, Double>> rows = List.of(Map.of("QD", 1.5), Map.of("QD", 2.0), Map.of("QD", 30.0));
+        
+        assertThat(evaluate("QD < 2.0", rows)).containsExactly(true, false, false);
+        assertThat(evaluate("QD <= 2", rows)).containsExactly(true, true, false);
+        assertThat(evaluate("QD > 2.0", rows)).containsExactly(false, false, true);
+        assertThat(evaluate("QD >= 2.0", rows)).containsExactly(false, true, true);
+        assertThat(evaluate("QD == 2.0", rows)).containsExactly(false, true, false);
+        assertThat(evaluate("QD != 2.0", rows)).containsExactly(true, false, true);
+        
+        // A constant on the left flips the comparison
+        assertThat(evaluate("2.0 > QD", rows)).containsExactly(true, false, false);
+        assertThat(evaluate("2.0 != QD", rows)).containsExactly(true, false, true);
+    }
+    
+    @Test
+    void readsNumbersWithSignsAndExponents() {
+        List<Map<String, Double>> rows = List.of(Map.of("FS", -2.0), Map.of("FS", 59.0), Map.of("FS", 61.0));
+        
+        assertThat(evaluate("FS > 6e1", rows)).containsExactly(false, false, true);
+        assertThat(evaluate("FS > 6.0E+1", rows)).containsExactly(false, false, true);
+        assertThat(evaluate("FS < -1.5", rows)).containsExactly(true, false, false);
+        assertThat(evaluate("FS > -.5e1", rows)).containsExactly(true, true, true);
+    }
+    
+    @Test
+    void combinesComparisons() {
+        List<Map<String, Double>> rows = List.of(
+                Map.of("QD", 1.0, "FS", 10.0),
+                Map.of("QD", 5.0, "FS", 80.0),
+                Map.of("QD", 1.0, "FS", 80.0),
+                Map.of("QD", 5.0, "FS", 10.0));
+        
+        assertThat(evaluate("QD < 2.0 || FS > 60.0", rows)).containsExactly(true, true, true, false);
+        assertThat(evaluate("QD < 2.0 && FS > 60.0", rows)).containsExactly(false, false, true, false);
+        assertThat(evaluate("QD > 2.0 && (FS > 60.0 || FS < 5)", rows)).containsExactly(false, true, false, false);
+        // && binds tighter than ||
+        assertThat(evaluate("QD > 2.0 && FS > 60.0 || QD < 2.0 && FS < 60.0", rows))
+                .containsExactly(true, true, false, false);
+        assertThat(evaluate("QD < FS", rows)).containsExactly(true, true, true, true);
+        assertThat(evaluate("QD != FS", rows)).containsExactly(true, true, true, true);
+        assertThat(evaluate("1 < 2", rows)).containsExactly(true, true, true, true);
+    }
+    
+    @Test
+    void missingValueMakesTheWholeExpressionFalse() {
+        List<Map<String, Double>> rows = List.of(
+                Map.of("QD", MISSING, "FS", 80.0),
+                Map.of("QD", 1.0, "FS", MISSING),
+                Map.of("FS", 80.0),
+                Map.of("QD", 1.0, "FS", 80.0));
+        
+        assertThat(evaluate("QD < 2.0 || FS > 60.0", rows)).containsExactly(false, false, false, true);
+        assertThat(evaluate("FS > 60.0 || QD < 2.0", rows)).containsExactly(false, false, false, true);
+        assertThat(evaluate("QD < 2.0 && FS > 60.0", rows)).containsExactly(false, false, false, true);
+        assertThat(evaluate("QD != 2.0", rows)).containsExactly(false, true, false, true);
+        assertThat(evaluate("QD != FS", rows)).containsExactly(false, false, false, true);
+        assertThat(evaluate("1 < 2 || QD < 2.0", rows)).containsExactly(false, true, false, true);
+        assertThat(evaluate("FS > 60.0", rows)).containsExactly(true, false, true, true);
+    }
+    
+    @Test
+    void sharesColumnsBetweenExpressions() {
+        List<String> columns = new ArrayList<>(List.of("QUAL"));
+        FilterExpression.compile("QD < 2.0", columns);
+        FilterExpression.compile("QD < 3.0 || MQ < 40 || QUAL < 30", columns);
+        
+        assertThat(columns).containsExactly("QUAL", "QD", "MQ");
+    }
+    
+    @Test
+    void rejectsInvalidExpressions() {
+        assertInvalid("", "Unexpected end of expression at position 0");
+        assertInvalid("QD <", "Unexpected end of expression at position 4");
+        assertInvalid("QD 2.0", "Expected a comparison after 'QD' at position 3");
+        assertInvalid("(QD < 2.0", "Expected ')' at position 9");
+        assertInvalid("QD < 2.0)", "Unexpected ')' at position 8");
+        assertInvalid("QD < 2.0 &&", "Unexpected end of expression at position 11");
+        assertInvalid("QD < 2.0 | FS > 60", "Unexpected '|' at position 9");
+        assertInvalid("QD = 2.0", "Unexpected '=' at position 3");
+        assertInvalid("QD < < 2.0", "Unexpected '<' at position 5");
+        assertInvalid("QD < 1.2.3", "Invalid number '1.2.3'");
+        assertInvalid("QD < 2e", "Invalid number '2e'");
+    }
+    
+    private static void assertInvalid(String expression, String message) {
+        assertThatThrownBy(() -> FilterExpression.compile(expression, new ArrayList<>()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining(message);
+    }
+    
+    /**
+     * Evaluates an expression over rows of values, a key absent from a row being missing.
+     */
+    private static List<Boolean> evaluate(String expression, List<Map<String, Double>> rows) {
+        List<String> columns = new ArrayList<>();
+        FilterExpression compiled = FilterExpression.compile(expression, columns);
+        
+        double[][] values = new double[columns.size()][rows.size()];
+        for (int column = 0; column < columns.size(); column++) {
+            for (int row = 0; row < rows.size(); row++) {
+                values[column][row] = rows.get(row).getOrDefault(columns.get(column), MISSING);
+            }
+        }
+        boolean[] result = new boolean[rows.size()];
+        compiled.evaluate(values, rows.size(), result);
+        
+        List<Boolean> matches = new ArrayList<>();
+        for (boolean match : result) {
+            matches.add(match);
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,173 @@
+package com.minhhn.vcf;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TabixIndexTest {
+    
+    @TempDir
+    Path directory;
+    
+    private Path vcf;
+    private TabixIndex written;
+    private TabixIndex index;
+    private final List<Indexed> records = new ArrayList<>();
+    
+    /**
+     * A record as written, with the offset the reader found it at.
+     */
+    private record Indexed(String line, String chrom, long pos, long end, long offset) {
+    }
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(7);
+        for (String chrom : List.of("chr1", "chr2")) {
+            long pos = 1;
+            for (int i = 0; i < 4_000; i++) {
+                pos += 1 + random.nextInt(300);
+                if (i % 500 == 250) {
+                    // Deletions covering several 16 kb windows
+                    long end = pos + 40_000 + random.nextInt(40_000);
+                    lines.add(TestVcf.record(chrom, pos, "N", "<DEL>", "DP=5;END=" + end));
+                } else if (i % 97 == 0) {
+                    // Long reference alleles crossing window boundaries
+                    lines.add(TestVcf.record(chrom, pos, "A".repeat(400), "A", "DP=7"));
+                } else {
+                    lines.add(TestVcf.record(chrom, pos, "C", "T", "DP=" + random.nextInt(50)));
+                }
+            }
+        }
+        vcf = directory.resolve("indexed.vcf.gz");
+        written = TestVcf.writeBgzf(vcf, lines);
+        written.write(Path.of(vcf + ".tbi"));
+        index = TabixIndex.read(Path.of(vcf + ".tbi"));
+        
+        try (VcfReader reader = VcfReader.open(vcf)) {
+            VcfRecord record = reader.getRecord();
+            while (reader.next()) {
+                records.add(new Indexed(record.toString(), record.getChrom(), record.getPos(), record.getEnd(),
+                        record.getOffset()));
+            }
+        }
+        assertThat(records).extracting(Indexed::line).isEqualTo(lines);
+    }
+    
+    @Test
+    void readsBackTheIndexItWrote() {
+        assertThat(index.getContigs()).containsExactly("chr1", "chr2");
+        for (Region region : regions()) {
+            assertThat(index.chunks(region.contig(), region.start(), region.end())).as(region.toString())
+                    .isEqualTo(written.chunks(region.contig(), region.start(), region.end()));
+        }
+    }
+    
+    @Test
+    void indexBuiltFromTheFileFindsTheSameRecords() throws IOException {
+        // A record ending a block may be addressed as the start of the next one, so chunks can differ
+        TabixIndex built = TabixIndex.build(vcf);
+        for (Region region : regions()) {
+            assertThat(query(built, region)).as(region.toString()).isEqualTo(query(index, region));
+        }
+    }
+    
+    @Test
+    void chunksHoldEveryOverlappingRecord() {
+        for (Region region : regions()) {
+            List<TabixIndex.Chunk> chunks = index.chunks(region.contig(), region.start(), region.end());
+            for (int i = 1; i < chunks.size(); i++) {
+                assertThat(Long.compareUnsigned(chunks.get(i - 1).end(), chunks.get(i).start())).isNegative();
+            }
+            for (Indexed record : overlapping(region)) {
+                assertThat(chunks).as("%s in %s", record.line(), region)
+                        .anyMatch(chunk -> chunk.start() <= record.offset() && record.offset() < chunk.end());
+            }
+        }
+    }
+    
+    @Test
+    void queriesReturnExactlyTheOverlappingRecords() throws IOException {
+        for (Region region : regions()) {
+            assertThat(query(region)).as(region.toString())
+                    .isEqualTo(overlapping(region).stream().map(Indexed::line).toList());
+        }
+    }
+    
+    @Test
+    void findsRecordsStartingWindowsBeforeTheRegion() throws IOException {
+        Indexed deletion = records.stream().filter(record -> record.end() - record.pos() > 40_000).findFirst()
+                .orElseThrow();
+        Region inside = new Region(deletion.chrom(), deletion.end() - 10, deletion.end() - 5);
+        
+        assertThat(query(inside)).contains(deletion.line());
+        assertThat(query(new Region(deletion.chrom(), deletion.end() + 1, deletion.end() + 1)))
+                .doesNotContain(deletion.line());
+    }
+    
+    @Test
+    void queriesWholeContigs() throws IOException {
+        Region chr2 = new Region("chr2", 1, Long.MAX_VALUE);
+        
+        assertThat(index.chunks("chr2", 1, Long.MAX_VALUE)).isNotEmpty();
+        assertThat(query(chr2)).isEqualTo(
+                records.stream().filter(record -> record.chrom().equals("chr2")).map(Indexed::line).toList());
+    }
+    
+    @Test
+    void findsNothingOnUnknownContigsOrEmptyRegions() throws IOException {
+        assertThat(index.chunks("chr3", 1, Long.MAX_VALUE)).isEmpty();
+        assertThat(query(new Region("chr3", 1, Long.MAX_VALUE))).isEmpty();
+        assertThat(index.chunks("chr1", 500, 499)).isEmpty();
+        assertThat(query(new Region("chr1", 5_000_000, 6_000_000))).isEmpty();
+    }
+    
+    /**
+     * Picks regions of every size, on window boundaries and at random.
+     */
+    private List<Region> regions() {
+        List<Region> regions = new ArrayList<>();
+        for (String chrom : List.of("chr1", "chr2")) {
+            regions.add(new Region(chrom, 1, 1));
+            regions.add(new Region(chrom, 16_384, 16_385));
+            regions.add(new Region(chrom, 16_385, 32_768));
+            regions.add(new Region(chrom, 100_000, 400_000));
+            regions.add(new Region(chrom, 1_000_000, Long.MAX_VALUE));
+        }
+        Random random = new Random(11);
+        for (int i = 0; i < 200; i++) {
+            long start = 1 + random.nextInt(700_000);
+            long length = random.nextInt(i % 3 == 0 ? 100 : 60_000);
+            regions.add(new Region(i % 2 == 0 ? "chr1" : "chr2", start, start + length));
+        }
+        return regions;
+    }
+    
+    private List<Indexed> overlapping(Region region) {
+        return records.stream().filter(record -> region.overlaps(record.chrom(), record.pos(), record.end())).toList();
+    }
+    
+    private List<String> query(Region region) throws IOException {
+        return query(index, region);
+    }
+    
+    private List<String> query(TabixIndex queried, Region region) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (VcfReader reader = VcfReader.open(vcf)) {
+            reader.query(queried, region.contig(), region.start(), region.end());
+            while (reader.next()) {
+                lines.add(reader.getRecord().toString());
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,130 @@
+package com.minhhn.vcf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes small VCFs for tests, plain, gzip or BGZF.
+ */
+final class TestVcf {
+    
+    static final String HEADER = """
+            ##fileformat=VCFv4.2
+            ##contig=<ID=chr1,length=248956422>
+            ##contig=<ID=chr2,length=242193529>
+            ##INFO=<ID=DP,Number=1,Type=Integer,Description="Depth">
+            ##INFO=<ID=QD,Number=1,Type=Float,Description="Quality by depth">
+            ##INFO=<ID=FS,Number=1,Type=Float,Description="Fisher strand">
+            ##INFO=<ID=MQ,Number=1,Type=Float,Description="Mapping quality">
+            ##INFO=<ID=END,Number=1,Type=Integer,Description="End position">
+            #CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO
+            """;
+    
+    private TestVcf() {
+    }
+    
+    /**
+     * Builds a sites-only record.
+     * 
+     * @param chrom The contig
+     * @param pos The position
+     * @param ref The reference allele
+     * @param alt The alternate alleles
+     * @param info The INFO column
+     * @return The line without terminator
+     */
+    static String record(String chrom, long pos, String ref, String alt, String info) {
+        return record(chrom, pos, ref, alt, ".", info);
+    }
+    
+    /**
+     * Builds a sites-only record with a FILTER value.
+     * 
+     * @param chrom The contig
+     * @param pos The position
+     * @param ref The reference allele
+     * @param alt The alternate alleles
+     * @param filter The FILTER column
+     * @param info The INFO column
+     * @return The line without terminator
+     */
+    static String record(String chrom, long pos, String ref, String alt, String filter, String info) {
+        return chrom + "\t" + pos + "\t.\t" + ref + "\t" + alt + "\t50\t" + filter + "\t" + info;
+    }
+    
+    static Path writePlain(Path path, List<String> lines) throws IOException {
+        Files.writeString(path, text(lines), StandardCharsets.ISO_8859_1);
+        return path;
+    }
+    
+    static Path writeGzip(Path path, List<String> lines) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+            out.write(text(lines).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return path;
+    }
+    
+    /**
+     * Writes a BGZF VCF and its tabix index, the way the pipeline writes its outputs.
+     * 
+     * @param path The VCF to write
+     * @param lines The records
+     * @return The VCF
+     * @throws IOException If the file cannot be written
+     */
+    static Path writeIndexed(Path path, List<String> lines) throws IOException {
+        writeBgzf(path, lines).write(Path.of(path + ".tbi"));
+        return path;
+    }
+    
+    /**
+     * Writes a BGZF VCF, indexing the records as they are written.
+     * 
+     * @param path The VCF to write
+     * @param lines The records
+     * @return The index of the VCF
+     * @throws IOException If the file cannot be written
+     */
+    static TabixIndex writeBgzf(Path path, List<String> lines) throws IOException {
+        TabixIndex.Builder builder = new TabixIndex.Builder();
+        try (BgzfOutputStream out = new BgzfOutputStream(Files.newOutputStream(path), 5)) {
+            out.write(HEADER.getBytes(StandardCharsets.ISO_8859_1));
+            VcfRecord record = new VcfRecord();
+            for (String line : lines) {
+                byte[] bytes = (line + "\n").getBytes(StandardCharsets.ISO_8859_1);
+                record.parse(bytes, 0, bytes.length - 1, -1, 0);
+                long start = out.getAddress();
+                out.write(bytes);
+                builder.add(record.getChrom(), record.getPos(), record.getEnd(), start, out.getAddress());
+            }
+        }
+        return builder.build();
+    }
+    
+    /**
+     * Reads every record of a VCF.
+     * 
+     * @param path The VCF
+     * @return The records as written
+     * @throws IOException If the file cannot be read
+     */
+    static List<String> readAll(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (VcfReader reader = VcfReader.open(path)) {
+            while (reader.next()) {
+                lines.add(reader.getRecord().toString());
+            }
+        }
+        return lines;
+    }
+    
+    static String text(List<String> lines) {
+        return HEADER + String.join("\n", lines) + "\n";
+    }
+}
@@ -0,0 +1,173 @@
+package com.minhhn.vcf;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VcfFilterEngineTest {
+    
+    private static final List<VcfFilterEngine.Filter> FILTERS = List.of(
+            new VcfFilterEngine.Filter("QD2", "QD < 2.0"),
+            new VcfFilterEngine.Filter("FS60", "FS > 60.0"));
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void mergesFailedFiltersWithExistingOnes() throws IOException {
+        Path input = directory.resolve("input.vcf");
+        Files.writeString(input, TestVcf.HEADER.replace("#CHROM", "##FILTER=<ID=LowQual,Description=\"Low quality\">\n"
+                + "##FILTER=<ID=QD2,Description=\"Declared upstream\">\n#CHROM") + String.join("\n",
+                TestVcf.record("chr1", 1, "A", "G", ".", "QD=1.0;FS=1"),
+                TestVcf.record("chr1", 2, "A", "G", "PASS", "QD=5.0;FS=1"),
+                TestVcf.record("chr1", 3, "A", "G", "LowQual", "QD=1.0;FS=1"),
+                TestVcf.record("chr1", 4, "A", "G", "LowQual", "QD=5.0;FS=1"),
+                TestVcf.record("chr1", 5, "A", "G", "QD2", "QD=1.0;FS=1"),
+                TestVcf.record("chr1", 6, "A", "G", ".", "QD=1.0;FS=80"),
+                TestVcf.record("chr1", 7, "A", "G", "PASS", "QD=5.0;FS=80"),
+                TestVcf.record("chr1", 8, "A", "G", ".", "FS=80"),
+                TestVcf.record("chr1", 9, "A", "G", "LowQual", "DP=3")) + "\n");
+        Path output = directory.resolve("filtered.vcf");
+        
+        VcfFilterEngine.Result result = new VcfFilterEngine(FILTERS, 4).filter(input, output, null, 1);
+        
+        assertThat(TestVcf.readAll(output)).extracting(line -> line.split("\t")[6]).containsExactly(
+                "QD2", "PASS", "LowQual;QD2", "LowQual", "QD2", "QD2;FS60", "FS60", "FS60", "LowQual");
+        assertThat(result.records()).isEqualTo(9);
+        assertThat(result.filtered()).isEqualTo(6);
+        assertThat(result.failures()).containsExactly(Map.entry("QD2", 4L), Map.entry("FS60", 3L));
+        
+        // Only the filter the input does not declare is added, after the declared ones
+        try (VcfReader reader = VcfReader.open(output)) {
+            assertThat(reader.getHeader().getIds("FILTER")).containsExactly("LowQual", "QD2", "FS60");
+            assertThat(reader.getHeader().getMetaLines()).contains("FILTER=<ID=FS60,Description=\"FS > 60.0\">");
+        }
+    }
+    
+    @Test
+    void writesTheSameOutputWithAnyParallelism() throws IOException {
+        List<String> lines = records(30_000);
+        Path input = TestVcf.writeIndexed(directory.resolve("input.vcf.gz"), lines);
+        Path plain = TestVcf.writePlain(directory.resolve("input.vcf"), lines);
+        
+        Path sequential = directory.resolve("sequential.vcf.gz");
+        Path parallel = directory.resolve("parallel.vcf.gz");
+        VcfFilterEngine engine = new VcfFilterEngine(FILTERS, 100);
+        VcfFilterEngine.Result sequentialResult = engine.filter(input, sequential, null, 1);
+        VcfFilterEngine.Result parallelResult = engine.filter(input, parallel, null, 4);
+        // A plain input is filtered in a single task
+        engine.filter(plain, directory.resolve("from-plain.vcf.gz"), null, 4);
+        
+        assertThat(parallelResult).isEqualTo(sequentialResult);
+        assertThat(sequentialResult.records()).isEqualTo(lines.size());
+        assertThat(Files.readAllBytes(parallel)).isEqualTo(Files.readAllBytes(sequential));
+        assertThat(Files.readAllBytes(Path.of(parallel + ".tbi")))
+                .isEqualTo(Files.readAllBytes(Path.of(sequential + ".tbi")));
+        assertThat(TestVcf.readAll(directory.resolve("from-plain.vcf.gz"))).isEqualTo(TestVcf.readAll(parallel));
+        
+        // The index written with the concatenated parts finds the records a fresh one does
+        TabixIndex written = TabixIndex.read(Path.of(parallel + ".tbi"));
+        TabixIndex rebuilt = TabixIndex.build(parallel);
+        for (Region region : List.of(new Region("chr1", 1, 50_000), new Region("chr2", 200_000, 230_000),
+                new Region("chr2", 1, Long.MAX_VALUE))) {
+            assertThat(query(parallel, written, region)).as(region.toString())
+                    .isEqualTo(query(parallel, rebuilt, region))
+                    .isNotEmpty();
+        }
+    }
+    
+    @Test
+    void keepsOnlyRecordsOfTheRegions() throws IOException {
+        List<String> lines = records(2_000);
+        Path indexed = TestVcf.writeIndexed(directory.resolve("input.vcf.gz"), lines);
+        Path plain = TestVcf.writePlain(directory.resolve("input.vcf"), lines);
+        List<Region> regions = List.of(new Region("chr2", 5_000, 6_000), new Region("chr1", 5_000, 9_000),
+                new Region("chr1", 8_000, 12_000), new Region("chr2", 100_000, 150_000));
+        
+        VcfFilterEngine engine = new VcfFilterEngine(FILTERS, 16);
+        engine.filter(indexed, directory.resolve("indexed.vcf"), regions, 2);
+        engine.filter(plain, directory.resolve("plain.vcf"), regions, 2);
+        
+        List<String> expected = lines.stream().map(line -> line.split("\t"))
+                .filter(fields -> regions.stream().anyMatch(region -> region.overlaps(fields[0],
+                        Long.parseLong(fields[1]), Long.parseLong(fields[1]))))
+                .map(fields -> fields[0] + ":" + fields[1])
+                .toList();
+        assertThat(expected).isNotEmpty();
+        for (String output : List.of("indexed.vcf", "plain.vcf")) {
+            assertThat(TestVcf.readAll(directory.resolve(output))).as(output)
+                    .extracting(line -> line.split("\t")[0] + ":" + line.split("\t")[1])
+                    .isEqualTo(expected);
+        }
+    }
+    
+    @Test
+    void leavesNothingBehindWhenATaskFails() throws IOException {
+        Path input = TestVcf.writeIndexed(directory.resolve("input.vcf.gz"), records(20_000));
+        Path output = directory.resolve("filtered.vcf.gz");
+        Files.writeString(Path.of(output + ".tbi"), "stale");
+        // The part of chr2 cannot be written, after chr1 has been filtered and copied
+        Files.createDirectory(directory.resolve("filtered.vcf.gz.part1"));
+        
+        assertThatThrownBy(() -> new VcfFilterEngine(FILTERS, 64).filter(input, output, null, 2))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("filtered.vcf.gz.part1");
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.map(path -> path.getFileName().toString()))
+                    .containsExactlyInAnyOrder("input.vcf.gz", "input.vcf.gz.tbi");
+        }
+    }
+    
+    @Test
+    void rejectsInvalidFilters() {
+        assertThatThrownBy(() -> new VcfFilterEngine(List.of(new VcfFilterEngine.Filter("PASS", "QD < 2")), 10))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Invalid filter name 'PASS'");
+        assertThatThrownBy(() -> new VcfFilterEngine(List.of(new VcfFilterEngine.Filter("QD 2", "QD < 2")), 10))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Invalid filter name");
+        assertThatThrownBy(() -> new VcfFilterEngine(List.of(new VcfFilterEngine.Filter("QD2", "QD <")), 10))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("filter expression 'QD <'");
+    }
+    
+    /**
+     * Builds sorted records on two contigs, some lacking QD or FS.
+     */
+    private static List<String> records(int count) {
+        Random random = new Random(count);
+        List<String> lines = new ArrayList<>();
+        long pos = 0;
+        for (int i = 0; i < count; i++) {
+            String chrom = i < count / 2 ? "chr1" : "chr2";
+            pos = i == count / 2 ? 1 : pos + 1 + random.nextInt(30);
+            String qd = random.nextInt(10) == 0 ? "" : "QD=" + random.nextInt(40) / 10.0 + ";";
+            String fs = random.nextInt(10) == 0 ? "." : String.valueOf(random.nextInt(100));
+            String filter = random.nextInt(20) == 0 ? "LowQual" : ".";
+            lines.add(TestVcf.record(chrom, pos, "A", "G", filter, qd + "FS=" + fs + ";DP=" + random.nextInt(99)));
+        }
+        return lines;
+    }
+    
+    private static List<String> query(Path vcf, TabixIndex index, Region region) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (VcfReader reader = VcfReader.open(vcf)) {
+            reader.query(index, region.contig(), region.start(), region.end());
+            while (reader.next()) {
+                lines.add(reader.getRecord().toString());
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,178 @@
+package com.minhhn.vcf;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VcfReaderTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void readsPlainGzipAndBgzfAlike() throws IOException {
+        List<String> lines = records(20_000);
+        
+        Path plain = TestVcf.writePlain(directory.resolve("plain.vcf"), lines);
+        Path gzip = TestVcf.writeGzip(directory.resolve("gzip.vcf.gz"), lines);
+        Path bgzf = TestVcf.writeIndexed(directory.resolve("bgzf.vcf.gz"), lines);
+        
+        // Large enough for BGZF to need many blocks
+        assertThat(TestVcf.text(lines).length()).isGreaterThan(10 * 64 * 1024);
+        assertThat(TestVcf.readAll(plain)).isEqualTo(lines);
+        assertThat(TestVcf.readAll(gzip)).isEqualTo(lines);
+        assertThat(TestVcf.readAll(bgzf)).isEqualTo(lines);
+    }
+    
+    @Test
+    void readsHeader() throws IOException {
+        Path vcf = TestVcf.writeIndexed(directory.resolve("header.vcf.gz"), records(3));
+        
+        try (VcfReader reader = VcfReader.open(vcf)) {
+            assertThat(reader.getHeader().getIds("contig")).containsExactly("chr1", "chr2");
+            assertThat(reader.getHeader().getIds("INFO")).contains("DP", "QD", "END");
+            assertThat(reader.getHeader().getSampleNames()).isEmpty();
+            assertThat(reader.getHeader().toText()).isEqualTo(TestVcf.HEADER);
+            assertThat(reader.isIndexable()).isTrue();
+        }
+    }
+    
+    @Test
+    void readsLinesStraddlingBlocks() throws IOException {
+        List<String> lines = new ArrayList<>(records(50));
+        // Longer than a block and than the initial carry buffer
+        lines.add(25, TestVcf.record("chr1", 2_000_000, "A", "G", "DP=1;NOTE=" + "x".repeat(150_000)));
+        
+        // Every line is split over two blocks, the long one over at least three
+        Path vcf = directory.resolve("split.vcf.gz");
+        try (BgzfOutputStream out = new BgzfOutputStream(Files.newOutputStream(vcf), 5)) {
+            out.write(TestVcf.HEADER.getBytes(StandardCharsets.ISO_8859_1));
+            for (String line : lines) {
+                byte[] bytes = (line + "\n").getBytes(StandardCharsets.ISO_8859_1);
+                int half = bytes.length / 2;
+                out.write(bytes, 0, half);
+                out.endBlock();
+                out.write(bytes, half, bytes.length - half);
+            }
+        }
+        
+        assertThat(TestVcf.readAll(vcf)).isEqualTo(lines);
+    }
+    
+    @Test
+    void skipsEmptyLinesAndCarriageReturns() throws IOException {
+        Path vcf = directory.resolve("crlf.vcf");
+        Files.writeString(vcf, TestVcf.HEADER + "chr1\t1\t.\tA\tG\t50\t.\tDP=1\r\n\nchr1\t2\t.\tC\tT\t50\t.\tDP=2",
+                StandardCharsets.ISO_8859_1);
+        
+        assertThat(TestVcf.readAll(vcf)).containsExactly(
+                "chr1\t1\t.\tA\tG\t50\t.\tDP=1", "chr1\t2\t.\tC\tT\t50\t.\tDP=2");
+    }
+    
+    @Test
+    void offsetsPointAtTheirRecords() throws IOException {
+        List<String> lines = records(20_000);
+        Path vcf = TestVcf.writeIndexed(directory.resolve("offsets.vcf.gz"), lines);
+        
+        List<Long> offsets = new ArrayList<>();
+        try (VcfReader reader = VcfReader.open(vcf)) {
+            while (reader.next()) {
+                offsets.add(reader.getRecord().getOffset());
+            }
+        }
+        
+        assertThat(offsets).hasSize(lines.size()).isSorted();
+        try (BgzfBlockReader blocks = new BgzfBlockReader(vcf)) {
+            for (int i = 0; i < lines.size(); i += 97) {
+                byte[] expected = (lines.get(i) + "\n").getBytes(StandardCharsets.ISO_8859_1);
+                assertThat(readAt(blocks, offsets.get(i), expected.length)).as("record %d", i).isEqualTo(expected);
+            }
+        }
+    }
+    
+    @Test
+    void readsBgzfBlocksWithAddresses() throws IOException {
+        Path file = directory.resolve("blocks.gz");
+        try (BgzfOutputStream out = new BgzfOutputStream(Files.newOutputStream(file), 5)) {
+            out.write("first".getBytes(StandardCharsets.US_ASCII));
+            out.endBlock();
+            out.write("second".getBytes(StandardCharsets.US_ASCII));
+        }
+        
+        try (BgzfBlockReader blocks = new BgzfBlockReader(file)) {
+            assertThat(blocks.next()).isTrue();
+            assertThat(new String(blocks.data(), 0, blocks.length(), StandardCharsets.US_ASCII)).isEqualTo("first");
+            assertThat(blocks.addressOf(2)).isEqualTo(2);
+            long secondBlock = blocks.addressOf(blocks.length());
+            
+            assertThat(blocks.next()).isTrue();
+            assertThat(new String(blocks.data(), 0, blocks.length(), StandardCharsets.US_ASCII)).isEqualTo("second");
+            assertThat(blocks.addressOf(0)).isEqualTo(secondBlock);
+            
+            // The EOF block carries no data
+            assertThat(blocks.next()).isFalse();
+            
+            assertThat(blocks.seek(secondBlock | 3)).isEqualTo(3);
+            assertThat(blocks.data()[3]).isEqualTo((byte) 'o');
+        }
+    }
+    
+    @Test
+    void rejectsTruncatedBgzf() throws IOException {
+        Path vcf = TestVcf.writeIndexed(directory.resolve("truncated.vcf.gz"), records(2_000));
+        byte[] bytes = Files.readAllBytes(vcf);
+        Files.write(vcf, Arrays.copyOf(bytes, bytes.length / 2));
+        
+        assertThatThrownBy(() -> TestVcf.readAll(vcf)).isInstanceOf(IOException.class);
+    }
+    
+    @Test
+    void rejectsFilesWithoutColumnLine() throws IOException {
+        Path vcf = directory.resolve("no-header.vcf");
+        Files.writeString(vcf, "##fileformat=VCFv4.2\nchr1\t1\t.\tA\tG\t50\t.\t.\n");
+        
+        assertThatThrownBy(() -> VcfReader.open(vcf)).isInstanceOf(VcfFormatException.class);
+    }
+    
+    /**
+     * Builds sorted records on two contigs with varied INFO lengths.
+     */
+    static List<String> records(int count) {
+        Random random = new Random(count);
+        List<String> lines = new ArrayList<>();
+        long pos = 0;
+        for (int i = 0; i < count; i++) {
+            String chrom = i < count / 2 ? "chr1" : "chr2";
+            pos = i == count / 2 ? 1 : pos + 1 + random.nextInt(5_000);
+            lines.add(TestVcf.record(chrom, pos, "A", "G", "DP=" + random.nextInt(100) + ";QD="
+                    + random.nextInt(40) + "." + random.nextInt(100) + ";TAG=" + "z".repeat(random.nextInt(60))));
+        }
+        return lines;
+    }
+    
+    private static byte[] readAt(BgzfBlockReader blocks, long address, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int position = blocks.seek(address);
+        while (bytes.size() < count) {
+            int copied = Math.min(count - bytes.size(), blocks.length() - position);
+            bytes.write(blocks.data(), position, copied);
+            if (bytes.size() < count && !blocks.next()) {
+                break;
+            }
+            position = 0;
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,169 @@
+package com.minhhn.vcf;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VcfRecordTest {
+    
+    @Test
+    void decodesFixedFields() {
+        VcfRecord record = parse("chr1\t12345\trs1\tAC\tA,ACT\t37.5\tPASS\tDP=10");
+        
+        assertThat(record.getChrom()).isEqualTo("chr1");
+        assertThat(record.getPos()).isEqualTo(12345);
+        assertThat(record.getId()).isEqualTo("rs1");
+        assertThat(record.getRef()).isEqualTo("AC");
+        assertThat(record.getAlt()).isEqualTo("A,ACT");
+        assertThat(record.getAltCount()).isEqualTo(2);
+        assertThat(record.getAltAllele(1)).isEqualTo("ACT");
+        assertThat(record.getQual()).isEqualTo(37.5);
+        assertThat(record.isPass()).isTrue();
+        assertThat(record.isFiltered()).isFalse();
+        assertThat(record.getEnd()).isEqualTo(12346);
+    }
+    
+    @Test
+    void readsInfoFlagsAndValues() {
+        VcfRecord record = parse("chr1\t1\t.\tA\tG\t50\t.\tDB;DPX=3;DP=7;AF=0.5,0.25;SOMATIC");
+        
+        assertThat(record.hasInfo("DB")).isTrue();
+        assertThat(record.getInfo("DB")).isEmpty();
+        assertThat(record.getInfoDouble("DB")).isNaN();
+        assertThat(record.hasInfo("SOMATIC")).isTrue();
+        assertThat(record.getInfo("SOMATIC")).isEmpty();
+        
+        // Keys match whole, not by prefix
+        assertThat(record.hasInfo("D")).isFalse();
+        assertThat(record.getInfo("DP")).isEqualTo("7");
+        assertThat(record.getInfoDouble("DPX")).isEqualTo(3.0);
+        
+        // The first value of a list
+        assertThat(record.getInfo("AF")).isEqualTo("0.5,0.25");
+        assertThat(record.getInfoDouble("AF")).isEqualTo(0.5);
+        
+        assertThat(record.hasInfo("MQ")).isFalse();
+        assertThat(record.getInfo("MQ")).isNull();
+        assertThat(record.getInfoDouble("MQ")).isNaN();
+    }
+    
+    @Test
+    void treatsMissingValuesAsNan() {
+        VcfRecord record = parse("chr1\t1\t.\tA\t.\t.\t.\tQD=.;FS=;MQ=inf");
+        
+        assertThat(record.getQual()).isNaN();
+        assertThat(record.getAltCount()).isZero();
+        assertThat(record.isPass()).isFalse();
+        assertThat(record.isFiltered()).isFalse();
+        assertThat(record.getInfoDouble("QD")).isNaN();
+        assertThat(record.getInfoDouble("FS")).isNaN();
+        assertThat(record.getInfoDouble("MQ")).isEqualTo(Double.POSITIVE_INFINITY);
+        
+        String[] keys = {"QD", "FS", "MQ", "DP"};
+        double[] values = new double[keys.length];
+        record.getInfoDoubles(keys, values);
+        assertThat(values[0]).isNaN();
+        assertThat(values[1]).isNaN();
+        assertThat(values[2]).isEqualTo(Double.POSITIVE_INFINITY);
+        assertThat(values[3]).isNaN();
+    }
+    
+    @Test
+    void treatsMissingInfoColumnAsEmpty() {
+        VcfRecord record = parse("chr1\t1\t.\tA\tG\t50\tLowQual\t.");
+        
+        assertThat(record.hasInfo("DP")).isFalse();
+        assertThat(record.getInfoDouble("DP")).isNaN();
+        assertThat(record.isFiltered()).isTrue();
+    }
+    
+    @Test
+    void readsEndOfSymbolicRecords() {
+        VcfRecord record = parse("chr1\t100\t.\tN\t<DEL>\t50\tPASS\tSVTYPE=DEL;END=500");
+        assertThat(record.getEnd()).isEqualTo(500);
+        
+        // An END before POS is ignored
+        record = parse("chr1\t100\t.\tACG\tA\t50\tPASS\tEND=5");
+        assertThat(record.getEnd()).isEqualTo(102);
+    }
+    
+    @Test
+    void readsFormatValuesOfSamples() {
+        VcfRecord record = parse("chr1\t1\t.\tA\tG\t50\tPASS\t.\tGT:DP:GQ\t0/1:12:99\t./.:.\t1/1:30:80");
+        
+        assertThat(record.getSampleCount()).isEqualTo(3);
+        assertThat(record.getGenotype(0)).isEqualTo("0/1");
+        assertThat(record.getFormat(0, "GQ")).isEqualTo("99");
+        assertThat(record.getGenotype(1)).isEqualTo("./.");
+        assertThat(record.getFormat(1, "DP")).isEqualTo(".");
+        
+        // Trailing values may be dropped
+        assertThat(record.getFormat(1, "GQ")).isNull();
+        assertThat(record.getFormat(2, "DP")).isEqualTo("30");
+        assertThat(record.getFormat(0, "AD")).isNull();
+        assertThatThrownBy(() -> record.getFormat(3, "GT")).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+    
+    @Test
+    void sitesOnlyRecordsHaveNoSamples() {
+        assertThat(parse("chr1\t1\t.\tA\tG\t50\tPASS\tDP=1").getSampleCount()).isZero();
+    }
+    
+    @Test
+    void classifiesVariantTypes() {
+        assertThat(type("A", "G")).isEqualTo(VariantType.SNP);
+        assertThat(type("A", "G,T")).isEqualTo(VariantType.SNP);
+        assertThat(type("AC", "GT")).isEqualTo(VariantType.MNP);
+        assertThat(type("AC", "GT,CA")).isEqualTo(VariantType.MNP);
+        assertThat(type("AC", "A")).isEqualTo(VariantType.INDEL);
+        assertThat(type("A", "AT,ATT")).isEqualTo(VariantType.INDEL);
+        
+        // Alleles of different types, including an MNP next to a SNP or an indel
+        assertThat(type("A", "G,AT")).isEqualTo(VariantType.MIXED);
+        assertThat(type("AC", "GT,A")).isEqualTo(VariantType.MIXED);
+        assertThat(type("A", "G,<NON_REF>")).isEqualTo(VariantType.MIXED);
+        
+        // The spanning deletion does not count as an allele of its own
+        assertThat(type("A", "*")).isEqualTo(VariantType.NO_VARIATION);
+        assertThat(type("A", ".")).isEqualTo(VariantType.NO_VARIATION);
+        assertThat(type("A", "G,*")).isEqualTo(VariantType.SNP);
+        assertThat(type("AC", "*,A")).isEqualTo(VariantType.INDEL);
+        
+        assertThat(type("N", "<DEL>")).isEqualTo(VariantType.SYMBOLIC);
+        assertThat(type("N", "<DUP:TANDEM>,<DEL>")).isEqualTo(VariantType.SYMBOLIC);
+        assertThat(type("G", "G]chr2:100]")).isEqualTo(VariantType.SYMBOLIC);
+        assertThat(type("G", "]chr2:100]G")).isEqualTo(VariantType.SYMBOLIC);
+        assertThat(type("G", "G[chr2:100[")).isEqualTo(VariantType.SYMBOLIC);
+        assertThat(type("G", "[chr2:100[G")).isEqualTo(VariantType.SYMBOLIC);
+        // Single breakends
+        assertThat(type("G", ".G")).isEqualTo(VariantType.SYMBOLIC);
+        assertThat(type("G", "G.")).isEqualTo(VariantType.SYMBOLIC);
+    }
+    
+    @Test
+    void rejectsShortLinesAndInvalidPositions() {
+        assertThatThrownBy(() -> parse("chr1\t1\t.\tA\tG\t50\tPASS"))
+                .isInstanceOf(VcfFormatException.class)
+                .hasMessageContaining("7 columns");
+        assertThatThrownBy(() -> parse("chr1\tx\t.\tA\tG\t50\tPASS\t."))
+                .isInstanceOf(VcfFormatException.class)
+                .hasMessageContaining("invalid POS");
+    }
+    
+    private static VariantType type(String ref, String alt) {
+        return parse("chr1\t100\t.\t" + ref + "\t" + alt + "\t50\tPASS\t.").getType();
+    }
+    
+    /**
+     * Parses a line from within a larger buffer, as a reader does.
+     */
+    static VcfRecord parse(String line) {
+        byte[] bytes = ("##\n" + line + "\n").getBytes(StandardCharsets.ISO_8859_1);
+        VcfRecord record = new VcfRecord();
+        record.parse(bytes, 3, bytes.length - 1, -1, 1);
+        return record;
+    }
+}
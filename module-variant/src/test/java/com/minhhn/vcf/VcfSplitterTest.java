@@ -0,0 +1,195 @@
+package com.minhhn.vcf;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VcfSplitterTest {
+    
+    // REF and ALT of a record of each type
+    private static final Map<VariantType, String[]> ALLELES = new EnumMap<>(Map.of(
+            VariantType.SNP, new String[] {"A", "G"},
+            VariantType.MNP, new String[] {"AC", "GT"},
+            VariantType.INDEL, new String[] {"AC", "A"},
+            VariantType.MIXED, new String[] {"A", "G,AT"},
+            VariantType.SYMBOLIC, new String[] {"N", "<DEL>"},
+            VariantType.NO_VARIATION, new String[] {"A", "*"}));
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void routesEveryRecordToTheOutputOfItsType() throws IOException {
+        List<String> lines = records(5_000, new Random(1));
+        Path input = TestVcf.writeIndexed(directory.resolve("input.vcf.gz"), lines);
+        Map<VariantType, Path> outputs = Map.of(
+                VariantType.SNP, directory.resolve("snps.vcf.gz"),
+                VariantType.INDEL, directory.resolve("indels.vcf"),
+                VariantType.MIXED, directory.resolve("mixed.vcf.gz"));
+        
+        VcfSplitter.Result result = new VcfSplitter(64).split(input, outputs);
+        
+        assertThat(result.records()).isEqualTo(lines.size());
+        for (VariantType type : VariantType.values()) {
+            assertThat(result.counts().get(type)).as(type.name()).isEqualTo(ofType(lines, type).size());
+        }
+        for (Map.Entry<VariantType, Path> output : outputs.entrySet()) {
+            assertThat(TestVcf.readAll(output.getValue())).as(output.getKey().name())
+                    .isEqualTo(ofType(lines, output.getKey()));
+            try (VcfReader reader = VcfReader.open(output.getValue())) {
+                assertThat(reader.getHeader().toText()).isEqualTo(TestVcf.HEADER);
+            }
+        }
+        assertThat(Path.of(outputs.get(VariantType.INDEL) + ".tbi")).doesNotExist();
+        
+        // The index written along finds the records of a region
+        Path snps = outputs.get(VariantType.SNP);
+        Region region = new Region("chr2", 10_000, 40_000);
+        List<String> found = new ArrayList<>();
+        try (VcfReader reader = VcfReader.open(snps)) {
+            reader.query(TabixIndex.read(Path.of(snps + ".tbi")), region.contig(), region.start(), region.end());
+            while (reader.next()) {
+                found.add(reader.getRecord().toString());
+            }
+        }
+        assertThat(found).isNotEmpty().isEqualTo(ofType(lines, VariantType.SNP).stream()
+                .filter(line -> overlaps(region, line))
+                .toList());
+    }
+    
+    @Test
+    void countsOnlyRecordsOfTheRegions() throws IOException {
+        List<String> lines = records(2_000, new Random(2));
+        Path input = TestVcf.writePlain(directory.resolve("input.vcf"), lines);
+        List<Region> regions = List.of(new Region("chr1", 1_000, 5_000));
+        
+        VcfSplitter.Result result = new VcfSplitter(16).split(input,
+                Map.of(VariantType.SNP, directory.resolve("snps.vcf")), regions);
+        
+        // Deletions starting before the region overlap it too
+        List<String> inRegion = lines.stream().filter(line -> overlaps(regions.get(0), line)).toList();
+        assertThat(inRegion.get(0)).satisfies(line -> assertThat(position(line)).isLessThan(1_000));
+        assertThat(result.records()).isEqualTo(inRegion.size());
+        assertThat(TestVcf.readAll(directory.resolve("snps.vcf"))).isEqualTo(ofType(inRegion, VariantType.SNP));
+    }
+    
+    @Test
+    void keepsRecordOrderWithSingleRecordBatches() throws IOException {
+        List<String> lines = records(3_000, new Random(3));
+        Path input = TestVcf.writePlain(directory.resolve("input.vcf"), lines);
+        Map<VariantType, Path> outputs = new EnumMap<>(VariantType.class);
+        for (VariantType type : VariantType.values()) {
+            outputs.put(type, directory.resolve(type.name().toLowerCase() + ".vcf.gz"));
+        }
+        
+        new VcfSplitter(1).split(input, outputs);
+        
+        for (VariantType type : VariantType.values()) {
+            assertThat(TestVcf.readAll(outputs.get(type))).as(type.name()).isEqualTo(ofType(lines, type));
+        }
+    }
+    
+    @Test
+    void fillsTheOutputQueueWhileTheWriterIsBlocked() throws Exception {
+        // Until the test opens the pipe, the writer cannot even open its output, so the reader hands
+        // over every batch it has and then the end marker: the most the queue is ever asked to hold
+        Path pipe = directory.resolve("snps.vcf");
+        assumeTrue(new ProcessBuilder("mkfifo", pipe.toString()).start().waitFor() == 0, "mkfifo is not available");
+        
+        int batchSize = 50;
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 3 * batchSize + 1; i++) {
+            lines.add(TestVcf.record("chr1", i + 1, "A", "G", "DP=" + i));
+        }
+        Path input = TestVcf.writePlain(directory.resolve("input.vcf"), lines);
+        
+        CompletableFuture<VcfSplitter.Result> split = CompletableFuture.supplyAsync(() -> {
+            try {
+                return new VcfSplitter(batchSize).split(input, Map.of(VariantType.SNP, pipe));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(500);
+        assertThat(split).isNotDone();
+        
+        // Java file streams try to seek on a pipe, so it is read through cat
+        Process cat = new ProcessBuilder("cat", pipe.toString()).start();
+        byte[] written;
+        try (InputStream in = cat.getInputStream()) {
+            written = in.readAllBytes();
+        }
+        assertThat(cat.waitFor()).isZero();
+        assertThat(split.get().records()).isEqualTo(lines.size());
+        assertThat(new String(written, StandardCharsets.ISO_8859_1)).isEqualTo(TestVcf.text(lines));
+    }
+    
+    @Test
+    void stopsAndRemovesOutputsWhenAWriterFails() throws IOException {
+        List<String> lines = records(5_000, new Random(4));
+        Path input = TestVcf.writePlain(directory.resolve("input.vcf"), lines);
+        // The writer of indels fails at once, while the reader still has many batches for it
+        Path indels = Files.createDirectory(directory.resolve("indels.vcf.gz"));
+        assertThat(ofType(lines, VariantType.INDEL)).hasSizeGreaterThan(10 * 10);
+        
+        Map<VariantType, Path> outputs = Map.of(
+                VariantType.SNP, directory.resolve("snps.vcf.gz"),
+                VariantType.INDEL, indels);
+        assertThatThrownBy(() -> new VcfSplitter(10).split(input, outputs))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("indels.vcf.gz");
+        
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.map(path -> path.getFileName().toString())).containsExactly("input.vcf");
+        }
+    }
+    
+    /**
+     * Builds sorted records of random types on two contigs.
+     */
+    private static List<String> records(int count, Random random) {
+        VariantType[] types = VariantType.values();
+        List<String> lines = new ArrayList<>();
+        long pos = 0;
+        for (int i = 0; i < count; i++) {
+            String chrom = i < count / 2 ? "chr1" : "chr2";
+            pos = i == count / 2 ? 1 : pos + 1 + random.nextInt(20);
+            // Mostly SNPs and indels, like a real call set
+            VariantType type = random.nextInt(3) == 0 ? types[random.nextInt(types.length)]
+                    : random.nextBoolean() ? VariantType.SNP : VariantType.INDEL;
+            String[] alleles = ALLELES.get(type);
+            String end = type == VariantType.SYMBOLIC ? ";END=" + (pos + 500) : "";
+            lines.add(TestVcf.record(chrom, pos, alleles[0], alleles[1], "DP=" + random.nextInt(60) + end));
+        }
+        return lines;
+    }
+    
+    private static List<String> ofType(List<String> lines, VariantType type) {
+        return lines.stream().filter(line -> VcfRecordTest.parse(line).getType() == type).toList();
+    }
+    
+    private static boolean overlaps(Region region, String line) {
+        VcfRecord record = VcfRecordTest.parse(line);
+        return region.overlaps(record.getChrom(), record.getPos(), record.getEnd());
+    }
+    
+    private static long position(String line) {
+        return Long.parseLong(line.split("\t")[1]);
+    }
+}